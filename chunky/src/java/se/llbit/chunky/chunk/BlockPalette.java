@@ -63,10 +63,16 @@ public class BlockPalette {
 
   private ReentrantLock lock = new ReentrantLock();
 
+  /** Cached array-backed snapshot of this palette, cleared when the palette changes. */
+  private volatile FrozenBlockPalette frozen = null;
+
   public BlockPalette(Map<BlockSpec, Integer> initialMap, List<Block> initialList) {
     this.blockMap = initialMap;
     this.palette = initialList;
     this.materialProperties = getDefaultMaterialProperties();
+    for (int i = 0; i < initialList.size(); ++i) {
+      initialList.get(i).paletteId = i;
+    }
     CompoundTag airTag = new CompoundTag();
     airTag.add("Name", new StringTag("minecraft:air"));
     CompoundTag stoneTag = new CompoundTag();
@@ -122,8 +128,10 @@ public class BlockPalette {
       id = palette.size();
       blockMap.put(spec, id);
       Block block = spec.toBlock();
+      block.paletteId = id;
       applyMaterial(block);
       palette.add(block);
+      frozen = null;
       return id;
     } finally {
       lock.unlock();
@@ -136,6 +144,26 @@ public class BlockPalette {
     return palette.get(id);
   }
 
+  /**
+   * Get an array-backed snapshot of this palette, with packed per-block flags for
+   * the octree traversal. The snapshot is cached until a block is added or the
+   * material properties are changed, see {@link #materialsChanged()}.
+   */
+  public FrozenBlockPalette freeze() {
+    FrozenBlockPalette view = frozen;
+    if (view == null) {
+      final ReentrantLock lock = this.lock;
+      lock.lock();
+      try {
+        view = new FrozenBlockPalette(palette, stone);
+        frozen = view;
+      } finally {
+        lock.unlock();
+      }
+    }
+    return view;
+  }
+
   /**
    * Get the block specification by its ID in this palette.
    * @param id ID of a block in this palette
@@ -218,7 +246,28 @@ public class BlockPalette {
   public void applyMaterial(Block block) {
     Consumer<Block> properties = materialProperties.get(block.name);
     if (properties != null) {
-      properties.accept(block);
+      final ReentrantLock lock = this.lock;
+      lock.lock();
+      try {
+        properties.accept(block);
+        frozen = null;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Drop the cached snapshot after the material properties of blocks in this palette
+   * were changed without going through the palette, e.g. by a material collection.
+   */
+  public void materialsChanged() {
+    final ReentrantLock lock = this.lock;
+    lock.lock();
+    try {
+      frozen = null;
+    } finally {
+      lock.unlock();
     }
   }
 
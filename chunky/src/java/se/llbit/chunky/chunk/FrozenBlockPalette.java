@@ -0,0 +1,108 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.chunk;
+
+import se.llbit.chunky.block.Air;
+import se.llbit.chunky.block.Block;
+
+import java.util.List;
+
+/**
+ * An immutable, array-backed snapshot of a {@link BlockPalette}.
+ *
+ * <p>Besides the blocks themselves this stores a byte of flags per block ID, so that
+ * the octree traversal can decide most steps without loading fields from the
+ * (polymorphic) block objects. The flags reflect the block properties at the time
+ * the snapshot was taken; use {@link BlockPalette#freeze()} to get an up to date
+ * snapshot.
+ */
+public final class FrozenBlockPalette {
+  public static final int OPAQUE = 1;
+  public static final int LOCAL_INTERSECT = 1 << 1;
+  public static final int WATER_FILLED = 1 << 2;
+  public static final int WATER = 1 << 3;
+  public static final int EMISSIVE = 1 << 4;
+  public static final int INVISIBLE = 1 << 5;
+  public static final int AIR = 1 << 6;
+
+  private final Block[] blocks;
+  private final byte[] flags;
+  private final Block stone;
+  private final byte stoneFlags;
+
+  FrozenBlockPalette(List<Block> palette, Block stone) {
+    blocks = palette.toArray(new Block[0]);
+    flags = new byte[blocks.length];
+    for (int i = 0; i < blocks.length; ++i) {
+      flags[i] = flagsOf(blocks[i]);
+    }
+    this.stone = stone;
+    stoneFlags = flagsOf(stone);
+  }
+
+  private static byte flagsOf(Block block) {
+    int flags = 0;
+    if (block.opaque) {
+      flags |= OPAQUE;
+    }
+    if (block.localIntersect) {
+      flags |= LOCAL_INTERSECT;
+    }
+    if (block.isWaterFilled()) {
+      flags |= WATER_FILLED;
+    }
+    if (block.isWater()) {
+      flags |= WATER;
+    }
+    if (block.emittance > 1e-4) {
+      flags |= EMISSIVE;
+    }
+    if (block.invisible) {
+      flags |= INVISIBLE;
+    }
+    if (block == Air.INSTANCE) {
+      flags |= AIR;
+    }
+    return (byte) flags;
+  }
+
+  /**
+   * @return the block with the given ID, or stone for {@link BlockPalette#ANY_ID}
+   */
+  public Block get(int id) {
+    if (id == BlockPalette.ANY_ID) {
+      return stone;
+    }
+    return blocks[id];
+  }
+
+  /**
+   * @return the packed flags of the block with the given ID, or 0 if the ID is not
+   * in this palette
+   */
+  public int flags(int id) {
+    if (id >= 0 && id < flags.length) {
+      return flags[id];
+    }
+    return id == BlockPalette.ANY_ID ? stoneFlags : 0;
+  }
+
+  /** @return the number of blocks in this palette */
+  public int size() {
+    return blocks.length;
+  }
+}
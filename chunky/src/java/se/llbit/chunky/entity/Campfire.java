@@ -1,5 +1,6 @@
 package se.llbit.chunky.entity;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 import se.llbit.chunky.model.Model;
@@ -9,6 +10,7 @@ import se.llbit.chunky.world.material.TextureMaterial;
 import se.llbit.json.JsonObject;
 import se.llbit.json.JsonValue;
 import se.llbit.math.*;
+import se.llbit.math.primitive.InstancedPrimitive;
 import se.llbit.math.primitive.Primitive;
 import se.llbit.util.JsonUtil;
 
@@ -277,22 +279,28 @@ public class Campfire extends Entity {
 
   @Override
   public Collection<Primitive> primitives(Vector3 offset) {
-    Collection<Primitive> faces = new LinkedList<>();
-    Transform transform = Transform.NONE
-        .translate(position.x + offset.x, position.y + offset.y, position.z + offset.z);
-    int facing = getOrientationIndex(this.facing);
-    Texture[] textures =
-        isLit ? (kind == Kind.SOUL_CAMPFIRE ? texLitSoulCampfire : texLitCampfire) : tex;
-    for (int i = 0; i < orientedQuads[facing].length - 4; i++) {
-      Material material = new TextureMaterial(textures[i]);
-      orientedQuads[facing][i].addTriangles(faces, material, transform);
-    }
-    if (isLit) {
-      for (int i = orientedQuads[facing].length - 4; i < orientedQuads[facing].length; i++) {
-        orientedQuads[facing][i].addTriangles(faces, kind.flameMaterial, transform);
+    // Campfires of the same kind, facing and state share their geometry.
+    Object key = Arrays.asList("campfire", kind, facing, isLit);
+    Vector3 translation = new Vector3(position);
+    translation.add(offset);
+    Collection<Primitive> primitives = new LinkedList<>();
+    primitives.add(InstancedPrimitive.instance(key, translation, () -> {
+      Collection<Primitive> faces = new LinkedList<>();
+      int facing = getOrientationIndex(this.facing);
+      Texture[] textures =
+          isLit ? (kind == Kind.SOUL_CAMPFIRE ? texLitSoulCampfire : texLitCampfire) : tex;
+      for (int i = 0; i < orientedQuads[facing].length - 4; i++) {
+        Material material = new TextureMaterial(textures[i]);
+        orientedQuads[facing][i].addTriangles(faces, material, Transform.NONE);
       }
-    }
-    return faces;
+      if (isLit) {
+        for (int i = orientedQuads[facing].length - 4; i < orientedQuads[facing].length; i++) {
+          orientedQuads[facing][i].addTriangles(faces, kind.flameMaterial, Transform.NONE);
+        }
+      }
+      return faces;
+    }));
+    return primitives;
   }
 
   @Override
@@ -20,6 +20,7 @@ package se.llbit.chunky.entity;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
@@ -37,6 +38,7 @@ import se.llbit.math.QuickMath;
 import se.llbit.math.Transform;
 import se.llbit.math.Vector3;
 import se.llbit.math.primitive.Box;
+import se.llbit.math.primitive.InstancedPrimitive;
 import se.llbit.math.primitive.Primitive;
 import se.llbit.util.mojangapi.MojangApi;
 
@@ -74,6 +76,19 @@ public class HeadEntity extends Entity {
 
   @Override
   public Collection<Primitive> primitives(Vector3 offset) {
+    // Heads with the same skin and placement share their geometry.
+    Object key = Arrays.asList("head", skin, placement, rotation);
+    Vector3 translation = new Vector3(position);
+    translation.add(offset);
+    Collection<Primitive> primitives = new LinkedList<>();
+    primitives.add(InstancedPrimitive.instance(key, translation, this::localPrimitives));
+    return primitives;
+  }
+
+  /**
+   * @return the head geometry relative to the head position
+   */
+  private Collection<Primitive> localPrimitives() {
     PlayerTexture texture = Texture.steve;
     if (skin != null && !skin.isEmpty()) {
       texture = downloadSkin();
@@ -85,9 +100,7 @@ public class HeadEntity extends Entity {
       wallHeight = 4 / 16.;
     }
     Transform transform = Transform.NONE
-        .translate(position.x + offset.x + 0.5,
-            position.y + offset.y + 4 / 16. + wallHeight,
-            position.z + offset.z + 0.5);
+        .translate(0.5, 4 / 16. + wallHeight, 0.5);
     Box head = new Box(-4 / 16., 4 / 16., -4 / 16., 4 / 16., -4 / 16., 4 / 16.);
     Box hat = new Box(-4.25 / 16., 4.25 / 16., -4.25 / 16., 4.25 / 16., -4.25 / 16., 4.25 / 16.);
     switch (placement) {
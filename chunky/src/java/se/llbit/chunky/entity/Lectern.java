@@ -1,5 +1,6 @@
 package se.llbit.chunky.entity;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 import se.llbit.chunky.model.Model;
@@ -11,6 +12,7 @@ import se.llbit.math.Quad;
 import se.llbit.math.Transform;
 import se.llbit.math.Vector3;
 import se.llbit.math.Vector4;
+import se.llbit.math.primitive.InstancedPrimitive;
 import se.llbit.math.primitive.Primitive;
 import se.llbit.util.JsonUtil;
 
@@ -171,18 +173,26 @@ public class Lectern extends Entity implements Poseable {
 
   @Override
   public Collection<Primitive> primitives(Vector3 offset) {
+    // Lecterns with the same facing share their geometry. The book is posed
+    // individually, so it is not part of the shared model.
+    Object key = Arrays.asList("lectern", facing);
+    Vector3 translation = new Vector3(position);
+    translation.add(offset);
     Collection<Primitive> faces = new LinkedList<>();
-    Transform transform = Transform.NONE
-        .translate(position.x + offset.x, position.y + offset.y, position.z + offset.z);
-    int facing = getOrientationIndex(this.facing);
-    for (int i = 0; i < orientedQuads[facing].length; i++) {
-      orientedQuads[facing][i].addTriangles(faces, new TextureMaterial(tex[i]), transform);
-    }
-    for (int i = 0; i < orientedTopQuads[facing].length; i++) {
-      orientedTopQuads[facing][i]
-          .addTriangles(faces, new TextureMaterial(tex[i + orientedQuads[facing].length]),
-              transform);
-    }
+    faces.add(InstancedPrimitive.instance(key, translation, () -> {
+      Collection<Primitive> triangles = new LinkedList<>();
+      int facing = getOrientationIndex(this.facing);
+      for (int i = 0; i < orientedQuads[facing].length; i++) {
+        orientedQuads[facing][i]
+            .addTriangles(triangles, new TextureMaterial(tex[i]), Transform.NONE);
+      }
+      for (int i = 0; i < orientedTopQuads[facing].length; i++) {
+        orientedTopQuads[facing][i]
+            .addTriangles(triangles, new TextureMaterial(tex[i + orientedQuads[facing].length]),
+                Transform.NONE);
+      }
+      return triangles;
+    }));
 
     if (book != null) {
       faces.addAll(book.primitives(offset));
@@ -28,12 +28,14 @@ import se.llbit.json.JsonParser;
 import se.llbit.json.JsonParser.SyntaxError;
 import se.llbit.json.JsonValue;
 import se.llbit.math.*;
+import se.llbit.math.primitive.InstancedPrimitive;
 import se.llbit.math.primitive.Primitive;
 import se.llbit.nbt.CompoundTag;
 import se.llbit.nbt.Tag;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -258,14 +260,20 @@ public class SignEntity extends Entity {
   }
 
   @Override public Collection<Primitive> primitives(Vector3 offset) {
+    // Signs with the same text, rotation and material share their geometry.
+    Object key = Arrays.asList("sign", angle, material, textToJson(text).toCompactString());
+    Vector3 translation = new Vector3(position);
+    translation.add(offset);
     Collection<Primitive> primitives = new LinkedList<>();
-    Transform transform = Transform.NONE
-        .translate(position.x + offset.x, position.y + offset.y, position.z + offset.z);
-    for (int i = 0; i < sides.length; ++i) {
-      Quad quad = rot[angle][i];
-      Material material = new TextureMaterial(i == 0 ? frontTexture : texture);
-      quad.addTriangles(primitives, material, transform);
-    }
+    primitives.add(InstancedPrimitive.instance(key, translation, () -> {
+      Collection<Primitive> faces = new LinkedList<>();
+      for (int i = 0; i < sides.length; ++i) {
+        Quad quad = rot[angle][i];
+        Material material = new TextureMaterial(i == 0 ? frontTexture : texture);
+        quad.addTriangles(faces, material, Transform.NONE);
+      }
+      return faces;
+    }));
     return primitives;
   }
 
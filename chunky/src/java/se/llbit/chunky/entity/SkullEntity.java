@@ -29,8 +29,10 @@ import se.llbit.math.Transform;
 import se.llbit.math.Vector3;
 import se.llbit.math.Vector4;
 import se.llbit.math.primitive.Box;
+import se.llbit.math.primitive.InstancedPrimitive;
 import se.llbit.math.primitive.Primitive;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 
@@ -274,15 +276,26 @@ public class SkullEntity extends Entity {
   }
 
   @Override public Collection<Primitive> primitives(Vector3 offset) {
+    // Skulls of the same type and placement share their geometry.
+    Object key = Arrays.asList("skull", type, placement, rotation);
+    Vector3 translation = new Vector3(position);
+    translation.add(offset);
+    Collection<Primitive> primitives = new LinkedList<>();
+    primitives.add(InstancedPrimitive.instance(key, translation, this::localPrimitives));
+    return primitives;
+  }
+
+  /**
+   * @return the skull geometry relative to the skull position
+   */
+  private Collection<Primitive> localPrimitives() {
     Collection<Primitive> faces = new LinkedList<>();
     double wallHeight = 0;
     if (placement >= 2) {
       wallHeight = 4 / 16.;
     }
     Transform transform = Transform.NONE
-        .translate(position.x + offset.x + 0.5,
-            position.y + offset.y + 4 / 16. + wallHeight,
-            position.z + offset.z + 0.5);
+        .translate(0.5, 4 / 16. + wallHeight, 0.5);
     switch (placement) {
       case 0:
         // Unused.
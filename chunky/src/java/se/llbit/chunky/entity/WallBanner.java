@@ -25,9 +25,11 @@ import se.llbit.math.Quad;
 import se.llbit.math.Transform;
 import se.llbit.math.Vector3;
 import se.llbit.math.Vector4;
+import se.llbit.math.primitive.InstancedPrimitive;
 import se.llbit.math.primitive.Primitive;
 import se.llbit.nbt.CompoundTag;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 
@@ -124,13 +126,19 @@ public class WallBanner extends Entity {
   }
 
   @Override public Collection<Primitive> primitives(Vector3 offset) {
+    // Banners with the same design and rotation share their geometry.
+    Object key = Arrays.asList("wall_banner", rotation, design.toCompactString());
+    Vector3 translation = new Vector3(position);
+    translation.add(offset);
     Collection<Primitive> faces = new LinkedList<>();
-    Transform transform = Transform.NONE
-        .translate(position.x + offset.x, position.y + offset.y, position.z + offset.z);
-    Material material = StandingBanner.getBannerTexture(design);
-    for (Quad quad : rot[rotation]) {
-      quad.addTriangles(faces, material, transform);
-    }
+    faces.add(InstancedPrimitive.instance(key, translation, () -> {
+      Collection<Primitive> triangles = new LinkedList<>();
+      Material material = StandingBanner.getBannerTexture(design);
+      for (Quad quad : rot[rotation]) {
+        quad.addTriangles(triangles, material, Transform.NONE);
+      }
+      return triangles;
+    }));
     return faces;
   }
 
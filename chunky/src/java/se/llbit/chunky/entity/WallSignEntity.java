@@ -17,6 +17,7 @@
  */
 package se.llbit.chunky.entity;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 
@@ -32,6 +33,7 @@ import se.llbit.math.Quad;
 import se.llbit.math.Transform;
 import se.llbit.math.Vector3;
 import se.llbit.math.Vector4;
+import se.llbit.math.primitive.InstancedPrimitive;
 import se.llbit.math.primitive.Primitive;
 import se.llbit.nbt.CompoundTag;
 
@@ -106,15 +108,22 @@ public class WallSignEntity extends Entity {
   }
 
   @Override public Collection<Primitive> primitives(Vector3 offset) {
+    // Wall signs with the same text, orientation and material share their geometry.
+    Object key = Arrays.asList("wallsign", orientation, material,
+        SignEntity.textToJson(text).toCompactString());
+    Vector3 translation = new Vector3(position);
+    translation.add(offset);
     Collection<Primitive> primitives = new LinkedList<>();
-    Transform transform = Transform.NONE
-        .translate(position.x + offset.x, position.y + offset.y, position.z + offset.z);
-    Quad[] quads = faces[orientation];
-    for (int i = 0; i < quads.length; ++i) {
-      Quad quad = quads[i];
-      Material material = new TextureMaterial(i == 0 ? frontTexture : texture);
-      quad.addTriangles(primitives, material, transform);
-    }
+    primitives.add(InstancedPrimitive.instance(key, translation, () -> {
+      Collection<Primitive> triangles = new LinkedList<>();
+      Quad[] quads = faces[orientation];
+      for (int i = 0; i < quads.length; ++i) {
+        Quad quad = quads[i];
+        Material material = new TextureMaterial(i == 0 ? frontTexture : texture);
+        quad.addTriangles(triangles, material, Transform.NONE);
+      }
+      return triangles;
+    }));
     return primitives;
   }
 
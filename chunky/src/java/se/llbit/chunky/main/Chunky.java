@@ -28,6 +28,9 @@ import se.llbit.chunky.plugin.ChunkyPlugin;
 import se.llbit.chunky.plugin.TabTransformer;
 import se.llbit.chunky.renderer.*;
 import se.llbit.chunky.renderer.RenderManager;
+import se.llbit.chunky.renderer.distributed.DistributedRenderCoordinator;
+import se.llbit.chunky.renderer.distributed.DistributedRenderWorker;
+import se.llbit.chunky.renderer.export.BandedExportFormat;
 import se.llbit.chunky.renderer.export.PictureExportFormat;
 import se.llbit.chunky.renderer.scene.AsynchronousSceneManager;
 import se.llbit.chunky.renderer.scene.Scene;
@@ -51,6 +54,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.ServerSocket;
 import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.Set;
@@ -90,6 +94,12 @@ public class Chunky {
 
   private static ForkJoinPool commonThreads;
 
+  /**
+   * Rows per tile and samples per pixel per work unit for distributed renders.
+   */
+  private static final int DISTRIBUTED_TILE_ROWS = 32;
+  private static final int DISTRIBUTED_UNIT_SPP = 16;
+
   /**
    * @return The title of the main window. Includes the current version string.
    */
@@ -112,6 +122,16 @@ public class Chunky {
     // TODO: This may not be needed after switching to JavaFX:
     System.setProperty("java.awt.headless", "true");
 
+    if (!options.coordinatorAddress.isEmpty()) {
+      return doWorkerRender();
+    }
+    if (options.coordinatorPort > 0) {
+      return doCoordinatorRender();
+    }
+    if (options.bandHeight > 0) {
+      return doBandedRender();
+    }
+
     HeadlessErrorTrackingLogger logger = new HeadlessErrorTrackingLogger();
     Log.setReceiver(logger, Level.INFO, Level.WARNING, Level.ERROR);
 
@@ -194,6 +214,195 @@ public class Chunky {
     }
   }
 
+  /**
+   * Start a headless render that renders the scene in horizontal bands and writes
+   * the image while rendering, so that the full image is never kept in memory.
+   *
+   * @return error code
+   */
+  private int doBandedRender() {
+    HeadlessErrorTrackingLogger logger = new HeadlessErrorTrackingLogger();
+    Log.setReceiver(logger, Level.INFO, Level.WARNING, Level.ERROR);
+
+    TaskTracker taskTracker = new TaskTracker(new ConsoleProgressListener());
+    RenderContext context = getRenderContextFactory().newRenderContext(this);
+    Scene scene = getSceneFactory().newScene();
+    scene.setBandedRender(true);
+    try {
+      if (!loadHeadlessScene(scene, context, logger, taskTracker)) {
+        return 1;
+      }
+      if (options.reloadChunks) {
+        scene.reloadChunks(taskTracker);
+      }
+      scene.importMaterials();
+
+      PictureExportFormat outputMode = scene.getOutputMode();
+      if (!(outputMode instanceof BandedExportFormat)) {
+        System.err.format("The output format %s does not support banded rendering.%n",
+            outputMode.getName());
+        return 1;
+      }
+      File output;
+      if (options.imageOutputFile.isEmpty()) {
+        File directory = new File(context.getSceneDirectory(), "snapshots");
+        if (!directory.isDirectory()) {
+          directory.mkdirs();
+        }
+        output = new File(directory, String.format("%s-%d%s", scene.name(),
+            scene.getTargetSpp(), outputMode.getExtension()));
+      } else {
+        output = new File(options.imageOutputFile);
+      }
+
+      long start = System.currentTimeMillis();
+      new BandedRender(context, scene, options.bandHeight)
+          .render(output, (BandedExportFormat) outputMode, taskTracker);
+      long time = System.currentTimeMillis() - start;
+      System.out.println("Render job finished.");
+      System.out.println(String.format("Total rendering time: %d hours, %d minutes, %d seconds",
+          time / 3600000, (time / 60000) % 60, (time / 1000) % 60));
+      System.out.println("Saved image to " + output);
+      return 0;
+    } catch (FileNotFoundException e) {
+      System.err.format("Scene \"%s\" not found!%n", options.sceneName);
+      e.printStackTrace();
+      return 1;
+    } catch (IOException e) {
+      System.err.format("IO error during banded render (%s)%n", e.getMessage());
+      e.printStackTrace();
+      return 1;
+    } catch (InterruptedException e) {
+      System.err.println("Interrupted during banded render");
+      e.printStackTrace();
+      return 1;
+    }
+  }
+
+  /**
+   * Load the scene given on the command line for a headless render that does not use
+   * the scene manager, and apply the target SPP option.
+   *
+   * @return {@code false} if the render should be aborted because of errors while
+   * loading the scene
+   */
+  private boolean loadHeadlessScene(Scene scene, RenderContext context,
+      HeadlessErrorTrackingLogger logger, TaskTracker taskTracker) throws IOException {
+    File sceneDirectory = SynchronousSceneManager.resolveSceneDirectory(options.sceneName);
+    if (sceneDirectory.isDirectory()) {
+      context.setSceneDirectory(sceneDirectory);
+    }
+    scene.loadScene(context, options.sceneName, taskTracker);
+    if (options.target != -1) {
+      scene.setTargetSpp(options.target);
+    }
+    if (logger.getNumErrors() > 0 && !options.force) {
+      System.err.println("\rAborting render due to errors while loading the scene.");
+      System.err.println("Run again with -f to render anyway.");
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Load the scene and hand out work units to distributed render workers. The scene
+   * is saved and a snapshot is written when the target SPP is reached.
+   */
+  private int doCoordinatorRender() {
+    HeadlessErrorTrackingLogger logger = new HeadlessErrorTrackingLogger();
+    Log.setReceiver(logger, Level.INFO, Level.WARNING, Level.ERROR);
+
+    TaskTracker taskTracker = new TaskTracker(new ConsoleProgressListener());
+    RenderContext context = getRenderContextFactory().newRenderContext(this);
+    Scene scene = getSceneFactory().newScene();
+    try (ServerSocket server = new ServerSocket(options.coordinatorPort)) {
+      if (!loadHeadlessScene(scene, context, logger, taskTracker)) {
+        return 1;
+      }
+      scene.importMaterials();
+      scene.startHeadlessRender();
+
+      long start = System.currentTimeMillis();
+      int[] savedSpp = { scene.spp };
+      new DistributedRenderCoordinator(scene, DISTRIBUTED_TILE_ROWS, DISTRIBUTED_UNIT_SPP)
+          .render(server, taskTracker, spp -> {
+            // Work units can be larger than the dump frequency, so save the render when
+            // the SPP passes a multiple of the dump frequency.
+            int frequency = Math.max(1, scene.getDumpFrequency());
+            if (spp < scene.getTargetSpp() && scene.shouldSaveDumps()
+                && spp / frequency > savedSpp[0] / frequency) {
+              savedSpp[0] = spp;
+              saveDistributedRender(scene, context, taskTracker);
+            }
+          });
+      saveDistributedRender(scene, context, taskTracker);
+      scene.saveSnapshot(new File(context.getSceneDirectory(), "snapshots"), taskTracker,
+          context.numRenderThreads());
+      long time = System.currentTimeMillis() - start;
+      System.out.println("Render job finished.");
+      System.out.println(String.format("Total rendering time: %d hours, %d minutes, %d seconds",
+          time / 3600000, (time / 60000) % 60, (time / 1000) % 60));
+      return 0;
+    } catch (FileNotFoundException e) {
+      System.err.format("Scene \"%s\" not found!%n", options.sceneName);
+      e.printStackTrace();
+      return 1;
+    } catch (IOException e) {
+      System.err.format("IO error during distributed render (%s)%n", e.getMessage());
+      e.printStackTrace();
+      return 1;
+    } catch (InterruptedException e) {
+      System.err.println("Interrupted during distributed render");
+      e.printStackTrace();
+      return 1;
+    }
+  }
+
+  private static void saveDistributedRender(Scene scene, RenderContext context,
+      TaskTracker taskTracker) {
+    try {
+      scene.saveScene(context, taskTracker);
+    } catch (IOException e) {
+      Log.error("Failed to save scene. Reason: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Connect to a distributed render coordinator and render work units for it.
+   */
+  private int doWorkerRender() {
+    String address = options.coordinatorAddress;
+    int separator = address.lastIndexOf(':');
+    if (separator < 0) {
+      System.err.println("The coordinator address must be on the form HOST:PORT");
+      return 1;
+    }
+    String host = address.substring(0, separator);
+    int port;
+    try {
+      port = Integer.parseInt(address.substring(separator + 1));
+    } catch (NumberFormatException e) {
+      System.err.println("Invalid coordinator port: " + address.substring(separator + 1));
+      return 1;
+    }
+
+    TaskTracker taskTracker = new TaskTracker(new ConsoleProgressListener());
+    RenderContext context = getRenderContextFactory().newRenderContext(this);
+    try {
+      new DistributedRenderWorker(context, getSceneFactory().newScene())
+          .run(host, port, taskTracker);
+      return 0;
+    } catch (IOException e) {
+      System.err.format("IO error in distributed render worker (%s)%n", e.getMessage());
+      e.printStackTrace();
+      return 1;
+    } catch (InterruptedException e) {
+      System.err.println("Interrupted during distributed render");
+      e.printStackTrace();
+      return 1;
+    }
+  }
+
   /**
    * Main entry point for Chunky. Chunky should normally be started via the launcher which sets up
    * the classpath with all dependencies.
@@ -48,6 +48,22 @@ public class ChunkyOptions {
   /** Reload chunks with headless render */
   public boolean reloadChunks;
 
+  /**
+   * Number of image rows per band for a banded headless render, or 0 to render the
+   * whole image at once.
+   */
+  public int bandHeight = 0;
+
+  /**
+   * Port to accept distributed render workers on, or 0 to render locally.
+   */
+  public int coordinatorPort = 0;
+
+  /**
+   * Address ({@code host:port}) of the distributed render coordinator to work for.
+   */
+  public String coordinatorAddress = "";
+
   private ChunkyOptions() {
   }
 
@@ -21,6 +21,7 @@ package se.llbit.chunky.main;
 import se.llbit.chunky.PersistentSettings;
 import se.llbit.chunky.renderer.ConsoleProgressListener;
 import se.llbit.chunky.renderer.RenderContext;
+import se.llbit.chunky.renderer.scene.DumpMerger;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.resources.TexturePackLoader;
 import se.llbit.json.JsonNumber;
@@ -60,6 +61,11 @@ public class CommandLineOptions {
     SNAPSHOT,
   }
 
+  /**
+   * Milliseconds between polls of the directory watched by -watch-dumps.
+   */
+  private static final long DUMP_POLL_INTERVAL = 5000;
+
   /**
    * This is the usage output generated for the --help flag.
    */
@@ -74,6 +80,12 @@ public class CommandLineOptions {
           "  -spp-per-pass <NUM>    use the specified samples per pixel per pass for rendering",
           "  -target <NUM>          override target SPP to be NUM in headless mode",
           "  -reload-chunks         reload the selected chunks before rendering the scene",
+          "  -band-height <NUM>     render the scene in bands of NUM rows and write the image",
+          "                         while rendering (for very large images, no render dump)",
+          "  -coordinator <PORT>    with -render: hand out the render to workers connecting",
+          "                         on PORT instead of rendering locally",
+          "  -worker <HOST:PORT>    render work units for the coordinator at HOST:PORT",
+          "                         (the scene must be in the local scene directory)",
           "  -f                     render the scene even if loading the scene fails (e.g. ignore missing octree)",
           "  -set <NAME> <VALUE>    set a global configuration option and exit",
           "  -set <NAME> <VALUE> <SCENE>",
@@ -83,7 +95,11 @@ public class CommandLineOptions {
           "  -download-mc <VERSION> download the given Minecraft version and exit",
           "  -list-scenes           print a list of all scenes in the scene directory",
           "  -merge-dump <SCENE> <PATH>",
-          "                         merge a render dump into the given scene",
+          "                         merge a render dump, or all render dumps in the",
+          "                         directory PATH, into the given scene",
+          "  -watch-dumps <SCENE> <DIR>",
+          "                         watch DIR and merge new render dumps into the scene",
+          "                         as they are written, merged dumps are moved to DIR/merged",
           "  -help                  show this text", "", "Notes:",
           "<SCENE> can be either the path to a Scene Description File ("
               + Scene.EXTENSION + "),",
@@ -270,6 +286,17 @@ public class CommandLineOptions {
     registerOption("-threads", new Range(1),
         arguments -> options.renderThreads = Math.max(1, Integer.parseInt(arguments.get(0))));
 
+    registerOption("-band-height", new Range(1),
+        arguments -> options.bandHeight = Math.max(1, Integer.parseInt(arguments.get(0))));
+
+    registerOption("-coordinator", new Range(1),
+        arguments -> options.coordinatorPort = Integer.parseInt(arguments.get(0)));
+
+    registerOption("-worker", new Range(1), arguments -> {
+      mode = Mode.HEADLESS_RENDER;
+      options.coordinatorAddress = arguments.get(0);
+    });
+
     registerOption("-tile-width", new Range(1),
         arguments -> options.tileWidth = Math.max(1, Integer.parseInt(arguments.get(0))));
 
@@ -407,8 +434,8 @@ public class CommandLineOptions {
       options.sceneName = arguments.get(0);
       String dumpPath = arguments.get(1);
       File dumpfile = new File(dumpPath);
-      if (!dumpfile.isFile()) {
-        Log.error("Not a valid render dump file: " + dumpPath);
+      if (!dumpfile.isFile() && !dumpfile.isDirectory()) {
+        Log.error("Not a valid render dump file or directory: " + dumpPath);
         configurationError = true;
         exitCode = 1;
         return;
@@ -421,26 +448,16 @@ public class CommandLineOptions {
         return;
       }
       try {
-        Scene scene = new Scene();
-        try (FileInputStream in = new FileInputStream(sceneFile)) {
-          scene.loadDescription(in);
-        }
-        RenderContext context = new RenderContext(new Chunky(options));
-        context.setSceneDirectory(sceneFile.getParentFile());
-        TaskTracker taskTracker = new TaskTracker(new ConsoleProgressListener(),
-            TaskTracker.Task::new,
-            (tracker, previous, name, size) -> new TaskTracker.Task(tracker, previous, name, size) {
-              @Override public void update() {
-                // Don't report task state to progress listener.
-              }
-            });
-        scene.loadDump(context, taskTracker); // Load the render dump.
-        Log.info("Original scene SPP: " + scene.spp);
-        scene.mergeDump(dumpfile, taskTracker);
-        Log.info("Current scene SPP: " + scene.spp);
-        scene.saveDump(context, taskTracker);
-        try (FileOutputStream out = new FileOutputStream(sceneFile)) {
-          scene.saveDescription(out);
+        TaskTracker taskTracker = quietTaskTracker();
+        DumpMerger merger = new DumpMerger(dumpMergeContext(sceneFile), sceneFile, taskTracker);
+        Log.info("Original scene SPP: " + merger.getSpp());
+        int merged = merger.mergeAll(dumpfile, taskTracker);
+        Log.info("Current scene SPP: " + merger.getSpp());
+        if (merged > 0) {
+          merger.save(taskTracker);
+        } else {
+          Log.error("No render dump was merged.");
+          exitCode = 1;
         }
       } catch (IOException e) {
         Log.error("Failed to merge render dump.", e);
@@ -448,6 +465,35 @@ public class CommandLineOptions {
       }
     });
 
+    registerOption("-watch-dumps", new Range(2), arguments -> {
+      mode = Mode.NOTHING;
+      options.sceneName = arguments.get(0);
+      File directory = new File(arguments.get(1));
+      if (!directory.isDirectory()) {
+        Log.error("Not a valid directory: " + directory);
+        configurationError = true;
+        exitCode = 1;
+        return;
+      }
+      File sceneFile = options.getSceneDescriptionFile();
+      if (!sceneFile.isFile()) {
+        Log.error("Not a valid scene: " + options.sceneName);
+        configurationError = true;
+        exitCode = 1;
+        return;
+      }
+      try {
+        TaskTracker taskTracker = quietTaskTracker();
+        DumpMerger merger = new DumpMerger(dumpMergeContext(sceneFile), sceneFile, taskTracker);
+        merger.watch(directory, DUMP_POLL_INTERVAL, taskTracker);
+      } catch (IOException e) {
+        Log.error("Failed to merge render dump.", e);
+        exitCode = 1;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
     // When mode is set to Mode.NOTHING, then an option handler has performed
     // something and we should quit.
     // If configurationError is set to true then an option handler encountered an
@@ -546,6 +592,28 @@ public class CommandLineOptions {
     System.out.println();
   }
 
+  /**
+   * Render context for merging dumps into the given scene.
+   */
+  private RenderContext dumpMergeContext(File sceneFile) {
+    RenderContext context = new RenderContext(new Chunky(options));
+    context.setSceneDirectory(sceneFile.getParentFile());
+    return context;
+  }
+
+  /**
+   * Task tracker that logs to the console but does not report individual task progress.
+   */
+  private static TaskTracker quietTaskTracker() {
+    return new TaskTracker(new ConsoleProgressListener(),
+        TaskTracker.Task::new,
+        (tracker, previous, name, size) -> new TaskTracker.Task(tracker, previous, name, size) {
+          @Override public void update() {
+            // Don't report task state to progress listener.
+          }
+        });
+  }
+
   private static JsonObject readSceneJson(File file) throws IOException, SyntaxError {
     try (FileInputStream in = new FileInputStream(file)) {
       JsonParser parser = new JsonParser(in);
@@ -0,0 +1,172 @@
+package se.llbit.chunky.model;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.resources.AnimatedTexture;
+import se.llbit.chunky.resources.Texture;
+import se.llbit.math.Quad;
+import se.llbit.math.QuadTable;
+import se.llbit.math.QuickMath;
+import se.llbit.math.Ray;
+
+/**
+ * Compiled form of a {@link QuadModel}.
+ *
+ * <p>The quad geometry is flattened into a shared {@link QuadTable}, and each
+ * quad refers to its texture and tint by index into small per-model tables.
+ * Quads without tint have tint id -1.
+ */
+final class CompiledQuadModel {
+  // Epsilons to clip ray intersections to the current block.
+  private static final double E0 = -Ray.EPSILON;
+  private static final double E1 = 1 + Ray.EPSILON;
+
+  final QuadTable quads;
+  final Texture[] textures;
+  final int[] textureIds;
+  final Tint[] tints;
+  final int[] tintIds;
+
+  CompiledQuadModel(Quad[] quads, Texture[] textures, Tint[] tints) {
+    this.quads = QuadTable.of(quads);
+    this.textureIds = new int[quads.length];
+    this.tintIds = new int[quads.length];
+
+    List<Texture> textureList = new ArrayList<>();
+    Map<Texture, Integer> textureIndex = new IdentityHashMap<>();
+    List<Tint> tintList = new ArrayList<>();
+    Map<Tint, Integer> tintIndex = new IdentityHashMap<>();
+    for (int i = 0; i < quads.length; ++i) {
+      textureIds[i] = textureIndex.computeIfAbsent(textures[i], texture -> {
+        textureList.add(texture);
+        return textureList.size() - 1;
+      });
+      Tint tint = tints == null ? Tint.NONE : tints[i];
+      if (tint.type == Tint.TintType.NONE) {
+        tintIds[i] = -1;
+      } else {
+        tintIds[i] = tintIndex.computeIfAbsent(tint, t -> {
+          tintList.add(t);
+          return tintList.size() - 1;
+        });
+      }
+    }
+    this.textures = textureList.toArray(new Texture[0]);
+    this.tints = tintList.toArray(new Tint[0]);
+  }
+
+  /**
+   * Intersect the ray with the model quads.
+   */
+  boolean intersect(Ray ray, Scene scene) {
+    return intersect(ray, scene, false, 0);
+  }
+
+  /**
+   * Intersect the ray with the model quads, using the given animation frame.
+   * All textures of the model must be animated textures.
+   */
+  boolean intersectAnimated(Ray ray, Scene scene, int frame) {
+    return intersect(ray, scene, true, frame);
+  }
+
+  private boolean intersect(Ray ray, Scene scene, boolean animated, int frame) {
+    ray.t = Double.POSITIVE_INFINITY;
+
+    // Ray origin relative to the current block, computed once for all quads.
+    double ox = ray.o.x - QuickMath.floor(ray.o.x + ray.d.x * Ray.OFFSET);
+    double oy = ray.o.y - QuickMath.floor(ray.o.y + ray.d.y * Ray.OFFSET);
+    double oz = ray.o.z - QuickMath.floor(ray.o.z + ray.d.z * Ray.OFFSET);
+    double invDx = 1 / ray.d.x;
+    double invDy = 1 / ray.d.y;
+    double invDz = 1 / ray.d.z;
+
+    QuadTable quads = this.quads;
+    if (!quads.hitBounds(ox, oy, oz, invDx, invDy, invDz)) {
+      return false;
+    }
+
+    int hitQuad = -1;
+    float[] color = null;
+    if (!quads.hasBvh()) {
+      for (int i = 0; i < quads.size; ++i) {
+        float[] c = testQuad(i, ox, oy, oz, ray, scene, animated, frame, hitQuad);
+        if (c != null) {
+          color = c;
+          hitQuad = i;
+        }
+      }
+    } else {
+      int[] nodeSkip = quads.nodeSkip;
+      int[] nodeStart = quads.nodeStart;
+      int[] nodeSize = quads.nodeSize;
+      int[] order = quads.order;
+      int nodes = nodeSkip.length;
+      int node = 0;
+      while (node < nodes) {
+        if (quads.hitNode(node, ox, oy, oz, invDx, invDy, invDz, ray.t)) {
+          int start = nodeStart[node];
+          int end = start + nodeSize[node];
+          for (int k = start; k < end; ++k) {
+            int i = order[k];
+            float[] c = testQuad(i, ox, oy, oz, ray, scene, animated, frame, hitQuad);
+            if (c != null) {
+              color = c;
+              hitQuad = i;
+            }
+          }
+          node += 1;
+        } else {
+          node = nodeSkip[node];
+        }
+      }
+    }
+    boolean hit = hitQuad >= 0;
+
+    if (hit) {
+      double px = ox + ray.d.x * ray.t;
+      double py = oy + ray.d.y * ray.t;
+      double pz = oz + ray.d.z * ray.t;
+      if (px < E0 || px > E1 || py < E0 || py > E1 || pz < E0 || pz > E1) {
+        // TODO this check is only really needed for wall torches
+        return false;
+      }
+
+      ray.color.set(color);
+      ray.distance += ray.t;
+      ray.o.scaleAdd(ray.t, ray.d);
+    }
+    return hit;
+  }
+
+  /**
+   * Test quad {@code i} for a visible intersection closer than the current hit.
+   * The BVH visits quads out of order, so ties are broken in favor of the quad with the
+   * lowest index to give the same result as testing the quads in order.
+   *
+   * @return the hit color, or {@code null} if the quad was not hit
+   */
+  private float[] testQuad(int i, double ox, double oy, double oz, Ray ray, Scene scene,
+      boolean animated, int frame, int hitQuad) {
+    double tMax = i < hitQuad ? Math.nextUp(ray.t) : ray.t;
+    if (quads.intersect(i, ox, oy, oz, ray, tMax)) {
+      Texture texture = textures[textureIds[i]];
+      float[] c = animated
+          ? ((AnimatedTexture) texture).getColor(ray.u, ray.v, frame)
+          : texture.getColor(ray.u, ray.v);
+      if (c[3] > Ray.EPSILON) {
+        int tint = tintIds[i];
+        if (tint >= 0) {
+          tints[tint].tint(c, ray, scene);
+        }
+        ray.t = ray.tNext;
+        quads.setNormal(i, ray);
+        return c;
+      }
+    }
+    return null;
+  }
+}
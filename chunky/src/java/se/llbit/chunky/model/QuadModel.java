@@ -4,9 +4,7 @@ import se.llbit.chunky.plugin.PluginApi;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.resources.Texture;
 import se.llbit.math.Quad;
-import se.llbit.math.QuickMath;
 import se.llbit.math.Ray;
-import se.llbit.math.Vector3;
 
 /**
  * A block model that is made out of textured quads.
@@ -29,47 +27,28 @@ public abstract class QuadModel implements BlockModel {
     return null;
   }
 
-  @Override
-  public boolean intersect(Ray ray, Scene scene) {
-    boolean hit = false;
-    ray.t = Double.POSITIVE_INFINITY;
-
-    Quad[] quads = getQuads();
-    Texture[] textures = getTextures();
-    Tint[] tintedQuads = getTints();
-
-    float[] color = null;
-    for (int i = 0; i < quads.length; ++i) {
-      Quad quad = quads[i];
-      if (quad.intersect(ray)) {
-        float[] c = textures[i].getColor(ray.u, ray.v);
-        if (c[3] > Ray.EPSILON) {
-          Tint tint = tintedQuads == null ? Tint.NONE : tintedQuads[i];
-          tint.tint(c, ray, scene);
-          color = c;
-          ray.t = ray.tNext;
-          if (quad.doubleSided)
-            ray.orientNormal(quad.n);
-          else
-            ray.setNormal(quad.n);
-          hit = true;
-        }
-      }
+  /**
+   * Flattened copy of the model quads. This is built on the first intersection
+   * test, so the quads, textures and tints of a model must not change after it
+   * has been added to a scene.
+   */
+  private CompiledQuadModel compiled;
+
+  /**
+   * @return the compiled form of this model, used for intersection testing
+   */
+  final CompiledQuadModel compiled() {
+    CompiledQuadModel model = compiled;
+    if (model == null) {
+      // Racing threads may compile the model twice, which is harmless.
+      model = new CompiledQuadModel(getQuads(), getTextures(), getTints());
+      compiled = model;
     }
+    return model;
+  }
 
-    if (hit) {
-      double px = ray.o.x - Math.floor(ray.o.x + ray.d.x * Ray.OFFSET) + ray.d.x * ray.tNext;
-      double py = ray.o.y - Math.floor(ray.o.y + ray.d.y * Ray.OFFSET) + ray.d.y * ray.tNext;
-      double pz = ray.o.z - Math.floor(ray.o.z + ray.d.z * Ray.OFFSET) + ray.d.z * ray.tNext;
-      if (px < E0 || px > E1 || py < E0 || py > E1 || pz < E0 || pz > E1) {
-        // TODO this check is only really needed for wall torches
-        return false;
-      }
-
-      ray.color.set(color);
-      ray.distance += ray.t;
-      ray.o.scaleAdd(ray.t, ray.d);
-    }
-    return hit;
+  @Override
+  public boolean intersect(Ray ray, Scene scene) {
+    return compiled().intersect(ray, scene);
   }
 }
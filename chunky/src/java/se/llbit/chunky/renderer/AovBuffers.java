@@ -0,0 +1,146 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import se.llbit.math.Vector3;
+
+/**
+ * Arbitrary output variable (AOV) buffers with the first hit albedo, shading normal and
+ * depth of each pixel. Like the sample buffer, each pixel holds the average over all
+ * samples of the pixel. The buffers are used as guides by the denoiser and can be
+ * exported for external denoisers.
+ *
+ * <p>Pixels where the camera ray escapes to the sky have the sky color as albedo,
+ * a zero normal and a zero depth.
+ */
+public class AovBuffers {
+  /**
+   * The guides of the samples of one pixel, written by the ray tracer.
+   */
+  public static class Sample {
+    /** Albedo of the current ray. */
+    public final Vector3 albedo = new Vector3();
+
+    /** Shading normal of the current ray. */
+    public final Vector3 normal = new Vector3();
+
+    /** Distance from the camera to the first hit of the current ray. */
+    public double depth;
+
+    private double albedoR, albedoG, albedoB;
+    private double normalX, normalY, normalZ;
+    private double depthSum;
+
+    /**
+     * Clear the values of the current ray, before tracing it.
+     */
+    public void clearRay() {
+      albedo.set(0, 0, 0);
+      normal.set(0, 0, 0);
+      depth = 0;
+    }
+
+    /**
+     * Add the values of the current ray to the sums for the pixel.
+     */
+    public void addRay() {
+      albedoR += albedo.x;
+      albedoG += albedo.y;
+      albedoB += albedo.z;
+      normalX += normal.x;
+      normalY += normal.y;
+      normalZ += normal.z;
+      depthSum += depth;
+    }
+
+    private void clearSums() {
+      albedoR = albedoG = albedoB = 0;
+      normalX = normalY = normalZ = 0;
+      depthSum = 0;
+    }
+  }
+
+  public final int width;
+  public final int height;
+
+  private final float[] albedo;
+  private final float[] normal;
+  private final float[] depth;
+
+  /**
+   * Number of samples per pixel merged into the buffers. This may be lower than the
+   * scene SPP if the render was resumed from a render dump, which does not store the AOVs.
+   */
+  private volatile int spp = 0;
+
+  public AovBuffers(int width, int height) {
+    this.width = width;
+    this.height = height;
+    albedo = new float[width * height * 3];
+    normal = new float[width * height * 3];
+    depth = new float[width * height];
+  }
+
+  /**
+   * Merge the summed guides of new samples with the previous samples of a pixel, and clear
+   * the sums.
+   *
+   * @param count Number of new samples
+   * @param spp   Number of samples already merged into the buffers
+   */
+  public void merge(int pixel, Sample sample, int count, int spp) {
+    double sinv = 1.0 / (count + spp);
+    int offset = pixel * 3;
+    albedo[offset] = (float) ((albedo[offset] * spp + sample.albedoR) * sinv);
+    albedo[offset + 1] = (float) ((albedo[offset + 1] * spp + sample.albedoG) * sinv);
+    albedo[offset + 2] = (float) ((albedo[offset + 2] * spp + sample.albedoB) * sinv);
+    normal[offset] = (float) ((normal[offset] * spp + sample.normalX) * sinv);
+    normal[offset + 1] = (float) ((normal[offset + 1] * spp + sample.normalY) * sinv);
+    normal[offset + 2] = (float) ((normal[offset + 2] * spp + sample.normalZ) * sinv);
+    depth[pixel] = (float) ((depth[pixel] * spp + sample.depthSum) * sinv);
+    sample.clearSums();
+  }
+
+  public int getSpp() {
+    return spp;
+  }
+
+  public void setSpp(int spp) {
+    this.spp = spp;
+  }
+
+  /**
+   * @return the albedo buffer, with three values per pixel
+   */
+  public float[] getAlbedo() {
+    return albedo;
+  }
+
+  /**
+   * @return the shading normal buffer, with three values per pixel
+   */
+  public float[] getNormal() {
+    return normal;
+  }
+
+  /**
+   * @return the depth buffer, with one value per pixel
+   */
+  public float[] getDepth() {
+    return depth;
+  }
+}
@@ -0,0 +1,125 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import se.llbit.chunky.renderer.export.BandedExportFormat;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.log.Log;
+import se.llbit.math.Ray;
+import se.llbit.util.TaskTracker;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Renders a scene in horizontal bands and writes each band to the output image as
+ * soon as it is finished.
+ *
+ * <p>Only the samples of one band are kept in memory, so the peak memory use is
+ * proportional to the band height instead of the image size. This makes it possible to
+ * render images that are too large for the full-size sample buffer. Each band is
+ * rendered to the target SPP before the next band is started, so there is no render
+ * dump and no intermediate snapshots. The scene should be loaded with
+ * {@link Scene#setBandedRender(boolean) banded rendering} enabled.
+ */
+public class BandedRender {
+  private final RenderContext context;
+  private final Scene scene;
+  private final int bandHeight;
+
+  /**
+   * @param bandHeight number of image rows per band
+   */
+  public BandedRender(RenderContext context, Scene scene, int bandHeight) {
+    this.context = context;
+    this.scene = scene;
+    this.bandHeight = Math.max(1, bandHeight);
+  }
+
+  /**
+   * Render the scene and write it to the given file.
+   */
+  public void render(File file, BandedExportFormat format, TaskTracker taskTracker)
+      throws IOException, InterruptedException {
+    PathTracingRenderer renderer = getRenderer(scene);
+    scene.updateMaterialTable();
+
+    int width = scene.canvasWidth();
+    int height = scene.canvasHeight();
+    int bands = (height + bandHeight - 1) / bandHeight;
+    double[] samples = new double[width * bandHeight * 3];
+    byte[] alpha = scene.transparentSky() ? new byte[width * bandHeight] : null;
+
+    RenderWorkerPool pool =
+        context.renderPoolFactory.create(context.numRenderThreads(), System.currentTimeMillis());
+    try (TaskTracker.Task task = taskTracker.task("Rendering bands", bands);
+        BandedExportFormat.BandWriter writer = format.writeBands(
+            new BufferedOutputStream(new FileOutputStream(file)), scene)) {
+      for (int i = 0; i < bands; ++i) {
+        task.update(bands, i);
+        int band = writer.isBottomUp() ? bands - 1 - i : i;
+        int y0 = band * bandHeight;
+        int y1 = Math.min(y0 + bandHeight, height);
+        renderer.renderBand(pool, context, scene, y0, y1, samples);
+        if (alpha != null) {
+          computeAlpha(pool, y0, y1, alpha);
+        }
+        writer.writeBand(y0, y1, samples, alpha);
+      }
+      task.update(bands, bands);
+    } finally {
+      pool.interrupt();
+    }
+  }
+
+  /**
+   * Compute the alpha channel for a band.
+   */
+  private void computeAlpha(RenderWorkerPool pool, int y0, int y1, byte[] alpha)
+      throws InterruptedException {
+    int width = scene.canvasWidth();
+    for (int y = y0; y < y1; ++y) {
+      int row = y;
+      pool.submit(worker -> {
+        WorkerState state = new WorkerState();
+        state.ray = new Ray();
+        int offset = (row - y0) * width;
+        for (int x = 0; x < width; ++x) {
+          alpha[offset + x] = scene.skyAlpha(x, row, state);
+        }
+      });
+    }
+    pool.awaitEmpty();
+  }
+
+  /**
+   * Find the path tracing renderer for the scene. Falls back to the default path tracer
+   * if the renderer of the scene is not a path tracing renderer.
+   */
+  public static PathTracingRenderer getRenderer(Scene scene) {
+    Renderer renderer = DefaultRenderManager.renderers.get(scene.getRenderer());
+    if (renderer instanceof PathTracingRenderer) {
+      return (PathTracingRenderer) renderer;
+    }
+    Log.warnf("The renderer %s does not support rendering bands, using %s instead.",
+        scene.getRenderer(), DefaultRenderManager.ChunkyPathTracerID);
+    return (PathTracingRenderer) DefaultRenderManager.renderers
+        .get(DefaultRenderManager.ChunkyPathTracerID);
+  }
+}
@@ -72,12 +72,22 @@ public class DefaultRenderManager extends Thread implements RenderManager {
    */
   public static final String ChunkyPathTracerID = "PathTracingRenderer";
   public static final String ChunkyPreviewID = "PreviewRenderer";
+  public static final String ChunkyProgressivePreviewID = "ProgressivePreviewRenderer";
+  public static final String ChunkyPacketPreviewID = "PacketPreviewRenderer";
 
   static {
     addRenderer(new PathTracingRenderer(ChunkyPathTracerID, "Chunky Path Tracer",
         "A photorealistic Path Tracing renderer.", new PathTracer()));
     addPreviewRenderer(new PreviewRenderer(ChunkyPreviewID, "Chunky Preview",
         "A simple ray marching preview renderer.", new PreviewRayTracer()));
+    addPreviewRenderer(new ProgressivePreviewRenderer(ChunkyProgressivePreviewID,
+        "Chunky Progressive Preview",
+        "A preview renderer which lowers the resolution to keep a frame rate while the camera moves.",
+        new PreviewRayTracer()));
+    addPreviewRenderer(new PacketPreviewRenderer(ChunkyPacketPreviewID,
+        "Chunky Packet Preview (experimental)",
+        "A preview renderer which traces the view rays of each block of 4x4 pixels together.",
+        new PreviewRayTracer()));
   }
 
   /**
@@ -142,6 +152,10 @@ public class DefaultRenderManager extends Thread implements RenderManager {
 
   private long frameStart;
 
+  /** Time it took to trace the last preview frame, in nanoseconds. */
+  private volatile long previewFrameTime = 0;
+  private long previewFrameStart;
+
   /**
    * Decides if render threads shut down after reaching the target SPP.
    */
@@ -192,6 +206,7 @@ public class DefaultRenderManager extends Thread implements RenderManager {
     // Initialize callbacks here since java will complain `bufferedScene` is not initialized yet.
     // (nothing important in the rest of the constructor)
     this.previewCallback = () -> {
+      previewFrameTime = System.nanoTime() - previewFrameStart;
       sendSceneStatus(bufferedScene.sceneStatus());
 
       renderStatusListeners.forEach(listener -> {
@@ -204,6 +219,7 @@ public class DefaultRenderManager extends Thread implements RenderManager {
         this.finalizeFrame(true);
 
       frameStart = System.currentTimeMillis();
+      previewFrameStart = System.nanoTime();
       return !finalizeAllFrames || sceneProvider.pollSceneStateChange();
     };
 
@@ -223,6 +239,7 @@ public class DefaultRenderManager extends Thread implements RenderManager {
         this.finalizeFrame(getRenderer().autoPostProcess() && finalizeAllFrames);
 
         frameCompletionListener.accept(bufferedScene, bufferedScene.spp);
+        bufferedScene.journalCheckpointIfDue(context);
         updateRenderProgress();
 
         if (bufferedScene.spp > bufferedScene.getTargetSpp()) {
@@ -251,6 +268,10 @@ public class DefaultRenderManager extends Thread implements RenderManager {
           sceneProvider.withSceneProtected(scene -> {
             if (reason.overwriteState()) {
               bufferedScene.copyState(scene);
+              if (bufferedScene.spp == 0) {
+                // The render was reset, the journal would recover the previous render.
+                bufferedScene.discardJournal(context);
+              }
             }
             if (reason == ResetReason.MATERIALS_CHANGED || reason == ResetReason.SCENE_LOADED) {
               scene.importMaterials();
@@ -260,6 +281,10 @@ public class DefaultRenderManager extends Thread implements RenderManager {
             finalizeAllFrames = scene.shouldFinalizeBuffer();
             updateRenderState(scene);
 
+            // Snapshot the material parameters so that material edits can not
+            // affect the render workers until the next reset.
+            bufferedScene.updateMaterialTable();
+
             if (reason == ResetReason.SCENE_LOADED) {
               // Make sure frame is finalized
               bufferedScene.postProcessFrame(renderTask);
@@ -279,6 +304,9 @@ public class DefaultRenderManager extends Thread implements RenderManager {
           });
         }
 
+        // Bake the water normals outside the scene lock, the UI may need the scene meanwhile.
+        bufferedScene.getWaterShading().prepare(bufferedScene.getAnimationTime());
+
         // Select the renderer from the scene
         setRenderer(bufferedScene.getRenderer());
         setPreviewRenderer(bufferedScene.getPreviewRenderer());
@@ -297,6 +325,7 @@ public class DefaultRenderManager extends Thread implements RenderManager {
           if (finalizeAllFrames) {
             // Preview with no CPU limit
             pool.setCpuLoad(100);
+            previewFrameStart = System.nanoTime();
             render.setPostRender(previewCallback);
             render.render(this);
             pool.setCpuLoad(cpuLoad);
@@ -323,6 +352,14 @@ public class DefaultRenderManager extends Thread implements RenderManager {
     }
   }
 
+  /**
+   * @return the time it took to trace the last preview frame, in nanoseconds. This does
+   * not include post processing. Preview renderers can use this to keep a frame time budget.
+   */
+  public long getPreviewFrameTime() {
+    return previewFrameTime;
+  }
+
   /**
    * Redraw the GUI screen. This should be run after postprocessing.
    */
@@ -420,7 +457,7 @@ public class DefaultRenderManager extends Thread implements RenderManager {
 
         int width = bufferedScene.width;
         int height = bufferedScene.height;
-        double[] sampleBuffer = bufferedScene.getSampleBuffer();
+        double[] sampleBuffer = bufferedScene.getPostProcessingSamples(TaskTracker.Task.NONE);
         double exposure = bufferedScene.getExposure();
 
         // Split up to 10 tasks per thread
@@ -1,5 +1,11 @@
 package se.llbit.chunky.renderer;
 
 public enum EmitterSamplingStrategy {
-  NONE, ONE, ALL
+  NONE, ONE, ALL,
+
+  /**
+   * Sample one emitter from the whole scene, picked with a light tree in proportion to
+   * its estimated contribution.
+   */
+  TREE
 }
@@ -0,0 +1,16 @@
+package se.llbit.chunky.renderer;
+
+public enum FogSamplingStrategy {
+  /**
+   * One in-scatter point picked uniformly along the ray, lit by the sun.
+   */
+  UNIFORM,
+
+  /**
+   * In-scatter points picked in proportion to the fog transmittance for sun light, and
+   * with equi-angular sampling toward a sampled emitter for emitter light. With the
+   * {@code ONE} and {@code ALL} emitter strategies the emitters are only looked up near
+   * the sample points, see {@code PathTracer.addImportanceSampledFog}.
+   */
+  IMPORTANCE
+}
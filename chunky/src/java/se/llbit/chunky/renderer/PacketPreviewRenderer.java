@@ -0,0 +1,98 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.llbit.chunky.renderer;
+
+import se.llbit.chunky.renderer.scene.RayTracer;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.math.RayPacket;
+import se.llbit.util.TaskTracker;
+
+/**
+ * Experimental preview renderer which traces the view rays of each square block of
+ * pixels as a ray packet, see {@link RayPacket}. The packet traversal finds how far each
+ * ray can skip through empty space, then the rays are traced one at a time as in the
+ * regular preview.
+ */
+public class PacketPreviewRenderer extends PreviewRenderer {
+  /** Width and height in pixels of the packets. */
+  private static final int PACKET_SIZE = 4;
+
+  public PacketPreviewRenderer(String id, String name, String description, RayTracer tracer) {
+    super(id, name, description, tracer);
+  }
+
+  @Override
+  public void render(DefaultRenderManager manager) throws InterruptedException {
+    TaskTracker.Task task = manager.getRenderTask();
+    task.update("Preview", 1, 0, "");
+
+    Scene scene = manager.bufferedScene;
+    int width = scene.width;
+    int height = scene.height;
+    double halfWidth = width / (2.0 * height);
+    double invHeight = 1.0 / height;
+
+    Target target = new Target(scene);
+
+    double[] sampleBuffer = scene.getSampleBuffer();
+
+    // Each visited pixel is the corner of a packet.
+    submitTiles(manager, PACKET_SIZE, (state, pixel) -> {
+      int x0 = pixel.firstInt();
+      int y0 = pixel.secondInt();
+      int packetWidth = Math.min(PACKET_SIZE, width - x0);
+      int packetHeight = Math.min(PACKET_SIZE, height - y0);
+
+      if (state.packet == null) {
+        state.packet = new RayPacket();
+      }
+      RayPacket packet = state.packet;
+      packet.clear();
+      for (int j = 0; j < packetHeight; ++j) {
+        for (int i = 0; i < packetWidth; ++i) {
+          scene.camera().calcViewRay(packet.add(), state.random,
+              -halfWidth + (x0 + i) * invHeight,
+              -0.5 + (y0 + j) * invHeight);
+        }
+      }
+
+      scene.rayTrace(tracer, state, packet, index -> {
+        int x = x0 + index % packetWidth;
+        int y = y0 + index / packetWidth;
+        int offset = 3 * (y * width + x);
+
+        // Draw crosshairs
+        if (isCrosshair(x, y, width, height)) {
+          sampleBuffer[offset + 0] = 0xFF;
+          sampleBuffer[offset + 1] = 0xFF;
+          sampleBuffer[offset + 2] = 0xFF;
+          return;
+        }
+
+        target.highlight(state.ray);
+        sampleBuffer[offset + 0] = state.ray.color.x;
+        sampleBuffer[offset + 1] = state.ray.color.y;
+        sampleBuffer[offset + 2] = state.ray.color.z;
+      });
+    });
+
+    manager.pool.awaitEmpty();
+    task.update(1);
+    postRender.getAsBoolean();
+  }
+}
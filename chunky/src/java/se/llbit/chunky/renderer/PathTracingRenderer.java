@@ -52,50 +52,119 @@ public class PathTracingRenderer extends TileBasedRenderer {
   public void render(DefaultRenderManager manager) throws InterruptedException {
     Scene scene = manager.bufferedScene;
     int width = scene.width;
-    int height = scene.height;
 
     int sppPerPass = manager.context.sppPerPass();
-    Camera cam = scene.camera();
-    double halfWidth = width / (2.0 * height);
-    double invHeight = 1.0 / height;
-
     double[] sampleBuffer = scene.getSampleBuffer();
+    AovBuffers aovs = scene.getAovBuffers();
 
     while (scene.spp < scene.getTargetSpp()) {
       int spp = scene.spp;
-      double sinv = 1.0 / (sppPerPass + spp);
+      int aovSpp = (aovs == null || spp == 0) ? 0 : aovs.getSpp();
 
       submitTiles(manager, (state, pixel) -> {
         int x = pixel.firstInt();
         int y = pixel.secondInt();
+        if (aovs != null && state.aov == null) {
+          state.aov = new AovBuffers.Sample();
+        }
+        samplePixel(scene, state, x, y, sppPerPass, spp, sampleBuffer, 3 * (y*width + x));
+        if (aovs != null) {
+          aovs.merge(y * width + x, state.aov, sppPerPass, aovSpp);
+        }
+      });
 
-        double sr = 0;
-        double sg = 0;
-        double sb = 0;
+      manager.pool.awaitEmpty();
+      scene.spp += sppPerPass;
+      if (aovs != null) {
+        aovs.setSpp(aovSpp + sppPerPass);
+      }
+      if (postRender.getAsBoolean()) break;
+    }
+  }
 
-        for (int k = 0; k < sppPerPass; k++) {
-          double ox = state.random.nextDouble();
-          double oy = state.random.nextDouble();
+  /**
+   * Render the rows {@code y0} (inclusive) to {@code y1} (exclusive) of the scene to the
+   * target SPP. The samples are written to the given band buffer instead of the scene
+   * sample buffer, so this can be used for images that are too large to keep in memory.
+   * The scene SPP is not modified.
+   *
+   * @param samples Sample buffer for the band, with three values per pixel. Row
+   *                {@code y0} of the image is the first row of the buffer.
+   */
+  public void renderBand(RenderWorkerPool pool, RenderContext context, Scene scene,
+      int y0, int y1, double[] samples) throws InterruptedException {
+    renderBand(pool, context, scene, y0, y1, scene.getTargetSpp(), samples);
+  }
 
-          cam.calcViewRay(state.ray, state.random,
-              -halfWidth + (x + ox) * invHeight,
-              -0.5 + (y + oy) * invHeight);
-          scene.rayTrace(tracer, state);
+  /**
+   * Render the rows {@code y0} (inclusive) to {@code y1} (exclusive) of the scene with
+   * the given number of samples per pixel. The samples are written to the given band
+   * buffer, any previous content of the buffer is overwritten. The scene SPP is not modified.
+   *
+   * @param target  Number of samples per pixel to render
+   * @param samples Sample buffer for the band, with three values per pixel. Row
+   *                {@code y0} of the image is the first row of the buffer.
+   */
+  public void renderBand(RenderWorkerPool pool, RenderContext context, Scene scene,
+      int y0, int y1, int target, double[] samples) throws InterruptedException {
+    int width = scene.width;
+    int sppPerPass = context.sppPerPass();
 
-          sr += state.ray.color.x;
-          sg += state.ray.color.y;
-          sb += state.ray.color.z;
-        }
+    for (int spp = 0; spp < target; spp += sppPerPass) {
+      int passSpp = Math.min(sppPerPass, target - spp);
+      int prevSpp = spp;
 
-        int offset = 3 * (y*width + x);
-        sampleBuffer[offset + 0] = (sampleBuffer[offset + 0] * spp + sr) * sinv;
-        sampleBuffer[offset + 1] = (sampleBuffer[offset + 1] * spp + sg) * sinv;
-        sampleBuffer[offset + 2] = (sampleBuffer[offset + 2] * spp + sb) * sinv;
+      submitBandTiles(pool, context.tileWidth(), width, y0, y1, (state, pixel) -> {
+        int x = pixel.firstInt();
+        int y = pixel.secondInt();
+        samplePixel(scene, state, x, y, passSpp, prevSpp, samples, 3 * ((y - y0) * width + x));
       });
 
-      manager.pool.awaitEmpty();
-      scene.spp += sppPerPass;
-      if (postRender.getAsBoolean()) break;
+      pool.awaitEmpty();
     }
   }
+
+  /**
+   * Trace a number of samples for a pixel and merge them with the previous samples
+   * in the buffer. If the worker state has an AOV sample, the guides of the traced
+   * samples are summed in it.
+   *
+   * @param count Number of samples to trace
+   * @param spp   Number of samples already merged into the buffer
+   */
+  private void samplePixel(Scene scene, WorkerState state, int x, int y, int count, int spp,
+      double[] sampleBuffer, int offset) {
+    Camera cam = scene.camera();
+    double halfWidth = scene.width / (2.0 * scene.height);
+    double invHeight = 1.0 / scene.height;
+
+    double sr = 0;
+    double sg = 0;
+    double sb = 0;
+
+    for (int k = 0; k < count; k++) {
+      double ox = state.random.nextDouble();
+      double oy = state.random.nextDouble();
+
+      cam.calcViewRay(state.ray, state.random,
+          -halfWidth + (x + ox) * invHeight,
+          -0.5 + (y + oy) * invHeight);
+      if (state.aov != null) {
+        state.aov.clearRay();
+      }
+      scene.rayTrace(tracer, state);
+      if (state.aov != null) {
+        state.aov.addRay();
+      }
+
+      sr += state.ray.color.x;
+      sg += state.ray.color.y;
+      sb += state.ray.color.z;
+    }
+
+    double sinv = 1.0 / (count + spp);
+    sampleBuffer[offset + 0] = (sampleBuffer[offset + 0] * spp + sr) * sinv;
+    sampleBuffer[offset + 1] = (sampleBuffer[offset + 1] * spp + sg) * sinv;
+    sampleBuffer[offset + 2] = (sampleBuffer[offset + 2] * spp + sb) * sinv;
+  }
 }
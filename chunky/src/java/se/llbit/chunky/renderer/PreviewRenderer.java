@@ -17,7 +17,6 @@
 
 package se.llbit.chunky.renderer;
 
-import se.llbit.chunky.renderer.scene.Camera;
 import se.llbit.chunky.renderer.scene.RayTracer;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.math.Ray;
@@ -60,15 +59,7 @@ public class PreviewRenderer extends TileBasedRenderer {
     int width = scene.width;
     int height = scene.height;
 
-    Camera cam = scene.camera();
-    double halfWidth = width / (2.0 * height);
-    double invHeight = 1.0 / height;
-
-    Ray target = new Ray();
-    boolean hit = scene.traceTarget(target);
-    int tx = (int) Math.floor(target.o.x + target.d.x * Ray.OFFSET);
-    int ty = (int) Math.floor(target.o.y + target.d.y * Ray.OFFSET);
-    int tz = (int) Math.floor(target.o.z + target.d.z * Ray.OFFSET);
+    Target target = new Target(scene);
 
     double[] sampleBuffer = scene.getSampleBuffer();
 
@@ -85,29 +76,14 @@ public class PreviewRenderer extends TileBasedRenderer {
         if (((x + y) % 2) == sampleNum) return;
 
         // Draw crosshairs
-        if (x == width / 2 && (y >= height / 2 - 5 && y <= height / 2 + 5) || y == height / 2 && (
-            x >= width / 2 - 5 && x <= width / 2 + 5)) {
+        if (isCrosshair(x, y, width, height)) {
           sampleBuffer[offset + 0] = 0xFF;
           sampleBuffer[offset + 1] = 0xFF;
           sampleBuffer[offset + 2] = 0xFF;
           return;
         }
 
-        cam.calcViewRay(state.ray, state.random,
-            -halfWidth + x * invHeight,
-            -0.5 + y * invHeight);
-        scene.rayTrace(tracer, state);
-
-        // Target highlighting.
-        int rx = (int) Math.floor(state.ray.o.x + state.ray.d.x * Ray.OFFSET);
-        int ry = (int) Math.floor(state.ray.o.y + state.ray.d.y * Ray.OFFSET);
-        int rz = (int) Math.floor(state.ray.o.z + state.ray.d.z * Ray.OFFSET);
-        if (hit && tx == rx && ty == ry && tz == rz) {
-          state.ray.color.x = 1 - state.ray.color.x;
-          state.ray.color.y = 1 - state.ray.color.y;
-          state.ray.color.z = 1 - state.ray.color.z;
-          state.ray.color.w = 1;
-        }
+        tracePixel(scene, state, target, x, y);
 
         sampleBuffer[offset + 0] = state.ray.color.x;
         sampleBuffer[offset + 1] = state.ray.color.y;
@@ -125,4 +101,66 @@ public class PreviewRenderer extends TileBasedRenderer {
       if (postRender.getAsBoolean()) break;
     }
   }
+
+  /**
+   * @return {@code true} if the pixel is part of the crosshairs in the center of the view
+   */
+  protected static boolean isCrosshair(int x, int y, int width, int height) {
+    return x == width / 2 && (y >= height / 2 - 5 && y <= height / 2 + 5) || y == height / 2 && (
+        x >= width / 2 - 5 && x <= width / 2 + 5);
+  }
+
+  /**
+   * Trace the view ray of a pixel. The color is left in {@code state.ray.color}.
+   */
+  protected void tracePixel(Scene scene, WorkerState state, Target target, int x, int y) {
+    int width = scene.width;
+    int height = scene.height;
+    double halfWidth = width / (2.0 * height);
+    double invHeight = 1.0 / height;
+
+    scene.camera().calcViewRay(state.ray, state.random,
+        -halfWidth + x * invHeight,
+        -0.5 + y * invHeight);
+    scene.rayTrace(tracer, state);
+    target.highlight(state.ray);
+  }
+
+  /**
+   * The block in the center of the view, which is highlighted in the preview.
+   */
+  protected static class Target {
+    private final boolean hit;
+    private final int x, y, z;
+
+    public Target(Scene scene) {
+      Ray target = new Ray();
+      hit = scene.traceTarget(target);
+      x = (int) Math.floor(target.o.x + target.d.x * Ray.OFFSET);
+      y = (int) Math.floor(target.o.y + target.d.y * Ray.OFFSET);
+      z = (int) Math.floor(target.o.z + target.d.z * Ray.OFFSET);
+    }
+
+    /**
+     * @return {@code true} if the traced ray ended in the target block
+     */
+    public boolean contains(Ray ray) {
+      int rx = (int) Math.floor(ray.o.x + ray.d.x * Ray.OFFSET);
+      int ry = (int) Math.floor(ray.o.y + ray.d.y * Ray.OFFSET);
+      int rz = (int) Math.floor(ray.o.z + ray.d.z * Ray.OFFSET);
+      return hit && x == rx && y == ry && z == rz;
+    }
+
+    /**
+     * Invert the color of the traced ray if it ended in the target block.
+     */
+    public void highlight(Ray ray) {
+      if (contains(ray)) {
+        ray.color.x = 1 - ray.color.x;
+        ray.color.y = 1 - ray.color.y;
+        ray.color.z = 1 - ray.color.z;
+        ray.color.w = 1;
+      }
+    }
+  }
 }
@@ -0,0 +1,187 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.llbit.chunky.renderer;
+
+import se.llbit.chunky.renderer.scene.RayTracer;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.util.TaskTracker;
+
+/**
+ * A preview renderer which keeps a frame time budget.
+ *
+ * <p>Each preview starts at a reduced resolution, where one pixel is traced for each square
+ * block of pixels and the block is filled with its color. The block size is picked from the
+ * measured trace time of earlier frames so that the first frame fits the budget. While the
+ * camera moves every frame is a new preview, so only the low resolution frames are shown.
+ *
+ * <p>When the camera stands still the preview is refined: the block size is halved and the
+ * three new pixels of each block are traced, until every pixel is traced. A refinement step
+ * that does not fit the budget is split into interlaced passes over the block rows, so
+ * that the preview stays responsive to new camera movement.
+ */
+public class ProgressivePreviewRenderer extends PreviewRenderer {
+  /** Largest block size. */
+  private static final int MAX_BLOCK_SIZE = 16;
+
+  /** Block size for the first preview, before any frame time has been measured. */
+  private static final int INITIAL_BLOCK_SIZE = 8;
+
+  private final long frameBudget;
+
+  /** Smoothed trace time per pixel, in nanoseconds. Zero if nothing has been measured. */
+  private double pixelTime = 0;
+
+  public ProgressivePreviewRenderer(String id, String name, String description,
+      RayTracer tracer) {
+    this(id, name, description, tracer, 40);
+  }
+
+  /**
+   * @param frameBudgetMillis target trace time of each preview frame, in milliseconds
+   */
+  public ProgressivePreviewRenderer(String id, String name, String description,
+      RayTracer tracer, int frameBudgetMillis) {
+    super(id, name, description, tracer);
+    this.frameBudget = frameBudgetMillis * 1000000L;
+  }
+
+  @Override
+  public void render(DefaultRenderManager manager) throws InterruptedException {
+    Scene scene = manager.bufferedScene;
+    int width = scene.width;
+    int height = scene.height;
+    Target target = new Target(scene);
+    double[] sampleBuffer = scene.getSampleBuffer();
+
+    int blockSize = firstBlockSize((long) width * height);
+    int steps = Integer.numberOfTrailingZeros(blockSize) + 1;
+    TaskTracker.Task task = manager.getRenderTask();
+    task.update("Preview", steps, 0, "");
+
+    int step = 0;
+    for (int size = blockSize; size >= 1; size /= 2) {
+      boolean first = size == blockSize;
+      long pixels = tracedPixels(width, height, size, first);
+      int passes = 1;
+      if (pixelTime > 0) {
+        passes = (int) Math.ceil(pixels * pixelTime / frameBudget);
+        passes = Math.max(1, Math.min(passes, (height + size - 1) / size));
+      }
+
+      for (int pass = 0; pass < passes; ++pass) {
+        int blockSizeFinal = size;
+        int passFinal = pass;
+        int passCount = passes;
+        submitTiles(manager, size, (state, pixel) -> {
+          int x = pixel.firstInt();
+          int y = pixel.secondInt();
+          if (!isTraced(x, y, blockSizeFinal, first, passFinal, passCount)) return;
+
+          tracePixel(scene, state, target, x, y);
+
+          int x1 = Math.min(x + blockSizeFinal, width);
+          int y1 = Math.min(y + blockSizeFinal, height);
+          for (int j = y; j < y1; ++j) {
+            for (int i = x; i < x1; ++i) {
+              int offset = 3 * (j * width + i);
+              sampleBuffer[offset + 0] = state.ray.color.x;
+              sampleBuffer[offset + 1] = state.ray.color.y;
+              sampleBuffer[offset + 2] = state.ray.color.z;
+            }
+          }
+        });
+
+        manager.pool.awaitEmpty();
+        drawCrosshairs(sampleBuffer, width, height);
+        boolean stop = postRender.getAsBoolean();
+        measure(manager.getPreviewFrameTime(), pixels / passes);
+        if (stop) return;
+      }
+
+      step += 1;
+      task.update(step);
+    }
+  }
+
+  /**
+   * @return the smallest block size for which the first frame is expected to fit the budget
+   */
+  private int firstBlockSize(long pixels) {
+    if (pixelTime <= 0) {
+      return INITIAL_BLOCK_SIZE;
+    }
+    int size = 1;
+    while (size < MAX_BLOCK_SIZE && pixels / ((long) size * size) * pixelTime > frameBudget) {
+      size *= 2;
+    }
+    return size;
+  }
+
+  /**
+   * @param x x coordinate of a block corner, a multiple of the block size
+   * @param y y coordinate of a block corner, a multiple of the block size
+   * @return {@code true} if the block corner is traced in the given pass of a step
+   */
+  static boolean isTraced(int x, int y, int size, boolean first, int pass, int passes) {
+    int row = y / size;
+
+    // Pixels of the previous, coarser, step are already traced.
+    if (!first && (x / size) % 2 == 0 && row % 2 == 0) return false;
+
+    // Interlacing of block rows when the step is split into several passes.
+    return row % passes == pass;
+  }
+
+  /**
+   * @return the number of pixels traced in a step of the given block size
+   */
+  static long tracedPixels(int width, int height, int size, boolean first) {
+    long columns = (width + size - 1) / size;
+    long rows = (height + size - 1) / size;
+    long pixels = columns * rows;
+    if (!first) {
+      // Every other row and column was traced in the previous step.
+      pixels -= ((columns + 1) / 2) * ((rows + 1) / 2);
+    }
+    return pixels;
+  }
+
+  /**
+   * Update the trace time per pixel from the measured time of a frame.
+   */
+  private void measure(long frameTime, long pixels) {
+    if (frameTime <= 0 || pixels <= 0) {
+      return;
+    }
+    double time = frameTime / (double) pixels;
+    pixelTime = pixelTime > 0 ? (pixelTime + time) / 2 : time;
+  }
+
+  private static void drawCrosshairs(double[] sampleBuffer, int width, int height) {
+    for (int y = height / 2 - 5; y <= height / 2 + 5; ++y) {
+      for (int x = width / 2 - 5; x <= width / 2 + 5; ++x) {
+        if (x >= 0 && x < width && y >= 0 && y < height && isCrosshair(x, y, width, height)) {
+          int offset = 3 * (y * width + x);
+          sampleBuffer[offset + 0] = 0xFF;
+          sampleBuffer[offset + 1] = 0xFF;
+          sampleBuffer[offset + 2] = 0xFF;
+        }
+      }
+    }
+  }
+}
@@ -65,25 +65,69 @@ public abstract class TileBasedRenderer implements Renderer {
    *                 The second argument is the current pixel (x, y).
    */
   protected void submitTiles(DefaultRenderManager manager, BiConsumer<WorkerState, IntIntPair> perPixel) {
+    submitTiles(manager, 1, perPixel);
+  }
+
+  /**
+   * Create and submit tiles to the rendering pool, visiting only the pixels whose x and y
+   * coordinates are both multiples of {@code stride}. This is used to render at a lower
+   * resolution without iterating over the skipped pixels.
+   * Await for these tiles to finish rendering with {@code manager.pool.awaitEmpty()}.
+   *
+   * @param perPixel This is called on every visited pixel. The first argument is the worker
+   *                 state. The second argument is the current pixel (x, y).
+   */
+  protected void submitTiles(DefaultRenderManager manager, int stride,
+      BiConsumer<WorkerState, IntIntPair> perPixel) {
     initTiles(manager);
 
-    cachedTiles.forEach(tile ->
-        manager.pool.submit(worker -> {
-          WorkerState state = new WorkerState();
-          state.ray = new Ray();
-          state.ray.setNormal(0, 0, -1);
-          state.random = worker.random;
-
-          IntIntMutablePair pair = new IntIntMutablePair(0, 0);
-
-          for (int i = tile.x0; i < tile.x1; i++) {
-            for (int j = tile.y0; j < tile.y1; j++) {
-              pair.left(i).right(j);
-              perPixel.accept(state, pair);
-            }
-          }
-        })
-    );
+    cachedTiles.forEach(tile -> submitTile(manager.pool, tile, stride, perPixel));
+  }
+
+  /**
+   * Create and submit tiles covering only the rows {@code y0} (inclusive) to {@code y1}
+   * (exclusive) of the image. This is used for banded rendering, where the image is
+   * rendered one horizontal band at a time. The tiles are not cached.
+   * Await for these tiles to finish rendering with {@code pool.awaitEmpty()}.
+   *
+   * @param width    The image width
+   * @param perPixel This is called on every pixel in the band. The first argument is the
+   *                 worker state. The second argument is the current pixel (x, y), in
+   *                 image coordinates.
+   */
+  protected void submitBandTiles(RenderWorkerPool pool, int tileWidth, int width, int y0, int y1,
+      BiConsumer<WorkerState, IntIntPair> perPixel) {
+    for (int i = 0; i < width; i += tileWidth) {
+      for (int j = y0; j < y1; j += tileWidth) {
+        submitTile(pool, new RenderTile(i, FastMath.min(i + tileWidth, width),
+            j, FastMath.min(j + tileWidth, y1)), 1, perPixel);
+      }
+    }
+  }
+
+  private static void submitTile(RenderWorkerPool pool, RenderTile tile, int stride,
+      BiConsumer<WorkerState, IntIntPair> perPixel) {
+    // First multiples of the stride inside the tile.
+    int x0 = (tile.x0 + stride - 1) / stride * stride;
+    int y0 = (tile.y0 + stride - 1) / stride * stride;
+    if (x0 >= tile.x1 || y0 >= tile.y1) {
+      return;
+    }
+    pool.submit(worker -> {
+      WorkerState state = new WorkerState();
+      state.ray = new Ray();
+      state.ray.setNormal(0, 0, -1);
+      state.random = worker.random;
+
+      IntIntMutablePair pair = new IntIntMutablePair(0, 0);
+
+      for (int i = x0; i < tile.x1; i += stride) {
+        for (int j = y0; j < tile.y1; j += stride) {
+          pair.left(i).right(j);
+          perPixel.accept(state, pair);
+        }
+      }
+    });
   }
 
   private void initTiles(DefaultRenderManager manager) {
@@ -16,9 +16,15 @@
  */
 package se.llbit.chunky.renderer;
 
+import se.llbit.math.Grid;
+import se.llbit.math.LightTree;
 import se.llbit.math.Ray;
+import se.llbit.math.RayPacket;
+import se.llbit.math.Vector3;
 import se.llbit.math.Vector4;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 /**
@@ -28,4 +34,22 @@ public class WorkerState {
   public Ray ray;
   public Vector4 attenuation = new Vector4();
   public Random random;
+
+  /**
+   * Receives the denoiser guides of the first hit, or {@code null} if the guides are not
+   * needed.
+   */
+  public AovBuffers.Sample aov;
+
+  /** Ray packet for renderers that trace view rays in packets, created when first needed. */
+  public RayPacket packet;
+
+  // Scratch state for fog in-scattering, reused between samples.
+  public Ray fogRay = new Ray();
+  public Vector3 fogPoint = new Vector3();
+  public Vector3 emitterTarget = new Vector3();
+  public Vector4 emitterColor = new Vector4();
+  public Vector4 emitterLight = new Vector4();
+  public LightTree.Sample lightSample = new LightTree.Sample();
+  public List<Grid.EmitterPosition> emitterPositions = new ArrayList<>();
 }
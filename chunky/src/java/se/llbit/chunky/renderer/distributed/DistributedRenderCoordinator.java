@@ -0,0 +1,308 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.distributed;
+
+import se.llbit.chunky.renderer.distributed.DistributedRenderProtocol.WorkUnit;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.log.Log;
+import se.llbit.util.TaskTracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+/**
+ * Hands out work units of a scene to distributed render workers and merges the
+ * rendered samples into the sample buffer of the scene.
+ *
+ * <p>The frame is split into tiles of whole rows. A work unit renders one tile with
+ * a number of samples per pixel. Each tile keeps its own SPP, and the next work unit
+ * is always given to the tile with the fewest finished and pending samples, so all
+ * tiles progress at the same rate. The SPP of the scene is the lowest SPP of all tiles.
+ *
+ * <p>Each worker has a few work units assigned at a time, so that it can start on the
+ * next unit while the previous result is being sent. If a worker disconnects, its
+ * assigned units are handed out again. Workers can connect and disconnect at any time.
+ */
+public class DistributedRenderCoordinator {
+  /**
+   * Number of work units assigned to a worker at the same time.
+   */
+  private static final int UNITS_PER_WORKER = 2;
+
+  private final Scene scene;
+  private final int tileRows;
+  private final int unitSpp;
+  private final int target;
+
+  /**
+   * Samples per pixel merged into each tile.
+   */
+  private final int[] tileSpp;
+
+  /**
+   * Samples per pixel assigned to workers but not yet merged for each tile.
+   */
+  private final int[] pendingSpp;
+
+  private final Random seeds = new Random();
+  private boolean stopped = false;
+
+  /**
+   * @param tileRows number of rows per tile
+   * @param unitSpp  samples per pixel per work unit
+   */
+  public DistributedRenderCoordinator(Scene scene, int tileRows, int unitSpp) {
+    this.scene = scene;
+    this.tileRows = Math.max(1, tileRows);
+    this.unitSpp = Math.max(1, unitSpp);
+    this.target = scene.getTargetSpp();
+    int tiles = (scene.height + this.tileRows - 1) / this.tileRows;
+    tileSpp = new int[tiles];
+    pendingSpp = new int[tiles];
+    // Continue from the current render, the tiles of a loaded render dump have the same SPP.
+    Arrays.fill(tileSpp, scene.spp);
+  }
+
+  /**
+   * Accept workers on the server socket and render the scene to the target SPP.
+   * The server socket is closed when the render is finished.
+   *
+   * @param onProgress called with the new scene SPP when all tiles have reached it
+   */
+  public void render(ServerSocket server, TaskTracker taskTracker, IntConsumer onProgress)
+      throws InterruptedException {
+    Thread acceptor = new Thread(() -> accept(server), "Distributed Render Acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    long startTime = System.currentTimeMillis();
+    long previousRenderTime = scene.renderTime;
+    try (TaskTracker.Task task = taskTracker.task("Rendering", target)) {
+      int spp = minSpp();
+      task.update(target, spp);
+      while (spp < target) {
+        synchronized (this) {
+          while (minSpp() == spp) {
+            wait();
+          }
+          spp = minSpp();
+        }
+        synchronized (scene) {
+          scene.spp = spp;
+          scene.renderTime = previousRenderTime + System.currentTimeMillis() - startTime;
+        }
+        task.update(target, spp);
+        onProgress.accept(spp);
+      }
+    } finally {
+      synchronized (this) {
+        stopped = true;
+        notifyAll();
+      }
+      try {
+        server.close();
+      } catch (IOException e) {
+        Log.warn("Failed to close the distributed render server socket", e);
+      }
+    }
+  }
+
+  private void accept(ServerSocket server) {
+    Log.info("Waiting for render workers on port " + server.getLocalPort());
+    int connections = 0;
+    while (!server.isClosed()) {
+      try {
+        Socket socket = server.accept();
+        connections += 1;
+        Thread thread = new Thread(() -> serve(socket),
+            "Distributed Render Connection " + connections);
+        thread.setDaemon(true);
+        thread.start();
+      } catch (IOException e) {
+        if (!server.isClosed()) {
+          Log.warn("Failed to accept render worker", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Send work units to a worker and merge the results until the render is finished.
+   */
+  private void serve(Socket socket) {
+    String worker = String.valueOf(socket.getRemoteSocketAddress());
+    ArrayDeque<WorkUnit> assigned = new ArrayDeque<>();
+    try (Socket connection = socket;
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+      connection.setTcpNoDelay(true);
+      if (in.readInt() != DistributedRenderProtocol.MAGIC) {
+        throw new IOException("Not a render worker");
+      }
+      int version = in.readInt();
+      if (version != DistributedRenderProtocol.VERSION) {
+        throw new IOException("Unsupported protocol version " + version);
+      }
+      long seed;
+      synchronized (this) {
+        seed = seeds.nextLong();
+      }
+      out.writeUTF(scene.name());
+      out.writeInt(scene.width);
+      out.writeInt(scene.height);
+      out.writeInt(tileRows);
+      out.writeLong(seed);
+      out.flush();
+      if (in.readByte() != DistributedRenderProtocol.READY) {
+        throw new IOException("Render worker failed to load the scene");
+      }
+      Log.info("Render worker connected: " + worker);
+
+      int width = scene.width;
+      double[] samples = new double[width * tileRows * 3];
+      byte[] buffer = new byte[samples.length * Double.BYTES];
+      while (true) {
+        while (assigned.size() < UNITS_PER_WORKER) {
+          WorkUnit unit = assigned.isEmpty() ? awaitWork() : nextWork();
+          if (unit == null) {
+            break;
+          }
+          out.writeByte(DistributedRenderProtocol.WORK);
+          unit.write(out);
+          assigned.addLast(unit);
+        }
+        if (assigned.isEmpty()) {
+          out.writeByte(DistributedRenderProtocol.DONE);
+          out.flush();
+          break;
+        }
+        out.flush();
+        WorkUnit unit = assigned.peekFirst();
+        if (!WorkUnit.read(in).matches(unit)) {
+          throw new IOException("Unexpected work unit from render worker");
+        }
+        int count = width * (unit.y1 - unit.y0) * 3;
+        DistributedRenderProtocol.readSamples(in, samples, count, buffer);
+        merge(unit, samples);
+        assigned.removeFirst();
+      }
+      Log.info("Render worker finished: " + worker);
+    } catch (EOFException e) {
+      Log.warn("Render worker disconnected: " + worker);
+    } catch (IOException e) {
+      Log.warn("Render worker failed: " + worker, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      release(assigned);
+    }
+  }
+
+  /**
+   * @return the next work unit, or {@code null} if all remaining samples are assigned
+   */
+  private synchronized WorkUnit nextWork() {
+    if (stopped) {
+      return null;
+    }
+    int best = -1;
+    int bestSpp = target;
+    for (int i = 0; i < tileSpp.length; ++i) {
+      int spp = tileSpp[i] + pendingSpp[i];
+      if (spp < bestSpp) {
+        best = i;
+        bestSpp = spp;
+      }
+    }
+    if (best == -1) {
+      return null;
+    }
+    int spp = Math.min(unitSpp, target - bestSpp);
+    pendingSpp[best] += spp;
+    int y0 = best * tileRows;
+    return new WorkUnit(y0, Math.min(y0 + tileRows, scene.height), spp);
+  }
+
+  /**
+   * Wait until there is a work unit, or until the render is finished.
+   *
+   * @return the next work unit, or {@code null} if the render is finished
+   */
+  private synchronized WorkUnit awaitWork() throws InterruptedException {
+    while (true) {
+      WorkUnit unit = nextWork();
+      if (unit != null || stopped || minSpp() >= target) {
+        return unit;
+      }
+      // Wait for a disconnected worker to release its work units.
+      wait();
+    }
+  }
+
+  /**
+   * Return work units that were not finished by a worker.
+   */
+  private synchronized void release(Iterable<WorkUnit> units) {
+    for (WorkUnit unit : units) {
+      pendingSpp[unit.y0 / tileRows] -= unit.spp;
+    }
+    notifyAll();
+  }
+
+  private void merge(WorkUnit unit, double[] samples) {
+    int tile = unit.y0 / tileRows;
+    synchronized (scene) {
+      // Only merges change the tile SPP, and merges are serialized by the scene lock.
+      int previousSpp;
+      synchronized (this) {
+        previousSpp = tileSpp[tile];
+      }
+      double[] sampleBuffer = scene.getSampleBuffer();
+      double sinv = 1.0 / (previousSpp + unit.spp);
+      int offset = unit.y0 * scene.width * 3;
+      int count = (unit.y1 - unit.y0) * scene.width * 3;
+      for (int i = 0; i < count; ++i) {
+        sampleBuffer[offset + i] =
+            (sampleBuffer[offset + i] * previousSpp + samples[i] * unit.spp) * sinv;
+      }
+      synchronized (this) {
+        tileSpp[tile] += unit.spp;
+        pendingSpp[tile] -= unit.spp;
+        notifyAll();
+      }
+    }
+  }
+
+  private synchronized int minSpp() {
+    int min = target;
+    for (int spp : tileSpp) {
+      min = Math.min(min, spp);
+    }
+    return min;
+  }
+}
@@ -0,0 +1,90 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Messages exchanged between the distributed render coordinator and its workers.
+ *
+ * <p>A worker connects and sends {@link #MAGIC} and {@link #VERSION}. The coordinator
+ * replies with the scene name, canvas width, canvas height, rows per tile and a random
+ * seed for the worker. The worker loads the scene and sends {@link #READY}.
+ *
+ * <p>The coordinator then sends work units: {@link #WORK} followed by the first row,
+ * the end row (exclusive) and the SPP of the unit. For each unit, in order, the worker
+ * replies with the same three values followed by the averaged samples of the unit, three
+ * doubles per pixel. When there is no more work the coordinator sends {@link #DONE}.
+ */
+final class DistributedRenderProtocol {
+  static final int MAGIC = 0x43484b44;  // "CHKD"
+  static final int VERSION = 1;
+
+  static final byte READY = 1;
+  static final byte WORK = 2;
+  static final byte DONE = 3;
+
+  private DistributedRenderProtocol() {}
+
+  /**
+   * A range of whole rows to render with a number of samples per pixel.
+   */
+  static class WorkUnit {
+    final int y0;
+    final int y1;
+    final int spp;
+
+    WorkUnit(int y0, int y1, int spp) {
+      this.y0 = y0;
+      this.y1 = y1;
+      this.spp = spp;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeInt(y0);
+      out.writeInt(y1);
+      out.writeInt(spp);
+    }
+
+    static WorkUnit read(DataInputStream in) throws IOException {
+      return new WorkUnit(in.readInt(), in.readInt(), in.readInt());
+    }
+
+    boolean matches(WorkUnit other) {
+      return y0 == other.y0 && y1 == other.y1 && spp == other.spp;
+    }
+
+    @Override public String toString() {
+      return String.format("rows %d-%d, %d SPP", y0, y1, spp);
+    }
+  }
+
+  static void writeSamples(DataOutputStream out, double[] samples, int count, byte[] buffer)
+      throws IOException {
+    ByteBuffer.wrap(buffer).asDoubleBuffer().put(samples, 0, count);
+    out.write(buffer, 0, count * Double.BYTES);
+  }
+
+  static void readSamples(DataInputStream in, double[] samples, int count, byte[] buffer)
+      throws IOException {
+    in.readFully(buffer, 0, count * Double.BYTES);
+    ByteBuffer.wrap(buffer).asDoubleBuffer().get(samples, 0, count);
+  }
+}
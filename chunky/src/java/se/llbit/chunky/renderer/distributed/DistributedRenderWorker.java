@@ -0,0 +1,153 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.distributed;
+
+import se.llbit.chunky.renderer.BandedRender;
+import se.llbit.chunky.renderer.PathTracingRenderer;
+import se.llbit.chunky.renderer.RenderContext;
+import se.llbit.chunky.renderer.RenderWorkerPool;
+import se.llbit.chunky.renderer.distributed.DistributedRenderProtocol.WorkUnit;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.renderer.scene.SynchronousSceneManager;
+import se.llbit.log.Log;
+import se.llbit.util.TaskTracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders work units for a distributed render coordinator.
+ *
+ * <p>The worker loads the scene named by the coordinator from its own scene
+ * directory, so the scene files must be available on each worker. Only the buffers
+ * for two work units are allocated, not the full-size render buffers. While one work
+ * unit is sent back to the coordinator the next unit is rendered.
+ */
+public class DistributedRenderWorker {
+  private final RenderContext context;
+  private final Scene scene;
+
+  /**
+   * @param scene an empty scene to load the coordinator's scene into
+   */
+  public DistributedRenderWorker(RenderContext context, Scene scene) {
+    this.context = context;
+    this.scene = scene;
+  }
+
+  /**
+   * Connect to the coordinator and render work units until the coordinator has
+   * no more work.
+   */
+  public void run(String host, int port, TaskTracker taskTracker)
+      throws IOException, InterruptedException {
+    try (Socket socket = new Socket(host, port);
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+      socket.setTcpNoDelay(true);
+      out.writeInt(DistributedRenderProtocol.MAGIC);
+      out.writeInt(DistributedRenderProtocol.VERSION);
+      out.flush();
+
+      String sceneName = in.readUTF();
+      int width = in.readInt();
+      int height = in.readInt();
+      int tileRows = in.readInt();
+      long seed = in.readLong();
+      loadScene(sceneName, taskTracker);
+      if (scene.width != width || scene.height != height) {
+        throw new IOException(String.format(
+            "The scene size %dx%d does not match the coordinator's scene size %dx%d",
+            scene.width, scene.height, width, height));
+      }
+      out.writeByte(DistributedRenderProtocol.READY);
+      out.flush();
+      Log.info("Connected to render coordinator " + host + ":" + port);
+
+      render(in, out, tileRows, seed, taskTracker);
+    }
+  }
+
+  private void loadScene(String sceneName, TaskTracker taskTracker) throws IOException {
+    File sceneDirectory = SynchronousSceneManager.resolveSceneDirectory(sceneName);
+    if (sceneDirectory.isDirectory()) {
+      context.setSceneDirectory(sceneDirectory);
+    }
+    // The worker renders into work unit buffers, the full-size buffers are not needed.
+    scene.setBandedRender(true);
+    scene.loadScene(context, sceneName, taskTracker);
+    scene.importMaterials();
+    scene.updateMaterialTable();
+  }
+
+  private void render(DataInputStream in, DataOutputStream out, int tileRows, long seed,
+      TaskTracker taskTracker) throws IOException, InterruptedException {
+    PathTracingRenderer renderer = BandedRender.getRenderer(scene);
+    int width = scene.width;
+    double[][] samples = new double[2][width * tileRows * 3];
+    Future<?>[] sending = new Future<?>[2];
+    byte[] buffer = new byte[samples[0].length * Double.BYTES];
+    ExecutorService sender = Executors.newSingleThreadExecutor();
+    RenderWorkerPool pool = context.renderPoolFactory.create(context.numRenderThreads(), seed);
+    try (TaskTracker.Task task = taskTracker.task("Rendering work units")) {
+      int units = 0;
+      while (in.readByte() == DistributedRenderProtocol.WORK) {
+        WorkUnit unit = WorkUnit.read(in);
+        int index = units % 2;
+        await(sending[index]);
+        double[] unitSamples = samples[index];
+        renderer.renderBand(pool, context, scene, unit.y0, unit.y1, unit.spp, unitSamples);
+        int count = width * (unit.y1 - unit.y0) * 3;
+        sending[index] = sender.submit(() -> {
+          unit.write(out);
+          DistributedRenderProtocol.writeSamples(out, unitSamples, count, buffer);
+          out.flush();
+          return null;
+        });
+        units += 1;
+        task.update("Rendering work units (" + units + " done)", 1, 0);
+      }
+      await(sending[0]);
+      await(sending[1]);
+      Log.info("Render coordinator has no more work");
+    } finally {
+      pool.interrupt();
+      sender.shutdownNow();
+    }
+  }
+
+  private static void await(Future<?> future) throws IOException, InterruptedException {
+    if (future != null) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        throw new IOException("Failed to send work unit", e.getCause());
+      }
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package se.llbit.chunky.renderer.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import se.llbit.chunky.renderer.AovBuffers;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.imageformats.pfm.PfmFileWriter;
+import se.llbit.util.TaskTracker;
+
+/**
+ * Portable float map (PFM) with one of the denoiser guide buffers, for use with external
+ * denoisers. The guide buffers are only written while the denoiser is enabled.
+ */
+public class AovExportFormat implements PictureExportFormat {
+  public enum Aov {
+    ALBEDO("albedo"),
+    NORMAL("shading normal"),
+    DEPTH("depth");
+
+    private final String description;
+
+    Aov(String description) {
+      this.description = description;
+    }
+  }
+
+  private final Aov aov;
+
+  public AovExportFormat(Aov aov) {
+    this.aov = aov;
+  }
+
+  @Override
+  public String getName() {
+    return "PFM_" + aov.name();
+  }
+
+  @Override
+  public String getDescription() {
+    return "PFM, denoiser " + aov.description + " guide (32-bit)";
+  }
+
+  @Override
+  public String getExtension() {
+    return "." + aov.name().toLowerCase() + ".pfm";
+  }
+
+  @Override
+  public void write(OutputStream out, Scene scene, TaskTracker taskTracker) throws IOException {
+    AovBuffers aovs = scene.getAovBuffers();
+    if (aovs == null) {
+      throw new IOException("The denoiser guide buffers are only written when the denoiser is enabled");
+    }
+    try (TaskTracker.Task task = taskTracker.task("Writing PFM rows", 1);
+        PfmFileWriter writer = new PfmFileWriter(out)) {
+      writer.writeHeader(aovs.width, aovs.height);
+      switch (aov) {
+        case ALBEDO:
+          writer.writeRows(aovs.width, aovs.height, aovs.getAlbedo(), 3);
+          break;
+        case NORMAL:
+          writer.writeRows(aovs.width, aovs.height, aovs.getNormal(), 3);
+          break;
+        case DEPTH:
+          writer.writeRows(aovs.width, aovs.height, aovs.getDepth(), 1);
+          break;
+      }
+      task.update(1);
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package se.llbit.chunky.renderer.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import se.llbit.chunky.renderer.scene.Scene;
+
+/**
+ * An export format that can write a picture in horizontal bands while it is being
+ * rendered, so that the whole picture never has to be kept in memory.
+ */
+public interface BandedExportFormat extends PictureExportFormat {
+
+  /**
+   * Start writing a picture of the given scene. The bands are then written in order
+   * with the returned writer, and the picture is completed by closing the writer.
+   *
+   * @param out   Output stream, this is closed when the writer is closed
+   * @param scene Scene to export, used for the canvas size and post-processing settings
+   * @throws IOException If exporting the picture fails
+   */
+  BandWriter writeBands(OutputStream out, Scene scene) throws IOException;
+
+  /**
+   * Writes the bands of a picture.
+   */
+  interface BandWriter extends AutoCloseable {
+    /**
+     * Check if the bands must be written from the bottom of the picture to the top.
+     *
+     * @return True if the last band must be written first, false otherwise
+     */
+    default boolean isBottomUp() {
+      return false;
+    }
+
+    /**
+     * Write the rows {@code y0} (inclusive) to {@code y1} (exclusive) of the picture.
+     *
+     * @param samples Linear samples of the band, with three values per pixel, exposure has
+     *                not been applied
+     * @param alpha   Alpha values of the band, or {@code null} if the scene does not use
+     *                a transparent sky
+     * @throws IOException If writing the band fails
+     */
+    void writeBand(int y0, int y1, double[] samples, byte[] alpha) throws IOException;
+
+    @Override
+    void close() throws IOException;
+  }
+}
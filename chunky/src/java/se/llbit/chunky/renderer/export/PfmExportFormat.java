@@ -9,7 +9,7 @@ import se.llbit.util.TaskTracker;
 /**
  * Portable float map (PFM) with 32-bit color channels.
  */
-public class PfmExportFormat implements PictureExportFormat {
+public class PfmExportFormat implements BandedExportFormat {
 
   @Override
   public String getName() {
@@ -38,4 +38,27 @@ public class PfmExportFormat implements PictureExportFormat {
       writer.write(scene, task);
     }
   }
+
+  @Override
+  public BandWriter writeBands(OutputStream out, Scene scene) throws IOException {
+    PfmFileWriter writer = new PfmFileWriter(out);
+    int width = scene.canvasWidth();
+    writer.writeHeader(width, scene.canvasHeight());
+    return new BandWriter() {
+      @Override
+      public boolean isBottomUp() {
+        return true;
+      }
+
+      @Override
+      public void writeBand(int y0, int y1, double[] samples, byte[] alpha) throws IOException {
+        writer.writeRows(width, y1 - y0, samples);
+      }
+
+      @Override
+      public void close() throws IOException {
+        writer.close();
+      }
+    };
+  }
 }
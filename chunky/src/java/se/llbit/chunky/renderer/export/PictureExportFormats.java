@@ -39,6 +39,9 @@ public abstract class PictureExportFormats {
 
     registerFormat(new Tiff32ExportFormat());
     registerFormat(new PfmExportFormat());
+    for (AovExportFormat.Aov aov : AovExportFormat.Aov.values()) {
+      registerFormat(new AovExportFormat(aov));
+    }
   }
 
   /**
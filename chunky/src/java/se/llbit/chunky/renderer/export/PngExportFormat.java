@@ -12,7 +12,7 @@ import se.llbit.util.TaskTracker;
 /**
  * Standard PNG with 8-bit color channels.
  */
-public class PngExportFormat implements PictureExportFormat {
+public class PngExportFormat implements BandedExportFormat {
 
   @Override
   public String getName() {
@@ -40,34 +40,84 @@ public class PngExportFormat implements PictureExportFormat {
       } else {
         writer.write(backBuffer.data, scene.canvasWidth(), scene.canvasHeight(), task);
       }
-      if (scene.camera().getProjectionMode() == ProjectionMode.PANORAMIC
-          && scene.camera().getFov() >= 179
-          && scene.camera().getFov() <= 181) {
-        String xmp = "";
-        xmp += "<rdf:RDF xmlns:rdf='http://www.w3.org/1999/02/22-rdf-syntax-ns#'>\n";
-        xmp += " <rdf:Description rdf:about=''\n";
-        xmp += "   xmlns:GPano='http://ns.google.com/photos/1.0/panorama/'>\n";
-        xmp += " <GPano:CroppedAreaImageHeightPixels>";
-        xmp += scene.canvasHeight();
-        xmp += "</GPano:CroppedAreaImageHeightPixels>\n";
-        xmp += " <GPano:CroppedAreaImageWidthPixels>";
-        xmp += scene.canvasWidth();
-        xmp += "</GPano:CroppedAreaImageWidthPixels>\n";
-        xmp += " <GPano:CroppedAreaLeftPixels>0</GPano:CroppedAreaLeftPixels>\n";
-        xmp += " <GPano:CroppedAreaTopPixels>0</GPano:CroppedAreaTopPixels>\n";
-        xmp += " <GPano:FullPanoHeightPixels>";
-        xmp += scene.canvasHeight();
-        xmp += "</GPano:FullPanoHeightPixels>\n";
-        xmp += " <GPano:FullPanoWidthPixels>";
-        xmp += scene.canvasWidth();
-        xmp += "</GPano:FullPanoWidthPixels>\n";
-        xmp += " <GPano:ProjectionType>equirectangular</GPano:ProjectionType>\n";
-        xmp += " <GPano:UsePanoramaViewer>True</GPano:UsePanoramaViewer>\n";
-        xmp += " </rdf:Description>\n";
-        xmp += " </rdf:RDF>";
-        ITXT iTXt = new ITXT("XML:com.adobe.xmp", xmp);
-        writer.writeChunk(iTXt);
+      writePanoramaMetadata(writer, scene);
+    }
+  }
+
+  @Override
+  public BandWriter writeBands(OutputStream out, Scene scene) throws IOException {
+    PngFileWriter writer = new PngFileWriter(out);
+    int width = scene.canvasWidth();
+    boolean alpha = scene.transparentSky();
+    PngFileWriter.RowWriter rows = writer.rowWriter(width, scene.canvasHeight(), alpha);
+    return new BandWriter() {
+      private final byte[] row = new byte[width * (alpha ? 4 : 3)];
+
+      @Override
+      public void writeBand(int y0, int y1, double[] samples, byte[] alphaChannel)
+          throws IOException {
+        BitmapImage band = new BitmapImage(width, y1 - y0);
+        scene.getPostProcessingFilter().processFrame(width, y1 - y0, samples, band,
+            scene.getExposure(), TaskTracker.Task.NONE);
+        for (int y = 0; y < y1 - y0; ++y) {
+          int j = 0;
+          for (int x = 0; x < width; ++x) {
+            int rgb = band.getPixel(x, y);
+            row[j++] = (byte) (rgb >> 16);
+            row[j++] = (byte) (rgb >> 8);
+            row[j++] = (byte) rgb;
+            if (alpha) {
+              row[j++] = alphaChannel[y * width + x];
+            }
+          }
+          rows.writeRow(row);
+        }
       }
+
+      @Override
+      public void close() throws IOException {
+        try {
+          rows.close();
+          writePanoramaMetadata(writer, scene);
+        } finally {
+          writer.close();
+        }
+      }
+    };
+  }
+
+  /**
+   * Add the XMP metadata for 360 degree panoramas, if the scene is rendered as one.
+   */
+  private static void writePanoramaMetadata(PngFileWriter writer, Scene scene)
+      throws IOException {
+    if (scene.camera().getProjectionMode() == ProjectionMode.PANORAMIC
+        && scene.camera().getFov() >= 179
+        && scene.camera().getFov() <= 181) {
+      String xmp = "";
+      xmp += "<rdf:RDF xmlns:rdf='http://www.w3.org/1999/02/22-rdf-syntax-ns#'>\n";
+      xmp += " <rdf:Description rdf:about=''\n";
+      xmp += "   xmlns:GPano='http://ns.google.com/photos/1.0/panorama/'>\n";
+      xmp += " <GPano:CroppedAreaImageHeightPixels>";
+      xmp += scene.canvasHeight();
+      xmp += "</GPano:CroppedAreaImageHeightPixels>\n";
+      xmp += " <GPano:CroppedAreaImageWidthPixels>";
+      xmp += scene.canvasWidth();
+      xmp += "</GPano:CroppedAreaImageWidthPixels>\n";
+      xmp += " <GPano:CroppedAreaLeftPixels>0</GPano:CroppedAreaLeftPixels>\n";
+      xmp += " <GPano:CroppedAreaTopPixels>0</GPano:CroppedAreaTopPixels>\n";
+      xmp += " <GPano:FullPanoHeightPixels>";
+      xmp += scene.canvasHeight();
+      xmp += "</GPano:FullPanoHeightPixels>\n";
+      xmp += " <GPano:FullPanoWidthPixels>";
+      xmp += scene.canvasWidth();
+      xmp += "</GPano:FullPanoWidthPixels>\n";
+      xmp += " <GPano:ProjectionType>equirectangular</GPano:ProjectionType>\n";
+      xmp += " <GPano:UsePanoramaViewer>True</GPano:UsePanoramaViewer>\n";
+      xmp += " </rdf:Description>\n";
+      xmp += " </rdf:RDF>";
+      ITXT iTXt = new ITXT("XML:com.adobe.xmp", xmp);
+      writer.writeChunk(iTXt);
     }
   }
 }
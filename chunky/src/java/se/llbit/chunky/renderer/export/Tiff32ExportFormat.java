@@ -2,6 +2,7 @@ package se.llbit.chunky.renderer.export;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import se.llbit.chunky.renderer.postprocessing.PixelPostProcessingFilter;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.imageformats.tiff.TiffFileWriter;
 import se.llbit.util.TaskTracker;
@@ -9,7 +10,7 @@ import se.llbit.util.TaskTracker;
 /**
  * TIFF with 32-bit color channels.
  */
-public class Tiff32ExportFormat implements PictureExportFormat {
+public class Tiff32ExportFormat implements BandedExportFormat {
 
   @Override
   public String getName() {
@@ -38,4 +39,33 @@ public class Tiff32ExportFormat implements PictureExportFormat {
       writer.write32(scene, task);
     }
   }
+
+  @Override
+  public BandWriter writeBands(OutputStream out, Scene scene) throws IOException {
+    TiffFileWriter writer = new TiffFileWriter(out);
+    PixelPostProcessingFilter filter = TiffFileWriter.pixelFilter(scene);
+    int width = scene.canvasWidth();
+    int height = scene.canvasHeight();
+    try {
+      writer.begin32(width, height);
+    } catch (IOException e) {
+      writer.close();
+      throw e;
+    }
+    return new BandWriter() {
+      @Override
+      public void writeBand(int y0, int y1, double[] samples, byte[] alpha) throws IOException {
+        writer.writeRows32(width, y1 - y0, samples, filter, scene.getExposure());
+      }
+
+      @Override
+      public void close() throws IOException {
+        try {
+          writer.finish32(width, height);
+        } finally {
+          writer.close();
+        }
+      }
+    };
+  }
 }
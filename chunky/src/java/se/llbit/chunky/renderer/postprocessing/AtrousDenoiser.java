@@ -0,0 +1,147 @@
+package se.llbit.chunky.renderer.postprocessing;
+
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.renderer.AovBuffers;
+import se.llbit.util.TaskTracker;
+
+import java.util.stream.IntStream;
+
+/**
+ * Edge-avoiding à-trous wavelet denoiser, based on "Edge-Avoiding À-Trous Wavelet Transform
+ * for fast Global Illumination Filtering" by Dammertz et al.
+ *
+ * <p>The denoiser runs before the post processing filter, on the linear samples. The samples
+ * are divided by the first hit albedo so that only the lighting is filtered and texture
+ * detail is kept. The lighting is then blurred with a 5x5 B3 spline kernel whose taps are
+ * spread further apart in each iteration. Each tap is weighted by how similar its color,
+ * shading normal and depth are to the center pixel, which keeps edges sharp.
+ */
+public class AtrousDenoiser {
+  public static final int DEFAULT_ITERATIONS = 5;
+  public static final int MAX_ITERATIONS = 8;
+
+  private static final double[] KERNEL = { 1 / 16.0, 1 / 4.0, 3 / 8.0, 1 / 4.0, 1 / 16.0 };
+
+  /** Color weight falloff for the first iteration, halved in each following iteration. */
+  private static final double COLOR_PHI = 1.0;
+  private static final double NORMAL_PHI = 0.1;
+
+  /** Relative depth difference per tap step. */
+  private static final double DEPTH_PHI = 0.05;
+
+  /** Albedo channels below this are not divided out, to not amplify noise. */
+  private static final double MIN_ALBEDO = 0.01;
+
+  private AtrousDenoiser() {
+  }
+
+  /**
+   * Denoise the samples of a frame.
+   *
+   * @param input      Linear samples, three values per pixel
+   * @param aovs       Guide buffers for the frame
+   * @param iterations Number of filter iterations, the filter radius doubles with each one
+   * @param output     Receives the denoised samples
+   * @param scratch    Holds intermediate results, the same size as the output
+   */
+  public static void denoise(int width, int height, double[] input, AovBuffers aovs,
+      int iterations, double[] output, double[] scratch, TaskTracker.Task task) {
+    float[] albedo = aovs.getAlbedo();
+    float[] normal = aovs.getNormal();
+    float[] depth = aovs.getDepth();
+
+    // The iterations alternate between the scratch and output buffers.
+    double[] src = scratch;
+    double[] dst = output;
+    for (int i = 0; i < input.length; ++i) {
+      src[i] = input[i] / divisor(albedo[i]);
+    }
+
+    task.update(iterations + 1, 0);
+    for (int iteration = 0; iteration < iterations; ++iteration) {
+      int step = 1 << iteration;
+      double colorPhi = COLOR_PHI / step;
+      double[] in = src;
+      double[] out = dst;
+      Chunky.getCommonThreads().submit(() ->
+        IntStream.range(0, height).parallel().forEach(y -> {
+          for (int x = 0; x < width; ++x) {
+            filterPixel(width, height, x, y, step, colorPhi, in, out, normal, depth);
+          }
+        })
+      ).join();
+      src = out;
+      dst = in;
+      task.update(iterations + 1, iteration + 1);
+    }
+
+    for (int i = 0; i < output.length; ++i) {
+      output[i] = src[i] * divisor(albedo[i]);
+    }
+    task.update(iterations + 1, iterations + 1);
+  }
+
+  private static void filterPixel(int width, int height, int x, int y, int step,
+      double colorPhi, double[] in, double[] out, float[] normal, float[] depth) {
+    int p = y * width + x;
+    double cr = compress(in[p * 3]);
+    double cg = compress(in[p * 3 + 1]);
+    double cb = compress(in[p * 3 + 2]);
+    double nx = normal[p * 3];
+    double ny = normal[p * 3 + 1];
+    double nz = normal[p * 3 + 2];
+    double z = depth[p];
+
+    double r = 0, g = 0, b = 0;
+    double weightSum = 0;
+    for (int j = -2; j <= 2; ++j) {
+      int qy = y + j * step;
+      if (qy < 0 || qy >= height) {
+        continue;
+      }
+      for (int i = -2; i <= 2; ++i) {
+        int qx = x + i * step;
+        if (qx < 0 || qx >= width) {
+          continue;
+        }
+        int q = qy * width + qx;
+
+        double dr = compress(in[q * 3]) - cr;
+        double dg = compress(in[q * 3 + 1]) - cg;
+        double db = compress(in[q * 3 + 2]) - cb;
+        double colorDist = dr * dr + dg * dg + db * db;
+
+        double dnx = normal[q * 3] - nx;
+        double dny = normal[q * 3 + 1] - ny;
+        double dnz = normal[q * 3 + 2] - nz;
+        double normalDist = dnx * dnx + dny * dny + dnz * dnz;
+
+        double zq = depth[q];
+        double depthDist = Math.abs(zq - z) / (DEPTH_PHI * step * Math.max(z, zq) + 1e-4);
+
+        double weight = KERNEL[i + 2] * KERNEL[j + 2]
+            * Math.exp(-colorDist / colorPhi - normalDist / NORMAL_PHI - depthDist);
+        r += in[q * 3] * weight;
+        g += in[q * 3 + 1] * weight;
+        b += in[q * 3 + 2] * weight;
+        weightSum += weight;
+      }
+    }
+    // The center tap always has a positive weight.
+    out[p * 3] = r / weightSum;
+    out[p * 3 + 1] = g / weightSum;
+    out[p * 3 + 2] = b / weightSum;
+  }
+
+  /**
+   * Compress the range of a color channel, so that single bright samples do not dominate
+   * the color weights.
+   */
+  private static double compress(double value) {
+    return value / (1 + value);
+  }
+
+  private static double divisor(float albedo) {
+    return albedo > MIN_ALBEDO ? albedo : 1;
+  }
+}
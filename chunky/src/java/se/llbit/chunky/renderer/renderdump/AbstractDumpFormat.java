@@ -124,9 +124,14 @@ abstract class AbstractDumpFormat implements DumpFormat {
   }
 
   protected void writeHeader(DataOutputStream outputStream, Scene scene) throws IOException {
-    outputStream.writeInt(scene.width);
-    outputStream.writeInt(scene.height);
-    outputStream.writeInt(scene.spp);
-    outputStream.writeLong(scene.renderTime);
+    writeHeader(outputStream, scene.width, scene.height, scene.spp, scene.renderTime);
+  }
+
+  protected void writeHeader(DataOutputStream outputStream, int width, int height, int spp,
+      long renderTime) throws IOException {
+    outputStream.writeInt(width);
+    outputStream.writeInt(height);
+    outputStream.writeInt(spp);
+    outputStream.writeLong(renderTime);
   }
 }
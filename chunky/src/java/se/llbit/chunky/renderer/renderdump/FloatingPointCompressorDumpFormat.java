@@ -55,7 +55,7 @@ public class FloatingPointCompressorDumpFormat extends AbstractDumpFormat {
   protected void readSamples(DataInputStream inputStream, Scene scene,
                              PixelConsumer consumer, IntConsumer pixelProgress)
       throws IOException {
-    decompress(inputStream, scene.getSampleBuffer().length, consumer, pixelProgress);
+    decompress(inputStream, 0, scene.getSampleBuffer().length / 3, consumer, pixelProgress);
   }
 
   @Override
@@ -65,7 +65,18 @@ public class FloatingPointCompressorDumpFormat extends AbstractDumpFormat {
     double[] samples = scene.getSampleBuffer();
     assert samples.length % 3 == 0;
 
-    int pixels = samples.length / 3;
+    compress(samples, 0, samples.length / 3, outputStream, pixelProgress);
+  }
+
+  /**
+   * Compress the pixels {@code start} (inclusive) to {@code end} (exclusive) of the
+   * sample buffer. The compressed pixels only depend on each other, so ranges can be
+   * compressed independently.
+   */
+  static void compress(double[] samples, int start, int end, OutputStream outputStream,
+                       IntConsumer pixelProgress)
+      throws IOException {
+    int pixels = end - start;
     int size = pixels - 1;
 
     EncoderDecoder rEncoder = new EncoderDecoder();
@@ -73,29 +84,31 @@ public class FloatingPointCompressorDumpFormat extends AbstractDumpFormat {
     EncoderDecoder bEncoder = new EncoderDecoder();
 
     for (int i = 0; i < size; i += 2) {
-      int idx = 3 * i;
+      int idx = 3 * (start + i);
       rEncoder.encodePair(samples[idx], samples[idx + 3], outputStream);
       gEncoder.encodePair(samples[idx + 1], samples[idx + 4], outputStream);
       bEncoder.encodePair(samples[idx + 2], samples[idx + 5], outputStream);
-      pixelProgress.accept(i);
+      pixelProgress.accept(start + i);
     }
 
     // Add the last one and a special terminator if there is an odd number
     if (pixels % 2 == 1) {
-      int idx = 3 * size;
+      int idx = 3 * (start + size);
       rEncoder.encodeSingleWithOddTerminator(samples[idx], outputStream);
       gEncoder.encodeSingleWithOddTerminator(samples[idx + 1], outputStream);
       bEncoder.encodeSingleWithOddTerminator(samples[idx + 2], outputStream);
-      pixelProgress.accept(size);
+      pixelProgress.accept(start + size);
     }
   }
 
-  private void decompress(InputStream inputStream, int bufferLength,
-                          PixelConsumer consumer, IntConsumer pixelProgress)
+  /**
+   * Decompress the pixels {@code start} (inclusive) to {@code end} (exclusive), written
+   * by {@link #compress}.
+   */
+  static void decompress(InputStream inputStream, int start, int end,
+                         PixelConsumer consumer, IntConsumer pixelProgress)
       throws IOException {
-    assert bufferLength % 3 == 0;
-
-    int pixels = bufferLength / 3;
+    int pixels = end - start;
     int size = pixels - 1;
 
     EncoderDecoder rDecoder = new EncoderDecoder();
@@ -121,9 +134,9 @@ public class FloatingPointCompressorDumpFormat extends AbstractDumpFormat {
       double b1 = bDecoder.decodeSingle(bFirstHeader, inputStream);
       double b2 = bDecoder.decodeSingle(bSecondHeader, inputStream);
 
-      consumer.consume(i, r1, g1, b1);
-      consumer.consume(i+1, r2,  g2, b2);
-      pixelProgress.accept(i);
+      consumer.consume(start + i, r1, g1, b1);
+      consumer.consume(start + i + 1, r2,  g2, b2);
+      pixelProgress.accept(start + i);
     }
 
     // Add the last one and a special terminator if there is an odd number
@@ -146,8 +159,8 @@ public class FloatingPointCompressorDumpFormat extends AbstractDumpFormat {
       double b = bDecoder.decodeSingle(bFirstHeader, inputStream);
       bDecoder.decodeSingle(bSecondHeader, inputStream); // discard
 
-      consumer.consume(size, r, g, b);
-      pixelProgress.accept(size);
+      consumer.consume(start + size, r, g, b);
+      pixelProgress.accept(start + size);
     }
   }
 
@@ -37,7 +37,7 @@ import java.util.HashMap;
  */
 public class RenderDump {
   public static final byte[] DUMP_FORMAT_MAGIC_NUMBER = {0x44, 0x55, 0x4D, 0x50};
-  private static final int DEFAULT_DUMP_FORMAT = 1;  // FPC compressor
+  private static final int DEFAULT_DUMP_FORMAT = 5;  // Tiled FPC compressor
 
   private static final HashMap<Integer, DumpFormat> RENDER_DUMP_FORMATS = new HashMap<>();
 
@@ -57,6 +57,7 @@ public class RenderDump {
     RenderDump.addRenderDumpFormat(UncompressedDumpFormat.INSTANCE);            // 2
     RenderDump.addRenderDumpFormat(HuffmanDumpFormat.INSTANCE);                 // 3
     RenderDump.addRenderDumpFormat(GzipDumpFormat.INSTANCE);                    // 4
+    RenderDump.addRenderDumpFormat(TiledDumpFormat.INSTANCE);                   // 5
   }
 
   private static DumpFormat getDumpFormat(int version) {
@@ -113,6 +114,20 @@ public class RenderDump {
     save(outputStream, scene, taskTracker, DEFAULT_DUMP_FORMAT);
   }
 
+  /**
+   * Save a render dump of a sample buffer that does not belong to a scene, for example a
+   * copy of the sample buffer of a scene. The dump is saved in the default tiled format.
+   */
+  public static void save(OutputStream outputStream, int width, int height, int spp,
+      long renderTime, double[] samples, TaskTracker taskTracker) throws IOException {
+    DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(outputStream));
+    TiledDumpFormat format = TiledDumpFormat.INSTANCE;
+    dataOutputStream.write(DUMP_FORMAT_MAGIC_NUMBER);
+    dataOutputStream.writeInt(format.getVersion());
+    format.save(dataOutputStream, width, height, spp, renderTime, samples, taskTracker);
+    dataOutputStream.flush();
+  }
+
   @PluginApi
   public static void save(OutputStream outputStream, Scene scene, TaskTracker taskTracker, int version) throws IOException {
     DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(outputStream));
@@ -0,0 +1,167 @@
+package se.llbit.chunky.renderer.renderdump;
+
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.util.TaskTracker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+
+/**
+ * FPC compressed dump format where the frame is split into tiles of whole rows.
+ * Each tile is compressed independently, so tiles are compressed and decompressed
+ * on multiple threads.
+ *
+ * <p>After the common dump header follows the number of rows per tile, the number
+ * of tiles and the compressed size of each tile. This index makes it possible to
+ * find or skip any tile without decompressing the tiles before it. The compressed
+ * tiles follow the index, in order from the top of the frame.
+ */
+public class TiledDumpFormat extends AbstractDumpFormat {
+  public static final TiledDumpFormat INSTANCE = new TiledDumpFormat();
+
+  /**
+   * Number of rows per tile.
+   */
+  private static final int TILE_ROWS = 32;
+
+  private TiledDumpFormat() {}
+
+  @Override
+  public int getVersion() {
+    return 5;
+  }
+
+  @Override
+  public String getName() {
+    return "Tiled Floating Point Compressor";
+  }
+
+  @Override
+  public String getDescription() {
+    return "FPC compressed dump format with independent tiles, saved and loaded in parallel.";
+  }
+
+  @Override
+  public String getId() {
+    return "TiledDumpFormat";
+  }
+
+  @Override
+  protected void readSamples(DataInputStream inputStream, Scene scene,
+                             PixelConsumer consumer, IntConsumer pixelProgress)
+      throws IOException {
+    int width = scene.width;
+    int pixels = scene.width * scene.height;
+    int tileRows = inputStream.readInt();
+    int tileCount = inputStream.readInt();
+    if (tileRows <= 0 || tileCount != (scene.height + tileRows - 1) / tileRows) {
+      throw new IllegalStateException("Invalid render dump tile index");
+    }
+    int[] tileSizes = new int[tileCount];
+    for (int i = 0; i < tileCount; ++i) {
+      tileSizes[i] = inputStream.readInt();
+    }
+
+    ForkJoinPool pool = Chunky.getCommonThreads();
+    // Limit the number of compressed tiles in memory.
+    int maxPending = 2 * pool.getParallelism();
+    ArrayDeque<ForkJoinTask<?>> pending = new ArrayDeque<>();
+    int done = 0;
+    for (int i = 0; i < tileCount; ++i) {
+      byte[] tile = new byte[tileSizes[i]];
+      inputStream.readFully(tile);
+      int start = i * tileRows * width;
+      int end = Math.min(start + tileRows * width, pixels);
+      if (pending.size() >= maxPending) {
+        join(pending.removeFirst());
+        done += 1;
+        pixelProgress.accept(Math.min(done * tileRows * width, pixels));
+      }
+      pending.add(pool.submit(() -> {
+        try {
+          FloatingPointCompressorDumpFormat.decompress(new ByteArrayInputStream(tile),
+              start, end, consumer, pixel -> {});
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }));
+    }
+    while (!pending.isEmpty()) {
+      join(pending.removeFirst());
+      done += 1;
+      pixelProgress.accept(Math.min(done * tileRows * width, pixels));
+    }
+  }
+
+  /**
+   * Save a render dump of a sample buffer that does not belong to a scene, for example
+   * a copy of the sample buffer of a scene.
+   */
+  void save(DataOutputStream outputStream, int width, int height, int spp, long renderTime,
+      double[] samples, TaskTracker taskTracker) throws IOException {
+    try (TaskTracker.Task task = taskTracker.task("Saving render dump", width * height)) {
+      writeHeader(outputStream, width, height, spp, renderTime);
+      writeSamples(outputStream, width, height, samples, i -> task.updateInterval(i, width));
+    }
+  }
+
+  @Override
+  protected void writeSamples(DataOutputStream outputStream, Scene scene,
+                              IntConsumer pixelProgress)
+      throws IOException {
+    writeSamples(outputStream, scene.width, scene.height, scene.getSampleBuffer(),
+        pixelProgress);
+  }
+
+  private void writeSamples(DataOutputStream outputStream, int width, int height,
+      double[] samples, IntConsumer pixelProgress) throws IOException {
+    int pixels = width * height;
+    int tileCount = (height + TILE_ROWS - 1) / TILE_ROWS;
+
+    // The index is written before the tiles, so all tiles are compressed first.
+    ForkJoinPool pool = Chunky.getCommonThreads();
+    List<ForkJoinTask<byte[]>> tasks = new ArrayList<>(tileCount);
+    for (int i = 0; i < tileCount; ++i) {
+      int start = i * TILE_ROWS * width;
+      int end = Math.min(start + TILE_ROWS * width, pixels);
+      tasks.add(pool.submit(() -> {
+        ByteArrayOutputStream tile = new ByteArrayOutputStream();
+        FloatingPointCompressorDumpFormat.compress(samples, start, end, tile, pixel -> {});
+        return tile.toByteArray();
+      }));
+    }
+    byte[][] tiles = new byte[tileCount][];
+    for (int i = 0; i < tileCount; ++i) {
+      tiles[i] = join(tasks.get(i));
+      pixelProgress.accept(Math.min((i + 1) * TILE_ROWS * width, pixels));
+    }
+
+    outputStream.writeInt(TILE_ROWS);
+    outputStream.writeInt(tileCount);
+    for (byte[] tile : tiles) {
+      outputStream.writeInt(tile.length);
+    }
+    for (byte[] tile : tiles) {
+      outputStream.write(tile);
+    }
+  }
+
+  private static <T> T join(ForkJoinTask<T> task) throws IOException {
+    try {
+      return task.join();
+    } catch (RuntimeException e) {
+      throw new IOException("Failed to process render dump tile", e);
+    }
+  }
+}
@@ -0,0 +1,256 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.renderer.RenderContext;
+import se.llbit.chunky.renderer.renderdump.RenderDump;
+import se.llbit.log.Log;
+import se.llbit.util.TaskTracker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Merges render dumps from several render nodes into a scene.
+ *
+ * <p>Only the scene description and the render dumps are loaded: no octree, textures
+ * or entities, and no render or display buffers except the sample buffer of the
+ * merged render and one buffer for the dump being merged. Each dump is loaded
+ * completely before it is added to the merged samples, so a truncated or corrupt
+ * dump does not change the merged render. The dumps are weighted by their SPP.
+ *
+ * <p>In watch mode a directory is polled for new dumps, which are merged as soon as
+ * they are completely written. Merged dumps are moved to the {@code merged}
+ * subdirectory so that they are not merged again if the merger is restarted.
+ */
+public class DumpMerger {
+  /**
+   * Subdirectory of the watched directory that merged dumps are moved to.
+   */
+  public static final String MERGED_DIRECTORY = "merged";
+
+  private final RenderContext context;
+  private final File sceneFile;
+
+  /**
+   * The merged render.
+   */
+  private final Scene scene = new Scene();
+
+  /**
+   * Holds the samples of the dump being merged.
+   */
+  private final Scene dump = new Scene();
+
+  /**
+   * Load the scene description and the current render dump of the scene.
+   * The scene directory of the render context must be the directory of the scene.
+   */
+  public DumpMerger(RenderContext context, File sceneFile, TaskTracker taskTracker)
+      throws IOException {
+    this.context = context;
+    this.sceneFile = sceneFile;
+    // Avoid allocating display buffers for the full canvas, only the samples are needed.
+    scene.setBandedRender(true);
+    try (FileInputStream in = new FileInputStream(sceneFile)) {
+      scene.loadDescription(in);
+    }
+    scene.samples = new double[scene.width * scene.height * 3];
+    if (!loadDump(scene.name + ".dump", taskTracker)
+        && !loadDump(scene.name + ".dump.backup", taskTracker)) {
+      scene.spp = 0;
+      scene.renderTime = 0;
+      Arrays.fill(scene.samples, 0);
+    }
+    dump.width = scene.width;
+    dump.height = scene.height;
+    dump.samples = new double[scene.samples.length];
+  }
+
+  private boolean loadDump(String fileName, TaskTracker taskTracker) {
+    File dumpFile = context.getSceneFile(fileName);
+    if (!dumpFile.isFile()) {
+      return false;
+    }
+    try (FileInputStream in = new FileInputStream(dumpFile)) {
+      RenderDump.load(in, scene, taskTracker);
+      return true;
+    } catch (IOException | IllegalStateException e) {
+      Log.warn("Failed to load the render dump " + dumpFile, e);
+      return false;
+    }
+  }
+
+  /**
+   * @return the current SPP of the merged render
+   */
+  public int getSpp() {
+    return scene.spp;
+  }
+
+  /**
+   * Merge a render dump into the scene. The merged render is not saved.
+   *
+   * @return {@code true} if the dump was merged
+   */
+  public boolean merge(File dumpFile, TaskTracker taskTracker) {
+    Log.info("Merging render dump: " + dumpFile);
+    try (FileInputStream in = new FileInputStream(dumpFile)) {
+      RenderDump.load(in, dump, taskTracker);
+    } catch (IOException | IllegalStateException e) {
+      Log.warn("Failed to merge the render dump " + dumpFile, e);
+      return false;
+    }
+    if (dump.spp <= 0) {
+      Log.info("Skipping empty render dump: " + dumpFile);
+      return true;
+    }
+    double[] total = scene.samples;
+    double[] samples = dump.samples;
+    double totalSpp = scene.spp;
+    double dumpSpp = dump.spp;
+    double sinv = 1.0 / (totalSpp + dumpSpp);
+    int rows = scene.height;
+    int rowLength = scene.width * 3;
+    Chunky.getCommonThreads().submit(() -> IntStream.range(0, rows).parallel().forEach(y -> {
+      int end = (y + 1) * rowLength;
+      for (int i = y * rowLength; i < end; ++i) {
+        total[i] = (total[i] * totalSpp + samples[i] * dumpSpp) * sinv;
+      }
+    })).join();
+    scene.spp += dump.spp;
+    scene.renderTime += dump.renderTime;
+    Log.info("Render dump merged: " + dumpFile + ", current SPP: " + scene.spp);
+    return true;
+  }
+
+  /**
+   * Merge a render dump, or all render dumps in a directory, into the scene.
+   * The render dumps of the scene itself are skipped. The merged render is not saved.
+   *
+   * @return the number of merged dumps
+   */
+  public int mergeAll(File path, TaskTracker taskTracker) {
+    if (!path.isDirectory()) {
+      return merge(path, taskTracker) ? 1 : 0;
+    }
+    int merged = 0;
+    for (File dumpFile : listDumps(path)) {
+      if (merge(dumpFile, taskTracker)) {
+        merged += 1;
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Save the merged render dump and the scene description.
+   */
+  public void save(TaskTracker taskTracker) throws IOException {
+    scene.saveDump(context, taskTracker);
+    try (FileOutputStream out = new FileOutputStream(sceneFile)) {
+      scene.saveDescription(out);
+    }
+  }
+
+  /**
+   * Watch a directory and merge new render dumps until the calling thread is
+   * interrupted. A dump is merged when its size and modification time did not
+   * change between two polls. Merged dumps are moved to the {@value MERGED_DIRECTORY}
+   * subdirectory, and the merged render is saved after each poll that merged a dump.
+   *
+   * @param pollInterval milliseconds between polls
+   */
+  public void watch(File directory, long pollInterval, TaskTracker taskTracker)
+      throws IOException, InterruptedException {
+    File mergedDirectory = new File(directory, MERGED_DIRECTORY);
+    Files.createDirectories(mergedDirectory.toPath());
+    Log.info("Watching for render dumps in " + directory);
+    // Size and modification time of each dump at the previous poll.
+    Map<File, List<Long>> previous = new HashMap<>();
+    // Dumps that failed to merge, with the size and modification time at that point.
+    Map<File, List<Long>> failed = new HashMap<>();
+    while (true) {
+      Map<File, List<Long>> current = new HashMap<>();
+      int merged = 0;
+      for (File dumpFile : listDumps(directory)) {
+        List<Long> state = Arrays.asList(dumpFile.length(), dumpFile.lastModified());
+        current.put(dumpFile, state);
+        if (!state.equals(previous.get(dumpFile)) || state.equals(failed.get(dumpFile))) {
+          // The dump is still being written, or it has not changed since it failed.
+          continue;
+        }
+        if (merge(dumpFile, taskTracker)) {
+          failed.remove(dumpFile);
+          // Move the dump before saving, so that a crash can lose the dump
+          // but can not merge it twice.
+          Files.move(dumpFile.toPath(), mergedFile(mergedDirectory, dumpFile.getName()).toPath());
+          merged += 1;
+        } else {
+          failed.put(dumpFile, state);
+        }
+      }
+      if (merged > 0) {
+        save(taskTracker);
+      }
+      previous = current;
+      Thread.sleep(pollInterval);
+    }
+  }
+
+  /**
+   * Find an unused file name in the merged directory, render nodes may reuse the
+   * same dump name for several renders.
+   */
+  private static File mergedFile(File mergedDirectory, String name) {
+    File file = new File(mergedDirectory, name);
+    String base = name.substring(0, name.length() - ".dump".length());
+    for (int i = 1; file.exists(); ++i) {
+      file = new File(mergedDirectory, base + "-" + i + ".dump");
+    }
+    return file;
+  }
+
+  /**
+   * @return the render dumps in the directory, excluding the dumps of the scene itself
+   */
+  private List<File> listDumps(File directory) {
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(".dump"));
+    List<File> dumps = new ArrayList<>();
+    if (files == null) {
+      return dumps;
+    }
+    File sceneDump = context.getSceneFile(scene.name + ".dump").getAbsoluteFile();
+    for (File file : files) {
+      if (file.isFile() && !file.getAbsoluteFile().equals(sceneDump)) {
+        dumps.add(file);
+      }
+    }
+    dumps.sort(null);
+    return dumps;
+  }
+}
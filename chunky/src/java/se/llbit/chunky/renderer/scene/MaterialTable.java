@@ -0,0 +1,103 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import se.llbit.chunky.block.Block;
+import se.llbit.chunky.chunk.BlockPalette;
+import se.llbit.chunky.world.Material;
+import se.llbit.math.Ray;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable snapshot of the material parameters used by the path tracer.
+ *
+ * <p>The table is built by the render manager whenever the buffered scene is reset,
+ * so material edits made while rendering (for example through
+ * {@link Scene#setEmittance(String, float)}) do not affect the render until the
+ * next reset. Palette blocks are looked up by their palette ID. Other materials,
+ * for example entity materials, get an entry the first time they are looked up.
+ */
+public final class MaterialTable {
+
+  /**
+   * Material parameters, with precomputed lobe selection probabilities.
+   */
+  public static final class Entry {
+    public final float ior;
+    public final float specular;
+    public final float emittance;
+    public final float metalness;
+    public final boolean subSurfaceScattering;
+    public final boolean refractive;
+
+    /**
+     * Probability of choosing the metal (tinted specular) lobe.
+     */
+    public final float metalLobe;
+
+    /**
+     * Cumulative probability of choosing the metal or the specular lobe. The
+     * remaining probability is split between diffuse reflection and transmission
+     * depending on the texture alpha at the hit point.
+     */
+    public final float specularLobe;
+
+    Entry(Material material) {
+      ior = material.ior;
+      specular = material.specular;
+      emittance = material.emittance;
+      metalness = material.metalness;
+      subSurfaceScattering = material.subSurfaceScattering;
+      refractive = material.refractive;
+      metalLobe = metalness > Ray.EPSILON ? metalness : 0;
+      specularLobe = metalLobe + (1 - metalLobe) * (specular > Ray.EPSILON ? specular : 0);
+    }
+  }
+
+  private final Block[] blocks;
+  private final Entry[] entries;
+  private final Map<Material, Entry> otherMaterials = new ConcurrentHashMap<>();
+
+  private MaterialTable(List<Block> palette) {
+    blocks = palette.toArray(new Block[0]);
+    entries = new Entry[blocks.length];
+    for (int i = 0; i < blocks.length; ++i) {
+      entries[i] = new Entry(blocks[i]);
+    }
+  }
+
+  /**
+   * Take a snapshot of the current material parameters of all blocks in the palette.
+   */
+  public static MaterialTable build(BlockPalette palette) {
+    return new MaterialTable(palette.getPalette());
+  }
+
+  /**
+   * @return the material parameters for the given material
+   */
+  public Entry get(Material material) {
+    int id = material.paletteId;
+    if (id >= 0 && id < blocks.length && blocks[id] == material) {
+      return entries[id];
+    }
+    return otherMaterials.computeIfAbsent(material, Entry::new);
+  }
+}
@@ -73,6 +73,11 @@ public class NishitaSky implements SimulatedSky {
     return false;
   }
 
+  @Override
+  public boolean isRotationallySymmetric() {
+    return true;
+  }
+
   @Override
   public String getName() {
     return "Nishita";
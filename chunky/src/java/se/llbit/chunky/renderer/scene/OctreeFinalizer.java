@@ -19,6 +19,7 @@ package se.llbit.chunky.renderer.scene;
 import se.llbit.chunky.block.Lava;
 import se.llbit.chunky.block.Water;
 import se.llbit.chunky.chunk.BlockPalette;
+import se.llbit.chunky.chunk.FrozenBlockPalette;
 import se.llbit.chunky.world.Chunk;
 import se.llbit.chunky.world.ChunkPosition;
 import se.llbit.chunky.world.Material;
@@ -63,19 +64,25 @@ public class OctreeFinalizer {
     // Set non-visible blocks to be any block, in order to merge large patches.
     int y = cy - origin.y;
     if (cy > yMin && cy < yMax - 1) {
+      FrozenBlockPalette blocks = palette.freeze();
       boolean isHidden =
-          worldTree.getMaterial(x - 1, y, z, palette).opaque
-              && worldTree.getMaterial(x + 1, y, z, palette).opaque
-              && worldTree.getMaterial(x, y, z - 1, palette).opaque
-              && worldTree.getMaterial(x, y, z + 1, palette).opaque
-              && worldTree.getMaterial(x, y - 1, z, palette).opaque
-              && worldTree.getMaterial(x, y + 1, z, palette).opaque;
+          isOpaque(worldTree, blocks, x - 1, y, z)
+              && isOpaque(worldTree, blocks, x + 1, y, z)
+              && isOpaque(worldTree, blocks, x, y, z - 1)
+              && isOpaque(worldTree, blocks, x, y, z + 1)
+              && isOpaque(worldTree, blocks, x, y - 1, z)
+              && isOpaque(worldTree, blocks, x, y + 1, z);
       if (isHidden) {
         worldTree.set(BlockPalette.ANY_ID, x, y, z);
       }
     }
   }
 
+  private static boolean isOpaque(Octree worldTree, FrozenBlockPalette blocks, int x, int y,
+      int z) {
+    return (blocks.flags(worldTree.getType(x, y, z)) & FrozenBlockPalette.OPAQUE) != 0;
+  }
+
   private static void processBlock(Octree worldTree, Octree waterTree, BlockPalette palette, int x,
       int cy, int z, Vector3i origin) {
     int y = cy - origin.y;
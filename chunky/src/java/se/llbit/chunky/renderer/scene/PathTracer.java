@@ -21,10 +21,12 @@ import se.llbit.chunky.block.Air;
 import se.llbit.chunky.block.Water;
 import se.llbit.chunky.model.WaterModel;
 import se.llbit.chunky.renderer.EmitterSamplingStrategy;
+import se.llbit.chunky.renderer.FogSamplingStrategy;
 import se.llbit.chunky.renderer.WorkerState;
 import se.llbit.chunky.world.Material;
 import se.llbit.math.*;
 
+import java.util.List;
 import java.util.Random;
 
 /**
@@ -58,9 +60,21 @@ public class PathTracer implements RayTracer {
    */
   public static boolean pathTrace(Scene scene, Ray ray, WorkerState state, int addEmitted,
       boolean firstReflection) {
+    return pathTrace(scene, ray, state, addEmitted, firstReflection, 1);
+  }
+
+  /**
+   * Path trace the ray in this scene.
+   *
+   * @param skyWeight multiple importance sampling weight for sky light if the ray
+   * escapes to the sky without further reflections
+   */
+  private static boolean pathTrace(Scene scene, Ray ray, WorkerState state, int addEmitted,
+      boolean firstReflection, double skyWeight) {
 
     boolean hit = false;
     Random random = state.random;
+    MaterialTable materials = scene.getMaterialTable();
     Vector3 ox = new Vector3(ray.o);
     Vector3 od = new Vector3(ray.d);
     double airDistance = 0;
@@ -77,6 +91,9 @@ public class PathTracer implements RayTracer {
             scene.sky.getSkyColorInterpolated(ray);
             scene.addSkyFog(ray);
             hit = true;
+            if (firstReflection && state.aov != null) {
+              state.aov.albedo.set(ray.color.x, ray.color.y, ray.color.z);
+            }
           }
         } else if (ray.specular) {
           // Indirect sky hit - specular color.
@@ -86,6 +103,9 @@ public class PathTracer implements RayTracer {
         } else {
           // Indirect sky hit - diffuse color.
           scene.sky.getSkyColor(ray);
+          ray.color.x *= skyWeight;
+          ray.color.y *= skyWeight;
+          ray.color.z *= skyWeight;
           // Skip sky fog - likely not noticeable in diffuse reflection.
           hit = true;
         }
@@ -104,12 +124,15 @@ public class PathTracer implements RayTracer {
         }
       }
 
-      float pSpecular = currentMat.specular;
+      MaterialTable.Entry current = materials.get(currentMat);
+      MaterialTable.Entry prev = materials.get(prevMat);
+
+      float pSpecular = current.specular;
 
       double pDiffuse = ray.color.w;
 
-      float n1 = prevMat.ior;
-      float n2 = currentMat.ior;
+      float n1 = prev.ior;
+      float n2 = current.ior;
 
       if (prevMat == Air.INSTANCE || prevMat.isWater()) {
         airDistance = ray.distance;
@@ -125,10 +148,18 @@ public class PathTracer implements RayTracer {
         continue;
       }
 
-      float pMetal = currentMat.metalness;
-      boolean doMetal = pMetal > Ray.EPSILON && random.nextFloat() < pMetal;
+      if (firstReflection && state.aov != null) {
+        // First visible hit of a camera ray, record the denoiser guides.
+        state.aov.albedo.set(ray.color.x, ray.color.y, ray.color.z);
+        state.aov.normal.set(ray.getNormal());
+        state.aov.depth = ray.distance;
+      }
+
+      // A single random number selects the metal, specular, diffuse or transmission lobe.
+      float lobe = random.nextFloat();
+      boolean doMetal = lobe < current.metalLobe;
 
-      if (doMetal || (pSpecular > Ray.EPSILON && random.nextFloat() < pSpecular)) {
+      if (lobe < current.specularLobe) {
         // Specular reflection (metals only do specular reflection).
 
         firstReflection = false;
@@ -154,7 +185,9 @@ public class PathTracer implements RayTracer {
 
       } else {
 
-        if (random.nextFloat() < pDiffuse) {
+        // Rescale the lobe sample to the remaining probability range.
+        float remaining = (lobe - current.specularLobe) / (1 - current.specularLobe);
+        if (remaining < pDiffuse) {
           // Diffuse reflection.
 
           firstReflection = false;
@@ -166,20 +199,28 @@ public class PathTracer implements RayTracer {
 
             Vector4 indirectEmitterColor = new Vector4(0, 0, 0, 0);
 
-            if (scene.emittersEnabled && (!scene.isPreventNormalEmitterWithSampling() || scene.getEmitterSamplingStrategy() == EmitterSamplingStrategy.NONE || ray.depth == 0) && currentMat.emittance > Ray.EPSILON) {
+            if (scene.emittersEnabled && (!scene.isPreventNormalEmitterWithSampling() || scene.getEmitterSamplingStrategy() == EmitterSamplingStrategy.NONE || ray.depth == 0) && current.emittance > Ray.EPSILON) {
 
               emittance = addEmitted;
               ray.emittance.x = ray.color.x * ray.color.x *
-                  currentMat.emittance * scene.emitterIntensity;
+                  current.emittance * scene.emitterIntensity;
               ray.emittance.y = ray.color.y * ray.color.y *
-                  currentMat.emittance * scene.emitterIntensity;
+                  current.emittance * scene.emitterIntensity;
               ray.emittance.z = ray.color.z * ray.color.z *
-                  currentMat.emittance * scene.emitterIntensity;
+                  current.emittance * scene.emitterIntensity;
               hit = true;
             } else if(scene.emittersEnabled && scene.emitterSamplingStrategy != EmitterSamplingStrategy.NONE && scene.getEmitterGrid() != null) {
               // Sample emitter
               boolean sampleOne = scene.emitterSamplingStrategy == EmitterSamplingStrategy.ONE;
-              if(sampleOne) {
+              if (scene.emitterSamplingStrategy == EmitterSamplingStrategy.TREE) {
+                LightTree.Sample sample = new LightTree.Sample();
+                if (scene.getEmitterGrid().getLightTree()
+                    .sample(ray.o, ray.getNormal(), random, sample)) {
+                  // Divide by the probability to estimate the light from all emitters.
+                  indirectEmitterColor = sampleEmitter(scene, ray, sample.emitter, random);
+                  indirectEmitterColor.scale(1 / sample.probability);
+                }
+              } else if(sampleOne) {
                 Grid.EmitterPosition pos = scene.getEmitterGrid().sampleEmitterPosition((int) ray.o.x, (int) ray.o.y, (int) ray.o.z, random);
                 if(pos != null) {
                   indirectEmitterColor = sampleEmitter(scene, ray, pos,  random);
@@ -191,6 +232,12 @@ public class PathTracer implements RayTracer {
               }
             }
 
+            SkySampler skySampler = scene.sky.getSampler();
+            if (skySampler != null) {
+              // Sample the sky light. It is added to the sampled emitter light.
+              sampleSky(scene, ray, skySampler, state, indirectEmitterColor);
+            }
+
             if (scene.sunEnabled) {
               reflected.set(ray);
               scene.sun.getRandomSunDirection(reflected, random);
@@ -201,7 +248,7 @@ public class PathTracer implements RayTracer {
 
               boolean frontLight = reflected.d.dot(ray.getNormal()) > 0;
 
-              if (frontLight || (currentMat.subSurfaceScattering
+              if (frontLight || (current.subSurfaceScattering
                   && random.nextFloat() < Scene.fSubSurface)) {
 
                 if (!frontLight) {
@@ -223,7 +270,8 @@ public class PathTracer implements RayTracer {
               }
 
               reflected.diffuseReflection(ray, random);
-              hit = pathTrace(scene, reflected, state, 0, false) || hit;
+              hit = pathTrace(scene, reflected, state, 0, false,
+                  skyWeight(skySampler, ray, reflected)) || hit;
               if (hit) {
                 ray.color.x = ray.color.x * (emittance + directLightR * scene.sun.emittance.x + (
                     reflected.color.x + reflected.emittance.x) + (indirectEmitterColor.x));
@@ -241,7 +289,8 @@ public class PathTracer implements RayTracer {
             } else {
               reflected.diffuseReflection(ray, random);
 
-              hit = pathTrace(scene, reflected, state, 0, false) || hit;
+              hit = pathTrace(scene, reflected, state, 0, false,
+                  skyWeight(skySampler, ray, reflected)) || hit;
               if (hit) {
                 ray.color.x =
                     ray.color.x * (emittance + (reflected.color.x + reflected.emittance.x) + (indirectEmitterColor.x));
@@ -262,7 +311,7 @@ public class PathTracer implements RayTracer {
 
           // TODO: make this decision dependent on the material properties:
           boolean doRefraction =
-              currentMat.refractive || prevMat.refractive;
+              current.refractive || prev.refractive;
 
           // Refraction.
           float n1n2 = n1 / n2;
@@ -352,7 +401,8 @@ public class PathTracer implements RayTracer {
           transmitted.set(ray);
           transmitted.o.scaleAdd(Ray.OFFSET, transmitted.d);
 
-          if (pathTrace(scene, transmitted, state, 1, false)) {
+          // The direction is unchanged, so sky light sampling also covers this path.
+          if (pathTrace(scene, transmitted, state, 1, false, skyWeight)) {
             ray.color.x = ray.color.x * pDiffuse + (1 - pDiffuse);
             ray.color.y = ray.color.y * pDiffuse + (1 - pDiffuse);
             ray.color.z = ray.color.z * pDiffuse + (1 - pDiffuse);
@@ -388,48 +438,290 @@ public class PathTracer implements RayTracer {
     // less realism. The user can select fog color and density; in a more
     // realistic model color would depend on viewing angle and sun color/position.
     if (airDistance > 0 && scene.fogEnabled()) {
-      Sun sun = scene.sun;
-
-      // Pick point between ray origin and intersected object.
-      // The chosen point is used to test if the sun is lighting the
-      // fog between the camera and the first diffuse ray target.
-      // The sun contribution will be proportional to the amount of
-      // sunlit fog areas in the ray path, thus giving an approximation
-      // of the sun inscatter leading to effects like god rays.
-      // The way the sun contribution point is chosen is not
-      // entirely correct because the original ray may have
-      // travelled through glass or other materials between air gaps.
-      // However, the results are probably close enough to not be distracting,
-      // so this seems like a reasonable approximation.
-      Ray atmos = new Ray();
-      double offset = QuickMath.clamp(airDistance * random.nextFloat(),
+      if (scene.getFogSamplingStrategy() == FogSamplingStrategy.IMPORTANCE) {
+        addImportanceSampledFog(scene, ray, state, ox, od, airDistance);
+      } else {
+        addFog(scene, ray, state, ox, od, airDistance);
+      }
+    }
+
+    return hit;
+  }
+
+  /**
+   * Add sun light scattered by fog along the ray, using one in-scatter point picked
+   * uniformly along the ray.
+   */
+  private static void addFog(Scene scene, Ray ray, WorkerState state, Vector3 ox, Vector3 od,
+      double airDistance) {
+    Random random = state.random;
+    Sun sun = scene.sun;
+
+    // Pick point between ray origin and intersected object.
+    // The chosen point is used to test if the sun is lighting the
+    // fog between the camera and the first diffuse ray target.
+    // The sun contribution will be proportional to the amount of
+    // sunlit fog areas in the ray path, thus giving an approximation
+    // of the sun inscatter leading to effects like god rays.
+    // The way the sun contribution point is chosen is not
+    // entirely correct because the original ray may have
+    // travelled through glass or other materials between air gaps.
+    // However, the results are probably close enough to not be distracting,
+    // so this seems like a reasonable approximation.
+    Ray atmos = new Ray();
+    double offset = QuickMath.clamp(airDistance * random.nextFloat(),
+        Ray.EPSILON, airDistance - Ray.EPSILON);
+    atmos.o.scaleAdd(offset, od, ox);
+    sun.getRandomSunDirection(atmos, random);
+    atmos.setCurrentMaterial(Air.INSTANCE);
+
+    double fogDensity = scene.getFogDensity() * EXTINCTION_FACTOR;
+    double extinction = Math.exp(-airDistance * fogDensity);
+    ray.color.scale(extinction);
+
+    // Check sun visibility at random point to determine inscatter brightness.
+    getDirectLightAttenuation(scene, atmos, state);
+    Vector4 attenuation = state.attenuation;
+    if (attenuation.w > Ray.EPSILON) {
+      Vector3 fogColor = scene.getFogColor();
+      double inscatter;
+      if (scene.fastFog()) {
+        inscatter = (1 - extinction);
+      } else {
+        inscatter = airDistance * fogDensity * Math.exp(-offset * fogDensity);
+      }
+      ray.color.x += attenuation.x * attenuation.w * fogColor.x * inscatter;
+      ray.color.y += attenuation.y * attenuation.w * fogColor.y * inscatter;
+      ray.color.z += attenuation.z * attenuation.w * fogColor.z * inscatter;
+    }
+  }
+
+  /**
+   * Add sun and emitter light scattered by fog along the ray.
+   *
+   * <p>For sun light the in-scatter points are sampled in proportion to the fog
+   * transmittance, so the only noise left comes from the sun visibility. For emitter light
+   * one emitter is picked per sample, and the in-scatter point is picked with equi-angular
+   * sampling toward it. This concentrates samples close to the emitter, where most of its
+   * light is scattered. The samples are stratified along the ray.
+   *
+   * <p>With the {@code TREE} emitter strategy the emitter is picked from the whole scene
+   * with a known probability, so the estimate is unbiased. The {@code ONE} and
+   * {@code ALL} strategies only know the emitters listed in the emitter grid cell of the
+   * sample point, and the light of those emitters is added for the whole ray. This is a
+   * local approximation, like it is for surface hits: an emitter is only found if a
+   * sample point lands in a grid cell close to it, so rays that pass through many cells
+   * with few samples underestimate the light scattered from each emitter.
+   */
+  private static void addImportanceSampledFog(Scene scene, Ray ray, WorkerState state,
+      Vector3 ox, Vector3 od, double airDistance) {
+    Random random = state.random;
+    double fogDensity = scene.getFogDensity() * EXTINCTION_FACTOR;
+    // Probability that light is scattered somewhere along the ray.
+    double scatter = -Math.expm1(-airDistance * fogDensity);
+    ray.color.scale(1 - scatter);
+
+    int samples = scene.getFogSamples();
+    Vector3 fogColor = scene.getFogColor();
+    Vector4 attenuation = state.attenuation;
+    Ray atmos = state.fogRay;
+    double sunR = 0, sunG = 0, sunB = 0;
+    for (int i = 0; i < samples; ++i) {
+      // Invert the CDF of the fog transmittance, truncated at the end of the ray.
+      double offset = QuickMath.clamp(
+          fogOffset((i + random.nextDouble()) / samples, scatter, fogDensity),
           Ray.EPSILON, airDistance - Ray.EPSILON);
       atmos.o.scaleAdd(offset, od, ox);
-      sun.getRandomSunDirection(atmos, random);
+      scene.sun.getRandomSunDirection(atmos, random);
       atmos.setCurrentMaterial(Air.INSTANCE);
-
-      double fogDensity = scene.getFogDensity() * EXTINCTION_FACTOR;
-      double extinction = Math.exp(-airDistance * fogDensity);
-      ray.color.scale(extinction);
-
-      // Check sun visibility at random point to determine inscatter brightness.
       getDirectLightAttenuation(scene, atmos, state);
-      Vector4 attenuation = state.attenuation;
-      if (attenuation.w > Ray.EPSILON) {
-        Vector3 fogColor = scene.getFogColor();
-        double inscatter;
-        if (scene.fastFog()) {
-          inscatter = (1 - extinction);
-        } else {
-          inscatter = airDistance * fogDensity * Math.exp(-offset * fogDensity);
-        }
-        ray.color.x += attenuation.x * attenuation.w * fogColor.x * inscatter;
-        ray.color.y += attenuation.y * attenuation.w * fogColor.y * inscatter;
-        ray.color.z += attenuation.z * attenuation.w * fogColor.z * inscatter;
+      sunR += attenuation.x * attenuation.w;
+      sunG += attenuation.y * attenuation.w;
+      sunB += attenuation.z * attenuation.w;
+    }
+    double sunWeight = scatter / samples;
+    ray.color.x += sunR * sunWeight * fogColor.x;
+    ray.color.y += sunG * sunWeight * fogColor.y;
+    ray.color.z += sunB * sunWeight * fogColor.z;
+
+    Grid emitterGrid = scene.getEmitterGrid();
+    if (!scene.emittersEnabled || emitterGrid == null
+        || scene.getEmitterSamplingStrategy() == EmitterSamplingStrategy.NONE) {
+      return;
+    }
+    // Fog beyond a few mean free paths does not contribute visibly.
+    double range = Math.min(airDistance, 8 / fogDensity);
+    Vector4 emitterLight = state.emitterLight;
+    emitterLight.set(0, 0, 0, 1);
+    Vector3 point = state.fogPoint;
+    LightTree.Sample sample = state.lightSample;
+    List<Grid.EmitterPosition> positions = state.emitterPositions;
+    for (int i = 0; i < samples; ++i) {
+      // Emitters are picked for a point along the ray. Any point works as long as the
+      // probability of the picked emitter is known for it.
+      point.scaleAdd((i + random.nextDouble()) / samples * range, od, ox);
+      switch (scene.getEmitterSamplingStrategy()) {
+        case TREE:
+          if (emitterGrid.getLightTree().sample(point, null, random, sample)) {
+            addEmitterFog(scene, state, ox, od, range, sample.emitter, 1 / sample.probability);
+          }
+          break;
+        case ONE:
+          emitterGrid.getEmitterPositions((int) point.x, (int) point.y, (int) point.z,
+              positions);
+          if (!positions.isEmpty()) {
+            addEmitterFog(scene, state, ox, od, range,
+                positions.get(random.nextInt(positions.size())), positions.size());
+          }
+          break;
+        case ALL:
+          emitterGrid.getEmitterPositions((int) point.x, (int) point.y, (int) point.z,
+              positions);
+          for (Grid.EmitterPosition pos : positions) {
+            addEmitterFog(scene, state, ox, od, range, pos, 1);
+          }
+          break;
       }
     }
+    double emitterWeight = fogDensity / samples;
+    ray.color.x += emitterLight.x * emitterWeight * fogColor.x;
+    ray.color.y += emitterLight.y * emitterWeight * fogColor.y;
+    ray.color.z += emitterLight.z * emitterWeight * fogColor.z;
+  }
 
-    return hit;
+  /**
+   * Add the light of one emitter scattered by fog along a ray segment. The in-scatter
+   * point is picked with equi-angular sampling, which has a density proportional to the
+   * inverse squared distance to the emitter.
+   *
+   * <p>The emitter light, scaled by the fog transmittance, is added to
+   * {@code state.emitterLight}. The caller applies the fog density and color.
+   *
+   * @param weight inverse probability of picking the emitter
+   */
+  private static void addEmitterFog(Scene scene, WorkerState state, Vector3 ox, Vector3 od,
+      double length, Grid.EmitterPosition pos, double weight) {
+    Random random = state.random;
+    Vector3 target = state.emitterTarget;
+    target.set(
+        pos.x + (random.nextDouble() - 0.5) * pos.radius,
+        pos.y + (random.nextDouble() - 0.5) * pos.radius,
+        pos.z + (random.nextDouble() - 0.5) * pos.radius);
+    // Closest point to the emitter on the ray, and the distance to it.
+    double delta = (target.x - ox.x) * od.x + (target.y - ox.y) * od.y
+        + (target.z - ox.z) * od.z;
+    double dx = ox.x + od.x * delta - target.x;
+    double dy = ox.y + od.y * delta - target.y;
+    double dz = ox.z + od.z * delta - target.z;
+    double d = Math.max(Math.sqrt(dx * dx + dy * dy + dz * dz), Ray.EPSILON);
+    double offset = equiAngularOffset(random.nextDouble(), delta, d, length);
+    if (Double.isNaN(offset)) {
+      return;
+    }
+    double h = offset - delta;
+    double distance2 = d * d + h * h;
+    double pdf = equiAngularPdf(offset, delta, d, length);
+
+    Ray emitterRay = state.fogRay;
+    emitterRay.o.scaleAdd(offset, od, ox);
+    emitterRay.d.sub(target, emitterRay.o);
+    double distance = Math.sqrt(distance2);
+    emitterRay.d.scale(1 / distance);
+    emitterRay.setCurrentMaterial(Air.INSTANCE);
+    Vector4 emitterColor = state.emitterColor;
+    if (traceToEmitter(scene, emitterRay, distance, emitterColor)) {
+      double scale = weight * scene.emitterIntensity * Math.exp(-offset
+          * scene.getFogDensity() * EXTINCTION_FACTOR) / (Math.max(distance2, 1) * pdf);
+      Vector4 light = state.emitterLight;
+      light.x += emitterColor.x * scale;
+      light.y += emitterColor.y * scale;
+      light.z += emitterColor.z * scale;
+    }
+  }
+
+  /**
+   * Invert the CDF of the fog transmittance, truncated to the part of the ray where light
+   * is scattered.
+   *
+   * @param u uniform random number in [0, 1)
+   * @param scatter probability that light is scattered somewhere along the ray
+   * @return distance along the ray to the in-scatter point
+   */
+  static double fogOffset(double u, double scatter, double fogDensity) {
+    return -Math.log1p(-u * scatter) / fogDensity;
+  }
+
+  /**
+   * Equi-angular sampling of a point on a ray segment, with a density proportional to the
+   * inverse squared distance to a point light.
+   *
+   * @param u uniform random number in [0, 1)
+   * @param delta distance along the ray to the point closest to the light
+   * @param d distance from the ray to the light
+   * @param length length of the ray segment
+   * @return distance along the ray to the sampled point, or NaN if the segment is empty
+   */
+  static double equiAngularOffset(double u, double delta, double d, double length) {
+    double thetaA = Math.atan(-delta / d);
+    double thetaB = Math.atan((length - delta) / d);
+    if (thetaB - thetaA <= 0) {
+      return Double.NaN;
+    }
+    return delta + d * Math.tan(thetaA + u * (thetaB - thetaA));
+  }
+
+  /**
+   * @return the density of {@link #equiAngularOffset} at the given distance along the ray
+   */
+  static double equiAngularPdf(double offset, double delta, double d, double length) {
+    double thetaA = Math.atan(-delta / d);
+    double thetaB = Math.atan((length - delta) / d);
+    double h = offset - delta;
+    return d / ((thetaB - thetaA) * (d * d + h * h));
+  }
+
+  /**
+   * Sample the sky light at a diffuse reflection by casting a shadow ray in a direction
+   * sampled from the sky luminance. The light is weighted by multiple importance sampling
+   * against the cosine-weighted diffuse reflection, see {@link #skyWeight}.
+   *
+   * @param light the weighted sky light is added to this color
+   */
+  private static void sampleSky(Scene scene, Ray ray, SkySampler sampler, WorkerState state,
+      Vector4 light) {
+    Ray skyRay = new Ray();
+    skyRay.set(ray);
+    double pdf = sampler.sample(skyRay.d, state.random);
+    double cosTheta = skyRay.d.dot(ray.getNormal());
+    if (cosTheta <= 0 || pdf <= 0) {
+      return;
+    }
+    skyRay.setCurrentMaterial(skyRay.getPrevMaterial(), skyRay.getPrevData());
+    getDirectLightAttenuation(scene, skyRay, state);
+    Vector4 attenuation = state.attenuation;
+    if (attenuation.w > 0 && !skyRay.getPrevMaterial().isWater()) {
+      // The diffuse BRDF is color / pi, the color is applied by the caller.
+      double weight = attenuation.w * cosTheta / (Math.PI * pdf + cosTheta);
+      scene.sky.getSkyColor(skyRay);
+      light.x += skyRay.color.x * attenuation.x * weight;
+      light.y += skyRay.color.y * attenuation.y * weight;
+      light.z += skyRay.color.z * attenuation.z * weight;
+    }
+  }
+
+  /**
+   * @return the multiple importance sampling weight of sky light for a diffuse reflection,
+   * using the balance heuristic
+   */
+  private static double skyWeight(SkySampler sampler, Ray ray, Ray reflected) {
+    if (sampler == null) {
+      return 1;
+    }
+    double cosTheta = reflected.d.dot(ray.getNormal());
+    if (cosTheta <= 0) {
+      return 1;
+    }
+    return cosTheta / (cosTheta + Math.PI * sampler.pdf(reflected.d));
   }
 
   /**
@@ -464,11 +756,7 @@ public class PathTracer implements RayTracer {
       emitterRay.setPrevMaterial(emitterRay.getCurrentMaterial(), emitterRay.getCurrentData());
       emitterRay.setCurrentMaterial(prev, prevData);
       emitterRay.emittance.set(0, 0, 0);
-      emitterRay.o.scaleAdd(Ray.EPSILON, emitterRay.d);
-      PreviewRayTracer.nextIntersection(scene, emitterRay);
-      if(emitterRay.getCurrentMaterial().emittance > Ray.EPSILON) {
-        indirectEmitterColor.set(emitterRay.color);
-        indirectEmitterColor.scale(emitterRay.getCurrentMaterial().emittance);
+      if (traceToEmitter(scene, emitterRay, distance, indirectEmitterColor)) {
         // TODO Take fog into account
         indirectEmitterCoef *= scene.emitterIntensity;
         // Dont know if really realistic but offer better convergence and is better artistically
@@ -481,6 +769,40 @@ public class PathTracer implements RayTracer {
     return indirectEmitterColor;
   }
 
+  /**
+   * Trace a shadow ray toward an emitter.
+   *
+   * @param emitterRay ray from the lit point toward the emitter, it is moved to the emitter
+   * @param distance distance to the emitter target point
+   * @param color receives the emitted color, if the emitter is reached
+   * @return {@code true} if the ray reached an emitter
+   */
+  private static boolean traceToEmitter(Scene scene, Ray emitterRay, double distance,
+      Vector4 color) {
+    emitterRay.o.scaleAdd(Ray.EPSILON, emitterRay.d);
+    // The emitter geometry lies within one block of the target, anything closer blocks the
+    // emitter. If nothing is closer the ray can skip ahead before finding the emitter.
+    double maxT = distance - 1;
+    if (maxT > 0) {
+      switch (scene.occluded(emitterRay, maxT)) {
+        case OPAQUE:
+          return false;
+        case CLEAR:
+          emitterRay.o.scaleAdd(maxT, emitterRay.d);
+          emitterRay.distance += maxT;
+          break;
+      }
+    }
+    PreviewRayTracer.nextIntersection(scene, emitterRay);
+    float emittance = scene.getMaterialTable().get(emitterRay.getCurrentMaterial()).emittance;
+    if (emittance > Ray.EPSILON) {
+      color.set(emitterRay.color);
+      color.scale(emittance);
+      return true;
+    }
+    return false;
+  }
+
   /**
    * Calculate direct lighting attenuation.
    */
@@ -491,8 +813,18 @@ public class PathTracer implements RayTracer {
     attenuation.y = 1;
     attenuation.z = 1;
     attenuation.w = 1;
-    while (attenuation.w > 0) {
-      ray.o.scaleAdd(Ray.OFFSET, ray.d);
+    ray.o.scaleAdd(Ray.OFFSET, ray.d);
+    // Most shadow rays are either blocked by an opaque object or not blocked at all.
+    // The occlusion query answers that without computing hit colors.
+    switch (scene.occluded(ray, Double.POSITIVE_INFINITY)) {
+      case OPAQUE:
+        attenuation.w = 0;
+        return;
+      case CLEAR:
+        ray.setPrevMaterial(ray.getCurrentMaterial(), ray.getCurrentData());
+        return;
+    }
+    while (true) {
       if (!PreviewRayTracer.nextIntersection(scene, ray)) {
         break;
       }
@@ -509,6 +841,10 @@ public class PathTracer implements RayTracer {
           attenuation.w *= Math.exp(-a);
         }
       }
+      if (attenuation.w <= 0) {
+        break;
+      }
+      ray.o.scaleAdd(Ray.OFFSET, ray.d);
     }
   }
 
@@ -114,6 +114,11 @@ public class PreethamSky implements SimulatedSky {
     return false;
   }
 
+  @Override
+  public boolean isRotationallySymmetric() {
+    return true;
+  }
+
   @Override
   public String getName() {
     return "Preetham";
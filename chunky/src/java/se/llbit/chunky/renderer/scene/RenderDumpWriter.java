@@ -0,0 +1,171 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import se.llbit.chunky.renderer.RenderContext;
+import se.llbit.chunky.renderer.renderdump.RenderDump;
+import se.llbit.log.Log;
+import se.llbit.util.TaskTracker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes render dumps, optionally on a background thread.
+ *
+ * <p>A background save first copies the sample buffer into a snapshot buffer,
+ * which is much faster than compressing it. The snapshot is then compressed and
+ * written by a background thread while rendering continues. The snapshot buffer
+ * is reused for the next dump, so a new dump waits for the previous one to finish.
+ *
+ * <p>Dumps are written to a temporary file. When the dump is complete the previous
+ * dump is renamed to the backup file and the temporary file is renamed to the dump
+ * file, so there is always a complete dump or backup dump on disk.
+ */
+class RenderDumpWriter {
+  /**
+   * Copy of the sample buffer and render status of a scene, for background saves.
+   */
+  private static class Snapshot {
+    String name;
+    int width;
+    int height;
+    int spp;
+    long renderTime;
+    double[] samples;
+  }
+
+  /**
+   * Writes the render dump to an output stream.
+   */
+  private interface DumpSaver {
+    void save(OutputStream out) throws IOException;
+  }
+
+  /**
+   * Holds the snapshot of the sample buffer and render status for background saves.
+   */
+  private final Snapshot snapshot = new Snapshot();
+
+  /**
+   * The thread writing the current background dump. This is not a daemon thread,
+   * so that the last dump is completed before Chunky exits.
+   */
+  private Thread writer = null;
+
+  /**
+   * The scene journal, which is discarded when a render dump is saved.
+   */
+  private final SceneJournal journal;
+
+  RenderDumpWriter(SceneJournal journal) {
+    this.journal = journal;
+  }
+
+  /**
+   * Save a render dump for the scene on the calling thread.
+   */
+  synchronized void save(Scene scene, RenderContext context, TaskTracker taskTracker) {
+    if (!awaitPending()) {
+      Log.warn("Interrupted while waiting for the previous render dump, skipping render dump");
+      return;
+    }
+    write(scene.name, context.getSceneFile(scene.name + ".dump"),
+        out -> RenderDump.save(out, scene, taskTracker));
+  }
+
+  /**
+   * Save a render dump for the scene on a background thread. This only blocks
+   * while a previous dump is still being written, and while the sample buffer is
+   * copied.
+   */
+  synchronized void saveInBackground(Scene scene, RenderContext context,
+      TaskTracker taskTracker) {
+    if (!awaitPending()) {
+      Log.warn("Interrupted while waiting for the previous render dump, skipping render dump");
+      return;
+    }
+    Snapshot source = snapshot;
+    source.name = scene.name;
+    source.width = scene.width;
+    source.height = scene.height;
+    source.spp = scene.spp;
+    source.renderTime = scene.renderTime;
+    double[] samples = scene.getSampleBuffer();
+    if (source.samples == null || source.samples.length != samples.length) {
+      source.samples = new double[samples.length];
+    }
+    System.arraycopy(samples, 0, source.samples, 0, samples.length);
+
+    File dumpFile = context.getSceneFile(scene.name + ".dump");
+    writer = new Thread(() -> write(source.name, dumpFile,
+        out -> RenderDump.save(out, source.width, source.height, source.spp,
+            source.renderTime, source.samples, taskTracker)),
+        "Render Dump Writer");
+    writer.start();
+  }
+
+  /**
+   * Wait for the current background dump to be written.
+   *
+   * @return {@code false} if the calling thread was interrupted before the dump
+   * was written
+   */
+  synchronized boolean awaitPending() {
+    if (writer != null) {
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+      writer = null;
+    }
+    return true;
+  }
+
+  private void write(String sceneName, File dumpFile, DumpSaver saver) {
+    File tempFile = new File(dumpFile.getPath() + ".tmp");
+    File backupFile = new File(dumpFile.getPath() + ".backup");
+    Log.info("Saving render dump: " + dumpFile);
+    try {
+      try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+        saver.save(outputStream);
+      }
+      if (dumpFile.exists()) {
+        Files.move(dumpFile.toPath(), backupFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      try {
+        Files.move(tempFile.toPath(), dumpFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempFile.toPath(), dumpFile.toPath());
+      }
+      Log.info("Render dump saved: " + dumpFile);
+      // The render dump replaces the crash recovery checkpoints.
+      journal.discard(new File(dumpFile.getParentFile(), sceneName + SceneJournal.EXTENSION));
+    } catch (IOException e) {
+      Log.warn("Failed to save the render dump", e);
+      //noinspection ResultOfMethodCallIgnored
+      tempFile.delete();
+    }
+  }
+}
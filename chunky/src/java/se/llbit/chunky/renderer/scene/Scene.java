@@ -40,9 +40,9 @@ import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import java.util.stream.IntStream;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
 import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
@@ -64,6 +64,7 @@ import se.llbit.chunky.renderer.*;
 import se.llbit.chunky.renderer.export.PictureExportFormats;
 import se.llbit.chunky.renderer.export.PictureExportFormat;
 import se.llbit.chunky.renderer.projection.ProjectionMode;
+import se.llbit.chunky.renderer.postprocessing.AtrousDenoiser;
 import se.llbit.chunky.renderer.postprocessing.PostProcessingFilter;
 import se.llbit.chunky.renderer.postprocessing.PostProcessingFilters;
 import se.llbit.chunky.renderer.postprocessing.PreviewFilter;
@@ -92,10 +93,12 @@ import se.llbit.json.PrettyPrinter;
 import se.llbit.log.Log;
 import se.llbit.math.bvh.BVH;
 import se.llbit.math.Grid;
+import se.llbit.math.Occlusion;
 import se.llbit.math.Octree;
 import se.llbit.math.PackedOctree;
 import se.llbit.math.QuickMath;
 import se.llbit.math.Ray;
+import se.llbit.math.RayPacket;
 import se.llbit.math.Vector3;
 import se.llbit.math.Vector3i;
 import se.llbit.nbt.CompoundTag;
@@ -164,6 +167,11 @@ public class Scene implements JsonSerializable, Refreshable {
    */
   public static final double MAX_EMITTER_INTENSITY = 1000;
 
+  /**
+   * Maximum number of in-scatter samples per fog segment.
+   */
+  public static final int MAX_FOG_SAMPLES = 16;
+
   /**
    * Default exposure.
    */
@@ -205,6 +213,11 @@ public class Scene implements JsonSerializable, Refreshable {
   public int height;
 
   public PostProcessingFilter postProcessingFilter = DEFAULT_POSTPROCESSING_FILTER;
+  /**
+   * Enables the denoiser. The path tracer then also writes the denoiser guide buffers.
+   */
+  protected boolean denoiserEnabled = false;
+  protected int denoiserIterations = AtrousDenoiser.DEFAULT_ITERATIONS;
   public PictureExportFormat outputMode = PictureExportFormats.PNG;
   public long renderTime;
   /**
@@ -252,6 +265,12 @@ public class Scene implements JsonSerializable, Refreshable {
   /** Fog thickness. */
   protected double fogDensity = DEFAULT_FOG_DENSITY;
 
+  /** How in-scatter points are picked along rays through fog. */
+  protected FogSamplingStrategy fogSamplingStrategy = FogSamplingStrategy.UNIFORM;
+
+  /** Number of in-scatter samples per fog segment, used by importance sampled fog. */
+  protected int fogSamples = 1;
+
   /** Controls how much the fog color is blended over the sky/skymap. */
   protected double skyFogDensity = 1;
 
@@ -285,6 +304,12 @@ public class Scene implements JsonSerializable, Refreshable {
   protected int yMin = 0;
 
   private BlockPalette palette;
+
+  /**
+   * Snapshot of the material parameters used while rendering. Rebuilt by the render manager
+   * when the scene is reset.
+   */
+  private MaterialTable materialTable = null;
   private Octree worldOctree;
   private Octree waterOctree;
 
@@ -300,6 +325,15 @@ public class Scene implements JsonSerializable, Refreshable {
    */
   private ArrayList<Entity> actors = new ArrayList<>();
 
+  /**
+   * Entity and actor arrays from the scene description that have not been parsed yet.
+   * Scenes can have thousands of posed actors, so the arrays are only parsed when the
+   * entities are first used. This is not needed when only the scene description is
+   * used, for example when merging render dumps.
+   */
+  private JsonArray unparsedEntities = null;
+  private JsonArray unparsedActors = null;
+
   /** Poseable entities in the scene. */
   private Map<PlayerEntity, JsonObject> profiles = new HashMap<>();
 
@@ -345,8 +379,50 @@ public class Scene implements JsonSerializable, Refreshable {
 
   private byte[] alphaChannel;
 
+  /**
+   * Denoiser guide buffers, only allocated if the denoiser is enabled.
+   */
+  private AovBuffers aovs;
+
+  /**
+   * Denoised samples that are post processed instead of the sample buffer when the
+   * denoiser is enabled. A frame is denoised into the back buffer, which is then
+   * swapped with this buffer, so that callers still reading the previous frame are
+   * not affected until the next frame is denoised.
+   */
+  private double[] denoisedSamples;
+  private double[] denoisedBackBuffer;
+
+  /**
+   * Intermediate results of the denoiser.
+   */
+  private double[] denoiserScratch;
+
+  // The frame that the denoised samples were computed from.
+  private double[] denoisedFrom;
+  private AovBuffers denoisedAovs;
+  private int denoisedSpp;
+  private int denoisedIterations;
+
+  /**
+   * If true, no full-size render buffers are allocated for this scene.
+   * This is used for banded rendering, where each band has its own buffers.
+   * The sample buffer, bitmaps and alpha channel are then {@code null}.
+   */
+  private boolean bandedRender = false;
+
   private boolean finalized = false;
 
+  /**
+   * Writes the crash recovery checkpoints of all scenes, see {@link #journalCheckpointIfDue}.
+   */
+  private static final SceneJournal journal = new SceneJournal();
+
+  /**
+   * Writes the render dumps of this scene, see {@link #saveDumpInBackground}.
+   */
+  private final RenderDumpWriter dumpWriter = new RenderDumpWriter(journal);
+
   private boolean finalizeBuffer = false;
 
   private boolean forceReset = false;
@@ -401,7 +477,8 @@ public class Scene implements JsonSerializable, Refreshable {
    */
   public static void delete(String name, File sceneDir) {
     String[] extensions = {
-        ".json", ".dump", ".octree2", ".emittergrid", ".foliage", ".grass", ".json.backup", ".dump.backup",
+        ".json", ".dump", ".octree2", ".octree3", ".emittergrid", ".foliage", ".grass", ".json.backup", ".dump.backup",
+        ".dump.tmp", SceneJournal.EXTENSION, SceneJournal.EXTENSION + ".tmp",
     };
     for (String extension : extensions) {
       File file = new File(sceneDir, name + extension);
@@ -416,7 +493,7 @@ public class Scene implements JsonSerializable, Refreshable {
    * Export the scene to a zip file.
    */
   public static void exportToZip(String name, File targetFile) {
-    String[] extensions = { ".json", ".dump", ".octree2", ".foliage", ".grass", ".emittergrid", };
+    String[] extensions = { ".json", ".dump", ".octree2", ".octree3", ".foliage", ".grass", ".emittergrid", };
     ZipExport.zip(targetFile, SynchronousSceneManager.resolveSceneDirectory(name), name, extensions);
   }
 
@@ -425,10 +502,33 @@ public class Scene implements JsonSerializable, Refreshable {
    * scene and after scene canvas size changes.
    */
   public synchronized void initBuffers() {
+    if (bandedRender) {
+      frontBuffer = null;
+      backBuffer = null;
+      alphaChannel = null;
+      samples = null;
+      aovs = null;
+      return;
+    }
     frontBuffer = new BitmapImage(width, height);
     backBuffer = new BitmapImage(width, height);
     alphaChannel = new byte[width * height];
     samples = new double[width * height * 3];
+    updateAovBuffers();
+  }
+
+  /**
+   * Allocate or free the denoiser guide buffers to match the denoiser setting.
+   */
+  private void updateAovBuffers() {
+    if (denoiserEnabled && samples != null) {
+      if (aovs == null || aovs.width != width || aovs.height != height) {
+        aovs = new AovBuffers(width, height);
+      }
+    } else {
+      aovs = null;
+      releaseDenoisedSamples();
+    }
   }
 
   /**
@@ -451,8 +551,12 @@ public class Scene implements JsonSerializable, Refreshable {
       // The octree reference is overwritten to save time.
       // When the other scene is changed it must create a new octree.
       palette = other.palette;
+      materialTable = null;
       worldOctree = other.worldOctree;
       waterOctree = other.waterOctree;
+      other.parseEntities();
+      unparsedEntities = null;
+      unparsedActors = null;
       entities = other.entities;
       entityLoadingPreferences = other.entityLoadingPreferences;
       actors.clear();
@@ -492,9 +596,12 @@ public class Scene implements JsonSerializable, Refreshable {
     emitterSamplingStrategy = other.emitterSamplingStrategy;
     preventNormalEmitterWithSampling = other.preventNormalEmitterWithSampling;
     transparentSky = other.transparentSky;
+    denoiserEnabled = other.denoiserEnabled;
     fogDensity = other.fogDensity;
     skyFogDensity = other.skyFogDensity;
     fastFog = other.fastFog;
+    fogSamplingStrategy = other.fogSamplingStrategy;
+    fogSamples = other.fogSamples;
     yClipMin = other.yClipMin;
     yClipMax = other.yClipMax;
 
@@ -510,6 +617,7 @@ public class Scene implements JsonSerializable, Refreshable {
 
     spp = other.spp;
     renderTime = other.renderTime;
+    clearDenoisedSamples();
 
     resetReason = other.resetReason;
 
@@ -523,6 +631,7 @@ public class Scene implements JsonSerializable, Refreshable {
       alphaChannel = other.alphaChannel;
       samples = other.samples;
     }
+    aovs = other.aovs;
 
     octreeImplementation = other.octreeImplementation;
     bvhImplementation = other.bvhImplementation;
@@ -557,9 +666,12 @@ public class Scene implements JsonSerializable, Refreshable {
       try (BufferedOutputStream out = new BufferedOutputStream(context.getSceneDescriptionOutputStream(name))) {
         saveDescription(out);
       }
+      File descriptionFile = context.getSceneDescriptionFile(name);
+      SceneIndex.update(descriptionFile.getParentFile(), new SceneIndex.Entry(descriptionFile,
+          width, height, spp, renderTime, chunks.size()));
 
       saveOctree(context, taskTracker);
-      saveDump(context, taskTracker);
+      saveDumpInBackground(context, taskTracker);
       saveEmitterGrid(context, taskTracker);
     }
   }
@@ -572,6 +684,7 @@ public class Scene implements JsonSerializable, Refreshable {
   public synchronized void loadScene(RenderContext context, String sceneName, TaskTracker taskTracker)
       throws IOException {
     isLoading = true;
+    clearDenoisedSamples();
     try {
       try {
         loadDescription(context.getSceneDescriptionInputStream(sceneName));
@@ -581,6 +694,15 @@ public class Scene implements JsonSerializable, Refreshable {
         loadDescription(context.getSceneFileInputStream(sceneName + Scene.EXTENSION + ".backup"));
       }
 
+      // Recover the render from the scene journal if Chunky was not closed
+      // properly after the last checkpoint.
+      SceneJournal.Checkpoint checkpoint =
+          bandedRender ? null : SceneJournal.recover(context, sceneName, spp);
+      if (checkpoint != null) {
+        Log.info("Recovering the render from the scene journal");
+        fromJson(checkpoint.description);
+      }
+
       if (sdfVersion < SDF_VERSION) {
         Log.warn("Old scene version detected! The scene may not have been loaded correctly.");
       } else if (sdfVersion > SDF_VERSION) {
@@ -600,7 +722,14 @@ public class Scene implements JsonSerializable, Refreshable {
         }
       }
 
-      loadDump(context, taskTracker);
+      if (bandedRender) {
+        // A banded render always starts from scratch, the render dump
+        // would need the full-size sample buffer.
+        spp = 0;
+        renderTime = 0;
+      } else if (checkpoint == null || !loadCheckpoint(checkpoint, taskTracker)) {
+        loadDump(context, taskTracker);
+      }
 
       if (spp == 0) {
         mode = RenderMode.PREVIEW;
@@ -695,21 +824,83 @@ public class Scene implements JsonSerializable, Refreshable {
    */
   public BlockPalette getPalette() { return palette; }
 
+  /**
+   * @return the material parameter snapshot used by the path tracer
+   */
+  public MaterialTable getMaterialTable() {
+    MaterialTable table = materialTable;
+    if (table == null) {
+      table = MaterialTable.build(palette);
+      materialTable = table;
+    }
+    return table;
+  }
+
+  /**
+   * Take a new snapshot of the material parameters. This should only be called
+   * while no render workers are using this scene.
+   */
+  public void updateMaterialTable() {
+    materialTable = MaterialTable.build(palette);
+  }
+
   /**
    * Trace a ray in this scene. This offsets the ray origin to
    * move it into the scene coordinate space.
    */
   public void rayTrace(RayTracer rayTracer, WorkerState state) {
-    state.ray.o.x -= origin.x;
-    state.ray.o.y -= origin.y;
-    state.ray.o.z -= origin.z;
+    toSceneSpace(state.ray);
+    rayTracer.trace(this, state);
+  }
+
+  /**
+   * Trace the view rays of a packet in this scene. The packet is first traversed through
+   * the world octree and the BVHs to find how much empty space each ray can skip, then
+   * the rays are traced one at a time with the ray tracer. Only the first intersection
+   * test of each ray uses the packet results.
+   *
+   * @param onRay called with the index of each ray in the packet after it has been
+   *              traced, the result is in {@code state.ray}
+   */
+  public void rayTrace(RayTracer rayTracer, WorkerState state, RayPacket packet,
+      IntConsumer onRay) {
+    for (int i = 0; i < packet.size(); ++i) {
+      toSceneSpace(packet.get(i));
+    }
+    if (packet.prepare()) {
+      worldOctree.traversePacket(packet, palette);
+      int entities = bvh.traversePacket(packet);
+      int actors = renderActors ? actorBvh.traversePacket(packet) : 0;
+      for (int i = 0; i < packet.size(); ++i) {
+        RayPacket.Hint hint = packet.hint(i);
+        hint.mayHitEntities = (entities & (1 << i)) != 0;
+        hint.mayHitActors = (actors & (1 << i)) != 0;
+      }
+    }
+    Ray ray = state.ray;
+    for (int i = 0; i < packet.size(); ++i) {
+      state.ray = packet.get(i);
+      state.ray.packetHint = packet.isCoherent() ? packet.hint(i) : null;
+      rayTracer.trace(this, state);
+      onRay.accept(i);
+    }
+    state.ray = ray;
+  }
+
+  /**
+   * Move a view ray from the camera into the scene coordinate space.
+   */
+  private void toSceneSpace(Ray ray) {
+    ray.o.x -= origin.x;
+    ray.o.y -= origin.y;
+    ray.o.z -= origin.z;
 
     if(camera.getProjectionMode() == ProjectionMode.PARALLEL) {
       // When in parallel projection, push the ray origin back so the
       // ray start outside the octree to prevent ray spawning inside some blocks
       int limit = (1 << worldOctree.getDepth());
-      Vector3 o = state.ray.o;
-      Vector3 d = state.ray.d;
+      Vector3 o = ray.o;
+      Vector3 d = ray.d;
       double t = 0;
       // simplified intersection test with the 6 planes that form the bounding box of the octree
       if(Math.abs(d.x) > Ray.EPSILON) {
@@ -730,8 +921,6 @@ public class Scene implements JsonSerializable, Refreshable {
       // will do the same amount of math for the same result no matter what the exact point is
       o.scaleAdd(t, d);
     }
-
-    rayTracer.trace(this, state);
   }
 
   /**
@@ -756,15 +945,19 @@ public class Scene implements JsonSerializable, Refreshable {
       ray.d.set(0, 1, 0);
     }
 
-    if (bvh.closestIntersection(ray)) {
+    // The packet traversal results are only valid for the first intersection test.
+    RayPacket.Hint hint = ray.packetHint;
+    ray.packetHint = null;
+
+    if ((hint == null || hint.mayHitEntities) && bvh.closestIntersection(ray)) {
       hit = true;
     }
-    if (renderActors) {
+    if (renderActors && (hint == null || hint.mayHitActors)) {
       if (actorBvh.closestIntersection(ray)) {
         hit = true;
       }
     }
-    if (worldIntersection(ray)) {
+    if (worldIntersection(ray, hint)) {
       hit = true;
     }
     if (hit) {
@@ -776,19 +969,68 @@ public class Scene implements JsonSerializable, Refreshable {
     return false;
   }
 
+  /**
+   * Test if anything is in the way of the ray, up to the distance {@code maxT} from the ray
+   * origin. This is cheaper than finding the intersections with {@link #intersect} because
+   * hit colors are not computed and the test stops at the first opaque object. It is
+   * used for shadow rays. The ray is not modified.
+   *
+   * @return {@link Occlusion#TRANSLUCENT} if the ray does not start in air, since the
+   * attenuation of the medium has to be computed by tracing the ray
+   */
+  public Occlusion occluded(Ray ray, double maxT) {
+    if (ray.getCurrentMaterial() != Air.INSTANCE) {
+      return Occlusion.TRANSLUCENT;
+    }
+    if (sky.cloudsEnabled() && sky.cloudOccluded(this, ray, maxT)) {
+      return Occlusion.OPAQUE;
+    }
+    Occlusion result = worldOctree.occluded(ray, maxT, palette);
+    if (result == Occlusion.OPAQUE) {
+      return result;
+    }
+    result = result.combine(waterOctree.occluded(ray, maxT, palette));
+    result = result.combine(bvh.occluded(ray, maxT));
+    if (result == Occlusion.OPAQUE) {
+      return result;
+    }
+    if (renderActors) {
+      result = result.combine(actorBvh.occluded(ray, maxT));
+    }
+    if (result == Occlusion.CLEAR && isWaterPlaneEnabled()) {
+      double t = (getEffectiveWaterPlaneHeight() - ray.o.y - origin.y) / ray.d.y;
+      if (t > 0 && t < maxT) {
+        boolean clipped = false;
+        if (getWaterPlaneChunkClip()) {
+          clipped = isChunkLoaded((int) Math.floor(ray.o.x + t * ray.d.x),
+              (int) Math.floor(ray.o.z + t * ray.d.z));
+        }
+        if (!clipped) {
+          result = Occlusion.TRANSLUCENT;
+        }
+      }
+    }
+    return result;
+  }
+
   /**
    * Test whether the ray intersects any voxel before exiting the Octree.
    *
    * @param ray   the ray
+   * @param hint  packet traversal result for the ray, or {@code null}
    * @return {@code true} if the ray intersects a voxel
    */
-  private boolean worldIntersection(Ray ray) {
+  private boolean worldIntersection(Ray ray, RayPacket.Hint hint) {
     Ray start = new Ray(ray);
     start.setCurrentMaterial(ray.getPrevMaterial(), ray.getPrevData());
     boolean hit = false;
     Ray r = new Ray(start);
     r.setCurrentMaterial(start.getPrevMaterial(), start.getPrevData());
-    if (worldOctree.enterBlock(this, r, palette) && r.distance < ray.t) {
+    // Skipping leaves is only the same as marching through them if the ray is in air.
+    if (r.getCurrentMaterial() != Air.INSTANCE) {
+      hint = null;
+    }
+    if (worldOctree.enterBlock(this, r, palette, hint) && r.distance < ray.t) {
       ray.t = r.distance;
       ray.setNormal(r.getNormal());
       ray.color.set(r.color);
@@ -914,6 +1156,7 @@ public class Scene implements JsonSerializable, Refreshable {
     }
 
     try (TaskTracker.Task task = taskTracker.task("(2/6) Loading entities")) {
+      parseEntities();
       entities.clear();
       if (actors.isEmpty() && PersistentSettings.getLoadPlayers()) {
         // We don't load actor entities if some already exists. Loading actor entities
@@ -1258,7 +1501,8 @@ public class Scene implements JsonSerializable, Refreshable {
                   cubeWorldBlocks[cubeIndex] = octNode;
 
                   if(emitterGrid != null && block.emittance > 1e-4) {
-                    emitterGrid.addEmitter(new Grid.EmitterPosition(x + 0.5f, y - origin.y + 0.5f, z + 0.5f));
+                    emitterGrid.addEmitter(new Grid.EmitterPosition(x + 0.5f, y - origin.y + 0.5f, z + 0.5f,
+                        1.0f / 8, block.emittance));
                   }
                 }
               }
@@ -1455,11 +1699,13 @@ public class Scene implements JsonSerializable, Refreshable {
   }
 
   private void buildBvh(TaskTracker.Task task) {
+    parseEntities();
     Vector3 worldOffset = new Vector3(-origin.x, -origin.y, -origin.z);
     bvh = BVH.Factory.create(bvhImplementation, entities, worldOffset, task);
   }
 
   private void buildActorBvh(TaskTracker.Task task) {
+    parseEntities();
     Vector3 worldOffset = new Vector3(-origin.x, -origin.y, -origin.z);
     actorBvh = BVH.Factory.create(bvhImplementation, actors, worldOffset, task);
   }
@@ -1602,6 +1848,17 @@ public class Scene implements JsonSerializable, Refreshable {
     return name;
   }
 
+  /**
+   * Enable or disable banded rendering for this scene. A scene used for banded
+   * rendering does not allocate the full-size render buffers and does not load
+   * the render dump. This should be set before the scene is loaded.
+   *
+   * @see se.llbit.chunky.renderer.BandedRender
+   */
+  public synchronized void setBandedRender(boolean bandedRender) {
+    this.bandedRender = bandedRender;
+  }
+
   /**
    * Start rendering. This wakes up threads waiting on a scene
    * state change, even if the scene state did not actually change.
@@ -1659,6 +1916,7 @@ public class Scene implements JsonSerializable, Refreshable {
    * Move the camera to the player position, if available.
    */
   public void moveCameraToPlayer() {
+    parseEntities();
     for (Entity entity : actors) {
       if (entity instanceof PlayerEntity) {
         camera.moveToPlayer((PlayerEntity) entity);
@@ -1937,6 +2195,7 @@ public class Scene implements JsonSerializable, Refreshable {
   public synchronized void copyTransients(Scene other) {
     name = other.name;
     postProcessingFilter = other.postProcessingFilter;
+    denoiserIterations = other.denoiserIterations;
     exposure = other.exposure;
     dumpFrequency = other.dumpFrequency;
     saveSnapshots = other.saveSnapshots;
@@ -2095,10 +2354,71 @@ public class Scene implements JsonSerializable, Refreshable {
     if(mode == RenderMode.PREVIEW) {
       filter = PreviewFilter.INSTANCE;
     }
-    filter.processFrame(width, height, samples, backBuffer, exposure, task);
+    filter.processFrame(width, height, getPostProcessingSamples(task), backBuffer, exposure, task);
     finalized = true;
   }
 
+  /**
+   * Get the samples that the post processing filter is applied to. If the denoiser is
+   * enabled, the samples are denoised first.
+   *
+   * @return the denoised samples, or the sample buffer if the denoiser is disabled
+   */
+  public synchronized double[] getPostProcessingSamples(TaskTracker.Task task) {
+    AovBuffers aovs = this.aovs;
+    double[] samples = this.samples;
+    int aovSpp = aovs == null ? 0 : aovs.getSpp();
+    if (!denoiserEnabled) {
+      // The denoiser may have been disabled by copying the state of another scene.
+      releaseDenoisedSamples();
+      return samples;
+    }
+    if (mode == RenderMode.PREVIEW || aovs == null || samples == null
+        || aovSpp == 0 || aovs.width != width || aovs.height != height) {
+      return samples;
+    }
+    if (denoisedSamples != null && denoisedFrom == samples && denoisedAovs == aovs
+        && denoisedSpp == aovSpp && denoisedIterations == denoiserIterations) {
+      // This frame was already denoised.
+      return denoisedSamples;
+    }
+    if (denoisedBackBuffer == null || denoisedBackBuffer.length != samples.length) {
+      denoisedBackBuffer = new double[samples.length];
+    }
+    if (denoiserScratch == null || denoiserScratch.length != samples.length) {
+      denoiserScratch = new double[samples.length];
+    }
+    double[] denoised = denoisedBackBuffer;
+    AtrousDenoiser.denoise(width, height, samples, aovs, denoiserIterations, denoised,
+        denoiserScratch, task);
+    denoisedBackBuffer = denoisedSamples;
+    denoisedSamples = denoised;
+    denoisedFrom = samples;
+    denoisedAovs = aovs;
+    denoisedSpp = aovSpp;
+    denoisedIterations = denoiserIterations;
+    return denoised;
+  }
+
+  /**
+   * Invalidate the denoised samples, they must be recomputed after the render is
+   * restarted. The buffers are kept for the next denoised frame.
+   */
+  private void clearDenoisedSamples() {
+    denoisedFrom = null;
+    denoisedAovs = null;
+  }
+
+  /**
+   * Free the denoised sample buffers when the denoiser is disabled.
+   */
+  private void releaseDenoisedSamples() {
+    clearDenoisedSamples();
+    denoisedSamples = null;
+    denoisedBackBuffer = null;
+    denoiserScratch = null;
+  }
+
   public void postProcessFrame(TaskTracker taskTracker) {
     try (TaskTracker.Task task = taskTracker.task("Finalizing frame")) {
       postProcessFrame(task);
@@ -2122,7 +2442,7 @@ public class Scene implements JsonSerializable, Refreshable {
     try (TaskTracker.Task task = taskTracker.task("Saving Grid")) {
       Log.info("Saving Grid " + filename);
 
-      try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(context.getSceneFileOutputStream(filename)))) {
+      try (DataOutputStream out = new DataOutputStream(new FastBufferedOutputStream(new ParallelDeflateOutputStream(context.getSceneFileOutputStream(filename), ParallelDeflateOutputStream.Format.GZIP, Chunky.getCommonThreads())))) {
         emitterGrid.store(out);
       } catch (IOException e) {
         Log.warn("Couldn't save Grid", e);
@@ -2131,7 +2451,9 @@ public class Scene implements JsonSerializable, Refreshable {
   }
 
   private synchronized void saveOctree(RenderContext context, TaskTracker taskTracker) {
-    String fileName = name + ".octree2";
+    // Packed octrees are saved in the flat format, which loads much faster.
+    boolean flat = OctreeFileFormat.canStoreFlat(worldOctree, waterOctree);
+    String fileName = name + (flat ? ".octree3" : ".octree2");
     if (context.fileUnchangedSince(fileName, worldOctree.getTimestamp())) {
       Log.info("Skipping redundant Octree write");
       return;
@@ -2141,32 +2463,79 @@ public class Scene implements JsonSerializable, Refreshable {
       Log.info("Saving octree " + fileName);
 
       boolean saved = false;
-      try (DataOutputStream out = new DataOutputStream(new FastBufferedOutputStream(new GZIPOutputStream(context.getSceneFileOutputStream(fileName))))) {
-        OctreeFileFormat.store(out, worldOctree, waterOctree, palette,
-            grassTexture, foliageTexture, waterTexture);
-        saved = true;
-
-        task.update(2);
-        Log.info("Octree saved");
-      } catch (IOException e) {
-        Log.warn("Failed to save the octree", e);
+      if (flat) {
+        try (OutputStream out = context.getSceneFileOutputStream(fileName)) {
+          OctreeFileFormat.storeFlat(out, worldOctree, waterOctree, palette,
+              grassTexture, foliageTexture, waterTexture);
+          saved = true;
+        } catch (IOException e) {
+          Log.warn("Failed to save the octree", e);
+        }
+      } else {
+        try (DataOutputStream out = new DataOutputStream(new FastBufferedOutputStream(new ParallelDeflateOutputStream(context.getSceneFileOutputStream(fileName), ParallelDeflateOutputStream.Format.GZIP, Chunky.getCommonThreads())))) {
+          OctreeFileFormat.store(out, worldOctree, waterOctree, palette,
+              grassTexture, foliageTexture, waterTexture);
+          saved = true;
+        } catch (IOException e) {
+          Log.warn("Failed to save the octree", e);
+        }
       }
 
       if (saved) {
+        task.update(2);
+        Log.info("Octree saved");
         worldOctree.setTimestamp(context.fileTimestamp(fileName));
       }
     }
   }
 
+  /**
+   * Save the render dump. The previous dump is kept as the backup dump.
+   */
   public synchronized void saveDump(RenderContext context, TaskTracker taskTracker) {
-    File dumpFile = context.getSceneFile(name + ".dump");
-    Log.info("Saving render dump: " + dumpFile);
-    try (FileOutputStream outputStream = new FileOutputStream(dumpFile)) {
-      RenderDump.save(outputStream, this, taskTracker);
-    } catch (IOException e) {
-      Log.warn("Failed to save the render dump", e);
+    dumpWriter.save(this, context, taskTracker);
+  }
+
+  /**
+   * Save the render dump on a background thread. This copies the sample buffer,
+   * so rendering can continue while the dump is compressed and written.
+   * The previous dump is kept as the backup dump.
+   */
+  public synchronized void saveDumpInBackground(RenderContext context, TaskTracker taskTracker) {
+    dumpWriter.saveInBackground(this, context, taskTracker);
+  }
+
+  /**
+   * Write a crash recovery checkpoint of the render to the scene journal if the
+   * journal interval has passed since the previous checkpoint. The checkpoint is
+   * written on a background thread.
+   */
+  public synchronized void journalCheckpointIfDue(RenderContext context) {
+    journal.checkpointIfDue(this, context);
+  }
+
+  /**
+   * Delete the scene journal, because the render was reset or the scene is closed
+   * without saving. A checkpoint being written is cancelled.
+   */
+  public void discardJournal(RenderContext context) {
+    journal.discard(context.getSceneFile(name + SceneJournal.EXTENSION));
+  }
+
+  /**
+   * @return {@code true} if the samples of the journal checkpoint were loaded
+   */
+  private boolean loadCheckpoint(SceneJournal.Checkpoint checkpoint,
+      TaskTracker taskTracker) {
+    try {
+      checkpoint.load(this, taskTracker);
+    } catch (IOException | IllegalStateException e) {
+      Log.warn("Failed to load the scene journal checkpoint", e);
+      return false;
     }
-    Log.info("Render dump saved: " + dumpFile);
+    postProcessFrame(taskTracker);
+    Log.info("Render recovered from the scene journal at " + spp + " SPP");
+    return true;
   }
 
   private synchronized boolean loadEmitterGrid(RenderContext context, TaskTracker taskTracker) {
@@ -2184,7 +2553,12 @@ public class Scene implements JsonSerializable, Refreshable {
   }
 
   private synchronized boolean loadOctree(RenderContext context, TaskTracker taskTracker) {
-    String fileName = name + ".octree2";
+    // Use the flat octree file unless the scene was saved in the old format after it.
+    File flatFile = context.getSceneFile(name + ".octree3");
+    File streamFile = context.getSceneFile(name + ".octree2");
+    boolean flat = flatFile.isFile()
+        && (!streamFile.isFile() || flatFile.lastModified() >= streamFile.lastModified());
+    String fileName = name + (flat ? ".octree3" : ".octree2");
     try (TaskTracker.Task task = taskTracker.task("(1/3) Loading octree", 2)) {
       task.update(1);
       Log.info("Loading octree " + fileName);
@@ -2196,17 +2570,24 @@ public class Scene implements JsonSerializable, Refreshable {
       try {
         long fileTimestamp = context.fileTimestamp(fileName);
         OctreeFileFormat.OctreeData data;
-        try (DataInputStream in = new DataInputStream(new FastBufferedInputStream(new GZIPInputStream(new PositionalInputStream(context.getSceneFileInputStream(fileName), pos -> {
-          task.updateInterval((int) (pos * progressScale), 1);
-        }))))) {
-          data = OctreeFileFormat.load(in, octreeImplementation);
-        } catch (PackedOctree.OctreeTooBigException e) {
-          // Octree too big, reload file and force loading as NodeBasedOctree
-          Log.warn("Octree was too big when loading dump, reloading with old (slower and bigger) implementation.");
-          DataInputStream inRetry = new DataInputStream(new FastBufferedInputStream(new GZIPInputStream(new PositionalInputStream(context.getSceneFileInputStream(fileName), pos -> {
+        if (flat) {
+          try (InputStream in = context.getSceneFileInputStream(fileName)) {
+            data = OctreeFileFormat.loadFlat(in, octreeImplementation,
+                pos -> task.updateInterval((int) (pos * progressScale), 1));
+          }
+        } else {
+          try (DataInputStream in = new DataInputStream(new FastBufferedInputStream(new GZIPInputStream(new PositionalInputStream(context.getSceneFileInputStream(fileName), pos -> {
             task.updateInterval((int) (pos * progressScale), 1);
-          }))));
-          data = OctreeFileFormat.load(inRetry, "NODE");
+          }))))) {
+            data = OctreeFileFormat.load(in, octreeImplementation);
+          } catch (PackedOctree.OctreeTooBigException e) {
+            // Octree too big, reload file and force loading as NodeBasedOctree
+            Log.warn("Octree was too big when loading dump, reloading with old (slower and bigger) implementation.");
+            DataInputStream inRetry = new DataInputStream(new FastBufferedInputStream(new GZIPInputStream(new PositionalInputStream(context.getSceneFileInputStream(fileName), pos -> {
+              task.updateInterval((int) (pos * progressScale), 1);
+            }))));
+            data = OctreeFileFormat.load(inRetry, "NODE");
+          }
         }
 
         worldOctree = data.worldTree;
@@ -2281,6 +2662,14 @@ public class Scene implements JsonSerializable, Refreshable {
    * Compute the alpha channel based on sky visibility.
    */
   public void computeAlpha(int x, int y, WorkerState state) {
+    alphaChannel[y * width + x] = skyAlpha(x, y, state);
+  }
+
+  /**
+   * Compute the alpha value of a pixel based on sky visibility, without
+   * storing it in the alpha channel.
+   */
+  public byte skyAlpha(int x, int y, WorkerState state) {
     Ray ray = state.ray;
     double halfWidth = width / (2.0 * height);
     double invHeight = 1.0 / height;
@@ -2319,7 +2708,7 @@ public class Scene implements JsonSerializable, Refreshable {
 
     occlusion += PreviewRayTracer.skyOcclusion(this, state);
 
-    alphaChannel[y * width + x] = (byte) (255 * occlusion * 0.25 + 0.5);
+    return (byte) (255 * occlusion * 0.25 + 0.5);
   }
 
   /**
@@ -2394,11 +2783,50 @@ public class Scene implements JsonSerializable, Refreshable {
    * Get direct access to the sample buffer.
    *
    * @return The sample buffer for this scene
+   * @throws IllegalStateException if the scene is used for banded rendering and no
+   * sample buffer was assigned, then each band has its own sample buffer
    */
   public double[] getSampleBuffer() {
+    if (samples == null && bandedRender) {
+      throw new IllegalStateException("A scene used for banded rendering has no sample buffer");
+    }
     return samples;
   }
 
+  /**
+   * @return the denoiser guide buffers, or {@code null} if the denoiser is disabled
+   */
+  public AovBuffers getAovBuffers() {
+    return aovs;
+  }
+
+  /**
+   * Enable or disable the denoiser. This restarts the render, since the denoiser guide
+   * buffers are written during rendering.
+   */
+  public synchronized void setDenoiserEnabled(boolean value) {
+    if (denoiserEnabled != value) {
+      denoiserEnabled = value;
+      updateAovBuffers();
+      refresh();
+    }
+  }
+
+  public boolean isDenoiserEnabled() {
+    return denoiserEnabled;
+  }
+
+  /**
+   * @param value Number of denoiser iterations, the filter radius doubles with each one
+   */
+  public void setDenoiserIterations(int value) {
+    denoiserIterations = Math.max(1, Math.min(AtrousDenoiser.MAX_ITERATIONS, value));
+  }
+
+  public int getDenoiserIterations() {
+    return denoiserIterations;
+  }
+
   /**
    * Get the back buffer of the current frame (in ARGB format).
    * @return Back buffer
@@ -2586,6 +3014,8 @@ public class Scene implements JsonSerializable, Refreshable {
     json.add("yMax", yMax);
     json.add("exposure", exposure);
     json.add("postprocess", postProcessingFilter.getId());
+    json.add("denoiser", denoiserEnabled);
+    json.add("denoiserIterations", denoiserIterations);
     json.add("outputMode", outputMode.getName());
     json.add("renderTime", renderTime);
     json.add("spp", spp);
@@ -2615,6 +3045,8 @@ public class Scene implements JsonSerializable, Refreshable {
     fogColorObj.add("blue", fogColor.z);
     json.add("fogColor", fogColorObj);
     json.add("fastFog", fastFog);
+    json.add("fogSamplingStrategy", fogSamplingStrategy.name());
+    json.add("fogSamples", fogSamples);
     json.add("biomeColorsEnabled", biomeColors);
     json.add("transparentSky", transparentSky);
     json.add("fogDensity", fogDensity);
@@ -2651,19 +3083,29 @@ public class Scene implements JsonSerializable, Refreshable {
     // TODO: add regionList to compress the scene description size.
     json.add("chunkList", chunkList);
 
-    JsonArray entityArray = new JsonArray();
-    for (Entity entity : entities) {
-      entityArray.add(entity.toJson());
-    }
-    if (!entityArray.isEmpty()) {
-      json.add("entities", entityArray);
-    }
-    JsonArray actorArray = new JsonArray();
-    for (Entity entity : actors) {
-      actorArray.add(entity.toJson());
-    }
-    if (!actorArray.isEmpty()) {
-      json.add("actors", actorArray);
+    if (unparsedEntities != null) {
+      // The entities were not used, save them as they were loaded.
+      if (!unparsedEntities.isEmpty()) {
+        json.add("entities", unparsedEntities);
+      }
+      if (!unparsedActors.isEmpty()) {
+        json.add("actors", unparsedActors);
+      }
+    } else {
+      JsonArray entityArray = new JsonArray();
+      for (Entity entity : entities) {
+        entityArray.add(entity.toJson());
+      }
+      if (!entityArray.isEmpty()) {
+        json.add("entities", entityArray);
+      }
+      JsonArray actorArray = new JsonArray();
+      for (Entity entity : actors) {
+        actorArray.add(entity.toJson());
+      }
+      if (!actorArray.isEmpty()) {
+        json.add("actors", actorArray);
+      }
     }
     json.add("entityLoadingPreferences", entityLoadingPreferences.toJson());
     json.add("octreeImplementation", octreeImplementation);
@@ -2703,15 +3145,49 @@ public class Scene implements JsonSerializable, Refreshable {
     name = json.get("name").stringValue("default");
   }
 
+  /**
+   * Parse the entities and actors from the scene description, if this has not been
+   * done yet.
+   */
+  private synchronized void parseEntities() {
+    if (unparsedEntities == null) {
+      return;
+    }
+    // Previously poseable entities were stored in the entities array
+    // rather than the actors array. In future versions only the actors
+    // array should contain poseable entities.
+    for (JsonValue element : unparsedEntities) {
+      Entity entity = Entity.fromJson(element.object());
+      if (entity != null) {
+        if (entity instanceof PlayerEntity) {
+          actors.add(entity);
+        } else {
+          entities.add(entity);
+        }
+      }
+    }
+    for (JsonValue element : unparsedActors) {
+      Entity entity = Entity.fromJson(element.object());
+      actors.add(entity);
+    }
+    unparsedEntities = null;
+    unparsedActors = null;
+
+    actors.trimToSize();
+    entities.trimToSize();
+  }
+
   public EntityLoadingPreferences getEntityLoadingPreferences() {
     return entityLoadingPreferences;
   }
 
   public Collection<Entity> getEntities() {
+    parseEntities();
     return entities;
   }
 
   public Collection<Entity> getActors() {
+    parseEntities();
     return actors;
   }
 
@@ -2724,6 +3200,7 @@ public class Scene implements JsonSerializable, Refreshable {
   }
 
   public void removeEntity(Entity player) {
+    parseEntities();
     if (player instanceof PlayerEntity) {
       profiles.remove(player);
     }
@@ -2732,6 +3209,7 @@ public class Scene implements JsonSerializable, Refreshable {
   }
 
   public void addPlayer(PlayerEntity player) {
+    parseEntities();
     if (!actors.contains(player)) {
       profiles.put(player, new JsonObject());
       actors.add(player);
@@ -2747,6 +3225,8 @@ public class Scene implements JsonSerializable, Refreshable {
    */
   public void clear() {
     cameraPresets = new JsonObject();
+    unparsedEntities = null;
+    unparsedActors = null;
     entities.clear();
     actors.clear();
   }
@@ -2878,6 +3358,9 @@ public class Scene implements JsonSerializable, Refreshable {
     outputMode = PictureExportFormats
       .getFormat(json.get("outputMode").stringValue(outputMode.getName()))
       .orElse(PictureExportFormats.PNG);
+    denoiserEnabled = json.get("denoiser").boolValue(denoiserEnabled);
+    denoiserIterations = json.get("denoiserIterations").intValue(denoiserIterations);
+    updateAovBuffers();
     sppTarget = json.get("sppTarget").intValue(sppTarget);
     rayDepth = json.get("rayDepth").intValue(rayDepth);
     if (!json.get("pathTrace").isUnknown()) {
@@ -2918,6 +3401,10 @@ public class Scene implements JsonSerializable, Refreshable {
     fogColor.y = fogColorObj.get("green").doubleValue(fogColor.y);
     fogColor.z = fogColorObj.get("blue").doubleValue(fogColor.z);
     fastFog = json.get("fastFog").boolValue(fastFog);
+    fogSamplingStrategy = FogSamplingStrategy.valueOf(
+        json.get("fogSamplingStrategy").asString(fogSamplingStrategy.name()));
+    fogSamples = Math.max(1, Math.min(MAX_FOG_SAMPLES,
+        json.get("fogSamples").intValue(fogSamples)));
     biomeColors = json.get("biomeColorsEnabled").boolValue(biomeColors);
     transparentSky = json.get("transparentSky").boolValue(transparentSky);
     fogDensity = json.get("fogDensity").doubleValue(fogDensity);
@@ -2983,29 +3470,12 @@ public class Scene implements JsonSerializable, Refreshable {
     if (json.get("entities").isArray() || json.get("actors").isArray()) {
       entities.clear();
       actors.clear();
-      // Previously poseable entities were stored in the entities array
-      // rather than the actors array. In future versions only the actors
-      // array should contain poseable entities.
-      for (JsonValue element : json.get("entities").array()) {
-        Entity entity = Entity.fromJson(element.object());
-        if (entity != null) {
-          if (entity instanceof PlayerEntity) {
-            actors.add(entity);
-          } else {
-            entities.add(entity);
-          }
-        }
-      }
-      for (JsonValue element : json.get("actors").array()) {
-        Entity entity = Entity.fromJson(element.object());
-        actors.add(entity);
-      }
+      // The entities are parsed when they are first used, see parseEntities().
+      unparsedEntities = json.get("entities").array();
+      unparsedActors = json.get("actors").array();
     }
     entityLoadingPreferences.fromJson(json.get("entityLoadingPreferences"));
 
-    actors.trimToSize();
-    entities.trimToSize();
-
     octreeImplementation = json.get("octreeImplementation").asString(PersistentSettings.getOctreeImplementation());
     bvhImplementation = json.get("bvhImplementation").asString(PersistentSettings.getBvhMethod());
 
@@ -3034,6 +3504,7 @@ public class Scene implements JsonSerializable, Refreshable {
     }
     spp = 0;
     renderTime = 0;
+    clearDenoisedSamples();
     setResetReason(reason);
     notifyAll();
   }
@@ -3121,6 +3592,32 @@ public class Scene implements JsonSerializable, Refreshable {
     return fastFog;
   }
 
+  public void setFogSamplingStrategy(FogSamplingStrategy value) {
+    if (fogSamplingStrategy != value) {
+      fogSamplingStrategy = value;
+      refresh();
+    }
+  }
+
+  public FogSamplingStrategy getFogSamplingStrategy() {
+    return fogSamplingStrategy;
+  }
+
+  /**
+   * Set the number of in-scatter samples per fog segment, for importance sampled fog.
+   */
+  public void setFogSamples(int value) {
+    value = Math.max(1, Math.min(MAX_FOG_SAMPLES, value));
+    if (fogSamples != value) {
+      fogSamples = value;
+      refresh();
+    }
+  }
+
+  public int getFogSamples() {
+    return fogSamples;
+  }
+
   /**
    * @return {@code true} if volumetric fog is enabled
    */
@@ -3161,6 +3658,8 @@ public class Scene implements JsonSerializable, Refreshable {
   public void importMaterials() {
     ExtraMaterials.loadDefaultMaterialProperties();
     MaterialStore.collections.forEach((name, coll) -> importMaterial(materials, name, coll));
+    // The collections contain blocks of the palette.
+    palette.materialsChanged();
     MaterialStore.blockIds.forEach((name) -> {
       JsonValue properties = materials.get(name);
       if (properties != null) {
@@ -0,0 +1,199 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import se.llbit.log.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A small binary index of the scene descriptions in a scene directory, so that
+ * scenes can be listed without parsing their scene description files.
+ *
+ * <p>Each entry holds the values shown in the scene list, together with the size and
+ * modification time of the scene description file. An entry is only used while the
+ * scene description file is unchanged, otherwise the scene description has to be parsed.
+ * The index is updated when a scene is saved.
+ */
+public class SceneIndex {
+  public static final String FILE_NAME = "scenes.index";
+
+  private static final int MAGIC = 0x43534958;  // "CSIX"
+  private static final int VERSION = 1;
+
+  /**
+   * Summary of one scene description file.
+   */
+  public static class Entry {
+    /** File name of the scene description. */
+    public final String fileName;
+    public final long lastModified;
+    public final long length;
+    public final int width;
+    public final int height;
+    public final int spp;
+    public final long renderTime;
+    public final int chunkCount;
+
+    private Entry(String fileName, long lastModified, long length, int width, int height,
+        int spp, long renderTime, int chunkCount) {
+      this.fileName = fileName;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.width = width;
+      this.height = height;
+      this.spp = spp;
+      this.renderTime = renderTime;
+      this.chunkCount = chunkCount;
+    }
+
+    /**
+     * Create an entry for the current version of a scene description file.
+     */
+    public Entry(File sceneFile, int width, int height, int spp, long renderTime,
+        int chunkCount) {
+      this(sceneFile.getName(), sceneFile.lastModified(), sceneFile.length(), width, height,
+          spp, renderTime, chunkCount);
+    }
+  }
+
+  private final Map<String, Entry> entries;
+
+  private SceneIndex(Map<String, Entry> entries) {
+    this.entries = entries;
+  }
+
+  /**
+   * @return the index entry for the scene description file, or {@code null} if the
+   * file is not in the index or has changed since it was indexed
+   */
+  public Entry get(File sceneFile) {
+    Entry entry = entries.get(sceneFile.getName());
+    if (entry != null && entry.lastModified == sceneFile.lastModified()
+        && entry.length == sceneFile.length()) {
+      return entry;
+    }
+    return null;
+  }
+
+  /**
+   * Load the scene index of a directory.
+   *
+   * @return the scene index, empty if the directory has no valid index
+   */
+  public static SceneIndex load(File directory) {
+    return new SceneIndex(readFile(new File(directory, FILE_NAME)));
+  }
+
+  private static Map<String, Entry> readFile(File file) {
+    if (!file.isFile()) {
+      return new HashMap<>();
+    }
+    try {
+      // The index is small, and it is read completely rather than memory mapped
+      // because a mapped file can not be replaced on some platforms.
+      return read(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+    } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+      Log.info("Could not read scene index " + file, e);
+      return new HashMap<>();
+    }
+  }
+
+  private static Map<String, Entry> read(ByteBuffer buffer) throws IOException {
+    if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+      throw new IOException("Unknown scene index format");
+    }
+    int count = buffer.getInt();
+    Map<String, Entry> entries = new HashMap<>();
+    for (int i = 0; i < count; ++i) {
+      byte[] name = new byte[buffer.getShort() & 0xFFFF];
+      buffer.get(name);
+      Entry entry = new Entry(new String(name, StandardCharsets.UTF_8), buffer.getLong(),
+          buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getLong(),
+          buffer.getInt());
+      entries.put(entry.fileName, entry);
+    }
+    return entries;
+  }
+
+  /**
+   * Add or replace the entry of a scene description in the index of its directory.
+   */
+  public static void update(File directory, Entry entry) {
+    update(directory, Collections.singletonList(entry));
+  }
+
+  /**
+   * Add or replace the entries of several scene descriptions in the index of their
+   * directory. The index file is written once.
+   */
+  public static synchronized void update(File directory, Collection<Entry> updated) {
+    File file = new File(directory, FILE_NAME);
+    Map<String, Entry> entries = readFile(file);
+    for (Entry entry : updated) {
+      entries.put(entry.fileName, entry);
+    }
+    // Drop entries for scene descriptions that no longer exist.
+    entries.keySet().removeIf(name -> !new File(directory, name).isFile());
+
+    File tempFile = new File(directory, FILE_NAME + ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        for (Entry e : entries.values()) {
+          byte[] name = e.fileName.getBytes(StandardCharsets.UTF_8);
+          out.writeShort(name.length);
+          out.write(name);
+          out.writeLong(e.lastModified);
+          out.writeLong(e.length);
+          out.writeInt(e.width);
+          out.writeInt(e.height);
+          out.writeInt(e.spp);
+          out.writeLong(e.renderTime);
+          out.writeInt(e.chunkCount);
+        }
+      }
+      try {
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      Log.info("Could not update scene index " + file, e);
+      //noinspection ResultOfMethodCallIgnored
+      tempFile.delete();
+    }
+  }
+}
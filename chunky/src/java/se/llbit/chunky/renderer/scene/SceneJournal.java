@@ -0,0 +1,513 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import se.llbit.chunky.PersistentSettings;
+import se.llbit.chunky.renderer.RenderContext;
+import se.llbit.chunky.renderer.renderdump.RenderDump;
+import se.llbit.json.JsonArray;
+import se.llbit.json.JsonMember;
+import se.llbit.json.JsonObject;
+import se.llbit.json.JsonParser;
+import se.llbit.json.JsonString;
+import se.llbit.json.JsonValue;
+import se.llbit.log.Log;
+import se.llbit.util.TaskTracker;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes crash recovery checkpoints of a render to an append-only journal file in
+ * the scene directory, and recovers the latest checkpoint when the scene is loaded.
+ *
+ * <p>The journal starts with {@link #MAGIC} and {@link #VERSION}, followed by records.
+ * Each record is a type byte, the payload length as a long, the payload and the CRC32
+ * of the payload. A {@link #DESCRIPTION} record holds the changes to the scene
+ * description since the previous description record, as compact JSON with the changed
+ * top-level members in {@code "set"} and the removed member names in {@code "remove"}.
+ * The first description record holds the full scene description. A {@link #CHECKPOINT}
+ * record holds a render dump of the sample buffer. A record that was not completely
+ * written, for example because Chunky crashed, fails the CRC check and ends the journal.
+ *
+ * <p>Checkpoints are written by a low-priority background thread at a limited write
+ * rate, so that they do not slow down rendering. The render thread only copies the
+ * sample buffer and the references of the scene state; the scene description is
+ * serialized by the background thread. A checkpoint is skipped if the previous
+ * checkpoint is still being written. When the journal holds
+ * {@link #MAX_CHECKPOINTS} checkpoints, the next checkpoint starts a new journal,
+ * which replaces the old one when it is complete.
+ *
+ * <p>The journal is deleted when a render dump is saved, as the dump is at least as
+ * recent as the journal. It is also deleted when the render is reset and when the
+ * scene is closed without saving, as the journal would then recover a render that
+ * was discarded.
+ */
+class SceneJournal {
+  static final String EXTENSION = ".journal";
+
+  private static final int MAGIC = 0x43484b4a;  // "CHKJ"
+  private static final int VERSION = 1;
+
+  private static final byte DESCRIPTION = 1;
+  private static final byte CHECKPOINT = 2;
+
+  /**
+   * Size of the record type and payload length.
+   */
+  private static final int RECORD_HEADER_SIZE = 1 + Long.BYTES;
+
+  /**
+   * Checkpoints in a journal file before a new journal file is started.
+   */
+  private static final int MAX_CHECKPOINTS = 4;
+
+  /**
+   * Render dump format for checkpoints. The single-threaded FPC format keeps all
+   * work on the low-priority journal thread.
+   */
+  private static final int DUMP_FORMAT = 1;
+
+  /**
+   * A checkpoint found in a journal.
+   */
+  static class Checkpoint {
+    /** The scene description at the checkpoint. */
+    final JsonObject description;
+    private final File file;
+    private final long offset;
+
+    private Checkpoint(JsonObject description, File file, long offset) {
+      this.description = description;
+      this.file = file;
+      this.offset = offset;
+    }
+
+    /**
+     * Load the samples, SPP and render time of the checkpoint into the scene.
+     */
+    void load(Scene scene, TaskTracker taskTracker) throws IOException {
+      try (FileInputStream in = new FileInputStream(file)) {
+        in.getChannel().position(offset);
+        RenderDump.load(in, scene, taskTracker);
+      }
+    }
+  }
+
+  /**
+   * The journal file currently written to.
+   */
+  private File journalFile = null;
+
+  /**
+   * The scene description written to the journal file, or {@code null} if the next
+   * checkpoint starts a new journal file.
+   */
+  private JsonObject journaled = null;
+
+  private int checkpoints = 0;
+  private long nextCheckpoint = 0;
+
+  /**
+   * Holds the snapshot of the sample buffer of the checkpoint being written.
+   */
+  private double[] samples = null;
+
+  private volatile Thread writer = null;
+
+  /**
+   * Start writing a checkpoint on a background thread if the journal interval has
+   * passed since the previous checkpoint. This only copies the sample buffer and
+   * the scene state, it does not wait for previous checkpoints.
+   */
+  synchronized void checkpointIfDue(Scene scene, RenderContext context) {
+    int interval = PersistentSettings.getJournalInterval();
+    if (interval <= 0 || scene.spp <= 0) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    File file = context.getSceneFile(scene.name + EXTENSION);
+    if (!file.equals(journalFile)) {
+      // Another scene was loaded, start a new journal after one interval.
+      journalFile = file;
+      journaled = null;
+      nextCheckpoint = now + interval * 1000L;
+      return;
+    }
+    if (now < nextCheckpoint || writer != null) {
+      return;
+    }
+    nextCheckpoint = now + interval * 1000L;
+    checkpoint(scene, file);
+  }
+
+  /**
+   * Start writing a checkpoint to the journal file on a background thread.
+   * The previous checkpoint must be complete.
+   */
+  synchronized void checkpoint(Scene scene, File file) {
+    if (!file.equals(journalFile)) {
+      journalFile = file;
+      journaled = null;
+    }
+    double[] sampleBuffer = scene.getSampleBuffer();
+    if (samples == null || samples.length != sampleBuffer.length) {
+      samples = new double[sampleBuffer.length];
+    }
+    System.arraycopy(sampleBuffer, 0, samples, 0, sampleBuffer.length);
+    // The copy shares the world and entities with the scene, so it is cheap to create.
+    // The description is built from it by the writer thread.
+    Scene source = new Scene(scene);
+    source.samples = samples;
+
+    Thread thread = new Thread(() -> {
+      try {
+        write(file, source);
+      } finally {
+        writer = null;
+      }
+    }, "Scene Journal Writer");
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.setDaemon(true);
+    writer = thread;
+    thread.start();
+  }
+
+  /**
+   * Wait until the current checkpoint is written.
+   */
+  void awaitCheckpoint() throws InterruptedException {
+    Thread thread = writer;
+    if (thread != null) {
+      thread.join();
+    }
+  }
+
+  /**
+   * Delete a journal file. A checkpoint being written to it is cancelled first.
+   */
+  void discard(File file) {
+    Thread thread;
+    synchronized (this) {
+      thread = file.equals(journalFile) ? writer : null;
+    }
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    synchronized (this) {
+      if (file.equals(journalFile)) {
+        journaled = null;
+      }
+      try {
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(new File(file.getPath() + ".tmp").toPath());
+      } catch (IOException e) {
+        Log.info("Could not delete the scene journal " + file, e);
+      }
+    }
+  }
+
+  private void write(File file, Scene source) {
+    JsonObject description = source.toJson();
+    JsonObject previous;
+    synchronized (this) {
+      previous = checkpoints < MAX_CHECKPOINTS ? journaled : null;
+    }
+    try {
+      if (previous == null || !file.isFile()) {
+        // Write a new journal to a temporary file, the old journal is kept until it is complete.
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+          ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+          header.putInt(MAGIC).putInt(VERSION).flip();
+          channel.write(header);
+          append(channel, diff(new JsonObject(), description), source);
+        } catch (IOException e) {
+          //noinspection ResultOfMethodCallIgnored
+          tempFile.delete();
+          throw e;
+        }
+        try {
+          Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+          Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        synchronized (this) {
+          checkpoints = 1;
+          journaled = description;
+        }
+      } else {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+          long end = channel.size();
+          channel.position(end);
+          try {
+            append(channel, diff(previous, description), source);
+          } catch (IOException e) {
+            // Remove the incomplete records, so that later records can be appended.
+            channel.truncate(end);
+            throw e;
+          }
+        }
+        synchronized (this) {
+          checkpoints += 1;
+          journaled = description;
+        }
+      }
+      Log.info("Scene journal checkpoint written: " + file + " (" + source.spp + " SPP)");
+    } catch (IOException e) {
+      if (Thread.currentThread().isInterrupted()) {
+        Log.info("Scene journal checkpoint cancelled: " + file);
+      } else {
+        Log.warn("Failed to write the scene journal checkpoint", e);
+      }
+      synchronized (this) {
+        journaled = null;
+      }
+    }
+  }
+
+  /**
+   * Append a description record, if the description changed, and a checkpoint record.
+   */
+  private static void append(FileChannel channel, JsonObject diff, Scene source)
+      throws IOException {
+    if (!diff.get("set").object().isEmpty() || !diff.get("remove").array().isEmpty()) {
+      byte[] payload = diff.toCompactString().getBytes(StandardCharsets.UTF_8);
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+      ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length + Integer.BYTES);
+      buffer.put(DESCRIPTION).putLong(payload.length).put(payload).putInt((int) crc.getValue());
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+
+    long start = channel.position();
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    // The length is written after the payload. An incomplete record has length -1.
+    header.put(CHECKPOINT).putLong(-1).flip();
+    channel.write(header);
+    CRC32 crc = new CRC32();
+    OutputStream out = new CheckedOutputStream(new ThrottledOutputStream(
+        Channels.newOutputStream(channel), PersistentSettings.getJournalBandwidth() * 1000000L),
+        crc);
+    RenderDump.save(out, source, TaskTracker.NONE, DUMP_FORMAT);
+    out.flush();
+    long length = channel.position() - start - RECORD_HEADER_SIZE;
+    ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES);
+    trailer.putInt((int) crc.getValue()).flip();
+    channel.write(trailer);
+    // Make sure the payload is on disk before the record is marked as complete.
+    channel.force(false);
+    ByteBuffer lengthBuffer = ByteBuffer.allocate(Long.BYTES);
+    lengthBuffer.putLong(length).flip();
+    channel.write(lengthBuffer, start + 1);
+    channel.force(false);
+  }
+
+  /**
+   * @return the changed and removed top-level members of the scene description
+   */
+  private static JsonObject diff(JsonObject previous, JsonObject current) {
+    JsonObject set = new JsonObject();
+    JsonArray remove = new JsonArray();
+    for (JsonMember member : current) {
+      JsonValue old = previous.get(member.name);
+      if (old.isUnknown() || !old.toCompactString().equals(member.value.toCompactString())) {
+        set.add(member.name, member.value);
+      }
+    }
+    for (JsonMember member : previous) {
+      if (current.get(member.name).isUnknown()) {
+        remove.add(new JsonString(member.name));
+      }
+    }
+    JsonObject diff = new JsonObject();
+    diff.add("set", set);
+    diff.add("remove", remove);
+    return diff;
+  }
+
+  /**
+   * Find the latest complete checkpoint of a scene. The journal is only used if it was
+   * written after the scene description was saved, and if the checkpoint has more
+   * samples than the saved render.
+   *
+   * @param spp the SPP of the saved scene description
+   * @return the checkpoint to recover, or {@code null} if there is none
+   */
+  static Checkpoint recover(RenderContext context, String sceneName, int spp) {
+    File file = context.getSceneFile(sceneName + EXTENSION);
+    if (!file.isFile()
+        || file.lastModified() < context.getSceneDescriptionFile(sceneName).lastModified()) {
+      return null;
+    }
+    Checkpoint checkpoint;
+    try (InputStream in = new FileInputStream(file)) {
+      checkpoint = read(file, in);
+    } catch (IOException e) {
+      Log.info("Could not read the scene journal " + file, e);
+      return null;
+    }
+    if (checkpoint == null || checkpoint.description.get("spp").intValue(0) <= spp) {
+      return null;
+    }
+    return checkpoint;
+  }
+
+  /**
+   * @return the last complete checkpoint in the journal, or {@code null} if there is none
+   */
+  private static Checkpoint read(File file, InputStream input) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("Unknown scene journal format");
+    }
+    long remaining = file.length() - 2 * Integer.BYTES;
+    long position = 2 * Integer.BYTES;
+    JsonObject description = new JsonObject();
+    Checkpoint checkpoint = null;
+    byte[] buffer = new byte[1 << 16];
+    while (remaining > RECORD_HEADER_SIZE + Integer.BYTES) {
+      byte type;
+      long length;
+      try {
+        type = in.readByte();
+        length = in.readLong();
+      } catch (EOFException e) {
+        break;
+      }
+      remaining -= RECORD_HEADER_SIZE + Integer.BYTES;
+      if (length < 0 || length > remaining
+          || (type != DESCRIPTION && type != CHECKPOINT)
+          || (type == DESCRIPTION && length > Integer.MAX_VALUE)) {
+        break;
+      }
+      CRC32 crc = new CRC32();
+      byte[] payload = null;
+      if (type == DESCRIPTION) {
+        payload = new byte[(int) length];
+        in.readFully(payload);
+        crc.update(payload);
+      } else {
+        for (long left = length; left > 0; ) {
+          int n = (int) Math.min(left, buffer.length);
+          in.readFully(buffer, 0, n);
+          crc.update(buffer, 0, n);
+          left -= n;
+        }
+      }
+      if (in.readInt() != (int) crc.getValue()) {
+        break;
+      }
+      if (type == DESCRIPTION) {
+        try (JsonParser parser = new JsonParser(new ByteArrayInputStream(payload))) {
+          JsonObject diff = parser.parse().object();
+          for (JsonValue name : diff.get("remove").array()) {
+            description.remove(name.stringValue(""));
+          }
+          for (JsonMember member : diff.get("set").object()) {
+            description.set(member.name, member.value);
+          }
+        } catch (JsonParser.SyntaxError e) {
+          break;
+        }
+      } else {
+        checkpoint = new Checkpoint(description.copy().object(), file,
+            position + RECORD_HEADER_SIZE);
+      }
+      position += RECORD_HEADER_SIZE + length + Integer.BYTES;
+      remaining -= length;
+    }
+    return checkpoint;
+  }
+
+  /**
+   * Limits the average write rate of the underlying stream.
+   */
+  private static class ThrottledOutputStream extends FilterOutputStream {
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final long bytesPerSecond;
+    private final long start = System.nanoTime();
+    private long written = 0;
+
+    ThrottledOutputStream(OutputStream out, long bytesPerSecond) {
+      super(out);
+      this.bytesPerSecond = bytesPerSecond;
+    }
+
+    @Override public void write(int b) throws IOException {
+      out.write(b);
+      written += 1;
+      if (written % CHUNK_SIZE == 0) {
+        throttle();
+      }
+    }
+
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        int n = Math.min(len, CHUNK_SIZE);
+        out.write(b, off, n);
+        written += n;
+        off += n;
+        len -= n;
+        throttle();
+      }
+    }
+
+    private void throttle() throws IOException {
+      long ahead = written * 1000 / bytesPerSecond - (System.nanoTime() - start) / 1000000;
+      if (ahead > 0) {
+        try {
+          Thread.sleep(ahead);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while writing the scene journal");
+        }
+      }
+    }
+  }
+}
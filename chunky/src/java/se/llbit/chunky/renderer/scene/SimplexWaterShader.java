@@ -16,11 +16,14 @@
  */
 package se.llbit.chunky.renderer.scene;
 
+import se.llbit.chunky.main.Chunky;
 import se.llbit.json.JsonObject;
 import se.llbit.math.Ray;
 import se.llbit.math.SimplexNoise;
 import se.llbit.math.Vector3;
 
+import java.util.stream.IntStream;
+
 public class SimplexWaterShader implements WaterShader {
   /*
   Water shading is implemented using fractal noise based on simplex noise
@@ -29,17 +32,65 @@ public class SimplexWaterShader implements WaterShader {
   what we are really interested in are the partial derivatives of that function
   with respect to x and z as they give us the slope along x and z,
   and the normal is simply the cross product of the slope along x and the slope along z.
+
+  Unless high quality mode is enabled, the slopes are not evaluated per hit. Instead they are
+  baked into a tiling normal map for the current animation time, which is looked up with
+  bilinear filtering. Simplex noise does not tile, so each texel blends the noise at the texel
+  and at the texel shifted by one tile period, weighted so that opposite edges of the tile match.
    */
 
+  /** Size of the normal map tile, in units of the first noise iteration. */
+  private static final int TILE_CELLS = 8;
+
+  /** Texels per unit of the last noise iteration. */
+  private static final int TEXELS_PER_CELL = 8;
+
+  /** Largest normal map width. Iterations beyond this resolution are smoothed out. */
+  private static final int MAX_MAP_SIZE = 1024;
+
   public int iterations = 4; /// Number of iteration of the fractal noise
   public double baseFrequency = 0.1; /// frequency of the first iteration, doubles each iteration
   public double baseAmplitude = 0.2; /// amplitude of the first iteration, halves each iteration
   public double animationSpeed = 1; /// animation speed
-  private final SimplexNoise noise = new SimplexNoise();
+  public boolean highQuality = false; /// evaluate the noise per hit instead of using the normal map
 
+  private volatile NormalMap normalMap = null;
+
+  @Override
+  public void prepare(double animationTime) {
+    if (!highQuality && baseFrequency > 0) {
+      getNormalMap(animationTime);
+    }
+  }
 
   @Override
   public void doWaterShading(Ray ray, double animationTime) {
+    if (highQuality || baseFrequency <= 0) {
+      doAnalyticShading(ray, animationTime);
+    } else {
+      getNormalMap(animationTime).shade(ray);
+    }
+  }
+
+  /**
+   * @return a normal map for the current parameters and animation time, baking it if needed
+   */
+  private NormalMap getNormalMap(double animationTime) {
+    NormalMap map = normalMap;
+    if (map == null || !map.matches(this, animationTime)) {
+      synchronized (this) {
+        map = normalMap;
+        if (map == null || !map.matches(this, animationTime)) {
+          map = new NormalMap(this, animationTime);
+          normalMap = map;
+        }
+      }
+    }
+    return map;
+  }
+
+  private void doAnalyticShading(Ray ray, double animationTime) {
+    SimplexNoise noise = new SimplexNoise();
     double frequency = baseFrequency;
     double amplitude = baseAmplitude;
 
@@ -74,6 +125,7 @@ public class SimplexWaterShader implements WaterShader {
     shader.baseFrequency = baseFrequency;
     shader.baseAmplitude = baseAmplitude;
     shader.animationSpeed = animationSpeed;
+    shader.highQuality = highQuality;
     return shader;
   }
 
@@ -85,6 +137,7 @@ public class SimplexWaterShader implements WaterShader {
     params.add("frequency", baseFrequency);
     params.add("amplitude", baseAmplitude);
     params.add("animationSpeed", animationSpeed);
+    params.add("highQuality", highQuality);
     json.add("simplexWaterShader", params);
   }
 
@@ -98,5 +151,122 @@ public class SimplexWaterShader implements WaterShader {
     baseFrequency = params.get("frequency").doubleValue(0.1);
     baseAmplitude = params.get("amplitude").doubleValue(0.2);
     animationSpeed = params.get("animationSpeed").doubleValue(1);
+    highQuality = params.get("highQuality").boolValue(false);
+  }
+
+  /**
+   * Periodic map of the noise slopes along x and z. The map is immutable once baked, so
+   * render workers can sample it concurrently.
+   */
+  private static final class NormalMap {
+    private final int iterations;
+    private final double baseFrequency;
+    private final double baseAmplitude;
+    private final double noiseTime;
+
+    private final int size;
+    private final double scale;
+    private final float[] slopes;
+
+    NormalMap(SimplexWaterShader shader, double animationTime) {
+      iterations = shader.iterations;
+      baseFrequency = shader.baseFrequency;
+      baseAmplitude = shader.baseAmplitude;
+      noiseTime = animationTime * shader.animationSpeed;
+
+      // The size is a power of two, so texel coordinates can be wrapped with a mask.
+      int mapSize = TILE_CELLS * TEXELS_PER_CELL;
+      for (int i = 1; i < iterations && mapSize < MAX_MAP_SIZE; ++i) {
+        mapSize *= 2;
+      }
+      size = mapSize;
+      double period = TILE_CELLS / baseFrequency;
+      scale = size / period;
+      slopes = new float[size * size * 2];
+
+      Chunky.getCommonThreads().submit(() ->
+        IntStream.range(0, size).parallel().forEach(row -> {
+          SimplexNoise noise = new SimplexNoise();
+          double[] a = new double[2];
+          double[] b = new double[2];
+          double[] c = new double[2];
+          double[] d = new double[2];
+          double v = row / (double) size;
+          double z = v * period;
+          for (int col = 0; col < size; ++col) {
+            double u = col / (double) size;
+            double x = u * period;
+            fractalSlopes(noise, x, z, a);
+            fractalSlopes(noise, x - period, z, b);
+            fractalSlopes(noise, x, z - period, c);
+            fractalSlopes(noise, x - period, z - period, d);
+            double wa = (1 - u) * (1 - v);
+            double wb = u * (1 - v);
+            double wc = (1 - u) * v;
+            double wd = u * v;
+            // Blending independent noise samples lowers the contrast, normalizing by the
+            // root of the squared weights keeps the variance of the slopes.
+            double norm = 1 / Math.sqrt(wa * wa + wb * wb + wc * wc + wd * wd);
+            int offset = (row * size + col) * 2;
+            slopes[offset] = (float) ((wa * a[0] + wb * b[0] + wc * c[0] + wd * d[0]) * norm);
+            slopes[offset + 1] = (float) ((wa * a[1] + wb * b[1] + wc * c[1] + wd * d[1]) * norm);
+          }
+        })
+      ).join();
+    }
+
+    private void fractalSlopes(SimplexNoise noise, double x, double z, double[] out) {
+      double frequency = baseFrequency;
+      double amplitude = baseAmplitude;
+      double ddx = 0;
+      double ddz = 0;
+      for (int i = 0; i < iterations; ++i) {
+        noise.calculate((float) (x * frequency), (float) (z * frequency), (float) noiseTime);
+        double ddxNext = ddx - amplitude * noise.ddx;
+        double ddzNext = ddz - amplitude * noise.ddy;
+        if (Double.isNaN(ddxNext + ddzNext)) {
+          break;
+        }
+        ddx = ddxNext;
+        ddz = ddzNext;
+
+        frequency *= 2;
+        amplitude *= 0.5;
+      }
+      out[0] = ddx;
+      out[1] = ddz;
+    }
+
+    boolean matches(SimplexWaterShader shader, double animationTime) {
+      return iterations == shader.iterations
+          && baseFrequency == shader.baseFrequency
+          && baseAmplitude == shader.baseAmplitude
+          && noiseTime == animationTime * shader.animationSpeed;
+    }
+
+    void shade(Ray ray) {
+      double fx = ray.o.x * scale;
+      double fz = ray.o.z * scale;
+      double x0 = Math.floor(fx);
+      double z0 = Math.floor(fz);
+      double u = fx - x0;
+      double v = fz - z0;
+      int mask = size - 1;
+      int ix0 = (int) (long) x0 & mask;
+      int iz0 = (int) (long) z0 & mask;
+      int ix1 = (ix0 + 1) & mask;
+      int iz1 = (iz0 + 1) & mask;
+      int o00 = (iz0 * size + ix0) * 2;
+      int o10 = (iz0 * size + ix1) * 2;
+      int o01 = (iz1 * size + ix0) * 2;
+      int o11 = (iz1 * size + ix1) * 2;
+      double ddx = (1 - v) * ((1 - u) * slopes[o00] + u * slopes[o10])
+          + v * ((1 - u) * slopes[o01] + u * slopes[o11]);
+      double ddz = (1 - v) * ((1 - u) * slopes[o00 + 1] + u * slopes[o10 + 1])
+          + v * ((1 - u) * slopes[o01 + 1] + u * slopes[o11 + 1]);
+      // Cross product of the slope along z, (0, ddz, 1), and the slope along x, (1, ddx, 0).
+      double invLength = 1 / Math.sqrt(ddx * ddx + 1 + ddz * ddz);
+      ray.setShadingNormal(-ddx * invLength, invLength, -ddz * invLength);
+    }
   }
 }
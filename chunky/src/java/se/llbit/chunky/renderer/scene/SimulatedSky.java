@@ -33,6 +33,15 @@ public interface SimulatedSky {
    */
   Vector3 calcIncidentLight(Ray ray);
 
+  /**
+   * Returns true if the sky only depends on the sun azimuth through a rotation around
+   * the vertical axis. The sky cache is then rotated instead of recalculated when only
+   * the sun azimuth changes.
+   */
+  default boolean isRotationallySymmetric() {
+    return false;
+  }
+
   /**
    * Get the friendly name.
    */
@@ -22,6 +22,7 @@ import se.llbit.chunky.block.Air;
 import se.llbit.chunky.resources.HDRTexture;
 import se.llbit.chunky.resources.PFMTexture;
 import se.llbit.chunky.resources.Texture;
+import se.llbit.chunky.world.CloudGrid;
 import se.llbit.chunky.world.Clouds;
 import se.llbit.chunky.world.SkymapTexture;
 import se.llbit.chunky.world.material.CloudMaterial;
@@ -145,6 +146,16 @@ public class Sky implements JsonSerializable {
   private double rotation = 0;
   private boolean mirrored = true;
   private boolean cloudsEnabled = false;
+
+  /**
+   * Sample sky light explicitly at diffuse reflections, see {@link SkySampler}.
+   */
+  private boolean importanceSampling = true;
+
+  /**
+   * Importance sampler for the current sky, built when it is first used.
+   */
+  private volatile SkySampler sampler = null;
   private double cloudSize = DEFAULT_CLOUD_SIZE;
   private final Vector3 cloudOffset = new Vector3(0, DEFAULT_CLOUD_HEIGHT, 0);
 
@@ -215,6 +226,7 @@ public class Sky implements JsonSerializable {
    */
   public void set(Sky other) {
     cloudsEnabled = other.cloudsEnabled;
+    importanceSampling = other.importanceSampling;
     cloudOffset.set(other.cloudOffset);
     cloudSize = other.cloudSize;
     skymapFileName = other.skymapFileName;
@@ -233,9 +245,7 @@ public class Sky implements JsonSerializable {
 
     simulatedSkyMode = other.simulatedSkyMode;
     skyCache.set(other.skyCache);
-    if (simulatedSkyMode.updateSun(scene.sun, horizonOffset)) {
-      skyCache.precalculateSky();
-    }
+    skyCache.updateSun(scene.sun, horizonOffset);
   }
 
   /**
@@ -269,8 +279,7 @@ public class Sky implements JsonSerializable {
         break;
       }
       case SIMULATED: {
-        Vector3 color = skyCache.calcIncidentLight(ray);
-        ray.color.set(color.x, color.y, color.z, 1);
+        skyCache.getIncidentLight(ray);
         break;
       }
       case SKYMAP_PANORAMIC: {
@@ -539,9 +548,7 @@ public class Sky implements JsonSerializable {
    * Update the current simulated sky
    */
   public void updateSimulatedSky(Sun sun) {
-    if (simulatedSkyMode.updateSun(sun, horizonOffset)) {
-      skyCache.precalculateSky();
-    }
+    skyCache.updateSun(sun, horizonOffset);
   }
 
   /**
@@ -559,6 +566,7 @@ public class Sky implements JsonSerializable {
     sky.add("mode", mode.name());
     sky.add("horizonOffset", horizonOffset);
     sky.add("cloudsEnabled", cloudsEnabled);
+    sky.add("importanceSampling", importanceSampling);
     sky.add("cloudSize", cloudSize);
     sky.add("cloudOffset", cloudOffset.toJson());
 
@@ -606,6 +614,7 @@ public class Sky implements JsonSerializable {
     mode = SkyMode.get(json.get("mode").stringValue(mode.name()));
     horizonOffset = json.get("horizonOffset").doubleValue(horizonOffset);
     cloudsEnabled = json.get("cloudsEnabled").boolValue(cloudsEnabled);
+    importanceSampling = json.get("importanceSampling").boolValue(importanceSampling);
     cloudSize = json.get("cloudSize").doubleValue(cloudSize);
     if (json.get("cloudOffset").isObject()) {
       cloudOffset.fromJson(json.get("cloudOffset").object());
@@ -780,6 +789,13 @@ public class Sky implements JsonSerializable {
     }
   }
 
+  /**
+   * @return The sun of the scene, or {@code null} while the scene is being created
+   */
+  Sun sun() {
+    return scene.sun();
+  }
+
   public double getHorizonOffset() {
     return horizonOffset;
   }
@@ -860,7 +876,60 @@ public class Sky implements JsonSerializable {
     return cloudsEnabled;
   }
 
+  /**
+   * Enable/disable importance sampling of the sky light.
+   */
+  public void setImportanceSampling(boolean newValue) {
+    if (newValue != importanceSampling) {
+      importanceSampling = newValue;
+      scene.refresh();
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the sky light is importance sampled
+   */
+  public boolean importanceSampling() {
+    return importanceSampling;
+  }
+
+  /**
+   * Get the importance sampler for the current sky. The sampler is built on first use
+   * after the sky changes.
+   *
+   * @return the sky sampler, or {@code null} if the sky is not importance sampled
+   */
+  SkySampler getSampler() {
+    if (!importanceSampling) {
+      return null;
+    }
+    Object source;
+    switch (mode) {
+      case SKYMAP_PANORAMIC:
+      case SKYMAP_SPHERICAL:
+        source = skymap;
+        break;
+      case SIMULATED:
+        source = skyCache.getTexture();
+        break;
+      default:
+        return null;
+    }
+    SkySampler current = sampler;
+    if (current == null || !current.matches(mode, source, rotation, mirrored)) {
+      synchronized (this) {
+        current = sampler;
+        if (current == null || !current.matches(mode, source, rotation, mirrored)) {
+          current = SkySampler.build(this, mode, source, rotation, mirrored);
+          sampler = current;
+        }
+      }
+    }
+    return current.canSample() ? current : null;
+  }
+
   public boolean cloudIntersection(Scene scene, Ray ray) {
+    CloudGrid grid = Clouds.getGrid();
     double ox = ray.o.x + scene.origin.x;
     double oy = ray.o.y + scene.origin.y;
     double oz = ray.o.z + scene.origin.z;
@@ -881,13 +950,13 @@ public class Sky implements JsonSerializable {
         return false;
       }
       // Ray is entering cloud.
-      if (inCloud((ray.d.x * t_offset + ox) * inv_size + offsetX,
+      if (inCloud(grid, (ray.d.x * t_offset + ox) * inv_size + offsetX,
           (ray.d.z * t_offset + oz) * inv_size + offsetZ)) {
         ray.setNormal(0, -Math.signum(ray.d.y), 0);
         enterCloud(ray, t_offset);
         return true;
       }
-    } else if (inCloud(ox * inv_size + offsetX, oz * inv_size + offsetZ)) {
+    } else if (inCloud(grid, ox * inv_size + offsetX, oz * inv_size + offsetZ)) {
       target = 0;
     }
     double tExit;
@@ -901,122 +970,62 @@ public class Sky implements JsonSerializable {
     }
     double x0 = (ox + ray.d.x * t_offset) * inv_size + offsetX;
     double z0 = (oz + ray.d.z * t_offset) * inv_size + offsetZ;
-    double xp = x0;
-    double zp = z0;
-    int ix = (int) Math.floor(xp);
-    int iz = (int) Math.floor(zp);
-    int xmod = (int) Math.signum(ray.d.x), zmod = (int) Math.signum(ray.d.z);
-    int xo = (1 + xmod) / 2, zo = (1 + zmod) / 2;
-    double dx = Math.abs(ray.d.x) * inv_size;
-    double dz = Math.abs(ray.d.z) * inv_size;
-    double t = 0;
-    int i = 0;
+    // Ray direction in cells per unit of t.
+    double dx = ray.d.x * inv_size;
+    double dz = ray.d.z * inv_size;
+    int xmod = (int) Math.signum(dx), zmod = (int) Math.signum(dz);
+    int ix = (int) Math.floor(x0);
+    int iz = (int) Math.floor(z0);
+    double t = tExit;
     int nx = 0, nz = 0;
-    if (dx > dz) {
-      double m = dz / dx;
-      double xrem = xmod * (ix + xo - xp);
-      double zlimit = xrem * m;
-      while (t < tExit) {
-        double zrem = zmod * (iz + zo - zp);
-        if (zrem < zlimit) {
-          iz += zmod;
-          if (Clouds.getCloud(ix, iz) == target) {
-            t = i / dx + zrem / dz;
-            nx = 0;
-            nz = -zmod;
-            break;
-          }
-          ix += xmod;
-          if (Clouds.getCloud(ix, iz) == target) {
-            t = (i + xrem) / dx;
-            nx = -xmod;
-            nz = 0;
-            break;
-          }
+    if (grid.hasValue(target)) {
+      // Grid traversal that skips over squares of cells which can not hold the target.
+      // The distance field gives the radius of the largest such square around the
+      // current cell. Where the target is close the radius is zero, and this is a
+      // regular cell by cell traversal.
+      while (true) {
+        int r = grid.distance(target, ix, iz) - 1;
+        double tx = dx > 0 ? (ix + r + 1 - x0) / dx
+            : dx < 0 ? (ix - r - x0) / dx : Double.POSITIVE_INFINITY;
+        double tz = dz > 0 ? (iz + r + 1 - z0) / dz
+            : dz < 0 ? (iz - r - z0) / dz : Double.POSITIVE_INFINITY;
+        double tNext;
+        if (tx <= tz) {
+          tNext = tx;
+          ix += xmod * (r + 1);
+          iz = Math.max(iz - r, Math.min(iz + r, (int) Math.floor(z0 + dz * tNext)));
+          nx = -xmod;
+          nz = 0;
         } else {
-          ix += xmod;
-          if (Clouds.getCloud(ix, iz) == target) {
-            t = (i + xrem) / dx;
-            nx = -xmod;
-            nz = 0;
-            break;
-          }
-          if (zrem <= m) {
-            iz += zmod;
-            if (Clouds.getCloud(ix, iz) == target) {
-              t = i / dx + zrem / dz;
-              nx = 0;
-              nz = -zmod;
-              break;
-            }
-          }
+          tNext = tz;
+          iz += zmod * (r + 1);
+          ix = Math.max(ix - r, Math.min(ix + r, (int) Math.floor(x0 + dx * tNext)));
+          nx = 0;
+          nz = -zmod;
         }
-        t = i / dx;
-        i += 1;
-        zp = z0 + zmod * i * m;
-      }
-    } else {
-      double m = dx / dz;
-      double zrem = zmod * (iz + zo - zp);
-      double xlimit = zrem * m;
-      while (t < tExit) {
-        double xrem = xmod * (ix + xo - xp);
-        if (xrem < xlimit) {
-          ix += xmod;
-          if (Clouds.getCloud(ix, iz) == target) {
-            t = i / dz + xrem / dx;
-            nx = -xmod;
-            nz = 0;
-            break;
-          }
-          iz += zmod;
-          if (Clouds.getCloud(ix, iz) == target) {
-            t = (i + zrem) / dz;
-            nx = 0;
-            nz = -zmod;
-            break;
-          }
-        } else {
-          iz += zmod;
-          if (Clouds.getCloud(ix, iz) == target) {
-            t = (i + zrem) / dz;
-            nx = 0;
-            nz = -zmod;
-            break;
-          }
-          if (xrem <= m) {
-            ix += xmod;
-            if (Clouds.getCloud(ix, iz) == target) {
-              t = i / dz + xrem / dx;
-              nx = -xmod;
-              nz = 0;
-              break;
-            }
-          }
+        if (!(tNext < tExit)) {
+          nx = nz = 0;
+          break;
+        }
+        if (grid.getCloud(ix, iz) == target) {
+          t = tNext;
+          break;
         }
-        t = i / dz;
-        i += 1;
-        xp = x0 + xmod * i * m;
       }
     }
     int ny = 0;
     if (target == 1) {
-      if (t > tExit) {
-        return false;
-      }
-      if (nx == 0 && ny == 0 && nz == 0) {
-        // fix ray.n being set to zero (issue #643)
+      if (nx == 0 && nz == 0) {
+        // No cloud before the ray leaves the cloud layer. This also avoids setting ray.n
+        // to zero (issue #643).
         return false;
       }
       ray.setNormal(nx, ny, nz);
       enterCloud(ray, t + t_offset);
       return true;
     } else {
-      if (t > tExit) {
-        nx = 0;
+      if (nx == 0 && nz == 0) {
         ny = (int) Math.signum(ray.d.y);
-        nz = 0;
-        t = tExit;
       } else {
         nx = -nx;
         nz = -nz;
@@ -1031,6 +1040,18 @@ public class Sky implements JsonSerializable {
     return true;
   }
 
+  /**
+   * Test if a cloud is in the way of the ray, up to the distance {@code maxT} from the ray
+   * origin. Clouds are opaque. The ray is not modified.
+   */
+  public boolean cloudOccluded(Scene scene, Ray ray, double maxT) {
+    Ray test = new Ray();
+    test.o.set(ray.o);
+    test.d.set(ray.d);
+    test.t = maxT;
+    return cloudIntersection(scene, test) && test.t < maxT;
+  }
+
   private static void enterCloud(Ray ray, double t) {
     ray.t = t;
     ray.color.set(CloudMaterial.color);
@@ -1043,8 +1064,8 @@ public class Sky implements JsonSerializable {
     ray.setCurrentMaterial(Air.INSTANCE);
   }
 
-  private static boolean inCloud(double x, double z) {
-    return Clouds.getCloud((int) Math.floor(x), (int) Math.floor(z)) == 1;
+  private static boolean inCloud(CloudGrid grid, double x, double z) {
+    return grid.isCloud((int) Math.floor(x), (int) Math.floor(z));
   }
 
   public void setColor(Vector3 color) {
@@ -23,20 +23,80 @@ import java.util.stream.IntStream;
 import org.apache.commons.math3.util.FastMath;
 import se.llbit.chunky.main.Chunky;
 import se.llbit.log.Log;
-import se.llbit.math.ColorUtil;
 import se.llbit.math.QuickMath;
 import se.llbit.math.Ray;
 import se.llbit.math.Vector3;
+import se.llbit.math.Vector4;
 
 /**
  * A sky cache. Precalculates sky colors and them uses cached values with bilinear interpolation.
  * <p>
  * Default cache size is 128x128 which seems to work well for all simulated sky modes.
+ * <p>
+ * The cached colors are stored in linear RGB in a flat array, so that a lookup only
+ * reads four texels and writes the interpolated color into the ray. The cache remembers
+ * the sun it was calculated for. If only the sun azimuth changes and the simulated sky
+ * is rotationally symmetric, the cached sky is rotated instead of recalculated.
  */
 public class SkyCache {
 
-  // Sky texture array, HSV colors
-  private double[][][] skyTexture;
+  /**
+   * An immutable precalculated sky texture. The texture is replaced, not modified,
+   * when the sky changes, so it can be shared between caches and read without locking.
+   */
+  private static final class SkyTexture {
+    /**
+     * Linear RGB colors, rows of increasing altitude with columns of increasing azimuth.
+     */
+    final float[] rgb;
+    final int resolution;
+
+    // The sky state the texture was calculated for.
+    final SimulatedSky simSky;
+    final double sunAltitude;
+    final double sunIntensity;
+    final double horizonOffset;
+    final double sunAzimuth;
+
+    /**
+     * Sun azimuth change since the texture was calculated, in turns.
+     */
+    final double rotation;
+
+    SkyTexture(float[] rgb, int resolution, SimulatedSky simSky, double sunAltitude,
+        double sunIntensity, double horizonOffset, double sunAzimuth, double rotation) {
+      this.rgb = rgb;
+      this.resolution = resolution;
+      this.simSky = simSky;
+      this.sunAltitude = sunAltitude;
+      this.sunIntensity = sunIntensity;
+      this.horizonOffset = horizonOffset;
+      this.sunAzimuth = sunAzimuth;
+      this.rotation = rotation;
+    }
+
+    /**
+     * @return {@code true} if the texture was calculated for the sky state, apart
+     * from the sun azimuth
+     */
+    boolean matches(SimulatedSky simSky, int resolution, Sun sun, double horizonOffset) {
+      return this.simSky == simSky && this.resolution == resolution
+          && sunAltitude == sun.getAltitude() && sunIntensity == sun.getIntensity()
+          && this.horizonOffset == horizonOffset;
+    }
+
+    /**
+     * @return this texture rotated to a new sun azimuth
+     */
+    SkyTexture rotate(double azimuth) {
+      return new SkyTexture(rgb, resolution, simSky, sunAltitude, sunIntensity, horizonOffset,
+          sunAzimuth, (azimuth - sunAzimuth) / (2 * PI));
+    }
+  }
+
+  private final Sky sky;
+
+  private volatile SkyTexture texture;
 
   // Default resolution is 128x128. Should be enough for most simulated skies.
   private int skyResolution = 128;
@@ -49,6 +109,7 @@ public class SkyCache {
    * @param sky Sky object to pull sky renderer from
    */
   public SkyCache(Sky sky) {
+    this.sky = sky;
     simSky = sky.getSimulatedSky();
     precalculateSky();
   }
@@ -59,7 +120,7 @@ public class SkyCache {
   public synchronized void set(SkyCache cache) {
     this.skyResolution = cache.skyResolution;
     this.simSky = cache.simSky;
-    this.skyTexture = cache.skyTexture;
+    this.texture = cache.texture;
   }
 
   /**
@@ -69,16 +130,54 @@ public class SkyCache {
    * e.g. if the sun position changes.
    */
   public synchronized void precalculateSky() {
-    double[][][] skyTexture = new double[skyResolution + 1][skyResolution + 1][3];
+    Sun sun = sky.sun();
+    if (sun != null) {
+      precalculateSky(sun.getAltitude(), sun.getIntensity(), sky.getHorizonOffset(),
+          sun.getAzimuth());
+    } else {
+      // The scene is being created, the cache is updated again when the sun is set.
+      precalculateSky(Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+    }
+  }
+
+  /**
+   * Update the simulated sky for the sun, and update the cached sky texture if the
+   * simulated sky has changed.
+   */
+  public synchronized void updateSun(Sun sun, double horizonOffset) {
+    if (!simSky.updateSun(sun, horizonOffset)) {
+      return;
+    }
+    SkyTexture current = texture;
+    if (current != null && current.matches(simSky, skyResolution, sun, horizonOffset)) {
+      if (current.sunAzimuth == sun.getAzimuth()) {
+        return;
+      }
+      if (simSky.isRotationallySymmetric()) {
+        texture = current.rotate(sun.getAzimuth());
+        return;
+      }
+    }
+    precalculateSky(sun.getAltitude(), sun.getIntensity(), horizonOffset, sun.getAzimuth());
+  }
+
+  private void precalculateSky(double sunAltitude, double sunIntensity, double horizonOffset,
+      double sunAzimuth) {
+    int resolution = skyResolution;
+    int stride = resolution + 1;
+    float[] rgb = new float[stride * stride * 3];
 
     try {
       Chunky.getCommonThreads().submit(() -> {
-        IntStream.range(0, skyResolution + 1).parallel().forEach(i -> {
-          for (int j = 0; j < skyResolution + 1; j++) {
-            Vector3 c = getSkyColorAt(i, j);
-            skyTexture[i][j][0] = c.x;
-            skyTexture[i][j][1] = c.y;
-            skyTexture[i][j][2] = c.z;
+        IntStream.range(0, stride).parallel().forEach(y -> {
+          Ray ray = new Ray();
+          int offset = y * stride * 3;
+          for (int x = 0; x < stride; x++) {
+            Vector3 c = getSkyColorAt(ray, x, y, resolution);
+            rgb[offset] = (float) c.x;
+            rgb[offset + 1] = (float) c.y;
+            rgb[offset + 2] = (float) c.z;
+            offset += 3;
           }
         });
       }).get();
@@ -89,7 +188,16 @@ public class SkyCache {
       return;
     }
 
-    this.skyTexture = skyTexture;
+    texture = new SkyTexture(rgb, resolution, simSky, sunAltitude, sunIntensity, horizonOffset,
+        sunAzimuth, 0);
+  }
+
+  /**
+   * @return the current sky texture. The texture is replaced when the cached sky changes,
+   * so this identifies the cached sky.
+   */
+  Object getTexture() {
+    return texture;
   }
 
   /**
@@ -129,54 +237,63 @@ public class SkyCache {
    * @return Incident light color (RGB)
    */
   public Vector3 calcIncidentLight(Ray ray) {
-    double theta = FastMath.atan2(ray.d.z, ray.d.x);
-    theta /= PI * 2;
-    theta = ((theta % 1) + 1) % 1;
-    double phi = (FastMath.asin(QuickMath.clamp(ray.d.y, -1, 1)) + PI / 2) / PI;
-
-    Vector3 color = getColorInterpolated(theta, phi);
-    ColorUtil.RGBfromHSL(color, color.x, color.y, color.z);
-    return color;
+    Vector4 color = new Vector4();
+    getColorInterpolated(ray, color);
+    return new Vector3(color.x, color.y, color.z);
   }
 
-  // Linear interpolation between 2 points in 1 dimension
-  private static double interp1D(double x, double x0, double x1, double y0, double y1) {
-    return y0 + (x - x0) * (y1 - y0) / (x1 - x0);
+  /**
+   * Set the ray color to the incident light for the ray direction. This uses bilinearly
+   * interpolated precalculated values and does not allocate.
+   *
+   * @param ray Ray to calculate the incident light for
+   */
+  public void getIncidentLight(Ray ray) {
+    getColorInterpolated(ray, ray.color);
   }
 
   /**
    * Calculate the bilinearly interpolated value from the cache.
    */
-  private Vector3 getColorInterpolated(double normX, double normY) {
-    double x = normX * skyResolution;
-    double y = normY * skyResolution;
-    int floorX = (int) QuickMath.clamp(x, 0, skyResolution - 1);
-    int floorY = (int) QuickMath.clamp(y, 0, skyResolution - 1);
-
-    double[] color = new double[3];
-    for (int i = 0; i < 3; i++) {
-      double y0 = interp1D(x, floorX, floorX + 1, skyTexture[floorX][floorY][i],
-          skyTexture[floorX + 1][floorY][i]);
-      double y1 = interp1D(x, floorX, floorX + 1, skyTexture[floorX][floorY + 1][i],
-          skyTexture[floorX + 1][floorY + 1][i]);
-      color[i] = interp1D(y, floorY, floorY + 1, y0, y1);
-    }
-    return new Vector3(color[0], color[1], color[2]);
+  private void getColorInterpolated(Ray ray, Vector4 color) {
+    SkyTexture texture = this.texture;
+    double theta = FastMath.atan2(ray.d.z, ray.d.x) / (2 * PI) - texture.rotation;
+    theta -= Math.floor(theta);
+    double phi = (FastMath.asin(QuickMath.clamp(ray.d.y, -1, 1)) + PI / 2) / PI;
+
+    int resolution = texture.resolution;
+    double x = theta * resolution;
+    double y = phi * resolution;
+    int floorX = (int) QuickMath.clamp(x, 0, resolution - 1);
+    int floorY = (int) QuickMath.clamp(y, 0, resolution - 1);
+    double fx = x - floorX;
+    double fy = y - floorY;
+
+    float[] rgb = texture.rgb;
+    int i00 = (floorY * (resolution + 1) + floorX) * 3;
+    int i01 = i00 + (resolution + 1) * 3;
+    color.set(interpolate(rgb, i00, i01, fx, fy), interpolate(rgb, i00 + 1, i01 + 1, fx, fy),
+        interpolate(rgb, i00 + 2, i01 + 2, fx, fy), 1);
   }
 
   /**
-   * Calculate the sky color for a pixel on the cache.
+   * Bilinear interpolation between two adjacent texels on two adjacent rows.
    */
-  private Vector3 getSkyColorAt(int x, int y) {
-    Ray ray = new Ray();
+  private static double interpolate(float[] rgb, int row0, int row1, double fx, double fy) {
+    double y0 = rgb[row0] + fx * (rgb[row0 + 3] - rgb[row0]);
+    double y1 = rgb[row1] + fx * (rgb[row1 + 3] - rgb[row1]);
+    return y0 + fy * (y1 - y0);
+  }
 
-    double theta = ((double) x / skyResolution) * 2 * PI;
-    double phi = ((double) y / skyResolution) * PI - PI / 2;
+  /**
+   * Calculate the sky color for a pixel on the cache.
+   */
+  private Vector3 getSkyColorAt(Ray ray, int x, int y, int resolution) {
+    double theta = ((double) x / resolution) * 2 * PI;
+    double phi = ((double) y / resolution) * PI - PI / 2;
     double r = FastMath.cos(phi);
     ray.d.set(FastMath.cos(theta) * r, FastMath.sin(phi), FastMath.sin(theta) * r);
 
-    Vector3 color = simSky.calcIncidentLight(ray);
-    ColorUtil.RGBtoHSL(color, color.x, color.y, color.z);
-    return color;
+    return simSky.calcIncidentLight(ray);
   }
 }
@@ -0,0 +1,168 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import org.apache.commons.math3.util.FastMath;
+import se.llbit.chunky.main.Chunky;
+import se.llbit.log.Log;
+import se.llbit.math.AliasTable;
+import se.llbit.math.Ray;
+import se.llbit.math.Vector3;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.IntStream;
+
+/**
+ * Samples sky directions proportional to the sky luminance.
+ *
+ * <p>The sky is divided into a grid of cells with equal solid angle: columns of equal
+ * azimuth and rows of equal height (the y component of the direction). The luminance of
+ * each cell is measured when the sampler is built, and an alias table picks cells
+ * proportional to their luminance. A direction is then uniformly distributed inside the
+ * cell, so the probability density of a direction is constant in each cell.
+ */
+class SkySampler {
+  private static final int WIDTH = 512;
+  private static final int HEIGHT = 256;
+
+  /**
+   * Sky luminance samples per cell along each axis.
+   */
+  private static final int SUBSAMPLES = 2;
+
+  /**
+   * The sky source that the sampler was built for, see {@link #matches}.
+   */
+  private final Sky.SkyMode mode;
+  private final Object source;
+  private final double rotation;
+  private final boolean mirrored;
+
+  /**
+   * The alias table, or {@code null} if the sky is black.
+   */
+  private final AliasTable table;
+
+  /**
+   * Probability density per solid angle of each cell.
+   */
+  private final float[] pdf;
+
+  private SkySampler(Sky.SkyMode mode, Object source, double rotation, boolean mirrored,
+      AliasTable table, float[] pdf) {
+    this.mode = mode;
+    this.source = source;
+    this.rotation = rotation;
+    this.mirrored = mirrored;
+    this.table = table;
+    this.pdf = pdf;
+  }
+
+  /**
+   * Measure the sky luminance and build a sampler for it.
+   *
+   * @param source identifies the sky texture or sky cache the sampler is built from
+   */
+  static SkySampler build(Sky sky, Sky.SkyMode mode, Object source, double rotation,
+      boolean mirrored) {
+    double[] luminance = new double[WIDTH * HEIGHT];
+    try {
+      Chunky.getCommonThreads().submit(() -> {
+        IntStream.range(0, HEIGHT).parallel().forEach(y -> {
+          Ray ray = new Ray();
+          for (int x = 0; x < WIDTH; ++x) {
+            double sum = 0;
+            for (int i = 0; i < SUBSAMPLES; ++i) {
+              for (int j = 0; j < SUBSAMPLES; ++j) {
+                direction(ray.d, x, y, (i + 0.5) / SUBSAMPLES, (j + 0.5) / SUBSAMPLES);
+                sky.getSkyDiffuseColorInner(ray);
+                sum += 0.2126 * ray.color.x + 0.7152 * ray.color.y + 0.0722 * ray.color.z;
+              }
+            }
+            luminance[y * WIDTH + x] = Math.max(0, sum);
+          }
+        });
+      }).get();
+    } catch (InterruptedException | ExecutionException e) {
+      Log.warn("Failed to build the sky sampling distribution", e);
+      return new SkySampler(mode, source, rotation, mirrored, null, null);
+    }
+
+    double total = 0;
+    for (double value : luminance) {
+      total += value;
+    }
+    if (!(total > 0) || Double.isInfinite(total)) {
+      return new SkySampler(mode, source, rotation, mirrored, null, null);
+    }
+    AliasTable table = new AliasTable(luminance);
+    float[] pdf = new float[luminance.length];
+    double cellSolidAngle = 4 * Math.PI / luminance.length;
+    for (int i = 0; i < pdf.length; ++i) {
+      pdf[i] = (float) (table.probability(i) / cellSolidAngle);
+    }
+    return new SkySampler(mode, source, rotation, mirrored, table, pdf);
+  }
+
+  /**
+   * @return {@code true} if this sampler was built for the sky source
+   */
+  boolean matches(Sky.SkyMode mode, Object source, double rotation, boolean mirrored) {
+    return this.mode == mode && this.source == source && this.rotation == rotation
+        && this.mirrored == mirrored;
+  }
+
+  /**
+   * @return {@code false} if the sky is black and can not be sampled
+   */
+  boolean canSample() {
+    return table != null;
+  }
+
+  /**
+   * Set the vector to a sampled sky direction.
+   *
+   * @return the probability density per solid angle of the direction
+   */
+  double sample(Vector3 d, Random random) {
+    int cell = table.sample(random.nextDouble());
+    direction(d, cell % WIDTH, cell / WIDTH, random.nextDouble(), random.nextDouble());
+    return pdf[cell];
+  }
+
+  /**
+   * @return the probability density per solid angle of sampling the direction
+   */
+  double pdf(Vector3 d) {
+    double u = FastMath.atan2(d.z, d.x) / (2 * Math.PI);
+    u -= Math.floor(u);
+    int x = Math.min((int) (u * WIDTH), WIDTH - 1);
+    int y = Math.min(Math.max((int) ((d.y + 1) * 0.5 * HEIGHT), 0), HEIGHT - 1);
+    return pdf[y * WIDTH + x];
+  }
+
+  /**
+   * Set the vector to the direction at a position inside a cell.
+   */
+  private static void direction(Vector3 d, int x, int y, double dx, double dy) {
+    double theta = 2 * Math.PI * (x + dx) / WIDTH;
+    double height = 2 * (y + dy) / HEIGHT - 1;
+    double r = FastMath.sqrt(Math.max(0, 1 - height * height));
+    d.set(FastMath.cos(theta) * r, height, FastMath.sin(theta) * r);
+  }
+}
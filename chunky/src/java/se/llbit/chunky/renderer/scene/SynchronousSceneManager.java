@@ -120,9 +120,9 @@ public class SynchronousSceneManager implements SceneProvider, SceneManager {
           }
         }
 
-        // Create backup of scene description and current render dump.
+        // Create backup of scene description. The render dump is backed up
+        // when the new dump has been written.
         storedScene.backupFile(context, context.getSceneDescriptionFile(sceneName));
-        storedScene.backupFile(context, new File(sceneDir, sceneName + ".dump"));
 
         // Copy render status over from the renderManager.
         RenderStatus status = renderManager.getRenderStatus();
@@ -143,6 +143,8 @@ public class SynchronousSceneManager implements SceneProvider, SceneManager {
     // Lock order: scene -> storedScene.
     synchronized (scene) {
       try (TaskTracker.Task ignored = taskTracker.task("Loading scene", 1)) {
+        // The current scene is closed without saving.
+        scene.discardJournal(context);
         File sceneDirectory = resolveSceneDirectory(sceneName);
         if (sceneDirectory.isDirectory()) {
           context.setSceneDirectory(sceneDirectory);
@@ -163,6 +165,8 @@ public class SynchronousSceneManager implements SceneProvider, SceneManager {
 
   @Override public void loadFreshChunks(World world, Collection<ChunkPosition> chunksToLoad) {
     synchronized (scene) {
+      // The current scene is closed without saving.
+      scene.discardJournal(context);
       scene.clear();
       scene.loadChunks(taskTracker, world, chunksToLoad);
       scene.resetScene(null, context.getChunky().getSceneFactory());
@@ -20,6 +20,13 @@ import se.llbit.json.JsonObject;
 import se.llbit.math.Ray;
 
 public interface WaterShader {
+  /**
+   * Called when the render is reset, before the render workers start shading. Shaders can
+   * use this to precompute data for the animation time.
+   */
+  default void prepare(double animationTime) {
+  }
+
   void doWaterShading(Ray ray, double animationTime);
 
   WaterShader clone();
@@ -16,24 +16,59 @@
  */
 package se.llbit.chunky.resources;
 
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
 import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPInputStream;
 import se.llbit.chunky.block.Block;
 import se.llbit.chunky.block.Lava;
 import se.llbit.chunky.block.Water;
 import se.llbit.chunky.chunk.BlockPalette;
+import se.llbit.chunky.main.Chunky;
 import se.llbit.chunky.world.WorldTexture;
 import se.llbit.log.Log;
 import se.llbit.math.Octree;
+import se.llbit.util.ParallelDeflateOutputStream;
 
 public class OctreeFileFormat {
 
   private static final int MIN_OCTREE_VERSION = 3;
-  private static final int OCTREE_VERSION = 6;
+
+  /**
+   * Since version 8 the biome textures are stored with {@link WorldTexture#storeCompact}.
+   * Version 7 is the first flat octree version, and is not used by the stream format.
+   */
+  private static final int OCTREE_VERSION = 8;
+
+  /**
+   * Version of the flat octree format (.octree3 files). Unlike the other versions the
+   * file is not compressed as a whole. The octrees are stored as flat little-endian
+   * {@link se.llbit.math.PackedOctree} node arrays, followed by the gzipped palette and
+   * biome textures. Since version 9 the biome textures are stored with
+   * {@link WorldTexture#storeCompact}.
+   */
+  public static final int FLAT_OCTREE_VERSION = 9;
+  private static final int MIN_FLAT_OCTREE_VERSION = 7;
+
+  /**
+   * First stream and flat octree versions with compact biome textures.
+   */
+  private static final int COMPACT_TEXTURE_VERSION = 8;
+  private static final int COMPACT_TEXTURE_FLAT_VERSION = 9;
 
   /**
    * In octree v3-v4, the top bit of the type field in a serialized octree node is reserved for
@@ -49,7 +84,8 @@ public class OctreeFileFormat {
    */
   public static OctreeData load(DataInputStream in, String impl) throws IOException {
     int version = in.readInt();
-    if (version < MIN_OCTREE_VERSION || version > OCTREE_VERSION) {
+    if (version < MIN_OCTREE_VERSION || version > OCTREE_VERSION
+        || version == MIN_FLAT_OCTREE_VERSION) {
       throw new IOException(String.format(
           "Incompatible octree format: wrong version number (expected %d up to %d, was %d).",
           MIN_OCTREE_VERSION, OCTREE_VERSION, version));
@@ -58,10 +94,16 @@ public class OctreeFileFormat {
     data.palette = BlockPalette.read(in);
     data.worldTree = Octree.load(impl, version < 5 ? convertDataNodes(data.palette, in) : in);
     data.waterTree = Octree.load(impl, version < 5 ? convertDataNodes(data.palette, in) : in);
-    data.grassColors = WorldTexture.load(in);
-    data.foliageColors = WorldTexture.load(in);
-    if (version >= 4) {
-      data.waterColors = WorldTexture.load(in);
+    if (version >= COMPACT_TEXTURE_VERSION) {
+      data.grassColors = WorldTexture.loadCompact(in);
+      data.foliageColors = WorldTexture.loadCompact(in);
+      data.waterColors = WorldTexture.loadCompact(in);
+    } else {
+      data.grassColors = WorldTexture.load(in);
+      data.foliageColors = WorldTexture.load(in);
+      if (version >= 4) {
+        data.waterColors = WorldTexture.load(in);
+      }
     }
     data.version = version;
     return data;
@@ -130,9 +172,97 @@ public class OctreeFileFormat {
     palette.write(out);
     octree.store(out);
     waterTree.store(out);
-    grassColors.store(out);
-    foliageColors.store(out);
-    waterColors.store(out);
+    grassColors.storeCompact(out);
+    foliageColors.storeCompact(out);
+    waterColors.storeCompact(out);
+  }
+
+  /**
+   * @return {@code true} if the octrees can be saved with {@link #storeFlat}
+   */
+  public static boolean canStoreFlat(Octree octree, Octree waterTree) {
+    return octree.canStoreFlat() && waterTree.canStoreFlat();
+  }
+
+  /**
+   * Save octrees and grass/foliage/water textures in the flat octree format.
+   * The output stream is not closed.
+   */
+  public static void storeFlat(OutputStream output, Octree octree,
+      Octree waterTree, BlockPalette palette,
+      WorldTexture grassColors, WorldTexture foliageColors, WorldTexture waterColors)
+      throws IOException {
+    WritableByteChannel out = output instanceof FileOutputStream
+        ? ((FileOutputStream) output).getChannel()
+        : Channels.newChannel(output);
+    ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(FLAT_OCTREE_VERSION);
+    header.flip();
+    while (header.hasRemaining()) {
+      out.write(header);
+    }
+    octree.storeFlat(out);
+    waterTree.storeFlat(out);
+
+    ParallelDeflateOutputStream gzip = new ParallelDeflateOutputStream(
+        Channels.newOutputStream(out), ParallelDeflateOutputStream.Format.GZIP,
+        Chunky.getCommonThreads());
+    DataOutputStream data = new DataOutputStream(new FastBufferedOutputStream(gzip));
+    palette.write(data);
+    grassColors.storeCompact(data);
+    foliageColors.storeCompact(data);
+    waterColors.storeCompact(data);
+    data.flush();
+    gzip.finish();
+  }
+
+  /**
+   * Load octrees and grass/foliage/water textures from a file in the flat octree format.
+   *
+   * @param input    input stream for the file to load the scene from. Loading is fastest
+   *                 for file input streams, which are read through their channel.
+   * @param impl     The octree implementation to use
+   * @param progress receives the number of bytes of octree data read so far
+   */
+  public static OctreeData loadFlat(InputStream input, String impl, LongConsumer progress)
+      throws IOException {
+    ReadableByteChannel in = input instanceof FileInputStream
+        ? ((FileInputStream) input).getChannel()
+        : Channels.newChannel(input);
+    ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    while (header.hasRemaining()) {
+      if (in.read(header) < 0) {
+        throw new IOException("Incompatible octree format: file is too short.");
+      }
+    }
+    header.flip();
+    int version = header.getInt();
+    if (version < MIN_FLAT_OCTREE_VERSION || version > FLAT_OCTREE_VERSION
+        || version == COMPACT_TEXTURE_VERSION) {
+      throw new IOException(String.format(
+          "Incompatible octree format: wrong version number (expected %d up to %d, was %d).",
+          MIN_FLAT_OCTREE_VERSION, FLAT_OCTREE_VERSION, version));
+    }
+    long[] position = { header.limit() };
+    LongConsumer treeProgress = bytes -> progress.accept(position[0] += bytes);
+    OctreeData data = new OctreeData();
+    data.worldTree = Octree.loadFlat(impl, in, treeProgress);
+    data.waterTree = Octree.loadFlat(impl, in, treeProgress);
+
+    DataInputStream metadata = new DataInputStream(new FastBufferedInputStream(
+        new GZIPInputStream(Channels.newInputStream(in))));
+    data.palette = BlockPalette.read(metadata);
+    if (version >= COMPACT_TEXTURE_FLAT_VERSION) {
+      data.grassColors = WorldTexture.loadCompact(metadata);
+      data.foliageColors = WorldTexture.loadCompact(metadata);
+      data.waterColors = WorldTexture.loadCompact(metadata);
+    } else {
+      data.grassColors = WorldTexture.load(metadata);
+      data.foliageColors = WorldTexture.load(metadata);
+      data.waterColors = WorldTexture.load(metadata);
+    }
+    data.version = version;
+    return data;
   }
 
   public static class OctreeData {
@@ -21,6 +21,7 @@ import se.llbit.chunky.renderer.scene.PlayerModel;
 import se.llbit.chunky.renderer.scene.Sun;
 import se.llbit.chunky.resources.texturepack.*;
 import se.llbit.log.Log;
+import se.llbit.math.primitive.InstancedPrimitive;
 import se.llbit.resources.ImageLoader;
 import se.llbit.util.annotation.NotNull;
 
@@ -3757,6 +3758,7 @@ public class TexturePackLoader {
    */
   public static void loadTexturePacks(@NotNull String[] texturePacks, boolean remember) {
     TextureCache.reset();
+    InstancedPrimitive.reset();
     TexturePackLoader.texturePacks = texturePacks;
     Set<Map.Entry<String, TextureLoader>> toLoad = allTextures.entrySet();
     for (String path : texturePacks) {
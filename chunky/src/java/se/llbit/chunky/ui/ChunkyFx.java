@@ -29,6 +29,7 @@ import javafx.stage.Stage;
 import se.llbit.chunky.PersistentSettings;
 import se.llbit.chunky.main.Chunky;
 import se.llbit.chunky.plugin.PluginApi;
+import se.llbit.chunky.renderer.RenderController;
 import se.llbit.chunky.resources.SettingsDirectory;
 import se.llbit.fxutil.WindowPosition;
 import se.llbit.json.JsonValue;
@@ -62,6 +63,11 @@ public class ChunkyFx extends Application {
       stage.getIcons().add(new Image(getClass().getResourceAsStream("/chunky-icon.png")));
       stage.setOnCloseRequest(event -> {
         PersistentSettings.setWindowPosition(new WindowPosition(stage));
+        // Chunky does not save the scene when it is closed, so the render should not be
+        // recovered from the scene journal.
+        RenderController renderController = controller.getRenderController();
+        renderController.getSceneManager().getScene()
+            .discardJournal(renderController.getContext());
         Platform.exit();
         System.exit(0);
       });
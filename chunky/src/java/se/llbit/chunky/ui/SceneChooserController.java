@@ -28,6 +28,7 @@ import javafx.stage.Stage;
 import org.apache.commons.math3.util.FastMath;
 import se.llbit.chunky.main.SceneHelper;
 import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.renderer.scene.SceneIndex;
 import se.llbit.fxutil.Dialogs;
 import se.llbit.json.JsonObject;
 import se.llbit.json.JsonParser;
@@ -188,10 +189,24 @@ public class SceneChooserController implements Initializable {
     List<SceneListItem> scenes = new ArrayList<>();
     List<File> fileList = SceneHelper.getAvailableSceneFiles(sceneDir);
     fileList.sort(Comparator.comparing(File::length));
-    Executor loadExecutor = Executors.newSingleThreadExecutor();
+    Map<File, SceneIndex> indexes = new HashMap<>();
+    List<SceneListItem> unindexed = new ArrayList<>();
     for (File sceneFile : fileList) {
       FileTimeCache file = new FileTimeCache(sceneFile);
-      scenes.add(sceneListCache.computeIfAbsent(file, f -> new SceneListItem(f.file, loadExecutor)));
+      SceneListItem scene = sceneListCache.get(file);
+      if (scene == null) {
+        SceneIndex index = indexes.computeIfAbsent(sceneFile.getParentFile(), SceneIndex::load);
+        scene = new SceneListItem(sceneFile, index);
+        sceneListCache.put(file, scene);
+        if (!scene.indexed) {
+          unindexed.add(scene);
+        }
+      }
+      scenes.add(scene);
+    }
+    if (!unindexed.isEmpty()) {
+      Executor loadExecutor = Executors.newSingleThreadExecutor();
+      loadExecutor.execute(() -> parseScenes(unindexed));
     }
 
     scenes.sort(Comparator
@@ -207,6 +222,21 @@ public class SceneChooserController implements Initializable {
     sceneTbl.sort();
   }
 
+  /**
+   * Parse the scene descriptions that are not in the scene index, then add them to the
+   * index of each directory with one index update.
+   */
+  private static void parseScenes(List<SceneListItem> scenes) {
+    Map<File, List<SceneIndex.Entry>> entries = new HashMap<>();
+    for (SceneListItem scene : scenes) {
+      SceneIndex.Entry entry = scene.parseScene();
+      if (entry != null) {
+        entries.computeIfAbsent(scene.sceneDirectory, dir -> new ArrayList<>()).add(entry);
+      }
+    }
+    entries.forEach(SceneIndex::update);
+  }
+
   public void setController(ChunkyFxController controller) {
     this.controller = controller;
 
@@ -222,6 +252,10 @@ public class SceneChooserController implements Initializable {
     public final File sceneDirectory;
     /** Whether this scene description file is a backup file and the original .json is missing. */
     public final boolean isBackup;
+    /** The scene description file */
+    private final File sceneFile;
+    /** Whether the values were read from the scene index */
+    private final boolean indexed;
 
     /** The number of chunks in the scene */
     public final ReadOnlyObjectWrapper<Number> chunkSize;
@@ -232,7 +266,8 @@ public class SceneChooserController implements Initializable {
     /** The elapsed render time */
     public final ReadOnlyObjectWrapper<Number> renderTime;
 
-    private SceneListItem(File sceneFile, Executor backgroundLoadExecutor) {
+    private SceneListItem(File sceneFile, SceneIndex index) {
+      this.sceneFile = sceneFile;
       this.sceneDirectory = sceneFile.getParentFile();
       this.lastModified = new Date(sceneFile.lastModified());
       String sceneName = sceneFile.getName();
@@ -246,7 +281,12 @@ public class SceneChooserController implements Initializable {
       this.sppCount = new ReadOnlyObjectWrapper<>();
       this.renderTime = new ReadOnlyObjectWrapper<>();
 
-      backgroundLoadExecutor.execute(() -> parseScene(sceneFile));
+      SceneIndex.Entry entry = index.get(sceneFile);
+      this.indexed = entry != null;
+      if (indexed) {
+        setValues(String.format("%sx%s", entry.width, entry.height), entry.chunkCount,
+            entry.spp, entry.renderTime);
+      }
     }
 
     public static String renderTimeString(long milliseconds) {
@@ -266,7 +306,14 @@ public class SceneChooserController implements Initializable {
       return sb.toString();
     }
 
-    private void parseScene(File sceneFile) {
+    /**
+     * Parse the scene description and show its values.
+     *
+     * @return the scene index entry for the scene, or {@code null} if the scene
+     * description could not be parsed
+     */
+    private SceneIndex.Entry parseScene() {
+      SceneIndex.Entry entry = null;
       String dimensions = null;
       Integer chunkSize = null;
       Integer sppCount = null;
@@ -296,16 +343,25 @@ public class SceneChooserController implements Initializable {
         //    } else cropping = null;
 
         renderTime = scene.get("renderTime").longValue(0);
+
+        // The scene is added to the index so that it is not parsed again.
+        entry = new SceneIndex.Entry(sceneFile, width, height, sppCount, renderTime, chunkSize);
       } catch (IOException | JsonParser.SyntaxError e) {
         Log.warnf("Warning: could not load scene description: %s", sceneFile.getName());
       }
 
+      setValues(dimensions, chunkSize, sppCount, renderTime);
+
+//      Log.infof("Finished parsing: %s", this);
+      return entry;
+    }
+
+    private void setValues(String dimensions, Integer chunkSize, Integer sppCount,
+        Long renderTime) {
       this.dimensions.setValue(dimensions);
       this.chunkSize.setValue(chunkSize);
       this.sppCount.setValue(sppCount);
       this.renderTime.setValue(renderTime);
-
-//      Log.infof("Finished parsing: %s", this);
     }
 
     @Override
@@ -20,16 +20,20 @@ import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
 import javafx.scene.Node;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.control.Separator;
+import javafx.scene.control.Tooltip;
 import javafx.util.StringConverter;
+import se.llbit.chunky.renderer.postprocessing.AtrousDenoiser;
 import se.llbit.chunky.renderer.postprocessing.NoneFilter;
 import se.llbit.chunky.renderer.postprocessing.PostProcessingFilter;
 import se.llbit.chunky.renderer.postprocessing.PostProcessingFilters;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.chunky.ui.DoubleAdjuster;
+import se.llbit.chunky.ui.IntegerAdjuster;
 import se.llbit.chunky.ui.RenderControlsFxController;
 import se.llbit.util.ProgressListener;
 import se.llbit.util.TaskTracker;
@@ -45,6 +49,8 @@ public class PostprocessingTab extends ScrollPane implements RenderControlsTab,
 
   @FXML private DoubleAdjuster exposure;
   @FXML private ChoiceBox<PostProcessingFilter> postprocessingFilter;
+  @FXML private CheckBox denoiser;
+  @FXML private IntegerAdjuster denoiserIterations;
 
   public PostprocessingTab() throws IOException {
     FXMLLoader loader = new FXMLLoader(getClass().getResource("PostprocessingTab.fxml"));
@@ -61,6 +67,8 @@ public class PostprocessingTab extends ScrollPane implements RenderControlsTab,
   @Override public void update(Scene scene) {
     postprocessingFilter.getSelectionModel().select(scene.getPostProcessingFilter());
     exposure.set(scene.getExposure());
+    denoiser.setSelected(scene.isDenoiserEnabled());
+    denoiserIterations.set(scene.getDenoiserIterations());
   }
 
   @Override public String getTabTitle() {
@@ -106,6 +114,19 @@ public class PostprocessingTab extends ScrollPane implements RenderControlsTab,
       scene.postProcessFrame(new TaskTracker(ProgressListener.NONE));
       controller.getCanvas().forceRepaint();
     });
+    denoiser.setTooltip(new Tooltip("Denoise the render using the albedo, normal and depth "
+        + "of the first hit. Changing this restarts the render."));
+    denoiser.selectedProperty().addListener((observable, oldValue, newValue) ->
+        scene.setDenoiserEnabled(newValue));
+    denoiserIterations.setName("Denoiser iterations");
+    denoiserIterations.setTooltip("Each iteration doubles the denoiser filter radius.");
+    denoiserIterations.setRange(1, AtrousDenoiser.MAX_ITERATIONS);
+    denoiserIterations.clampBoth();
+    denoiserIterations.onValueChange(value -> {
+      scene.setDenoiserIterations(value);
+      scene.postProcessFrame(new TaskTracker(ProgressListener.NONE));
+      controller.getCanvas().forceRepaint();
+    });
   }
 
   /**
@@ -34,11 +34,13 @@ import javafx.scene.control.Tooltip;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.util.StringConverter;
+import se.llbit.chunky.renderer.FogSamplingStrategy;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.renderer.scene.SimulatedSky;
 import se.llbit.chunky.renderer.scene.Sky;
 import se.llbit.chunky.ui.DoubleAdjuster;
 import se.llbit.chunky.ui.GradientEditor;
+import se.llbit.chunky.ui.IntegerAdjuster;
 import se.llbit.chunky.ui.RenderControlsFxController;
 import se.llbit.fx.LuxColorPicker;
 import se.llbit.math.ColorUtil;
@@ -56,6 +58,7 @@ public class SkyTab extends ScrollPane implements RenderControlsTab, Initializab
   @FXML private TitledPane detailsPane;
   @FXML private VBox skyModeSettings;
   @FXML private CheckBox transparentSkyEnabled;
+  @FXML private CheckBox importanceSampling;
   @FXML private CheckBox cloudsEnabled;
   @FXML private DoubleAdjuster cloudSize;
   @FXML private DoubleAdjuster cloudX;
@@ -64,6 +67,8 @@ public class SkyTab extends ScrollPane implements RenderControlsTab, Initializab
   @FXML private DoubleAdjuster fogDensity;
   @FXML private DoubleAdjuster skyFogDensity;
   @FXML private LuxColorPicker fogColor;
+  @FXML private ChoiceBox<FogSamplingStrategy> fogSamplingStrategy;
+  @FXML private IntegerAdjuster fogSamples;
   private final VBox simulatedSettings = new VBox();
   private DoubleAdjuster horizonOffset = new DoubleAdjuster();
   private ChoiceBox<SimulatedSky> simulatedSky = new ChoiceBox<>();
@@ -152,6 +157,19 @@ public class SkyTab extends ScrollPane implements RenderControlsTab, Initializab
     skyFogDensity.clampMin();
     skyFogDensity.onValueChange(value -> scene.setSkyFogDensity(value));
 
+    fogSamplingStrategy.getItems().addAll(FogSamplingStrategy.values());
+    fogSamplingStrategy.setTooltip(new Tooltip(
+        "How points in the fog are picked for sun and emitter light. "
+            + "Importance sampling converges faster and also adds light from sampled emitters."));
+    fogSamplingStrategy.getSelectionModel().selectedItemProperty()
+        .addListener((observable, oldValue, newValue) -> scene.setFogSamplingStrategy(newValue));
+
+    fogSamples.setName("Fog samples");
+    fogSamples.setTooltip("Number of fog light samples per ray, when importance sampling fog.");
+    fogSamples.setRange(1, Scene.MAX_FOG_SAMPLES);
+    fogSamples.clampMin();
+    fogSamples.onValueChange(value -> scene.setFogSamples(value));
+
     skyMode.getItems().addAll(Sky.SkyMode.values());
     skyMode.getSelectionModel().selectedItemProperty()
         .addListener((observable, oldValue, newValue) -> {
@@ -191,6 +209,11 @@ public class SkyTab extends ScrollPane implements RenderControlsTab, Initializab
         .setTooltip(new Tooltip("Disables sky rendering for background compositing."));
     transparentSkyEnabled.selectedProperty().addListener(
         (observable, oldValue, newValue) -> scene.setTransparentSky(newValue));
+    importanceSampling.setTooltip(new Tooltip(
+        "Samples bright parts of skymaps and simulated skies directly at diffuse reflections.\n"
+            + "This reduces noise from sky light, especially indoors."));
+    importanceSampling.selectedProperty().addListener(
+        (observable, oldValue, newValue) -> scene.sky().setImportanceSampling(newValue));
     cloudsEnabled.selectedProperty().addListener((observable, oldValue, newValue) -> {
 
       scene.sky().setCloudsEnabled(newValue);
@@ -207,12 +230,15 @@ public class SkyTab extends ScrollPane implements RenderControlsTab, Initializab
     simulatedSky.setOnAction(simSkyListener);
     cloudsEnabled.setSelected(scene.sky().cloudsEnabled());
     transparentSkyEnabled.setSelected(scene.transparentSky());
+    importanceSampling.setSelected(scene.sky().importanceSampling());
     cloudSize.set(scene.sky().cloudSize());
     cloudX.set(scene.sky().cloudXOffset());
     cloudY.set(scene.sky().cloudYOffset());
     cloudZ.set(scene.sky().cloudZOffset());
     fogDensity.set(scene.getFogDensity());
     skyFogDensity.set(scene.getSkyFogDensity());
+    fogSamplingStrategy.getSelectionModel().select(scene.getFogSamplingStrategy());
+    fogSamples.set(scene.getFogSamples());
     fogColor.colorProperty().removeListener(fogColorListener);
     fogColor.setColor(ColorUtil.toFx(scene.getFogColor()));
     fogColor.colorProperty().addListener(fogColorListener);
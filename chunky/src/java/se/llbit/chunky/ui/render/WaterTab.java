@@ -60,6 +60,7 @@ public class WaterTab extends ScrollPane implements RenderControlsTab, Initializ
   @FXML private DoubleAdjuster proceduralWaterFrequency;
   @FXML private DoubleAdjuster proceduralWaterAmplitude;
   @FXML private DoubleAdjuster proceduralWaterAnimationSpeed;
+  @FXML private CheckBox proceduralWaterHighQuality;
   @FXML private TitledPane proceduralWaterDetailsPane;
 
   private RenderControlsFxController renderControls;
@@ -109,12 +110,14 @@ public class WaterTab extends ScrollPane implements RenderControlsTab, Initializ
       proceduralWaterFrequency.set(simplexWaterShader.baseFrequency);
       proceduralWaterAmplitude.set(simplexWaterShader.baseAmplitude);
       proceduralWaterAnimationSpeed.set(simplexWaterShader.animationSpeed);
+      proceduralWaterHighQuality.setSelected(simplexWaterShader.highQuality);
     } else {
       useProceduralWater.setSelected(false);
       proceduralWaterIterations.set(4);
       proceduralWaterFrequency.set(0.1);
       proceduralWaterAmplitude.set(0.2);
       proceduralWaterAnimationSpeed.set(1);
+      proceduralWaterHighQuality.setSelected(false);
     }
   }
 
@@ -192,6 +195,7 @@ public class WaterTab extends ScrollPane implements RenderControlsTab, Initializ
         shader.baseFrequency = proceduralWaterFrequency.get();
         shader.baseAmplitude = proceduralWaterAmplitude.get();
         shader.animationSpeed = proceduralWaterAnimationSpeed.get();
+        shader.highQuality = proceduralWaterHighQuality.isSelected();
         scene.refresh();
       } else if(!newValue && scene.getWaterShading() instanceof SimplexWaterShader) {
         scene.setWaterShading(new LegacyWaterShader());
@@ -244,6 +248,16 @@ public class WaterTab extends ScrollPane implements RenderControlsTab, Initializ
       }
       scene.refresh();
     });
+
+    proceduralWaterHighQuality.setTooltip(new Tooltip(
+        "Evaluate the noise for each water hit instead of using a precomputed normal map."));
+    proceduralWaterHighQuality.selectedProperty().addListener((observable, oldValue, newValue) -> {
+      WaterShader shader = scene.getWaterShading();
+      if(shader instanceof SimplexWaterShader) {
+        ((SimplexWaterShader) shader).highQuality = newValue;
+        scene.refresh();
+      }
+    });
   }
 
 }
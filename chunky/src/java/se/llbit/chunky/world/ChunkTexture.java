@@ -98,6 +98,57 @@ public class ChunkTexture {
     return texture;
   }
 
+  /**
+   * Write this chunk texture in the compact format. The channels are written one at a time,
+   * and each texel is stored as the difference to the previous texel of the channel.
+   * Biome colors change slowly, so most differences are zero or small and compress well.
+   *
+   * @throws IOException
+   */
+  public void storeCompact(DataOutputStream out) throws IOException {
+    byte[] deltas = new byte[data.length];
+    int i = 0;
+    for (int channel = 0; channel < 3; ++channel) {
+      for (int texel = 0; texel < Chunk.X_MAX * Chunk.Z_MAX; ++texel) {
+        deltas[i++] = (byte) (data[texel * 3 + channel] - predict(texel, channel));
+      }
+    }
+    out.write(deltas);
+  }
+
+  /**
+   * Load a chunk texture written by {@link #storeCompact}.
+   *
+   * @return The loaded texture
+   * @throws IOException
+   */
+  public static ChunkTexture loadCompact(DataInputStream in) throws IOException {
+    ChunkTexture texture = new ChunkTexture();
+    byte[] deltas = new byte[texture.data.length];
+    in.readFully(deltas);
+    int i = 0;
+    for (int channel = 0; channel < 3; ++channel) {
+      for (int texel = 0; texel < Chunk.X_MAX * Chunk.Z_MAX; ++texel) {
+        texture.data[texel * 3 + channel] = (byte) (deltas[i++] + texture.predict(texel, channel));
+      }
+    }
+    return texture;
+  }
+
+  /**
+   * Predict a texel from the texel to the left of it, or from the texel above it at the
+   * start of a row.
+   */
+  private int predict(int texel, int channel) {
+    if (texel % Chunk.X_MAX != 0) {
+      return data[(texel - 1) * 3 + channel];
+    } else if (texel != 0) {
+      return data[(texel - Chunk.X_MAX) * 3 + channel];
+    } else {
+      return 0;
+    }
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
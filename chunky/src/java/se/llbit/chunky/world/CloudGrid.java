@@ -0,0 +1,141 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of the cloud bitmap with distance fields used to skip empty space
+ * when tracing rays through the cloud layer.
+ *
+ * <p>For each cell and each cell value (0 = clear, 1 = cloud) the grid stores the
+ * Chebyshev distance to the nearest cell with that value, wrapping around the edges
+ * of the bitmap like the cloud layer does. A distance of {@code d} means that all
+ * cells in the square of radius {@code d - 1} around the cell have the other value,
+ * so a ray can skip to the edge of that square in one step.
+ */
+public class CloudGrid {
+  public static final int SIZE = 256;
+
+  private static final int MASK = SIZE - 1;
+
+  /** Distances are clamped to this value. */
+  private static final int MAX_DISTANCE = 255;
+
+  private final boolean[] cells = new boolean[SIZE * SIZE];
+  private final byte[][] distance = new byte[2][SIZE * SIZE];
+  private final boolean[] hasValue = new boolean[2];
+
+  CloudGrid(long[][] clouds) {
+    for (int z = 0; z < SIZE; ++z) {
+      for (int x = 0; x < SIZE; ++x) {
+        boolean cloud = ((clouds[x / 8][z / 8] >>> ((z & 7) * 8 + (x & 7))) & 1) != 0;
+        cells[z * SIZE + x] = cloud;
+        hasValue[cloud ? 1 : 0] = true;
+      }
+    }
+    buildDistanceField(0);
+    buildDistanceField(1);
+  }
+
+  /**
+   * Multi-source breadth first search from all cells with the given value. With eight
+   * neighbors per cell the search depth is the Chebyshev distance.
+   */
+  private void buildDistanceField(int value) {
+    byte[] field = distance[value];
+    int[] queue = new int[SIZE * SIZE];
+    int head = 0;
+    int tail = 0;
+    boolean[] visited = new boolean[SIZE * SIZE];
+    for (int i = 0; i < cells.length; ++i) {
+      if (cells[i] == (value == 1)) {
+        visited[i] = true;
+        queue[tail++] = i;
+      }
+    }
+    if (tail == 0) {
+      Arrays.fill(field, (byte) MAX_DISTANCE);
+      return;
+    }
+    while (head < tail) {
+      int cell = queue[head++];
+      int d = field[cell] & 0xFF;
+      int x = cell & MASK;
+      int z = cell / SIZE;
+      for (int dz = -1; dz <= 1; ++dz) {
+        for (int dx = -1; dx <= 1; ++dx) {
+          int neighbor = ((z + dz) & MASK) * SIZE + ((x + dx) & MASK);
+          if (!visited[neighbor]) {
+            visited[neighbor] = true;
+            field[neighbor] = (byte) Math.min(d + 1, MAX_DISTANCE);
+            queue[tail++] = neighbor;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return {@code true} if there is a cloud at the cell (x, z)
+   */
+  public boolean isCloud(int x, int z) {
+    return cells[(z & MASK) * SIZE + (x & MASK)];
+  }
+
+  /**
+   * @return 1 if there is a cloud at the cell (x, z), otherwise 0
+   */
+  public int getCloud(int x, int z) {
+    return cells[(z & MASK) * SIZE + (x & MASK)] ? 1 : 0;
+  }
+
+  /**
+   * @param value 0 to find the distance to clear sky, 1 to find the distance to clouds
+   * @return the Chebyshev distance, in cells, from the cell (x, z) to the closest cell
+   * with the given value. Zero if the cell itself has the value. Large distances are
+   * clamped, so a positive distance is a safe lower bound.
+   */
+  public int distance(int value, int x, int z) {
+    return distance[value][(z & MASK) * SIZE + (x & MASK)] & 0xFF;
+  }
+
+  /**
+   * @param value 0 for clear sky, 1 for clouds
+   * @return {@code true} if any cell has the given value
+   */
+  public boolean hasValue(int value) {
+    return hasValue[value];
+  }
+
+  /**
+   * Cloud density with bilinear filtering between the cell centers, for volumetric
+   * cloud rendering.
+   *
+   * @return density in the range [0, 1] at the point (x, z), in cell units
+   */
+  public double density(double x, double z) {
+    double fx = x - 0.5;
+    double fz = z - 0.5;
+    int x0 = (int) Math.floor(fx);
+    int z0 = (int) Math.floor(fz);
+    double u = fx - x0;
+    double v = fz - z0;
+    return (1 - v) * ((1 - u) * getCloud(x0, z0) + u * getCloud(x0 + 1, z0))
+        + v * ((1 - u) * getCloud(x0, z0 + 1) + u * getCloud(x0 + 1, z0 + 1));
+  }
+}
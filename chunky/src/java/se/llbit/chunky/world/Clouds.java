@@ -24,6 +24,9 @@ package se.llbit.chunky.world;
 public class Clouds {
   private static long[][] clouds = new long[32][32];
 
+  /** Acceleration structure for the current cloud bits, built when first needed. */
+  private static volatile CloudGrid grid = null;
+
   static {
     // zero the cloud data
     for (int i = 0; i < 32; ++i) {
@@ -61,5 +64,23 @@ public class Clouds {
     int subx = x & 7;
     int suby = y & 7;
     clouds[tilex][tiley] |= ((long) (v & 1)) << (suby * 8 + subx);
+    grid = null;
+  }
+
+  /**
+   * @return the cloud bits with distance fields for fast ray traversal
+   */
+  public static CloudGrid getGrid() {
+    CloudGrid current = grid;
+    if (current == null) {
+      synchronized (Clouds.class) {
+        current = grid;
+        if (current == null) {
+          current = new CloudGrid(clouds);
+          grid = current;
+        }
+      }
+    }
+    return current;
   }
 }
@@ -89,6 +89,12 @@ public abstract class Material {
 
   public boolean waterlogged = false;
 
+  /**
+   * ID of this material in the block palette it was added to, or -1 if it is not a palette
+   * block. Used to look up the render-time material parameters.
+   */
+  public int paletteId = -1;
+
   public Material(String name, Texture texture) {
     this.name = name;
     this.texture = texture;
@@ -22,7 +22,11 @@ import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * World texture.
@@ -119,6 +123,88 @@ public class WorldTexture {
     return texture;
   }
 
+  /**
+   * Write the world texture to the output stream in the compact format.
+   *
+   * <p>Identical chunk textures are written once, to a dictionary of tiles stored with
+   * {@link ChunkTexture#storeCompact}. The chunks are then written as columns sorted by
+   * position: the x coordinates and the z coordinates as differences to the previous chunk,
+   * and finally the tile index of each chunk.
+   *
+   * @throws IOException
+   */
+  public void storeCompact(DataOutputStream out) throws IOException {
+    long[] positions = map.keySet().toLongArray();
+    Arrays.sort(positions);
+
+    Map<ChunkTexture, Integer> tileIds = new HashMap<>();
+    List<ChunkTexture> tiles = new ArrayList<>();
+    int[] chunkTiles = new int[positions.length];
+    for (int i = 0; i < positions.length; ++i) {
+      ChunkTexture tile = map.get(positions[i]);
+      Integer id = tileIds.get(tile);
+      if (id == null) {
+        id = tiles.size();
+        tileIds.put(tile, id);
+        tiles.add(tile);
+      }
+      chunkTiles[i] = id;
+    }
+
+    out.writeInt(tiles.size());
+    for (ChunkTexture tile : tiles) {
+      tile.storeCompact(out);
+    }
+    out.writeInt(positions.length);
+    int previous = 0;
+    for (long pos : positions) {
+      int x = (int) (pos >> 32);
+      out.writeInt(x - previous);
+      previous = x;
+    }
+    previous = 0;
+    for (long pos : positions) {
+      int z = (int) pos;
+      out.writeInt(z - previous);
+      previous = z;
+    }
+    for (int id : chunkTiles) {
+      out.writeInt(id);
+    }
+  }
+
+  /**
+   * Load a world texture written by {@link #storeCompact}.
+   *
+   * @return Loaded texture
+   * @throws IOException
+   */
+  public static WorldTexture loadCompact(DataInputStream in) throws IOException {
+    WorldTexture texture = new WorldTexture();
+    ChunkTexture[] tiles = new ChunkTexture[in.readInt()];
+    for (int i = 0; i < tiles.length; ++i) {
+      tiles[i] = ChunkTexture.loadCompact(in);
+    }
+    int[] x = new int[in.readInt()];
+    int[] z = new int[x.length];
+    int previous = 0;
+    for (int i = 0; i < x.length; ++i) {
+      x[i] = previous += in.readInt();
+    }
+    previous = 0;
+    for (int i = 0; i < z.length; ++i) {
+      z[i] = previous += in.readInt();
+    }
+    for (int i = 0; i < x.length; ++i) {
+      int id = in.readInt();
+      if (id < 0 || id >= tiles.length) {
+        throw new IOException("Invalid world texture tile index: " + id);
+      }
+      texture.map.put(((long) x[i]) << 32 | (z[i] & 0xffffffffL), tiles[id]);
+    }
+    return texture;
+  }
+
   /**
    * Deduplicate this {@code WorldTexture} to save memory. This also makes this read-only.
    */
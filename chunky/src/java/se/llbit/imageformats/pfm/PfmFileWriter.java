@@ -35,7 +35,7 @@ public class PfmFileWriter implements AutoCloseable {
   public void write(Scene scene, TaskTracker.Task task) throws IOException {
     ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN;
 
-    writeHeader(scene, byteOrder);
+    writeHeader(scene.canvasWidth(), scene.canvasHeight(), byteOrder);
 
     // Image's actual data.
     writePixelData(scene, byteOrder, task);
@@ -43,13 +43,60 @@ public class PfmFileWriter implements AutoCloseable {
     // No footer data to write.
   }
 
-  private void writeHeader(Scene scene, ByteOrder byteOrder) throws IOException {
+  /**
+   * Write the header for an image that is written in bands of rows with
+   * {@link #writeRows}. PFM stores the rows from the bottom of the image to the top,
+   * so the bands must be written in that order.
+   */
+  public void writeHeader(int width, int height) throws IOException {
+    writeHeader(width, height, ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Write raw sample rows, starting with the bottom row of the given samples.
+   *
+   * @param samples linear samples for the rows, with three values per pixel
+   * @param rows number of rows to write
+   */
+  public void writeRows(int width, int rows, double[] samples) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(width*3*4).order(ByteOrder.LITTLE_ENDIAN);
+    FloatBuffer floatBuffer = buffer.asFloatBuffer();
+    for (int y = rows-1; y >= 0; y--) {
+      floatBuffer.clear();
+      for (int x = 0; x < 3*width; x++)
+        floatBuffer.put((float)samples[y*width*3+x]);
+      out.write(buffer.array());
+    }
+  }
+
+  /**
+   * Write rows of float values, starting with the bottom row. Values with one channel
+   * are written as gray.
+   *
+   * @param values values for the rows, with {@code channels} values per pixel
+   * @param channels number of values per pixel, 1 or 3
+   */
+  public void writeRows(int width, int rows, float[] values, int channels) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(width*3*4).order(ByteOrder.LITTLE_ENDIAN);
+    FloatBuffer floatBuffer = buffer.asFloatBuffer();
+    for (int y = rows-1; y >= 0; y--) {
+      floatBuffer.clear();
+      for (int x = 0; x < width; x++) {
+        int offset = (y*width+x)*channels;
+        for (int i = 0; i < 3; i++)
+          floatBuffer.put(values[offset + (channels == 3 ? i : 0)]);
+      }
+      out.write(buffer.array());
+    }
+  }
+
+  private void writeHeader(int width, int height, ByteOrder byteOrder) throws IOException {
     //Declare File Type
     out.write("PF".getBytes(StandardCharsets.US_ASCII));
     out.write(0x0a);
 
     // Declare Image Size
-    out.write((scene.canvasWidth()+" "+scene.canvasHeight()).getBytes(StandardCharsets.US_ASCII));
+    out.write((width+" "+height).getBytes(StandardCharsets.US_ASCII));
     out.write(0x0a);
 
     // Declare Byte Order
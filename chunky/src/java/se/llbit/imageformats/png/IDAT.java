@@ -28,4 +28,16 @@ public interface IDAT {
 
   /** The filter type for no filter. */
   int FILTER_TYPE_NONE = 0;
+
+  /** The filter type predicting each byte from the byte to the left. */
+  int FILTER_TYPE_SUB = 1;
+
+  /** The filter type predicting each byte from the byte above. */
+  int FILTER_TYPE_UP = 2;
+
+  /** The filter type predicting each byte from the average of left and above. */
+  int FILTER_TYPE_AVERAGE = 3;
+
+  /** The filter type using the Paeth predictor. */
+  int FILTER_TYPE_PAETH = 4;
 }
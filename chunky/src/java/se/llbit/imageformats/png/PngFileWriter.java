@@ -19,11 +19,12 @@ package se.llbit.imageformats.png;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
+import se.llbit.chunky.main.Chunky;
+import se.llbit.util.ParallelDeflateOutputStream;
 import se.llbit.util.TaskTracker;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.zip.Deflater;
 
 /**
  * @author Jesper Öqvist <jesper@llbit.se>
@@ -78,20 +79,16 @@ public class PngFileWriter implements AutoCloseable {
   public void write(int[] data, int width, int height, TaskTracker.Task task)
       throws IOException {
     writeChunk(new IHDR(width, height));
-    IDATWriter idat = new IDATWriter();
-    int i = 0;
-    for (int y = 0; y < height; ++y) {
-      task.update(height, y);
-      idat.write(IDAT.FILTER_TYPE_NONE); // Scanline header.
+    writeImageData(width, height, 3, (y, row) -> {
+      int i = y * width;
+      int j = 0;
       for (int x = 0; x < width; ++x) {
         int rgb = data[i++];
-        idat.write((rgb >> 16) & 0xFF);
-        idat.write((rgb >> 8) & 0xFF);
-        idat.write(rgb & 0xFF);
+        row[j++] = (byte) (rgb >> 16);
+        row[j++] = (byte) (rgb >> 8);
+        row[j++] = (byte) rgb;
       }
-      task.update(height, y + 1);
-    }
-    idat.close();
+    }, task);
   }
 
   /**
@@ -100,54 +97,186 @@ public class PngFileWriter implements AutoCloseable {
   public void write(int[] data, byte[] alpha, int width, int height,
       TaskTracker.Task task) throws IOException {
     writeChunk(new IHDR(width, height, IHDR.COLOR_TYPE_RGBA));
-    IDATWriter idat = new IDATWriter();
-    int i = 0;
-    for (int y = 0; y < height; ++y) {
-      task.update(height, y);
-      idat.write(IDAT.FILTER_TYPE_NONE); // Scanline header.
+    writeImageData(width, height, 4, (y, row) -> {
+      int i = y * width;
+      int j = 0;
       for (int x = 0; x < width; ++x) {
         int rgb = data[i];
-        idat.write((rgb >> 16) & 0xFF);
-        idat.write((rgb >> 8) & 0xFF);
-        idat.write(rgb & 0xFF);
-        idat.write(alpha[i]);
+        row[j++] = (byte) (rgb >> 16);
+        row[j++] = (byte) (rgb >> 8);
+        row[j++] = (byte) rgb;
+        row[j++] = alpha[i];
         i += 1;
       }
-      task.update(height, y + 1);
+    }, task);
+  }
+
+  /** Fills a row of raw (unfiltered) image bytes. */
+  private interface RowSource {
+    void getRow(int y, byte[] row);
+  }
+
+  /**
+   * Writes the IDAT chunks for an image. Each row is filtered with the filter type that
+   * is likely to compress best, and the rows are compressed on the common thread pool.
+   *
+   * @param bpp bytes per pixel
+   */
+  private void writeImageData(int width, int height, int bpp, RowSource source,
+      TaskTracker.Task task) throws IOException {
+    byte[] row = new byte[width * bpp];
+    try (RowWriter writer = new RowWriter(width, bpp)) {
+      for (int y = 0; y < height; ++y) {
+        task.update(height, y);
+        source.getRow(y, row);
+        writer.writeRow(row);
+        task.update(height, y + 1);
+      }
     }
-    idat.close();
   }
 
-  class IDATWriter {
-    Deflater deflater = new Deflater();
-    int inputSize = 0;
-    byte[] inputBuf = new byte[MAX_CHUNK_BYTES];
-    int outputSize = 0;
-    byte[] outputBuf = new byte[MAX_CHUNK_BYTES];
+  /**
+   * Start writing an image row by row, so that the whole image does not need to be kept
+   * in memory. This writes the IHDR chunk. Exactly {@code height} rows must be written
+   * to the returned writer before it is closed.
+   *
+   * @param alpha {@code true} if the rows contain an alpha channel
+   */
+  public RowWriter rowWriter(int width, int height, boolean alpha) throws IOException {
+    if (alpha) {
+      writeChunk(new IHDR(width, height, IHDR.COLOR_TYPE_RGBA));
+      return new RowWriter(width, 4);
+    } else {
+      writeChunk(new IHDR(width, height));
+      return new RowWriter(width, 3);
+    }
+  }
+
+  /**
+   * Writes image rows to the IDAT chunks. Closing the row writer ends the image data but
+   * does not close the PNG file.
+   */
+  public class RowWriter implements AutoCloseable {
+    private final int bpp;
+    private final ParallelDeflateOutputStream idat;
+    private byte[] previous;
+    private final byte[][] filtered;
+
+    private RowWriter(int width, int bpp) throws IOException {
+      int rowBytes = width * bpp;
+      this.bpp = bpp;
+      this.previous = new byte[rowBytes];
+      this.filtered = new byte[5][rowBytes + 1];
+      this.idat = new ParallelDeflateOutputStream(new IdatOutputStream(),
+          ParallelDeflateOutputStream.Format.ZLIB, Chunky.getCommonThreads());
+    }
+
+    /**
+     * Write the next row of the image.
+     *
+     * @param row raw RGB or RGBA bytes of the row, this is not modified
+     */
+    public void writeRow(byte[] row) throws IOException {
+      idat.write(filterRow(row, previous, bpp, filtered), 0, row.length + 1);
+      System.arraycopy(row, 0, previous, 0, row.length);
+    }
+
+    @Override public void close() throws IOException {
+      idat.close();
+    }
+  }
 
-    void write(int b) throws IOException {
-      if (inputSize == MAX_CHUNK_BYTES) {
-        deflater.setInput(inputBuf, 0, inputSize);
-        inputSize = 0;
-        deflate();
+  /**
+   * Applies each PNG filter type to the row and picks the one with the smallest sum of
+   * absolute (signed) byte values, the heuristic recommended by the PNG specification.
+   *
+   * @param row the raw row bytes
+   * @param prior the raw bytes of the previous row, zero for the first row
+   * @param filtered buffers for the filtered rows, one per filter type
+   * @return the selected filtered row, starting with the filter type byte
+   */
+  static byte[] filterRow(byte[] row, byte[] prior, int bpp, byte[][] filtered) {
+    int n = row.length;
+    long bestSum = Long.MAX_VALUE;
+    int best = IDAT.FILTER_TYPE_NONE;
+    for (int type = IDAT.FILTER_TYPE_NONE; type <= IDAT.FILTER_TYPE_PAETH; ++type) {
+      byte[] out = filtered[type];
+      out[0] = (byte) type;
+      long sum = 0;
+      for (int i = 0; i < n && sum < bestSum; ++i) {
+        int x = row[i] & 0xFF;
+        int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+        int b = prior[i] & 0xFF;
+        int predicted;
+        switch (type) {
+          case IDAT.FILTER_TYPE_SUB:
+            predicted = a;
+            break;
+          case IDAT.FILTER_TYPE_UP:
+            predicted = b;
+            break;
+          case IDAT.FILTER_TYPE_AVERAGE:
+            predicted = (a + b) >>> 1;
+            break;
+          case IDAT.FILTER_TYPE_PAETH:
+            predicted = paeth(a, b, i >= bpp ? prior[i - bpp] & 0xFF : 0);
+            break;
+          default:
+            predicted = 0;
+            break;
+        }
+        byte value = (byte) (x - predicted);
+        out[i + 1] = value;
+        sum += Math.abs(value);
+      }
+      if (sum < bestSum) {
+        bestSum = sum;
+        best = type;
       }
-      inputBuf[inputSize++] = (byte) b;
     }
+    return filtered[best];
+  }
 
-    void write16(int bb) throws IOException {
-      write(bb >> 8);
-      write(bb & 0xFF);
+  private static int paeth(int a, int b, int c) {
+    int p = a + b - c;
+    int pa = Math.abs(p - a);
+    int pb = Math.abs(p - b);
+    int pc = Math.abs(p - c);
+    if (pa <= pb && pa <= pc) {
+      return a;
+    } else if (pb <= pc) {
+      return b;
+    } else {
+      return c;
     }
+  }
 
-    private void deflate() throws IOException {
-      int deflated;
-      do {
+  /**
+   * Splits the compressed image data into IDAT chunks.
+   * Closing this stream does not close the PNG file stream.
+   */
+  class IdatOutputStream extends OutputStream {
+    int outputSize = 0;
+    byte[] outputBuf = new byte[MAX_CHUNK_BYTES];
+
+    @Override public void write(int b) throws IOException {
+      if (outputSize == MAX_CHUNK_BYTES) {
+        writeChunk();
+      }
+      outputBuf[outputSize++] = (byte) b;
+    }
+
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
         if (outputSize == MAX_CHUNK_BYTES) {
           writeChunk();
         }
-        deflated = deflater.deflate(outputBuf, outputSize, MAX_CHUNK_BYTES - outputSize);
-        outputSize += deflated;
-      } while (deflated != 0);
+        int count = Math.min(len, MAX_CHUNK_BYTES - outputSize);
+        System.arraycopy(b, off, outputBuf, outputSize, count);
+        outputSize += count;
+        off += count;
+        len -= count;
+      }
     }
 
     private void writeChunk() throws IOException {
@@ -169,17 +298,10 @@ public class PngFileWriter implements AutoCloseable {
       outputSize = 0;
     }
 
-    void close() throws IOException {
-      if (inputSize > 0) {
-        deflater.setInput(inputBuf, 0, inputSize);
-        deflater.finish();
-        inputSize = 0;
-        deflate();
-      }
+    @Override public void close() throws IOException {
       if (outputSize > 0) {
         writeChunk();
       }
-      deflater.end();
     }
   }
 }
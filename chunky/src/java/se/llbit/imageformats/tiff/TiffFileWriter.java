@@ -221,34 +221,88 @@ public class TiffFileWriter implements AutoCloseable {
    * Write an image as a 32-bit per channel TIFF file.
    */
   public void write32(Scene scene, TaskTracker.Task task) throws IOException {
-    PostProcessingFilter filter = scene.getPostProcessingFilter();
-    if (!(filter instanceof PixelPostProcessingFilter)) {
-      Log.warn("The selected post processing filter (" + filter.getName()
-          + ") doesn't support pixel based processing and can't be used to export TIFF files. "+
-          "The TIFF will be exported without post-processing instead.");
-      filter = PostProcessingFilters.NONE;
-    }
-
+    PixelPostProcessingFilter filter = pixelFilter(scene);
     int width = scene.canvasWidth();
     int height = scene.canvasHeight();
-    writeHeader(width, height, 4);
+    begin32(width, height);
 
+    double[] samples = scene.getPostProcessingSamples(TaskTracker.Task.NONE);
+    double[] pixel = new double[3];
     for (int y = 0; y < height; ++y) {
       task.update(height, y);
       for (int x = 0; x < width; ++x) {
-        double[] pixel = new double[3];
-        ((PixelPostProcessingFilter) filter)
-            .processPixel(width, height, scene.getSampleBuffer(), x, y, scene.getExposure(), pixel);
+        filter.processPixel(width, height, samples, x, y, scene.getExposure(), pixel);
         out.writeFloat((float) pixel[0]);
         out.writeFloat((float) pixel[1]);
         out.writeFloat((float) pixel[2]);
       }
       task.update(height, y + 1);
     }
+    finish32(width, height);
+  }
+
+  /**
+   * Start writing a 32-bit per channel TIFF file that is written in bands of rows.
+   * Exactly {@code height} rows must be written with {@link #writeRows32} before
+   * {@link #finish32} is called.
+   *
+   * <p>The image is stored as a single strip, followed by the IFD, so the file layout is
+   * known before any pixels are written.
+   *
+   * @throws IOException if the image is too large for a TIFF file
+   */
+  public void begin32(int width, int height) throws IOException {
+    if (width > 0xFFFF || height > 0xFFFF
+        || 8L + 3L * 4 * width * height + 1024 > 0xFFFFFFFFL) {
+      throw new IOException(String.format(
+          "The image is too large to be written as a TIFF file (%dx%d)", width, height));
+    }
+    writeHeader(width, height, 4);
+  }
+
+  /**
+   * Write the next rows of a 32-bit per channel image.
+   *
+   * @param samples linear samples for the rows, with three values per pixel
+   * @param rows number of rows to write
+   */
+  public void writeRows32(int width, int rows, double[] samples,
+      PixelPostProcessingFilter filter, double exposure) throws IOException {
+    double[] pixel = new double[3];
+    for (int y = 0; y < rows; ++y) {
+      for (int x = 0; x < width; ++x) {
+        filter.processPixel(width, rows, samples, x, y, exposure, pixel);
+        out.writeFloat((float) pixel[0]);
+        out.writeFloat((float) pixel[1]);
+        out.writeFloat((float) pixel[2]);
+      }
+    }
+  }
+
+  /**
+   * Write the IFD after all rows of a 32-bit per channel image have been written.
+   */
+  public void finish32(int width, int height) throws IOException {
     writeFooter(width, height, 4);
   }
 
+  /**
+   * Get the pixel post-processing filter used for the scene. TIFF files are written
+   * pixel by pixel, so filters that only support processing whole frames are replaced
+   * by no post-processing.
+   */
+  public static PixelPostProcessingFilter pixelFilter(Scene scene) {
+    PostProcessingFilter filter = scene.getPostProcessingFilter();
+    if (!(filter instanceof PixelPostProcessingFilter)) {
+      Log.warn("The selected post processing filter (" + filter.getName()
+          + ") doesn't support pixel based processing and can't be used to export TIFF files. "+
+          "The TIFF will be exported without post-processing instead.");
+      filter = PostProcessingFilters.NONE;
+    }
+    return (PixelPostProcessingFilter) filter;
+  }
+
   private int ifdOffset(int width, int height, int bytesPerSample) {
-    return 8 + width * height * 3 * bytesPerSample; // Offset to first IFD from file start.
+    return (int) (8 + (long) width * height * 3 * bytesPerSample); // Offset to first IFD from file start.
   }
 }
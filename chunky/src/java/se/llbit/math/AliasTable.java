@@ -0,0 +1,106 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+/**
+ * Samples indices from a discrete distribution in constant time, using Vose's alias method.
+ *
+ * <p>Each index has a threshold and an alias. A sample picks an index uniformly and
+ * returns the index if a uniform number is below its threshold, otherwise its alias.
+ */
+public class AliasTable {
+  private final double[] threshold;
+  private final int[] alias;
+  private final double[] probability;
+
+  /**
+   * Create an alias table for the distribution proportional to the weights.
+   *
+   * @param weights non-negative weights with a positive sum
+   * @throws IllegalArgumentException if the weights do not have a positive sum
+   */
+  public AliasTable(double[] weights) {
+    int n = weights.length;
+    double total = 0;
+    for (double weight : weights) {
+      total += weight;
+    }
+    if (!(total > 0) || Double.isInfinite(total)) {
+      throw new IllegalArgumentException("The weights must have a positive finite sum");
+    }
+    threshold = new double[n];
+    alias = new int[n];
+    probability = new double[n];
+
+    // Indices with a scaled weight below and above 1, used as stacks.
+    int[] small = new int[n];
+    int[] large = new int[n];
+    int numSmall = 0;
+    int numLarge = 0;
+    for (int i = 0; i < n; ++i) {
+      probability[i] = weights[i] / total;
+      threshold[i] = probability[i] * n;
+      if (threshold[i] < 1) {
+        small[numSmall++] = i;
+      } else {
+        large[numLarge++] = i;
+      }
+    }
+    while (numSmall > 0 && numLarge > 0) {
+      int less = small[--numSmall];
+      int more = large[--numLarge];
+      alias[less] = more;
+      threshold[more] = threshold[more] + threshold[less] - 1;
+      if (threshold[more] < 1) {
+        small[numSmall++] = more;
+      } else {
+        large[numLarge++] = more;
+      }
+    }
+    // The remaining thresholds are 1 up to rounding errors.
+    while (numLarge > 0) {
+      threshold[large[--numLarge]] = 1;
+    }
+    while (numSmall > 0) {
+      threshold[small[--numSmall]] = 1;
+    }
+  }
+
+  /**
+   * @param u a uniform random number in [0, 1)
+   * @return an index sampled from the distribution
+   */
+  public int sample(double u) {
+    double x = u * threshold.length;
+    int i = Math.min((int) x, threshold.length - 1);
+    return x - i < threshold[i] ? i : alias[i];
+  }
+
+  /**
+   * @return the probability of sampling the index
+   */
+  public double probability(int index) {
+    return probability[index];
+  }
+
+  /**
+   * @return the number of indices in the distribution
+   */
+  public int size() {
+    return threshold.length;
+  }
+}
@@ -8,7 +8,7 @@ import java.util.List;
 import java.util.Random;
 
 public class Grid {
-  private static final int GRID_FORMAT_VERSION = 2;
+  private static final int GRID_FORMAT_VERSION = 3;
 
   /**
    * Holds a 3D grid of blocks cube
@@ -33,9 +33,15 @@ public class Grid {
       this.z = z;
       this.radius = radius;
     }
+    public EmitterPosition(float x, float y, float z, float radius, float emittance) {
+      this(x, y, z, radius);
+      this.emittance = emittance;
+    }
 
     public float x, y, z;
     public float radius;
+    // Emittance of the emitter material, used to sample bright emitters more often
+    public float emittance = 1;
   }
 
   private final int cellSize;
@@ -59,6 +65,9 @@ public class Grid {
 
   private int offsetX, sizeX, offsetY, sizeY, offsetZ, sizeZ;
 
+  // Built on first use, see getLightTree()
+  private volatile LightTree lightTree;
+
   public Grid(int cellSize) {
     this.cellSize = cellSize;
     minX = maxX = minY = maxY = minZ = maxZ = -1;
@@ -180,13 +189,23 @@ public class Grid {
    * Get the list of emitters position close from a given point
    */
   public List<EmitterPosition> getEmitterPositions(int x, int y, int z) {
+    List<EmitterPosition> pos = new ArrayList<>();
+    getEmitterPositions(x, y, z, pos);
+    return pos;
+  }
+
+  /**
+   * Get the list of emitters position close from a given point into the given list,
+   * which is cleared first
+   */
+  public void getEmitterPositions(int x, int y, int z, List<EmitterPosition> pos) {
     int gridX = x / cellSize;
     int gridY = y / cellSize;
     int gridZ = z / cellSize;
 
-    List<EmitterPosition> pos = new ArrayList<>();
+    pos.clear();
     if(isOutOfBounds(gridX, gridY, gridZ))
-      return pos;
+      return;
 
     int index = cellIndex(gridX, gridY, gridZ);
     int start = constructedGrid[2*index];
@@ -194,7 +213,23 @@ public class Grid {
     for(int i = 0; i < size; ++i) {
       pos.add(emitterPositions.get(positionIndexes[start+i]));
     }
-    return pos;
+  }
+
+  /**
+   * Get the light tree over all emitters in the grid. The tree is built on first use.
+   */
+  public LightTree getLightTree() {
+    LightTree tree = lightTree;
+    if (tree == null) {
+      synchronized (this) {
+        tree = lightTree;
+        if (tree == null) {
+          tree = new LightTree(emitterPositions);
+          lightTree = tree;
+        }
+      }
+    }
+    return tree;
   }
 
   /**
@@ -219,6 +254,7 @@ public class Grid {
       out.writeFloat(pos.y);
       out.writeFloat(pos.z);
       out.writeFloat(pos.radius);
+      out.writeFloat(pos.emittance);
     }
 
     // Write, for each cell, how many emitters are contained and their indexes in the array written earlier
@@ -281,7 +317,8 @@ public class Grid {
         float y = in.readFloat();
         float z = in.readFloat();
         float radius = in.readFloat();
-        grid.emitterPositions.add(new EmitterPosition(x, y, z, radius));
+        float emittance = version < 3 ? 1 : in.readFloat();
+        grid.emitterPositions.add(new EmitterPosition(x, y, z, radius, emittance));
       }
     }
 
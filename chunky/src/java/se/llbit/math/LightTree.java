@@ -0,0 +1,229 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A bounding volume hierarchy over emitters, used to pick one emitter for a shading
+ * point with a probability that follows the emitter's estimated contribution.
+ *
+ * <p>Each node stores the bounds of its emitters and their total emittance. An emitter
+ * is sampled by walking from the root to a leaf. At each node, each child is chosen
+ * in proportion to its importance: its emittance times a bound on the cosine at the
+ * shading point, divided by the squared distance to its center. Nodes that lie
+ * completely behind the shading point get zero importance and are never chosen.
+ *
+ * <p>The tree is stored in flat arrays. The nodes are in depth-first order, so the
+ * left child of an internal node is the next node.
+ */
+public class LightTree {
+  /**
+   * The result of sampling an emitter.
+   */
+  public static class Sample {
+    public Grid.EmitterPosition emitter;
+
+    /** The probability of sampling the emitter. */
+    public double probability;
+  }
+
+  private final List<Grid.EmitterPosition> emitters;
+
+  /**
+   * Node bounds: min x, min y, min z, max x, max y, max z.
+   */
+  private final float[] bounds;
+
+  /**
+   * Total emittance of the emitters in each node.
+   */
+  private final float[] power;
+
+  /**
+   * The right child index of internal nodes, or {@code -(emitter + 1)} for leaves.
+   */
+  private final int[] child;
+
+  private int nodeCount = 0;
+
+  /**
+   * Build a tree over the emitters.
+   */
+  public LightTree(List<Grid.EmitterPosition> emitters) {
+    this.emitters = emitters;
+    int n = emitters.size();
+    int nodes = Math.max(0, 2 * n - 1);
+    bounds = new float[nodes * 6];
+    power = new float[nodes];
+    child = new int[nodes];
+    if (n > 0) {
+      Integer[] order = new Integer[n];
+      for (int i = 0; i < n; ++i) {
+        order[i] = i;
+      }
+      build(order, 0, n);
+    }
+  }
+
+  /**
+   * Build the subtree for the emitters order[from] to order[to - 1].
+   *
+   * @return the index of the subtree root
+   */
+  private int build(Integer[] order, int from, int to) {
+    int node = nodeCount++;
+    if (to - from == 1) {
+      int index = order[from];
+      Grid.EmitterPosition pos = emitters.get(index);
+      float r = pos.radius / 2;
+      int offset = node * 6;
+      bounds[offset] = pos.x - r;
+      bounds[offset + 1] = pos.y - r;
+      bounds[offset + 2] = pos.z - r;
+      bounds[offset + 3] = pos.x + r;
+      bounds[offset + 4] = pos.y + r;
+      bounds[offset + 5] = pos.z + r;
+      power[node] = pos.emittance;
+      child[node] = -(index + 1);
+      return node;
+    }
+
+    // Split at the median along the longest axis of the emitter positions.
+    float[] extent = {
+        Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+        Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY
+    };
+    for (int i = from; i < to; ++i) {
+      Grid.EmitterPosition pos = emitters.get(order[i]);
+      extent[0] = Math.min(extent[0], pos.x);
+      extent[1] = Math.min(extent[1], pos.y);
+      extent[2] = Math.min(extent[2], pos.z);
+      extent[3] = Math.max(extent[3], pos.x);
+      extent[4] = Math.max(extent[4], pos.y);
+      extent[5] = Math.max(extent[5], pos.z);
+    }
+    float sizeX = extent[3] - extent[0];
+    float sizeY = extent[4] - extent[1];
+    float sizeZ = extent[5] - extent[2];
+    Comparator<Integer> comparator;
+    if (sizeX >= sizeY && sizeX >= sizeZ) {
+      comparator = Comparator.comparingDouble(i -> emitters.get(i).x);
+    } else if (sizeY >= sizeZ) {
+      comparator = Comparator.comparingDouble(i -> emitters.get(i).y);
+    } else {
+      comparator = Comparator.comparingDouble(i -> emitters.get(i).z);
+    }
+    Arrays.sort(order, from, to, comparator);
+    int mid = (from + to) >>> 1;
+    int left = build(order, from, mid);
+    int right = build(order, mid, to);
+
+    int offset = node * 6;
+    int leftOffset = left * 6;
+    int rightOffset = right * 6;
+    for (int i = 0; i < 3; ++i) {
+      bounds[offset + i] = Math.min(bounds[leftOffset + i], bounds[rightOffset + i]);
+      bounds[offset + 3 + i] = Math.max(bounds[leftOffset + 3 + i], bounds[rightOffset + 3 + i]);
+    }
+    power[node] = power[left] + power[right];
+    child[node] = right;
+    return node;
+  }
+
+  /**
+   * Sample an emitter for a shading point.
+   *
+   * @param o the shading point
+   * @param n the surface normal at the shading point, or {@code null} for a point in a
+   * participating medium which can receive light from all directions
+   * @param sample receives the sampled emitter and its probability
+   * @return {@code false} if no emitter can light the shading point
+   */
+  public boolean sample(Vector3 o, Vector3 n, Random random, Sample sample) {
+    if (nodeCount == 0) {
+      return false;
+    }
+    int node = 0;
+    double probability = 1;
+    while (child[node] >= 0) {
+      int left = node + 1;
+      int right = child[node];
+      double leftImportance = importance(left, o, n);
+      double rightImportance = importance(right, o, n);
+      double total = leftImportance + rightImportance;
+      if (total <= 0) {
+        return false;
+      }
+      double pLeft = leftImportance / total;
+      if (random.nextDouble() < pLeft) {
+        node = left;
+        probability *= pLeft;
+      } else {
+        node = right;
+        probability *= 1 - pLeft;
+      }
+    }
+    sample.emitter = emitters.get(-child[node] - 1);
+    sample.probability = probability;
+    return true;
+  }
+
+  /**
+   * Estimate the contribution of the emitters in a node to a shading point.
+   */
+  private double importance(int node, Vector3 o, Vector3 n) {
+    float nodePower = power[node];
+    if (nodePower <= 0) {
+      return 0;
+    }
+    int offset = node * 6;
+    double hx = (bounds[offset + 3] - bounds[offset]) / 2;
+    double hy = (bounds[offset + 4] - bounds[offset + 1]) / 2;
+    double hz = (bounds[offset + 5] - bounds[offset + 2]) / 2;
+    double dx = bounds[offset] + hx - o.x;
+    double dy = bounds[offset + 1] + hy - o.y;
+    double dz = bounds[offset + 2] + hz - o.z;
+    double distance2 = dx * dx + dy * dy + dz * dz;
+    double radius2 = hx * hx + hy * hy + hz * hz;
+    if (distance2 <= radius2) {
+      // The shading point is inside the bounding sphere, any direction is possible.
+      return nodePower / Math.max(radius2, 1);
+    }
+
+    // Bound the cosine at the shading point by the cone that contains the bounding sphere.
+    double distance = Math.sqrt(distance2);
+    double cosTheta = n == null ? 1 : (dx * n.x + dy * n.y + dz * n.z) / distance;
+    double sinAlpha2 = radius2 / distance2;
+    double cosAlpha = Math.sqrt(1 - sinAlpha2);
+    double cosBound;
+    if (cosTheta >= cosAlpha) {
+      cosBound = 1;
+    } else {
+      double sinTheta = Math.sqrt(Math.max(0, 1 - cosTheta * cosTheta));
+      // cos(theta - alpha)
+      cosBound = cosTheta * cosAlpha + sinTheta * Math.sqrt(sinAlpha2);
+      if (cosBound <= 0) {
+        return 0;
+      }
+    }
+    return nodePower * cosBound / Math.max(distance2, 1);
+  }
+}
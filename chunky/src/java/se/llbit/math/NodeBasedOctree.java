@@ -151,6 +151,11 @@ public class NodeBasedOctree implements Octree.OctreeImplementation {
     return palette.get(node.type);
   }
 
+  @Override
+  public int getType(int x, int y, int z) {
+    return get(x, y, z).type;
+  }
+
   @Override
   public void store(DataOutputStream out) throws IOException {
     out.writeInt(depth);
@@ -0,0 +1,45 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+/**
+ * The result of an occlusion query for a ray segment.
+ *
+ * <p>Occlusion queries are used for shadow rays. They do not find the closest
+ * intersection and do not compute hit colors, they only test if anything is in the way.
+ */
+public enum Occlusion {
+  /** Nothing intersects the ray segment. */
+  CLEAR,
+
+  /**
+   * Something that may let light through intersects the ray segment, for example glass,
+   * water or a block with a custom model. The light attenuation has to be computed by
+   * tracing the ray.
+   */
+  TRANSLUCENT,
+
+  /** An opaque object blocks the ray segment. */
+  OPAQUE;
+
+  /**
+   * @return the combined result of two queries for the same ray segment
+   */
+  public Occlusion combine(Occlusion other) {
+    return other.ordinal() > ordinal() ? other : this;
+  }
+}
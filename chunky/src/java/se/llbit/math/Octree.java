@@ -18,8 +18,11 @@
 package se.llbit.math;
 
 import java.io.*;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.LongConsumer;
 
 import it.unimi.dsi.fastutil.ints.IntIntMutablePair;
 import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
@@ -30,6 +33,7 @@ import se.llbit.chunky.block.Air;
 import se.llbit.chunky.block.Block;
 import se.llbit.chunky.block.Water;
 import se.llbit.chunky.chunk.BlockPalette;
+import se.llbit.chunky.chunk.FrozenBlockPalette;
 import se.llbit.chunky.model.TexturedBlockModel;
 import se.llbit.chunky.model.WaterModel;
 import se.llbit.chunky.plugin.PluginApi;
@@ -77,6 +81,22 @@ public class Octree {
       outTypeAndLevel.right(level).left(getType(node));
     }
 
+    /**
+     * Get the type of the leaf node containing the given position.
+     */
+    default int getType(int x, int y, int z) {
+      NodeId node = getRoot();
+      int level = getDepth();
+      while(isBranch(node)) {
+        level -= 1;
+        int lx = x >>> level;
+        int ly = y >>> level;
+        int lz = z >>> level;
+        node = getChild(node, (((lx & 1) << 2) | ((ly & 1) << 1) | (lz & 1)));
+      }
+      return getType(node);
+    }
+
     /**
      * Set a whole 2^n * 2^n * 2^n cube of blocks
      * @param cubeDepth the n
@@ -297,6 +317,18 @@ public class Octree {
     return implementation.getMaterial(x, y, z, palette);
   }
 
+  /**
+   * Get the block type at the given position (relative to the octree origin).
+   * @return block type at the given position or {@link #BRANCH_NODE} if the
+   * position is outside of this octree
+   */
+  public int getType(int x, int y, int z) {
+    int size = (1 << implementation.getDepth());
+    if(x < 0 || y < 0 || z < 0 || x >= size || y >= size || z >= size)
+      return BRANCH_NODE;
+    return implementation.getType(x, y, z);
+  }
+
   /**
    * Serialize this octree to a data output stream.
    *
@@ -317,6 +349,42 @@ public class Octree {
     return new Octree(getImplementationFactory(impl).load(in));
   }
 
+  /**
+   * @return {@code true} if this octree can be serialized with {@link #storeFlat}
+   */
+  public boolean canStoreFlat() {
+    return implementation instanceof PackedOctree;
+  }
+
+  /**
+   * Serialize this octree in the flat format of {@link PackedOctree#storeFlat}.
+   * This is only supported for packed octrees.
+   *
+   * @throws IOException
+   */
+  public void storeFlat(WritableByteChannel out) throws IOException {
+    if (!canStoreFlat()) {
+      throw new IOException("Only packed octrees can be stored in the flat format");
+    }
+    ((PackedOctree) implementation).storeFlat(out);
+  }
+
+  /**
+   * Deserialize an octree stored in the flat format. The octree is converted to the
+   * given implementation if it is not the packed implementation.
+   *
+   * @param progress receives the number of bytes read since the previous call
+   * @return The deserialized octree
+   * @throws IOException
+   */
+  public static Octree loadFlat(String impl, ReadableByteChannel in, LongConsumer progress)
+      throws IOException {
+    Log.infof("Loading octree (%s)", impl);
+    Octree octree = new Octree(PackedOctree.loadFlat(in, progress));
+    octree.switchImplementation(impl);
+    return octree;
+  }
+
   /**
    * Test if a point is inside the octree.
    *
@@ -474,13 +542,30 @@ public class Octree {
    * @return {@code false} if the ray did not hit the geometry
    */
   public boolean enterBlock(Scene scene, Ray ray, BlockPalette palette) {
-    if (!isInside(ray.o) && !enterOctree(ray))
+    return enterBlock(scene, ray, palette, null);
+  }
+
+  /**
+   * Intersects the ray with the geometry inside the octree. If the ray starts inside the
+   * octree and the hint from a packet traversal is given, the marching starts in the last
+   * air leaf before the first leaf that is not air, instead of at the ray origin. The
+   * hint may only be used if the current material of the ray is air.
+   *
+   * @param hint the packet traversal result for the ray, or {@code null}
+   * @return {@code false} if the ray did not hit the geometry
+   */
+  public boolean enterBlock(Scene scene, Ray ray, BlockPalette palette, RayPacket.Hint hint) {
+    double distance = 0;
+    if (isInside(ray.o)) {
+      if (hint != null) {
+        distance = hint.octreeSkip;
+      }
+    } else if (!enterOctree(ray)) {
       return false;
+    }
 
     int depth = implementation.getDepth();
 
-    double distance = 0;
-
     // floating point division are slower than multiplication so we cache them
     // We also try to limit the number of time the ray origin is updated
     // as it would require to recompute those values
@@ -492,6 +577,7 @@ public class Octree {
     double offsetZ = -ray.o.z * invDz;
 
     IntIntMutablePair typeAndLevel = new IntIntMutablePair(0, 0);
+    FrozenBlockPalette blocks = palette.freeze();
 
     // Marching is done in a top-down fashion: at each step, the octree is descended from the root to find the leaf
     // node the ray is in. Terminating the march is then decided based on the block type in that leaf node. Finally the
@@ -519,13 +605,14 @@ public class Octree {
       lz = z >>> level;
 
       // Test intersection
-      Block currentBlock = palette.get(type);
+      Block currentBlock = blocks.get(type);
+      int flags = blocks.flags(type);
       Material prevBlock = ray.getCurrentMaterial();
 
       ray.setPrevMaterial(prevBlock, ray.getCurrentData());
       ray.setCurrentMaterial(currentBlock);
 
-      if (currentBlock.localIntersect) {
+      if ((flags & FrozenBlockPalette.LOCAL_INTERSECT) != 0) {
         // Other functions expect the ray origin to be in the block they test so here time
         // to update it
         // Updating the origin also means that new offsetX/offsetY/offsetZ must be computed
@@ -552,12 +639,12 @@ public class Octree {
           offsetZ = -ray.o.z * invDz;
           continue;
         }
-      } else if (!currentBlock.isSameMaterial(prevBlock) && currentBlock != Air.INSTANCE) {
+      } else if ((flags & FrozenBlockPalette.AIR) == 0 && !currentBlock.isSameMaterial(prevBlock)) {
         // Origin and distance of ray need to be updated
         ray.o.scaleAdd(distance, ray.d);
         ray.distance += distance;
         TexturedBlockModel.getIntersectionColor(ray);
-        if (currentBlock.opaque) {
+        if ((flags & FrozenBlockPalette.OPAQUE) != 0) {
           ray.color.w = 1;
         }
         return true;
@@ -614,6 +701,172 @@ public class Octree {
     }
   }
 
+  /**
+   * Traverse the octree with a packet of rays and store in the packet hints how far each
+   * ray can march through air before reaching a leaf that is not air, or the edge of the
+   * octree. Each node is visited once for the whole packet and is only tested against the
+   * bounds of the packet, the rays are tested one by one only at leaves that are not air.
+   * The children of a node are visited front to back, so a ray is done with the traversal
+   * as soon as it has found a leaf. Rays that do not start inside the octree get no hint.
+   */
+  public void traversePacket(RayPacket packet, BlockPalette palette) {
+    if (!packet.isCoherent()) {
+      return;
+    }
+    int mask = 0;
+    for (int i = 0; i < packet.size(); ++i) {
+      if (isInside(packet.get(i).o)) {
+        mask |= 1 << i;
+      }
+    }
+    int size = 1 << implementation.getDepth();
+    mask = packet.hits(mask, 0, size, 0, size, 0, size);
+    if (mask == 0) {
+      return;
+    }
+    for (int i = 0; i < packet.size(); ++i) {
+      if ((mask & (1 << i)) != 0) {
+        // Only air unless a leaf is found, then the marching starts at the octree exit.
+        packet.hint(i).octreeSkip = packet.far(i);
+      }
+    }
+
+    traversePacket(packet, palette.freeze(), implementation.getRoot(),
+        implementation.getDepth(), 0, 0, 0, mask);
+
+    for (int i = 0; i < packet.size(); ++i) {
+      if ((mask & (1 << i)) != 0) {
+        // Stop short so that the marching starts in the previous air leaf. The hit point
+        // and normal are then computed exactly as without the hint.
+        RayPacket.Hint hint = packet.hint(i);
+        hint.octreeSkip = Math.max(0, hint.octreeSkip - 2 * Ray.OFFSET);
+      }
+    }
+  }
+
+  /**
+   * @param active the rays which have not yet found a leaf
+   * @return the rays which have not found a leaf after visiting the node
+   */
+  private int traversePacket(RayPacket packet, FrozenBlockPalette blocks, NodeId node,
+      int level, int x, int y, int z, int active) {
+    int size = 1 << level;
+    if (packet.misses(x, x + size, y, y + size, z, z + size)) {
+      return active;
+    }
+    if (implementation.isBranch(node)) {
+      int half = size >> 1;
+      int order = packet.childOrder();
+      for (int k = 0; k < 8 && active != 0; ++k) {
+        int child = k ^ order;
+        active = traversePacket(packet, blocks, implementation.getChild(node, child),
+            level - 1, x + ((child >> 2) & 1) * half, y + ((child >> 1) & 1) * half,
+            z + (child & 1) * half, active);
+      }
+    } else if ((blocks.flags(implementation.getType(node)) & FrozenBlockPalette.AIR) == 0) {
+      int hit = packet.hits(active, x, x + size, y, y + size, z, z + size);
+      for (int i = 0; i < packet.size(); ++i) {
+        if ((hit & (1 << i)) != 0) {
+          packet.hint(i).octreeSkip = Math.max(0, packet.near(i));
+        }
+      }
+      // Nodes visited later are behind this leaf for the rays that hit it.
+      active &= ~hit;
+    }
+    return active;
+  }
+
+  /**
+   * Test if the geometry inside the octree is in the way of the ray, up to the distance
+   * {@code maxT} from the ray origin. Unlike {@link #enterBlock} this does not compute hit
+   * colors and returns as soon as an opaque block is found. Blocks with a custom model
+   * are not intersected, they count as translucent. The ray is not modified.
+   */
+  public Occlusion occluded(Ray ray, double maxT, BlockPalette palette) {
+    double distance = 0;
+    if (!isInside(ray.o)) {
+      Ray entry = new Ray();
+      entry.o.set(ray.o);
+      entry.d.set(ray.d);
+      if (!enterOctree(entry))
+        return Occlusion.CLEAR;
+      distance = entry.distance;
+    }
+
+    int depth = implementation.getDepth();
+
+    double invDx = 1 / ray.d.x;
+    double invDy = 1 / ray.d.y;
+    double invDz = 1 / ray.d.z;
+    double offsetX = -ray.o.x * invDx;
+    double offsetY = -ray.o.y * invDy;
+    double offsetZ = -ray.o.z * invDz;
+
+    IntIntMutablePair typeAndLevel = new IntIntMutablePair(0, 0);
+    FrozenBlockPalette blocks = palette.freeze();
+    Occlusion result = Occlusion.CLEAR;
+
+    // Same marching as in enterBlock, but the ray origin is never moved.
+    while (distance < maxT) {
+      int x = (int) Math.floor(ray.o.x + ray.d.x * (distance + Ray.OFFSET));
+      int y = (int) Math.floor(ray.o.y + ray.d.y * (distance + Ray.OFFSET));
+      int z = (int) Math.floor(ray.o.z + ray.d.z * (distance + Ray.OFFSET));
+
+      int lx = x >>> depth;
+      int ly = y >>> depth;
+      int lz = z >>> depth;
+
+      if (lx != 0 || ly != 0 || lz != 0)
+        return result; // outside of octree!
+
+      implementation.getWithLevel(typeAndLevel, x, y, z);
+      int type = typeAndLevel.leftInt();
+      int level = typeAndLevel.rightInt();
+
+      int flags = blocks.flags(type);
+      if ((flags & FrozenBlockPalette.AIR) == 0) {
+        if ((flags & (FrozenBlockPalette.OPAQUE | FrozenBlockPalette.LOCAL_INTERSECT
+            | FrozenBlockPalette.INVISIBLE)) == FrozenBlockPalette.OPAQUE) {
+          return Occlusion.OPAQUE;
+        }
+        result = Occlusion.TRANSLUCENT;
+      }
+
+      lx = x >>> level;
+      ly = y >>> level;
+      lz = z >>> level;
+
+      // Exit current octree leaf.
+      double tNear = Double.POSITIVE_INFINITY;
+      double t = (lx << level) * invDx + offsetX;
+      if (t > distance + Ray.EPSILON) {
+        tNear = t;
+      }
+      t = ((lx + 1) << level) * invDx + offsetX;
+      if (t < tNear && t > distance + Ray.EPSILON) {
+        tNear = t;
+      }
+      t = (ly << level) * invDy + offsetY;
+      if (t < tNear && t > distance + Ray.EPSILON) {
+        tNear = t;
+      }
+      t = ((ly + 1) << level) * invDy + offsetY;
+      if (t < tNear && t > distance + Ray.EPSILON) {
+        tNear = t;
+      }
+      t = (lz << level) * invDz + offsetZ;
+      if (t < tNear && t > distance + Ray.EPSILON) {
+        tNear = t;
+      }
+      t = ((lz + 1) << level) * invDz + offsetZ;
+      if (t < tNear && t > distance + Ray.EPSILON) {
+        tNear = t;
+      }
+      distance = tNear;
+    }
+    return result;
+  }
+
   /**
    * Advance the ray until it leaves the current water body.
    *
@@ -629,6 +882,7 @@ public class Octree {
     // ray is advanced to the boundary of the current leaf node and the next, ready for the next iteration.
 
     IntIntMutablePair typeAndLevel = new IntIntMutablePair(0, 0);
+    FrozenBlockPalette blocks = palette.freeze();
     while (true) {
       // Add small offset past the intersection to avoid
       // recursion to the same octree node!
@@ -653,21 +907,22 @@ public class Octree {
       lz = z >>> level;
 
       // Test intersection
-      Block currentBlock = palette.get(type);
+      Block currentBlock = blocks.get(type);
+      int flags = blocks.flags(type);
       Material prevBlock = ray.getCurrentMaterial();
 
       ray.setPrevMaterial(prevBlock, ray.getCurrentData());
       ray.setCurrentMaterial(currentBlock);
 
-      if (!currentBlock.isWater()) {
-        if (currentBlock.localIntersect) {
+      if ((flags & FrozenBlockPalette.WATER) == 0) {
+        if ((flags & FrozenBlockPalette.LOCAL_INTERSECT) != 0) {
           if (!currentBlock.intersect(ray, scene)) {
             ray.setCurrentMaterial(Air.INSTANCE);
           }
           return true;
-        } else if (currentBlock != Air.INSTANCE) {
+        } else if ((flags & FrozenBlockPalette.AIR) == 0) {
           TexturedBlockModel.getIntersectionColor(ray);
-          if (currentBlock.opaque) {
+          if ((flags & FrozenBlockPalette.OPAQUE) != 0) {
             ray.color.w = 1;
           }
           return true;
@@ -26,9 +26,15 @@ import se.llbit.chunky.world.Material;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.LongConsumer;
 
 import static se.llbit.math.Octree.*;
 
@@ -168,6 +174,19 @@ public class PackedOctree implements Octree.OctreeImplementation {
     freeHead = -1;
   }
 
+  /**
+   * Constructor for a tree with an existing node array.
+   *
+   * @param size     The number of used entries in the node array
+   * @param freeHead The first free block in the node array, or -1
+   */
+  private PackedOctree(int depth, int[] treeData, int size, int freeHead) {
+    this.depth = depth;
+    this.treeData = treeData;
+    this.size = size;
+    this.freeHead = freeHead;
+  }
+
   /**
    * Constructs an empty octree
    *
@@ -555,6 +574,11 @@ public class PackedOctree implements Octree.OctreeImplementation {
     return palette.get(-treeData[nodeIndex]);
   }
 
+  @Override
+  public int getType(int x, int y, int z) {
+    return -treeData[getNodeIndex(x, y, z)];
+  }
+
   /**
    * Stores this PackedOctree into its serialized form.
    *
@@ -599,6 +623,82 @@ public class PackedOctree implements Octree.OctreeImplementation {
     return tree;
   }
 
+  /**
+   * Number of ints copied per read or write call in the flat format.
+   */
+  private static final int FLAT_BLOCK_INTS = 1 << 20;
+
+  /**
+   * Stores the node array of this PackedOctree as a flat block of little-endian ints.
+   *
+   * Unlike {@link #store(DataOutputStream)}, the array is written as it is laid out in
+   * memory, including free blocks, so that it can be loaded with bulk copies instead of
+   * rebuilding the tree node by node.
+   */
+  public void storeFlat(WritableByteChannel out) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(depth).putInt(size).putInt(freeHead);
+    header.flip();
+    writeFully(out, header);
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(4 * Math.min(size, FLAT_BLOCK_INTS))
+        .order(ByteOrder.LITTLE_ENDIAN);
+    for (int offset = 0; offset < size; offset += FLAT_BLOCK_INTS) {
+      int count = Math.min(FLAT_BLOCK_INTS, size - offset);
+      buffer.clear();
+      buffer.asIntBuffer().put(treeData, offset, count);
+      buffer.limit(4 * count);
+      writeFully(out, buffer);
+    }
+  }
+
+  /**
+   * Create a new PackedOctree from the flat form written by {@link #storeFlat}.
+   *
+   * @param progress receives the number of bytes read since the previous call
+   */
+  public static PackedOctree loadFlat(ReadableByteChannel in, LongConsumer progress)
+      throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(in, header);
+    header.flip();
+    int depth = header.getInt();
+    int size = header.getInt();
+    int freeHead = header.getInt();
+    progress.accept(header.limit());
+    if (size < 1 || size > MAX_ARRAY_SIZE) {
+      throw new IOException("Invalid octree size: " + size);
+    }
+
+    int[] treeData = new int[Math.max(size, DEFAULT_INITIAL_SIZE)];
+    ByteBuffer buffer = ByteBuffer.allocateDirect(4 * Math.min(size, FLAT_BLOCK_INTS))
+        .order(ByteOrder.LITTLE_ENDIAN);
+    for (int offset = 0; offset < size; offset += FLAT_BLOCK_INTS) {
+      int count = Math.min(FLAT_BLOCK_INTS, size - offset);
+      buffer.clear();
+      buffer.limit(4 * count);
+      readFully(in, buffer);
+      buffer.flip();
+      buffer.asIntBuffer().get(treeData, offset, count);
+      progress.accept(4L * count);
+    }
+    return new PackedOctree(depth, treeData, size, freeHead);
+  }
+
+  private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+
+  private static void readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (in.read(buffer) < 0) {
+        throw new EOFException("Unexpected end of octree data");
+      }
+    }
+  }
+
   /**
    * Recursively read this node in from its serialized form from an InputStream (probably from a file).
    */
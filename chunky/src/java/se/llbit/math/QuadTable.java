@@ -0,0 +1,424 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * An immutable, flattened copy of a quad array.
+ *
+ * <p>The quad geometry is stored as a structure-of-arrays in a single
+ * {@code double[]}: component {@code c} of quad {@code i} is found at
+ * index {@code c * size + i}. This avoids chasing four separate vector
+ * objects per quad when intersecting block models.
+ *
+ * <p>Tables are shared between all users of the same {@code Quad[]} instance,
+ * so the static quad arrays used by most block models are only compiled once.
+ *
+ * <p>Each table has a bounding box around all quads, clipped to the block, that
+ * is used to reject rays before testing any quads. Tables with more than
+ * {@link #BVH_THRESHOLD} quads also get a small BVH over the quads. The BVH is
+ * stored in depth-first order with skip links, so it can be traversed without
+ * a stack: if the ray misses node {@code k} the traversal continues at
+ * {@code nodeSkip[k]}, otherwise at {@code k + 1}.
+ */
+public final class QuadTable {
+  static final int OX = 0;
+  static final int OY = 1;
+  static final int OZ = 2;
+  static final int XVX = 3;
+  static final int XVY = 4;
+  static final int XVZ = 5;
+  static final int YVX = 6;
+  static final int YVY = 7;
+  static final int YVZ = 8;
+  static final int NX = 9;
+  static final int NY = 10;
+  static final int NZ = 11;
+  static final int D = 12;
+  static final int XVL = 13;
+  static final int YVL = 14;
+  static final int U0 = 15;
+  static final int DU = 16;
+  static final int V0 = 17;
+  static final int DV = 18;
+  static final int COMPONENTS = 19;
+
+  /** Quad tables with more quads than this get a BVH. */
+  public static final int BVH_THRESHOLD = 16;
+
+  /** Maximum number of quads in a BVH leaf. */
+  private static final int LEAF_SIZE = 4;
+
+  private static final Map<Quad[], QuadTable> cache = new WeakHashMap<>();
+
+  /** Number of quads in this table. */
+  public final int size;
+
+  /** Flattened quad components. */
+  private final double[] data;
+
+  /** Precomputed quad normals, used to update the ray normal on a hit. */
+  private final Vector3[] normals;
+
+  private final boolean[] doubleSided;
+
+  /** Bounds of all quads, clipped to the block: xmin, xmax, ymin, ymax, zmin, zmax. */
+  private final double[] bounds = new double[6];
+
+  /** BVH node bounds, six values per node. Empty if this table has no BVH. */
+  private final double[] nodeBounds;
+
+  /** Next node to visit if the ray misses a BVH node. */
+  public final int[] nodeSkip;
+
+  /** First index into {@link #order} for BVH leaf nodes. */
+  public final int[] nodeStart;
+
+  /** Number of quads in BVH leaf nodes, zero for inner nodes. */
+  public final int[] nodeSize;
+
+  /** Quad indices in BVH leaf order. Quads are sorted by index within each leaf. */
+  public final int[] order;
+
+  private QuadTable(Quad[] quads) {
+    size = quads.length;
+    data = new double[COMPONENTS * size];
+    normals = new Vector3[size];
+    doubleSided = new boolean[size];
+    for (int i = 0; i < size; ++i) {
+      Quad quad = quads[i];
+      set(OX, i, quad.o.x);
+      set(OY, i, quad.o.y);
+      set(OZ, i, quad.o.z);
+      set(XVX, i, quad.xv.x);
+      set(XVY, i, quad.xv.y);
+      set(XVZ, i, quad.xv.z);
+      set(YVX, i, quad.yv.x);
+      set(YVY, i, quad.yv.y);
+      set(YVZ, i, quad.yv.z);
+      set(NX, i, quad.n.x);
+      set(NY, i, quad.n.y);
+      set(NZ, i, quad.n.z);
+      set(D, i, quad.d);
+      set(XVL, i, quad.xvl);
+      set(YVL, i, quad.yvl);
+      set(U0, i, quad.uv.x);
+      set(DU, i, quad.uv.y);
+      set(V0, i, quad.uv.z);
+      set(DV, i, quad.uv.w);
+      normals[i] = new Vector3(quad.n);
+      // The doubleSided field is hidden, not overridden, by DoubleSidedQuad.
+      doubleSided[i] = quad instanceof DoubleSidedQuad;
+    }
+
+    double[] quadBounds = new double[6 * size];
+    bounds[0] = bounds[2] = bounds[4] = Double.POSITIVE_INFINITY;
+    bounds[1] = bounds[3] = bounds[5] = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < size; ++i) {
+      quadBounds(quads[i], quadBounds, 6 * i);
+      include(bounds, 0, quadBounds, 6 * i);
+    }
+    // Hits outside the block are rejected by the block models, so the bounds can be clipped.
+    bounds[0] = Math.max(bounds[0], -Ray.EPSILON);
+    bounds[1] = Math.min(bounds[1], 1 + Ray.EPSILON);
+    bounds[2] = Math.max(bounds[2], -Ray.EPSILON);
+    bounds[3] = Math.min(bounds[3], 1 + Ray.EPSILON);
+    bounds[4] = Math.max(bounds[4], -Ray.EPSILON);
+    bounds[5] = Math.min(bounds[5], 1 + Ray.EPSILON);
+
+    if (size > BVH_THRESHOLD) {
+      int maxNodes = 2 * size;
+      double[] nodeBounds = new double[6 * maxNodes];
+      int[] nodeSkip = new int[maxNodes];
+      int[] nodeStart = new int[maxNodes];
+      int[] nodeSize = new int[maxNodes];
+      order = new int[size];
+      for (int i = 0; i < size; ++i) {
+        order[i] = i;
+      }
+      int nodes = buildNode(quadBounds, 0, size, 0, nodeBounds, nodeSkip, nodeStart, nodeSize);
+      this.nodeBounds = Arrays.copyOf(nodeBounds, 6 * nodes);
+      this.nodeSkip = Arrays.copyOf(nodeSkip, nodes);
+      this.nodeStart = Arrays.copyOf(nodeStart, nodes);
+      this.nodeSize = Arrays.copyOf(nodeSize, nodes);
+    } else {
+      nodeBounds = new double[0];
+      nodeSkip = new int[0];
+      nodeStart = new int[0];
+      nodeSize = new int[0];
+      order = new int[0];
+    }
+  }
+
+  /**
+   * Builds the BVH subtree for quads {@code order[start..end)}, placing the root at
+   * index {@code node}.
+   *
+   * @return the index of the next free node
+   */
+  private int buildNode(double[] quadBounds, int start, int end, int node,
+      double[] nodeBounds, int[] nodeSkip, int[] nodeStart, int[] nodeSize) {
+    int offset = 6 * node;
+    nodeBounds[offset] = nodeBounds[offset + 2] = nodeBounds[offset + 4] = Double.POSITIVE_INFINITY;
+    nodeBounds[offset + 1] = nodeBounds[offset + 3] = nodeBounds[offset + 5] = Double.NEGATIVE_INFINITY;
+    for (int i = start; i < end; ++i) {
+      include(nodeBounds, offset, quadBounds, 6 * order[i]);
+    }
+
+    if (end - start <= LEAF_SIZE) {
+      Arrays.sort(order, start, end);
+      nodeStart[node] = start;
+      nodeSize[node] = end - start;
+      nodeSkip[node] = node + 1;
+      return node + 1;
+    }
+
+    // Median split along the longest axis of the node bounds.
+    double dx = nodeBounds[offset + 1] - nodeBounds[offset];
+    double dy = nodeBounds[offset + 3] - nodeBounds[offset + 2];
+    double dz = nodeBounds[offset + 5] - nodeBounds[offset + 4];
+    int axis = (dx >= dy && dx >= dz) ? 0 : (dy >= dz ? 2 : 4);
+    Integer[] sorted = new Integer[end - start];
+    for (int i = start; i < end; ++i) {
+      sorted[i - start] = order[i];
+    }
+    Arrays.sort(sorted, (a, b) -> Double.compare(
+        quadBounds[6 * a + axis] + quadBounds[6 * a + axis + 1],
+        quadBounds[6 * b + axis] + quadBounds[6 * b + axis + 1]));
+    for (int i = start; i < end; ++i) {
+      order[i] = sorted[i - start];
+    }
+
+    int mid = (start + end) / 2;
+    nodeStart[node] = start;
+    nodeSize[node] = 0;
+    int next = buildNode(quadBounds, start, mid, node + 1,
+        nodeBounds, nodeSkip, nodeStart, nodeSize);
+    next = buildNode(quadBounds, mid, end, next,
+        nodeBounds, nodeSkip, nodeStart, nodeSize);
+    nodeSkip[node] = next;
+    return next;
+  }
+
+  /**
+   * Writes the bounds of the quad, padded by {@code Ray.EPSILON}, to the array.
+   */
+  private static void quadBounds(Quad quad, double[] out, int offset) {
+    double xmin = Double.POSITIVE_INFINITY, xmax = Double.NEGATIVE_INFINITY;
+    double ymin = Double.POSITIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+    double zmin = Double.POSITIVE_INFINITY, zmax = Double.NEGATIVE_INFINITY;
+    for (int corner = 0; corner < 4; ++corner) {
+      double x = quad.o.x, y = quad.o.y, z = quad.o.z;
+      if ((corner & 1) != 0) {
+        x += quad.xv.x;
+        y += quad.xv.y;
+        z += quad.xv.z;
+      }
+      if ((corner & 2) != 0) {
+        x += quad.yv.x;
+        y += quad.yv.y;
+        z += quad.yv.z;
+      }
+      xmin = Math.min(xmin, x);
+      xmax = Math.max(xmax, x);
+      ymin = Math.min(ymin, y);
+      ymax = Math.max(ymax, y);
+      zmin = Math.min(zmin, z);
+      zmax = Math.max(zmax, z);
+    }
+    out[offset] = xmin - Ray.EPSILON;
+    out[offset + 1] = xmax + Ray.EPSILON;
+    out[offset + 2] = ymin - Ray.EPSILON;
+    out[offset + 3] = ymax + Ray.EPSILON;
+    out[offset + 4] = zmin - Ray.EPSILON;
+    out[offset + 5] = zmax + Ray.EPSILON;
+  }
+
+  private static void include(double[] bounds, int offset, double[] other, int otherOffset) {
+    bounds[offset] = Math.min(bounds[offset], other[otherOffset]);
+    bounds[offset + 1] = Math.max(bounds[offset + 1], other[otherOffset + 1]);
+    bounds[offset + 2] = Math.min(bounds[offset + 2], other[otherOffset + 2]);
+    bounds[offset + 3] = Math.max(bounds[offset + 3], other[otherOffset + 3]);
+    bounds[offset + 4] = Math.min(bounds[offset + 4], other[otherOffset + 4]);
+    bounds[offset + 5] = Math.max(bounds[offset + 5], other[otherOffset + 5]);
+  }
+
+  /**
+   * Slab test between a ray, given by its block-local origin and inverse direction,
+   * and the box at the given offset.
+   *
+   * <p>A zero direction component gives an infinite inverse direction. The ray is then
+   * parallel to the slabs of that axis and is only tested against the slab bounds, since
+   * {@code 0 * Infinity} would give NaN for an origin on a slab plane.
+   */
+  private static boolean hitBox(double[] box, int offset, double ox, double oy, double oz,
+      double invDx, double invDy, double invDz, double tMax) {
+    double tNear = Double.NEGATIVE_INFINITY;
+    double tFar = Double.POSITIVE_INFINITY;
+    if (Double.isInfinite(invDx)) {
+      if (ox < box[offset] || ox > box[offset + 1]) {
+        return false;
+      }
+    } else {
+      double t1 = (box[offset] - ox) * invDx;
+      double t2 = (box[offset + 1] - ox) * invDx;
+      tNear = Math.min(t1, t2);
+      tFar = Math.max(t1, t2);
+    }
+    if (Double.isInfinite(invDy)) {
+      if (oy < box[offset + 2] || oy > box[offset + 3]) {
+        return false;
+      }
+    } else {
+      double t1 = (box[offset + 2] - oy) * invDy;
+      double t2 = (box[offset + 3] - oy) * invDy;
+      tNear = Math.max(tNear, Math.min(t1, t2));
+      tFar = Math.min(tFar, Math.max(t1, t2));
+    }
+    if (Double.isInfinite(invDz)) {
+      if (oz < box[offset + 4] || oz > box[offset + 5]) {
+        return false;
+      }
+    } else {
+      double t1 = (box[offset + 4] - oz) * invDz;
+      double t2 = (box[offset + 5] - oz) * invDz;
+      tNear = Math.max(tNear, Math.min(t1, t2));
+      tFar = Math.min(tFar, Math.max(t1, t2));
+    }
+    return tNear <= tFar && tFar > -Ray.EPSILON && tNear < tMax;
+  }
+
+  /**
+   * @return {@code true} if the quads are large enough to have a BVH
+   */
+  public boolean hasBvh() {
+    return nodeSkip.length > 0;
+  }
+
+  /**
+   * @return the number of BVH nodes
+   */
+  public int nodeCount() {
+    return nodeSkip.length;
+  }
+
+  /**
+   * Test if the ray can hit any of the quads in this table.
+   *
+   * @param ox ray origin x coordinate, relative to the block
+   * @param oy ray origin y coordinate, relative to the block
+   * @param oz ray origin z coordinate, relative to the block
+   * @return {@code false} if the ray misses the bounds of all quads
+   */
+  public boolean hitBounds(double ox, double oy, double oz,
+      double invDx, double invDy, double invDz) {
+    return hitBox(bounds, 0, ox, oy, oz, invDx, invDy, invDz, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Test if the ray hits the bounds of a BVH node closer than {@code tMax}.
+   */
+  public boolean hitNode(int node, double ox, double oy, double oz,
+      double invDx, double invDy, double invDz, double tMax) {
+    return hitBox(nodeBounds, 6 * node, ox, oy, oz, invDx, invDy, invDz, tMax);
+  }
+
+  private void set(int component, int i, double value) {
+    data[component * size + i] = value;
+  }
+
+  /**
+   * Get the flattened table for the given quads. The table is cached for as long
+   * as the quad array is reachable, so the quads must not be modified after
+   * this has been called.
+   */
+  public static QuadTable of(Quad[] quads) {
+    synchronized (cache) {
+      return cache.computeIfAbsent(quads, QuadTable::new);
+    }
+  }
+
+  /**
+   * Find the intersection between the ray and quad {@code i}.
+   *
+   * <p>This behaves like {@link Quad#intersect(Ray)} except that the ray origin
+   * relative to the current block is passed in by the caller, so that it only
+   * needs to be computed once per block model.
+   *
+   * @param ox ray origin x coordinate, relative to the block
+   * @param oy ray origin y coordinate, relative to the block
+   * @param oz ray origin z coordinate, relative to the block
+   * @param tMax only intersections closer than this are reported
+   * @return <code>true</code> if the ray intersects the quad closer than
+   * {@code tMax}. In that case {@code ray.u}, {@code ray.v} and
+   * {@code ray.tNext} are updated.
+   */
+  public boolean intersect(int i, double ox, double oy, double oz, Ray ray, double tMax) {
+    final double[] data = this.data;
+    final int size = this.size;
+    double dx = ray.d.x;
+    double dy = ray.d.y;
+    double dz = ray.d.z;
+    double nx = data[NX * size + i];
+    double ny = data[NY * size + i];
+    double nz = data[NZ * size + i];
+
+    // Test that the ray is heading toward the plane of this quad, or is not parallel
+    // to the plane for double-sided quads.
+    double denom = dx * nx + dy * ny + dz * nz;
+    if (doubleSided[i] ? QuickMath.abs(denom) > Ray.EPSILON : denom < -Ray.EPSILON) {
+
+      // Test for intersection with the plane at origin.
+      double t = -(ox * nx + oy * ny + oz * nz + data[D * size + i]) / denom;
+      if (t > -Ray.EPSILON && t < tMax) {
+
+        // Plane intersection confirmed.
+        // Translate to get hit point relative to the quad origin.
+        double ix = ox + dx * t - data[OX * size + i];
+        double iy = oy + dy * t - data[OY * size + i];
+        double iz = oz + dz * t - data[OZ * size + i];
+        double u = ix * data[XVX * size + i] + iy * data[XVY * size + i] + iz * data[XVZ * size + i];
+        u *= data[XVL * size + i];
+        if (u >= 0 && u <= 1) {
+          double v = ix * data[YVX * size + i] + iy * data[YVY * size + i] + iz * data[YVZ * size + i];
+          v *= data[YVL * size + i];
+          if (v >= 0 && v <= 1) {
+            ray.u = data[U0 * size + i] + u * data[DU * size + i];
+            ray.v = data[V0 * size + i] + v * data[DV * size + i];
+            ray.tNext = t;
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Update the ray normal after a hit on quad {@code i}.
+   */
+  public void setNormal(int i, Ray ray) {
+    if (doubleSided[i]) {
+      ray.orientNormal(normals[i]);
+    } else {
+      ray.setNormal(normals[i]);
+    }
+  }
+}
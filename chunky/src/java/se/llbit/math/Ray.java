@@ -126,6 +126,12 @@ public class Ray {
    */
   public boolean specular;
 
+  /**
+   * Result of a packet traversal for this ray, used by the first intersection test and
+   * then cleared. {@code null} if the ray is not traced in a packet.
+   */
+  public RayPacket.Hint packetHint;
+
   /**
    * Builds an uninitialized ray.
    */
@@ -152,6 +158,7 @@ public class Ray {
     color.set(0, 0, 0, 0);
     emittance.set(0, 0, 0);
     specular = true;
+    packetHint = null;
   }
 
   /**
@@ -0,0 +1,301 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+/**
+ * A small group of coherent rays, for example the view rays of a square block of pixels,
+ * that are traversed together through the octree and the BVHs.
+ *
+ * <p>The packet traversal does not compute intersections. It visits each node once for
+ * the whole packet and finds, for each ray, how much of the scene can be skipped: the
+ * distance to the first octree leaf that is not air, and whether the ray can hit anything
+ * in a BVH at all. The results are stored in a {@link Hint} per ray, which the single ray
+ * intersection code uses for the first intersection test of the ray. All later tests,
+ * including every bounce, are done one ray at a time.
+ *
+ * <p>Nodes are first tested against the bounds of the whole packet with interval
+ * arithmetic, which culls subtrees that no ray of the packet can hit with a single test.
+ * The rays are only tested one by one for nodes that pass the packet test.
+ *
+ * <p>A packet is only coherent if the direction of all rays has the same sign, and no
+ * zero component, on each axis. The rays of incoherent packets get no hints.
+ */
+public class RayPacket {
+  public static final int MAX_SIZE = 16;
+
+  /**
+   * Result of the packet traversal for one ray. The hint is only valid for the ray
+   * origin and direction at the time of the traversal.
+   */
+  public static class Hint {
+    /**
+     * Distance from the ray origin to just before the first octree leaf that is not
+     * air, or to just before the ray leaves the octree. The world octree intersection
+     * starts marching from here instead of from the ray origin. Zero if unknown.
+     */
+    public double octreeSkip;
+
+    /** {@code false} if the ray does not hit any leaf node of the entity BVH. */
+    public boolean mayHitEntities;
+
+    /** {@code false} if the ray does not hit any leaf node of the actor BVH. */
+    public boolean mayHitActors;
+
+    void reset() {
+      octreeSkip = 0;
+      mayHitEntities = true;
+      mayHitActors = true;
+    }
+  }
+
+  private final Ray[] rays = new Ray[MAX_SIZE];
+  private final Hint[] hints = new Hint[MAX_SIZE];
+  private int size = 0;
+  private boolean coherent = false;
+
+  private final double[] invX = new double[MAX_SIZE];
+  private final double[] invY = new double[MAX_SIZE];
+  private final double[] invZ = new double[MAX_SIZE];
+
+  // Bounds of the ray origins and inverse directions of the packet.
+  private double oxMin, oxMax, oyMin, oyMax, ozMin, ozMax;
+  private double ixMin, ixMax, iyMin, iyMax, izMin, izMax;
+
+  /** Bit mask of axes with negative direction: 4 for x, 2 for y and 1 for z. */
+  private int signMask;
+
+  /** Distance to the near side of the last box tested by {@link #hits}, per ray. */
+  private final double[] near = new double[MAX_SIZE];
+
+  /** Distance to the far side of the last box tested by {@link #hits}, per ray. */
+  private final double[] far = new double[MAX_SIZE];
+
+  public RayPacket() {
+    for (int i = 0; i < MAX_SIZE; ++i) {
+      rays[i] = new Ray();
+      hints[i] = new Hint();
+    }
+  }
+
+  /**
+   * Remove all rays from the packet.
+   */
+  public void clear() {
+    size = 0;
+    coherent = false;
+  }
+
+  /**
+   * Add a ray to the packet.
+   *
+   * @return the added ray, which should be initialized by the caller
+   */
+  public Ray add() {
+    if (size >= MAX_SIZE) {
+      throw new IllegalStateException("Ray packet is full");
+    }
+    return rays[size++];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public Ray get(int i) {
+    return rays[i];
+  }
+
+  public Hint hint(int i) {
+    return hints[i];
+  }
+
+  /**
+   * @return {@code true} if the packet can be traversed, see {@link #prepare()}
+   */
+  public boolean isCoherent() {
+    return coherent;
+  }
+
+  /**
+   * @return bit mask with one bit set for each ray in the packet
+   */
+  public int activeMask() {
+    return (1 << size) - 1;
+  }
+
+  /**
+   * The order in which the children of an octree node should be visited for the rays to
+   * visit them front to back: child {@code k ^ childOrder()} is visited as number {@code k}.
+   */
+  public int childOrder() {
+    return signMask;
+  }
+
+  /**
+   * Reset the hints and compute the packet bounds. This must be called after the rays
+   * have been initialized and before the packet is traversed.
+   *
+   * @return {@code true} if the packet is coherent and can be traversed
+   */
+  public boolean prepare() {
+    for (int i = 0; i < size; ++i) {
+      hints[i].reset();
+    }
+    coherent = false;
+    if (size == 0) {
+      return false;
+    }
+    Ray first = rays[0];
+    signMask = (first.d.x < 0 ? 4 : 0) | (first.d.y < 0 ? 2 : 0) | (first.d.z < 0 ? 1 : 0);
+    oxMin = oyMin = ozMin = ixMin = iyMin = izMin = Double.POSITIVE_INFINITY;
+    oxMax = oyMax = ozMax = ixMax = iyMax = izMax = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < size; ++i) {
+      Ray ray = rays[i];
+      if (ray.d.x == 0 || ray.d.y == 0 || ray.d.z == 0) {
+        return false;
+      }
+      int sign = (ray.d.x < 0 ? 4 : 0) | (ray.d.y < 0 ? 2 : 0) | (ray.d.z < 0 ? 1 : 0);
+      if (sign != signMask) {
+        return false;
+      }
+      invX[i] = 1 / ray.d.x;
+      invY[i] = 1 / ray.d.y;
+      invZ[i] = 1 / ray.d.z;
+      oxMin = Math.min(oxMin, ray.o.x);
+      oxMax = Math.max(oxMax, ray.o.x);
+      oyMin = Math.min(oyMin, ray.o.y);
+      oyMax = Math.max(oyMax, ray.o.y);
+      ozMin = Math.min(ozMin, ray.o.z);
+      ozMax = Math.max(ozMax, ray.o.z);
+      ixMin = Math.min(ixMin, invX[i]);
+      ixMax = Math.max(ixMax, invX[i]);
+      iyMin = Math.min(iyMin, invY[i]);
+      iyMax = Math.max(iyMax, invY[i]);
+      izMin = Math.min(izMin, invZ[i]);
+      izMax = Math.max(izMax, invZ[i]);
+    }
+    coherent = true;
+    return true;
+  }
+
+  /**
+   * Conservative test of the box against all rays of the packet at once.
+   *
+   * @return {@code true} if no ray of the packet can hit the box
+   */
+  public boolean misses(double xmin, double xmax, double ymin, double ymax,
+      double zmin, double zmax) {
+    double nearLow;
+    double farHigh;
+    if ((signMask & 4) == 0) {
+      nearLow = lowerBound(xmin - oxMax, xmin - oxMin, ixMin, ixMax);
+      farHigh = upperBound(xmax - oxMax, xmax - oxMin, ixMin, ixMax);
+    } else {
+      nearLow = lowerBound(xmax - oxMax, xmax - oxMin, ixMin, ixMax);
+      farHigh = upperBound(xmin - oxMax, xmin - oxMin, ixMin, ixMax);
+    }
+    if ((signMask & 2) == 0) {
+      nearLow = Math.max(nearLow, lowerBound(ymin - oyMax, ymin - oyMin, iyMin, iyMax));
+      farHigh = Math.min(farHigh, upperBound(ymax - oyMax, ymax - oyMin, iyMin, iyMax));
+    } else {
+      nearLow = Math.max(nearLow, lowerBound(ymax - oyMax, ymax - oyMin, iyMin, iyMax));
+      farHigh = Math.min(farHigh, upperBound(ymin - oyMax, ymin - oyMin, iyMin, iyMax));
+    }
+    if ((signMask & 1) == 0) {
+      nearLow = Math.max(nearLow, lowerBound(zmin - ozMax, zmin - ozMin, izMin, izMax));
+      farHigh = Math.min(farHigh, upperBound(zmax - ozMax, zmax - ozMin, izMin, izMax));
+    } else {
+      nearLow = Math.max(nearLow, lowerBound(zmax - ozMax, zmax - ozMin, izMin, izMax));
+      farHigh = Math.min(farHigh, upperBound(zmin - ozMax, zmin - ozMin, izMin, izMax));
+    }
+    return farHigh < -Ray.OFFSET || nearLow > farHigh + Ray.OFFSET;
+  }
+
+  /**
+   * Test the box against the rays in the mask one by one. The distances to the near and
+   * far sides of the box are stored for each ray that hits the box, and can be read with
+   * {@link #near} and {@link #far}.
+   *
+   * @param mask the rays to test
+   * @return bit mask of the tested rays that hit the box in front of the ray origin
+   */
+  public int hits(int mask, double xmin, double xmax, double ymin, double ymax,
+      double zmin, double zmax) {
+    int result = 0;
+    boolean negX = (signMask & 4) != 0;
+    boolean negY = (signMask & 2) != 0;
+    boolean negZ = (signMask & 1) != 0;
+    for (int i = 0; i < size; ++i) {
+      if ((mask & (1 << i)) == 0) {
+        continue;
+      }
+      Vector3 o = rays[i].o;
+      double tx0 = ((negX ? xmax : xmin) - o.x) * invX[i];
+      double tx1 = ((negX ? xmin : xmax) - o.x) * invX[i];
+      double ty0 = ((negY ? ymax : ymin) - o.y) * invY[i];
+      double ty1 = ((negY ? ymin : ymax) - o.y) * invY[i];
+      double tz0 = ((negZ ? zmax : zmin) - o.z) * invZ[i];
+      double tz1 = ((negZ ? zmin : zmax) - o.z) * invZ[i];
+      double tNear = Math.max(tx0, Math.max(ty0, tz0));
+      double tFar = Math.min(tx1, Math.min(ty1, tz1));
+      if (tNear <= tFar + Ray.OFFSET && tFar >= 0) {
+        near[i] = tNear;
+        far[i] = tFar;
+        result |= 1 << i;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the distance to the near side of the box last hit by ray {@code i}
+   */
+  public double near(int i) {
+    return near[i];
+  }
+
+  /**
+   * @return the distance to the far side of the box last hit by ray {@code i}
+   */
+  public double far(int i) {
+    return far[i];
+  }
+
+  /**
+   * Lower bound of {@code a * b} for {@code a} in {@code [a0, a1]} and {@code b} in
+   * {@code [b0, b1]}, where {@code b0} and {@code b1} have the same sign.
+   */
+  private static double lowerBound(double a0, double a1, double b0, double b1) {
+    if (b0 > 0) {
+      return a0 >= 0 ? a0 * b0 : a0 * b1;
+    } else {
+      return a1 >= 0 ? a1 * b0 : a1 * b1;
+    }
+  }
+
+  /**
+   * Upper bound of {@code a * b} for {@code a} in {@code [a0, a1]} and {@code b} in
+   * {@code [b0, b1]}, where {@code b0} and {@code b1} have the same sign.
+   */
+  private static double upperBound(double a0, double a1, double b0, double b1) {
+    if (b0 > 0) {
+      return a1 >= 0 ? a1 * b1 : a1 * b0;
+    } else {
+      return a0 >= 0 ? a0 * b1 : a0 * b0;
+    }
+  }
+}
@@ -21,7 +21,9 @@ import se.llbit.chunky.entity.Entity;
 import se.llbit.chunky.plugin.PluginApi;
 import se.llbit.log.Log;
 import se.llbit.math.Intersectable;
+import se.llbit.math.Occlusion;
 import se.llbit.math.Ray;
+import se.llbit.math.RayPacket;
 import se.llbit.math.Vector3;
 import se.llbit.util.TaskTracker;
 
@@ -43,6 +45,33 @@ public interface BVH extends Intersectable {
   @Override
   boolean closestIntersection(Ray ray);
 
+  /**
+   * Test if any object in the BVH is in the way of the ray, up to the distance {@code maxT}
+   * from the ray origin. The ray is not modified.
+   *
+   * <p>The default implementation finds the closest intersection, so an opaque object
+   * behind a translucent one is not detected.
+   */
+  default Occlusion occluded(Ray ray, double maxT) {
+    Ray test = new Ray(ray);
+    test.t = maxT;
+    if (!closestIntersection(test)) {
+      return Occlusion.CLEAR;
+    }
+    return test.color.w >= 1 ? Occlusion.OPAQUE : Occlusion.TRANSLUCENT;
+  }
+
+  /**
+   * Find the rays of a packet that may hit an object in the BVH. Rays that are not in
+   * the result can skip the intersection test with this BVH, as long as their origin and
+   * direction are unchanged. The default implementation returns all rays of the packet.
+   *
+   * @return bit mask of the rays that may hit an object in the BVH
+   */
+  default int traversePacket(RayPacket packet) {
+    return packet.activeMask();
+  }
+
   final class Factory {
 
     public interface BVHBuilder {
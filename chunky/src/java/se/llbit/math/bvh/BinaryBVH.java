@@ -21,7 +21,9 @@ import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntStack;
 import org.apache.commons.math3.util.FastMath;
 import se.llbit.math.AABB;
+import se.llbit.math.Occlusion;
 import se.llbit.math.Ray;
+import se.llbit.math.RayPacket;
 import se.llbit.math.primitive.Primitive;
 
 import java.util.ArrayList;
@@ -266,6 +268,122 @@ public abstract class BinaryBVH implements BVH {
         return hit;
     }
 
+    /**
+     * Traverse the BVH with a packet of rays to find the rays that reach a leaf node. Each
+     * node is tested against the whole packet before the rays are tested one by one, so
+     * subtrees that no ray hits are culled with one test. The primitives are not tested.
+     */
+    @Override
+    public int traversePacket(RayPacket packet) {
+        int all = packet.activeMask();
+        if (!packet.isCoherent()) {
+            return all;
+        }
+        int found = 0;
+        IntArrayList nodesToVisit = new IntArrayList(depth + 1);
+        IntArrayList masksToVisit = new IntArrayList(depth + 1);
+        nodesToVisit.push(0);
+        masksToVisit.push(all);
+
+        while (!nodesToVisit.isEmpty()) {
+            int currentNode = nodesToVisit.popInt();
+            // Rays that already reached a leaf are done.
+            int mask = masksToVisit.popInt() & ~found;
+            if (mask == 0) continue;
+
+            // The root bounds are not tested, same as in closestIntersection.
+            if (currentNode != 0) {
+                float xmin = Float.intBitsToFloat(packed[currentNode+1]);
+                float xmax = Float.intBitsToFloat(packed[currentNode+2]);
+                float ymin = Float.intBitsToFloat(packed[currentNode+3]);
+                float ymax = Float.intBitsToFloat(packed[currentNode+4]);
+                float zmin = Float.intBitsToFloat(packed[currentNode+5]);
+                float zmax = Float.intBitsToFloat(packed[currentNode+6]);
+                if (packet.misses(xmin, xmax, ymin, ymax, zmin, zmax)) continue;
+                mask = packet.hits(mask, xmin, xmax, ymin, ymax, zmin, zmax);
+                if (mask == 0) continue;
+            }
+
+            if (packed[currentNode] <= 0) {
+                // Is leaf
+                found |= mask;
+                if (found == all) break;
+            } else {
+                nodesToVisit.push(packed[currentNode]);
+                masksToVisit.push(mask);
+                nodesToVisit.push(currentNode + 7);
+                masksToVisit.push(mask);
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Test if any primitive is in the way of the ray, up to the distance {@code maxT} from the
+     * ray origin. Nodes are visited in any order and the traversal stops at the first opaque
+     * hit. The primitives still look up their texture to test for transparent pixels.
+     */
+    @Override
+    public Occlusion occluded(Ray ray, double maxT) {
+        Occlusion result = Occlusion.CLEAR;
+        Ray test = new Ray(ray);
+        test.t = maxT;
+        int currentNode = 0;
+        IntStack nodesToVisit = new IntArrayList(depth/2);
+
+        double rx = 1 / ray.d.x;
+        double ry = 1 / ray.d.y;
+        double rz = 1 / ray.d.z;
+
+        while (true) {
+            if (packed[currentNode] <= 0) {
+                // Is leaf
+                int primIndex = -packed[currentNode];
+                for (Primitive primitive : packedPrimitives[primIndex]) {
+                    if (primitive.intersect(test)) {
+                        if (test.color.w >= 1) {
+                            return Occlusion.OPAQUE;
+                        }
+                        // Keep looking for opaque primitives behind the translucent one.
+                        result = Occlusion.TRANSLUCENT;
+                        test.t = maxT;
+                    }
+                }
+
+                if (nodesToVisit.isEmpty()) break;
+                currentNode = nodesToVisit.popInt();
+            } else {
+                int offset = currentNode+7;
+                double t1 = quickAabbIntersect(test, Float.intBitsToFloat(packed[offset+1]), Float.intBitsToFloat(packed[offset+2]),
+                        Float.intBitsToFloat(packed[offset+3]), Float.intBitsToFloat(packed[offset+4]),
+                        Float.intBitsToFloat(packed[offset+5]), Float.intBitsToFloat(packed[offset+6]),
+                        rx, ry, rz);
+                offset = packed[currentNode];
+                double t2 = quickAabbIntersect(test, Float.intBitsToFloat(packed[offset+1]), Float.intBitsToFloat(packed[offset+2]),
+                        Float.intBitsToFloat(packed[offset+3]), Float.intBitsToFloat(packed[offset+4]),
+                        Float.intBitsToFloat(packed[offset+5]), Float.intBitsToFloat(packed[offset+6]),
+                        rx, ry, rz);
+
+                boolean visit1 = !(t1 > maxT | t1 == -1);
+                boolean visit2 = !(t2 > maxT | t2 == -1);
+                if (visit1) {
+                    if (visit2) {
+                        nodesToVisit.push(packed[currentNode]);
+                    }
+                    currentNode += 7;
+                } else if (visit2) {
+                    currentNode = packed[currentNode];
+                } else {
+                    if (nodesToVisit.isEmpty()) break;
+                    currentNode = nodesToVisit.popInt();
+                }
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Perform a fast AABB intersection with cached reciprocal direction. This is a branchless approach based on:
      * https://gamedev.stackexchange.com/a/146362
@@ -49,7 +49,9 @@ public class SahMaBVH extends BinaryBVH {
                 primitives = null; // Allow the collection to be garbage collected during construction when only the array is used
 
                 double primitiveScaler = 500.0 / allPrimitives.length;
-                return new SahMaBVH(allPrimitives, i -> task.updateInterval((int) (i * primitiveScaler) + 500, 1));
+                SahMaBVH bvh = new SahMaBVH(allPrimitives, i -> task.updateInterval((int) (i * primitiveScaler) + 500, 1));
+                Log.info("Built SAH_MA BVH with depth " + bvh.depth);
+                return bvh;
             }
 
             @Override
@@ -67,7 +69,6 @@ public class SahMaBVH extends BinaryBVH {
     public SahMaBVH(Primitive[] primitives, IntConsumer task) {
         Node root = constructSAH_MA(primitives, task);
         pack(root);
-        Log.info("Built SAH_MA BVH with depth " + this.depth);
     }
 
     private enum Action {
@@ -0,0 +1,142 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math.primitive;
+
+import se.llbit.math.AABB;
+import se.llbit.math.Ray;
+import se.llbit.math.Vector3;
+import se.llbit.math.bvh.BinaryBVH;
+import se.llbit.math.bvh.SahMaBVH;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A translated instance of shared geometry.
+ *
+ * <p>Entities that look the same, for example signs with the same text and
+ * rotation, share one {@link Model} with its own local-space BVH. The scene BVH then
+ * only needs to contain one primitive per entity instead of all of its triangles.
+ */
+public class InstancedPrimitive implements Primitive {
+
+  /**
+   * Models with at most this many primitives are intersected without a BVH.
+   */
+  private static final int BVH_THRESHOLD = 2 * BinaryBVH.SPLIT_LIMIT;
+
+  /**
+   * Shared models, by model key. A model is kept as long as some instance refers to
+   * it, and the model keeps its key alive.
+   */
+  private static final Map<Object, WeakReference<Model>> models = new WeakHashMap<>();
+
+  /**
+   * Geometry in local space, shared by all instances of the model.
+   */
+  public static final class Model {
+    private final Object key;
+    public final Primitive[] primitives;
+    public final BinaryBVH bvh;
+    public final AABB bounds;
+
+    private Model(Object key, Collection<Primitive> primitives) {
+      this.key = key;
+      this.primitives = primitives.toArray(new Primitive[0]);
+      this.bounds = BinaryBVH.bb(this.primitives);
+      this.bvh = this.primitives.length > BVH_THRESHOLD
+          ? new SahMaBVH(this.primitives, i -> {})
+          : null;
+    }
+
+    boolean intersect(Ray ray) {
+      if (bvh != null) {
+        return bvh.closestIntersection(ray);
+      }
+      boolean hit = false;
+      for (Primitive primitive : primitives) {
+        hit = primitive.intersect(ray) | hit;
+      }
+      return hit;
+    }
+  }
+
+  public final Model model;
+  public final double x;
+  public final double y;
+  public final double z;
+  private final AABB bounds;
+
+  private InstancedPrimitive(Model model, double x, double y, double z) {
+    this.model = model;
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.bounds = model.bounds.getTranslated(x, y, z);
+  }
+
+  /**
+   * Create an instance of the model with the given key, translated to the given
+   * position. The geometry supplier is only called if there is no live model for the
+   * key yet. The key must implement {@code equals} and {@code hashCode}, and must
+   * identify everything that affects the geometry and materials of the model.
+   *
+   * @param geometry supplies the model geometry in local space
+   */
+  public static InstancedPrimitive instance(Object key, Vector3 translation,
+      Supplier<Collection<Primitive>> geometry) {
+    Model model;
+    synchronized (models) {
+      WeakReference<Model> ref = models.get(key);
+      model = ref != null ? ref.get() : null;
+      if (model == null) {
+        model = new Model(key, geometry.get());
+        // Remove the stale entry so that the map key is the one held by the new model.
+        models.remove(key);
+        models.put(model.key, new WeakReference<>(model));
+      }
+    }
+    return new InstancedPrimitive(model, translation.x, translation.y, translation.z);
+  }
+
+  /**
+   * Forget all shared models, so that new instances get fresh geometry and materials.
+   * Existing instances keep their models.
+   */
+  public static void reset() {
+    synchronized (models) {
+      models.clear();
+    }
+  }
+
+  @Override public boolean intersect(Ray ray) {
+    double ox = ray.o.x;
+    double oy = ray.o.y;
+    double oz = ray.o.z;
+    ray.o.set(ox - x, oy - y, oz - z);
+    boolean hit = model.intersect(ray);
+    ray.o.set(ox, oy, oz);
+    return hit;
+  }
+
+  @Override public AABB bounds() {
+    return bounds;
+  }
+}
@@ -0,0 +1,267 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream that compresses its input with deflate on several threads.
+ *
+ * <p>Like pigz, the input is split into blocks that are compressed independently on
+ * a thread pool. Each block uses the end of the previous block as preset dictionary,
+ * so the compression ratio is close to that of a single deflater. All blocks except
+ * the last end with a sync flush, so the compressed blocks can be concatenated into
+ * one valid deflate stream. The gzip or zlib header and trailer are written by
+ * this stream, with the checksum computed on the writing thread.
+ */
+public class ParallelDeflateOutputStream extends OutputStream {
+
+  /** Output stream format. */
+  public enum Format {
+    /** Gzip file format (RFC 1952), as written by {@link java.util.zip.GZIPOutputStream}. */
+    GZIP,
+    /** Zlib format (RFC 1950), as used in PNG image data. */
+    ZLIB,
+  }
+
+  /** Size of uncompressed blocks. */
+  private static final int BLOCK_SIZE = 1 << 17;
+
+  /** Size of the deflate window, used as dictionary for the next block. */
+  private static final int DICTIONARY_SIZE = 1 << 15;
+
+  private final OutputStream out;
+  private final Format format;
+  private final int level;
+  private final ForkJoinPool pool;
+  private final int maxPending;
+  private final Checksum checksum;
+  private final ArrayDeque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+
+  private byte[] block = new byte[BLOCK_SIZE];
+  private int blockSize = 0;
+  private byte[] previous = null;
+  private int previousSize = 0;
+  private long totalIn = 0;
+  private boolean closed = false;
+
+  /**
+   * Create a new compressing stream with the default compression level.
+   * The header is written immediately.
+   *
+   * @param pool the thread pool used for compression
+   */
+  public ParallelDeflateOutputStream(OutputStream out, Format format, ForkJoinPool pool)
+      throws IOException {
+    this(out, format, Deflater.DEFAULT_COMPRESSION, pool);
+  }
+
+  /**
+   * Create a new compressing stream. The header is written immediately.
+   *
+   * @param level the deflate compression level
+   * @param pool the thread pool used for compression
+   */
+  public ParallelDeflateOutputStream(OutputStream out, Format format, int level,
+      ForkJoinPool pool) throws IOException {
+    this.out = out;
+    this.format = format;
+    this.level = level;
+    this.pool = pool;
+    // Keep enough blocks in flight to use all threads while the oldest one is written.
+    this.maxPending = 2 * pool.getParallelism();
+    switch (format) {
+      case GZIP:
+        checksum = new CRC32();
+        out.write(new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 });
+        break;
+      case ZLIB:
+      default:
+        checksum = new Adler32();
+        out.write(new byte[] { 0x78, (byte) 0x9C });
+        break;
+    }
+  }
+
+  @Override public void write(int b) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (blockSize == BLOCK_SIZE) {
+      submitBlock(false);
+    }
+    block[blockSize++] = (byte) b;
+  }
+
+  @Override public void write(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    while (len > 0) {
+      if (blockSize == BLOCK_SIZE) {
+        submitBlock(false);
+      }
+      int count = Math.min(len, BLOCK_SIZE - blockSize);
+      System.arraycopy(b, off, block, blockSize, count);
+      blockSize += count;
+      off += count;
+      len -= count;
+    }
+  }
+
+  /**
+   * Compresses and writes all data written so far. This ends the current block early,
+   * so flushing often reduces the compression ratio.
+   */
+  @Override public void flush() throws IOException {
+    if (blockSize > 0) {
+      submitBlock(false);
+    }
+    while (!pending.isEmpty()) {
+      writeOldest();
+    }
+    out.flush();
+  }
+
+  /**
+   * Writes the remaining data and the trailer, then closes the underlying stream.
+   */
+  @Override public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      finish();
+    } finally {
+      closed = true;
+      out.close();
+    }
+  }
+
+  /**
+   * Writes the remaining data and the trailer without closing the underlying stream.
+   */
+  public void finish() throws IOException {
+    if (closed) {
+      return;
+    }
+    submitBlock(true);
+    while (!pending.isEmpty()) {
+      writeOldest();
+    }
+    long sum = checksum.getValue();
+    switch (format) {
+      case GZIP:
+        writeIntLE(sum);
+        writeIntLE(totalIn);
+        break;
+      case ZLIB:
+        out.write((int) (sum >>> 24));
+        out.write((int) (sum >>> 16));
+        out.write((int) (sum >>> 8));
+        out.write((int) sum);
+        break;
+    }
+    closed = true;
+  }
+
+  private void writeIntLE(long value) throws IOException {
+    out.write((int) value);
+    out.write((int) (value >>> 8));
+    out.write((int) (value >>> 16));
+    out.write((int) (value >>> 24));
+  }
+
+  private void submitBlock(boolean last) throws IOException {
+    byte[] input = block;
+    int inputSize = blockSize;
+    byte[] dictionary = previous;
+    int dictionarySize = previousSize;
+    checksum.update(input, 0, inputSize);
+    totalIn += inputSize;
+
+    if (pending.size() >= maxPending) {
+      writeOldest();
+    }
+    pending.add(pool.submit(() -> deflate(input, inputSize, dictionary, dictionarySize, last)));
+
+    // The submitted block is not modified any more: it is kept as the dictionary of the
+    // next block.
+    previous = input;
+    previousSize = inputSize;
+    block = new byte[BLOCK_SIZE];
+    blockSize = 0;
+  }
+
+  private void writeOldest() throws IOException {
+    byte[] compressed;
+    try {
+      compressed = pending.removeFirst().join();
+    } catch (RuntimeException e) {
+      throw new IOException("Compression failed", e);
+    }
+    out.write(compressed);
+  }
+
+  private byte[] deflate(byte[] input, int inputSize, byte[] dictionary, int dictionarySize,
+      boolean last) {
+    Deflater deflater = new Deflater(level, true);
+    try {
+      if (dictionary != null) {
+        int size = Math.min(dictionarySize, DICTIONARY_SIZE);
+        deflater.setDictionary(dictionary, dictionarySize - size, size);
+      }
+      deflater.setInput(input, 0, inputSize);
+      if (last) {
+        deflater.finish();
+      }
+      byte[] output = new byte[inputSize / 2 + 64];
+      int outputSize = 0;
+      while (true) {
+        if (outputSize == output.length) {
+          output = Arrays.copyOf(output, output.length * 2);
+        }
+        int space = output.length - outputSize;
+        if (last) {
+          outputSize += deflater.deflate(output, outputSize, space);
+          if (deflater.finished()) {
+            break;
+          }
+        } else {
+          int count = deflater.deflate(output, outputSize, space, Deflater.SYNC_FLUSH);
+          outputSize += count;
+          if (count < space) {
+            // The flush is complete when the deflater did not fill the output buffer.
+            break;
+          }
+        }
+      }
+      return Arrays.copyOf(output, outputSize);
+    } finally {
+      deflater.end();
+    }
+  }
+}
@@ -0,0 +1,34 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.block;
+
+/**
+ * Registers the block providers for tests that create blocks without starting Chunky.
+ */
+public final class TestBlockProviders {
+  private TestBlockProviders() {}
+
+  /**
+   * Register the Minecraft block provider, unless it is already registered.
+   * The block providers are normally registered when Chunky starts.
+   */
+  public static void register() {
+    if (BlockSpec.blockProviders.stream().noneMatch(p -> p instanceof MinecraftBlockProvider)) {
+      BlockSpec.blockProviders.add(new MinecraftBlockProvider());
+    }
+  }
+}
@@ -1,12 +1,21 @@
 package se.llbit.chunky.chunk;
 
+import org.junit.BeforeClass;
 import org.junit.Test;
+import se.llbit.chunky.block.TestBlockProviders;
 import se.llbit.nbt.CompoundTag;
 import se.llbit.nbt.StringTag;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class BlockPaletteTest {
+  @BeforeClass public static void registerBlockProviders() {
+    TestBlockProviders.register();
+  }
+
   // Test that the block palette reuses existing blocks with the same tag data.
   @Test public void testBlockReuse() {
     CompoundTag t1 = new CompoundTag();
@@ -33,4 +42,40 @@ public class BlockPaletteTest {
     BlockPalette palette = new BlockPalette();
     assertEquals(palette.waterId, palette.put(water));
   }
+
+  // Test that the frozen palette flags match the blocks and are refreshed when blocks are added.
+  @Test public void testFreeze() {
+    BlockPalette palette = new BlockPalette();
+    FrozenBlockPalette frozen = palette.freeze();
+    assertSame(frozen, palette.freeze());
+    assertTrue((frozen.flags(palette.airId) & FrozenBlockPalette.AIR) != 0);
+    assertTrue((frozen.flags(palette.stoneId) & FrozenBlockPalette.OPAQUE) != 0);
+    assertTrue((frozen.flags(palette.waterId) & FrozenBlockPalette.WATER) != 0);
+    assertTrue((frozen.flags(BlockPalette.ANY_ID) & FrozenBlockPalette.OPAQUE) != 0);
+    assertSame(palette.stone, frozen.get(BlockPalette.ANY_ID));
+
+    CompoundTag lava = new CompoundTag();
+    lava.add("Name", new StringTag("minecraft:lava"));
+    int lavaId = palette.put(lava);
+    frozen = palette.freeze();
+    assertEquals(palette.get(lavaId), frozen.get(lavaId));
+    assertTrue((frozen.flags(lavaId) & FrozenBlockPalette.EMISSIVE) != 0);
+  }
+
+  // Test that the frozen palette is refreshed when material properties change.
+  @Test public void testFreezeAfterMaterialChange() {
+    BlockPalette palette = new BlockPalette();
+    FrozenBlockPalette frozen = palette.freeze();
+    assertTrue((frozen.flags(palette.stoneId) & FrozenBlockPalette.EMISSIVE) == 0);
+
+    palette.updateProperties("minecraft:stone", block -> block.emittance = 1);
+    frozen = palette.freeze();
+    assertTrue((frozen.flags(palette.stoneId) & FrozenBlockPalette.EMISSIVE) != 0);
+
+    // Changed without going through the palette, like a material collection.
+    palette.stone.emittance = 0;
+    palette.materialsChanged();
+    assertNotSame(frozen, palette.freeze());
+    assertTrue((palette.freeze().flags(palette.stoneId) & FrozenBlockPalette.EMISSIVE) == 0);
+  }
 }
@@ -0,0 +1,74 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AovBuffersTest {
+  // Test that merged samples are averaged with the samples already in the buffers.
+  @Test public void testMerge() {
+    AovBuffers aovs = new AovBuffers(2, 1);
+    AovBuffers.Sample sample = new AovBuffers.Sample();
+    sample.albedo.set(1, 0.5, 0);
+    sample.normal.set(0, 1, 0);
+    sample.depth = 4;
+    sample.addRay();
+    sample.clearRay();
+    sample.albedo.set(0, 0.5, 1);
+    sample.normal.set(1, 0, 0);
+    sample.depth = 8;
+    sample.addRay();
+    aovs.merge(1, sample, 2, 0);
+
+    assertEquals(0.5, aovs.getAlbedo()[3], 1e-6);
+    assertEquals(0.5, aovs.getAlbedo()[4], 1e-6);
+    assertEquals(0.5, aovs.getAlbedo()[5], 1e-6);
+    assertEquals(0.5, aovs.getNormal()[3], 1e-6);
+    assertEquals(0.5, aovs.getNormal()[4], 1e-6);
+    assertEquals(0, aovs.getNormal()[5], 1e-6);
+    assertEquals(6, aovs.getDepth()[1], 1e-6);
+    // The other pixel is not changed.
+    assertEquals(0, aovs.getDepth()[0], 0);
+
+    // The sums were cleared by the merge, so this merges one sample with depth 12
+    // into the two previous samples.
+    sample.clearRay();
+    sample.depth = 12;
+    sample.addRay();
+    aovs.merge(1, sample, 1, 2);
+    assertEquals(8, aovs.getDepth()[1], 1e-6);
+    assertEquals(1 / 3.0, aovs.getAlbedo()[3], 1e-6);
+  }
+
+  // Test that a ray that escaped to the sky adds a zero normal and depth.
+  @Test public void testClearRay() {
+    AovBuffers aovs = new AovBuffers(1, 1);
+    AovBuffers.Sample sample = new AovBuffers.Sample();
+    sample.albedo.set(1, 1, 1);
+    sample.normal.set(0, 0, 1);
+    sample.depth = 10;
+    sample.clearRay();
+    sample.albedo.set(0.2, 0.4, 0.6);
+    sample.addRay();
+    aovs.merge(0, sample, 1, 0);
+    assertEquals(0.4, aovs.getAlbedo()[1], 1e-6);
+    assertEquals(0, aovs.getNormal()[2], 0);
+    assertEquals(0, aovs.getDepth()[0], 0);
+  }
+}
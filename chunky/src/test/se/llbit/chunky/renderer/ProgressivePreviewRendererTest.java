@@ -0,0 +1,71 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProgressivePreviewRendererTest {
+  /**
+   * Visit the block corners of every step and pass like the renderer does, and check that
+   * each pixel is traced exactly once.
+   */
+  private static void checkTracedOnce(int width, int height, int blockSize, int passes) {
+    int[] traced = new int[width * height];
+    for (int size = blockSize; size >= 1; size /= 2) {
+      boolean first = size == blockSize;
+      int stepPasses = Math.min(passes, (height + size - 1) / size);
+      long count = 0;
+      for (int pass = 0; pass < stepPasses; ++pass) {
+        for (int y = 0; y < height; y += size) {
+          for (int x = 0; x < width; x += size) {
+            if (ProgressivePreviewRenderer.isTraced(x, y, size, first, pass, stepPasses)) {
+              traced[y * width + x] += 1;
+              count += 1;
+            }
+          }
+        }
+      }
+      assertEquals(ProgressivePreviewRenderer.tracedPixels(width, height, size, first), count);
+    }
+    for (int i = 0; i < traced.length; ++i) {
+      assertEquals("pixel " + (i % width) + ", " + (i / width), 1, traced[i]);
+    }
+  }
+
+  // Test that every pixel is traced exactly once over all refinement steps.
+  @Test public void testEveryPixelTracedOnce() {
+    checkTracedOnce(64, 64, 8, 1);
+    checkTracedOnce(400, 300, 16, 1);
+    checkTracedOnce(1, 1, 8, 1);
+  }
+
+  // Test that odd image sizes, with partial blocks at the edges, are fully traced.
+  @Test public void testPartialBlocks() {
+    checkTracedOnce(37, 23, 8, 1);
+    checkTracedOnce(101, 7, 16, 1);
+    checkTracedOnce(5, 130, 4, 1);
+  }
+
+  // Test that splitting steps into interlaced passes does not skip or repeat pixels.
+  @Test public void testInterlacedPasses() {
+    checkTracedOnce(64, 64, 8, 3);
+    checkTracedOnce(37, 23, 16, 5);
+    checkTracedOnce(120, 90, 4, 1000);
+  }
+}
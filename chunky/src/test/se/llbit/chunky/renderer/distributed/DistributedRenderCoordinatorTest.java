@@ -0,0 +1,190 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.distributed;
+
+import org.junit.Test;
+import se.llbit.chunky.renderer.distributed.DistributedRenderProtocol.WorkUnit;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.util.TaskTracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DistributedRenderCoordinatorTest {
+  private static final int width = Scene.MIN_CANVAS_WIDTH;
+  private static final int height = 25;
+  private static final int tileRows = 7;
+  private static final int unitSpp = 3;
+  private static final int target = 10;
+
+  /**
+   * An in-process render worker. Instead of rendering, each work unit is filled with
+   * the row index plus the SPP of the unit, so the merged samples show how the units
+   * were weighted.
+   */
+  private static class LoopbackWorker {
+    final List<WorkUnit> units = new ArrayList<>();
+
+    /**
+     * @param maxUnits number of work units to finish before disconnecting
+     */
+    void run(int port, int maxUnits) throws IOException {
+      try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+          DataInputStream in =
+              new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+          DataOutputStream out =
+              new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+        out.writeInt(DistributedRenderProtocol.MAGIC);
+        out.writeInt(DistributedRenderProtocol.VERSION);
+        out.flush();
+        in.readUTF();
+        assertEquals(width, in.readInt());
+        assertEquals(height, in.readInt());
+        assertEquals(tileRows, in.readInt());
+        in.readLong();
+        out.writeByte(DistributedRenderProtocol.READY);
+        out.flush();
+
+        double[] samples = new double[width * tileRows * 3];
+        byte[] buffer = new byte[samples.length * Double.BYTES];
+        while (units.size() < maxUnits && in.readByte() == DistributedRenderProtocol.WORK) {
+          WorkUnit unit = WorkUnit.read(in);
+          units.add(unit);
+          int rowLength = width * 3;
+          for (int y = unit.y0; y < unit.y1; ++y) {
+            Arrays.fill(samples, (y - unit.y0) * rowLength, (y - unit.y0 + 1) * rowLength,
+                y + unit.spp);
+          }
+          unit.write(out);
+          DistributedRenderProtocol.writeSamples(out, samples,
+              (unit.y1 - unit.y0) * rowLength, buffer);
+          out.flush();
+        }
+      }
+    }
+  }
+
+  private static Scene createScene() {
+    Scene scene = new Scene();
+    scene.setCanvasSize(width, height);
+    scene.setTargetSpp(target);
+    return scene;
+  }
+
+  private static Thread startWorker(LoopbackWorker worker, int port, int maxUnits) {
+    Thread thread = new Thread(() -> {
+      try {
+        worker.run(port, maxUnits);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * Check that the merged samples of each row are the SPP-weighted average of the
+   * work units: units of 3, 3, 3 and 1 SPP.
+   */
+  private static void checkMergedSamples(Scene scene) {
+    assertEquals(target, scene.spp);
+    double expected = (3 * 3 + 3 * 3 + 3 * 3 + 1 * 1) / (double) target;
+    double[] samples = scene.getSampleBuffer();
+    for (int y = 0; y < height; ++y) {
+      for (int i = y * width * 3; i < (y + 1) * width * 3; ++i) {
+        assertEquals(y + expected, samples[i], 1e-12);
+      }
+    }
+  }
+
+  // Test that one worker gets whole tiles until each tile reaches the target SPP,
+  // and that the results are merged weighted by SPP.
+  @Test(timeout = 20000) public void testLoopbackRender() throws Exception {
+    Scene scene = createScene();
+    DistributedRenderCoordinator coordinator =
+        new DistributedRenderCoordinator(scene, tileRows, unitSpp);
+    LoopbackWorker worker = new LoopbackWorker();
+    List<Integer> progress = new ArrayList<>();
+    try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      Thread thread = startWorker(worker, server.getLocalPort(), Integer.MAX_VALUE);
+      coordinator.render(server, TaskTracker.NONE, progress::add);
+      thread.join();
+    }
+
+    int tiles = (height + tileRows - 1) / tileRows;
+    int[] tileSpp = new int[tiles];
+    for (WorkUnit unit : worker.units) {
+      assertEquals(0, unit.y0 % tileRows);
+      assertEquals(Math.min(unit.y0 + tileRows, height), unit.y1);
+      assertTrue(unit.spp > 0 && unit.spp <= unitSpp);
+      tileSpp[unit.y0 / tileRows] += unit.spp;
+    }
+    int[] expectedSpp = new int[tiles];
+    Arrays.fill(expectedSpp, target);
+    assertEquals(Arrays.toString(expectedSpp), Arrays.toString(tileSpp));
+    // All tiles progress at the same rate, so the scene SPP goes up in steps of whole
+    // work units. Steps can be skipped if several merges finish before the update.
+    assertTrue(Arrays.asList(3, 6, 9, 10).containsAll(progress));
+    assertEquals(Integer.valueOf(target), progress.get(progress.size() - 1));
+    checkMergedSamples(scene);
+  }
+
+  // Test that the work units of a disconnected worker are handed out again.
+  @Test(timeout = 20000) public void testWorkerDisconnect() throws Exception {
+    Scene scene = createScene();
+    DistributedRenderCoordinator coordinator =
+        new DistributedRenderCoordinator(scene, tileRows, unitSpp);
+    LoopbackWorker dropped = new LoopbackWorker();
+    LoopbackWorker worker = new LoopbackWorker();
+    try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      Thread render = new Thread(() -> {
+        try {
+          coordinator.render(server, TaskTracker.NONE, spp -> {});
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      });
+      render.start();
+      // The first worker gets two work units and disconnects after finishing one.
+      startWorker(dropped, server.getLocalPort(), 1).join();
+      startWorker(worker, server.getLocalPort(), Integer.MAX_VALUE).join();
+      render.join();
+    }
+
+    assertEquals(1, dropped.units.size());
+    int spp = 0;
+    for (WorkUnit unit : worker.units) {
+      spp += unit.spp;
+    }
+    int tiles = (height + tileRows - 1) / tileRows;
+    assertEquals(tiles * target - dropped.units.get(0).spp, spp);
+    checkMergedSamples(scene);
+  }
+}
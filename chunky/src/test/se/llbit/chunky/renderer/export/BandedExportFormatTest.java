@@ -0,0 +1,104 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.export;
+
+import org.junit.Before;
+import org.junit.Test;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.util.TaskTracker;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that writing a picture band by band gives the same picture as writing it from
+ * the full-size buffers.
+ */
+public class BandedExportFormatTest {
+  private static final int WIDTH = Scene.MIN_CANVAS_WIDTH + 3;
+  private static final int HEIGHT = Scene.MIN_CANVAS_HEIGHT + 5;
+
+  /** Not a divisor of the height, so the last band is shorter. */
+  private static final int BAND_HEIGHT = 7;
+
+  private Scene scene;
+
+  @Before public void init() {
+    scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.startHeadlessRender();
+    Random random = new Random(1);
+    double[] samples = scene.getSampleBuffer();
+    for (int i = 0; i < samples.length; ++i) {
+      samples[i] = random.nextDouble() * 1.5;
+    }
+    scene.postProcessFrame(TaskTracker.Task.NONE);
+  }
+
+  private byte[] writeFull(BandedExportFormat format) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    format.write(out, scene, TaskTracker.NONE);
+    return out.toByteArray();
+  }
+
+  private byte[] writeBanded(BandedExportFormat format) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    double[] samples = scene.getSampleBuffer();
+    int bands = (HEIGHT + BAND_HEIGHT - 1) / BAND_HEIGHT;
+    try (BandedExportFormat.BandWriter writer = format.writeBands(out, scene)) {
+      for (int i = 0; i < bands; ++i) {
+        int band = writer.isBottomUp() ? bands - 1 - i : i;
+        int y0 = band * BAND_HEIGHT;
+        int y1 = Math.min(y0 + BAND_HEIGHT, HEIGHT);
+        double[] bandSamples = new double[WIDTH * BAND_HEIGHT * 3];
+        System.arraycopy(samples, y0 * WIDTH * 3, bandSamples, 0, (y1 - y0) * WIDTH * 3);
+        writer.writeBand(y0, y1, bandSamples, null);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private static int[] pixels(byte[] png) throws IOException {
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+    assertEquals(WIDTH, image.getWidth());
+    assertEquals(HEIGHT, image.getHeight());
+    return image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+  }
+
+  @Test public void testPng() throws IOException {
+    PngExportFormat format = new PngExportFormat();
+    // The compressed data is split differently, so the decoded pixels are compared.
+    assertArrayEquals(pixels(writeFull(format)), pixels(writeBanded(format)));
+  }
+
+  @Test public void testTiff32() throws IOException {
+    Tiff32ExportFormat format = new Tiff32ExportFormat();
+    assertArrayEquals(writeFull(format), writeBanded(format));
+  }
+
+  @Test public void testPfm() throws IOException {
+    PfmExportFormat format = new PfmExportFormat();
+    assertArrayEquals(writeFull(format), writeBanded(format));
+  }
+}
@@ -0,0 +1,131 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.postprocessing;
+
+import org.junit.Test;
+import se.llbit.chunky.renderer.AovBuffers;
+import se.llbit.util.TaskTracker;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AtrousDenoiserTest {
+  private static final int WIDTH = 32;
+  private static final int HEIGHT = 24;
+
+  /**
+   * Guide buffers of a flat surface facing the camera, with a gray albedo.
+   */
+  private static AovBuffers flatGuides() {
+    AovBuffers aovs = new AovBuffers(WIDTH, HEIGHT);
+    Arrays.fill(aovs.getAlbedo(), 0.5f);
+    Arrays.fill(aovs.getDepth(), 10);
+    float[] normal = aovs.getNormal();
+    for (int p = 0; p < WIDTH * HEIGHT; ++p) {
+      normal[p * 3 + 2] = 1;
+    }
+    return aovs;
+  }
+
+  private static double[] denoise(double[] input, AovBuffers aovs, int iterations) {
+    double[] output = new double[input.length];
+    double[] scratch = new double[input.length];
+    AtrousDenoiser.denoise(WIDTH, HEIGHT, input, aovs, iterations, output, scratch,
+        TaskTracker.Task.NONE);
+    return output;
+  }
+
+  // Test that a constant image is not changed, for odd and even iteration counts
+  // which leave the last iteration in different buffers.
+  @Test public void testConstantImage() {
+    double[] input = new double[WIDTH * HEIGHT * 3];
+    Arrays.fill(input, 0.25);
+    double[] copy = input.clone();
+    for (int iterations = 1; iterations <= 4; ++iterations) {
+      assertArrayEquals(input, denoise(input, flatGuides(), iterations), 1e-12);
+    }
+    assertArrayEquals(copy, input, 0);
+  }
+
+  // Test that the albedo is divided out before filtering, so that texture detail
+  // is kept.
+  @Test public void testAlbedoTexture() {
+    AovBuffers aovs = flatGuides();
+    float[] albedo = aovs.getAlbedo();
+    double[] input = new double[WIDTH * HEIGHT * 3];
+    for (int i = 0; i < input.length; ++i) {
+      albedo[i] = ((i / 3) % 2 == 0) ? 0.2f : 0.8f;
+      input[i] = 2 * albedo[i];
+    }
+    assertArrayEquals(input, denoise(input, aovs, 3), 1e-6);
+  }
+
+  // Test that noise on a flat surface is reduced.
+  @Test public void testNoiseReduction() {
+    Random random = new Random(1);
+    double[] input = new double[WIDTH * HEIGHT * 3];
+    for (int i = 0; i < input.length; ++i) {
+      input[i] = 0.5 + (random.nextDouble() - 0.5) * 0.2;
+    }
+    double[] output = denoise(input, flatGuides(), 3);
+    assertTrue(variance(output) < variance(input) / 4);
+    assertEquals(mean(input), mean(output), 0.01);
+  }
+
+  // Test that surfaces with different normals do not bleed into each other.
+  @Test public void testNormalEdge() {
+    AovBuffers aovs = flatGuides();
+    float[] normal = aovs.getNormal();
+    double[] input = new double[WIDTH * HEIGHT * 3];
+    for (int y = 0; y < HEIGHT; ++y) {
+      for (int x = 0; x < WIDTH; ++x) {
+        int p = y * WIDTH + x;
+        boolean left = x < WIDTH / 2;
+        normal[p * 3] = left ? 0 : 1;
+        normal[p * 3 + 2] = left ? 1 : 0;
+        Arrays.fill(input, p * 3, p * 3 + 3, left ? 0.1 : 0.9);
+      }
+    }
+    double[] output = denoise(input, aovs, 4);
+    for (int y = 0; y < HEIGHT; ++y) {
+      int p = y * WIDTH + WIDTH / 2 - 1;
+      assertEquals(0.1, output[p * 3], 0.01);
+      assertEquals(0.9, output[(p + 1) * 3], 0.01);
+    }
+  }
+
+  private static double mean(double[] values) {
+    double sum = 0;
+    for (double value : values) {
+      sum += value;
+    }
+    return sum / values.length;
+  }
+
+  private static double variance(double[] values) {
+    double mean = mean(values);
+    double sum = 0;
+    for (double value : values) {
+      sum += (value - mean) * (value - mean);
+    }
+    return sum / values.length;
+  }
+}
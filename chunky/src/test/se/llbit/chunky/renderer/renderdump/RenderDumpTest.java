@@ -29,6 +29,7 @@ import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -151,10 +152,50 @@ public class RenderDumpTest {
     Scene scene = createTestScene(testWidth, testHeight, testSPP, testRenderTime);
     System.arraycopy(testSampleBuffer, 0, scene.getSampleBuffer(), 0, testSampleBuffer.length);
     ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    RenderDump.save(outputStream, scene, taskTracker);
+    RenderDump.save(outputStream, scene, taskTracker, FloatingPointCompressorDumpFormat.INSTANCE.getVersion());
     assertArrayEquals(getTestDump(dumpName), outputStream.toByteArray());
   }
 
+  /**
+   * The tiled format splits the frame into tiles of 32 rows, so this uses a larger
+   * canvas with a partial last tile.
+   */
+  @Test
+  public void testTiledFormatRoundTrip() throws IOException {
+    int width = 37;
+    int height = 75;
+    Scene scene = createTestScene(width, height, testSPP, testRenderTime);
+    double[] samples = scene.getSampleBuffer();
+    Random random = new Random(1);
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = random.nextInt(4) == 0 ? 0 : random.nextDouble() * 2;
+    }
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    RenderDump.save(outputStream, scene, taskTracker, TiledDumpFormat.INSTANCE.getVersion());
+
+    Scene loaded = createTestScene(width, height, 0, 0);
+    RenderDump.load(new ByteArrayInputStream(outputStream.toByteArray()), loaded, taskTracker);
+    assertArrayEquals(samples, loaded.getSampleBuffer(), 0.0);
+    assertEquals(testSPP, loaded.spp);
+    assertEquals(testRenderTime, loaded.renderTime);
+  }
+
+  /**
+   * Saving a copy of the sample buffer without a scene gives the same dump as saving
+   * the scene in the default format.
+   */
+  @Test
+  public void testSaveSamplesWithoutScene() throws IOException {
+    Scene scene = createTestScene(testWidth, testHeight, testSPP, testRenderTime);
+    System.arraycopy(testSampleBuffer, 0, scene.getSampleBuffer(), 0, testSampleBuffer.length);
+    ByteArrayOutputStream sceneDump = new ByteArrayOutputStream();
+    RenderDump.save(sceneDump, scene, TaskTracker.NONE);
+    ByteArrayOutputStream samplesDump = new ByteArrayOutputStream();
+    RenderDump.save(samplesDump, testWidth, testHeight, testSPP, testRenderTime,
+        testSampleBuffer.clone(), taskTracker);
+    assertArrayEquals(sceneDump.toByteArray(), samplesDump.toByteArray());
+  }
+
   // This is just at the bottom because the strings are soooo lllooooonnnnngggggg
   private static final Map<String, String> testDumps = new HashMap<String, String>() {{
 
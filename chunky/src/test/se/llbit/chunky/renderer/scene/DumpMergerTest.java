@@ -0,0 +1,167 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.main.ChunkyOptions;
+import se.llbit.chunky.renderer.RenderContext;
+import se.llbit.chunky.renderer.renderdump.RenderDump;
+import se.llbit.util.TaskTracker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DumpMergerTest {
+  private static final int width = Scene.MIN_CANVAS_WIDTH;
+  private static final int height = Scene.MIN_CANVAS_HEIGHT;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private RenderContext context;
+  private File sceneFile;
+
+  private void createScene() throws IOException {
+    context = new RenderContext(new Chunky(ChunkyOptions.getDefaults()));
+    context.setSceneDirectory(folder.getRoot());
+    Scene scene = new Scene();
+    scene.setName("merged");
+    scene.setCanvasSize(width, height);
+    sceneFile = context.getSceneFile("merged.json");
+    try (FileOutputStream out = new FileOutputStream(sceneFile)) {
+      scene.saveDescription(out);
+    }
+  }
+
+  private static double[] randomSamples(long seed) {
+    Random random = new Random(seed);
+    double[] samples = new double[width * height * 3];
+    for (int i = 0; i < samples.length; ++i) {
+      samples[i] = random.nextDouble() * 2;
+    }
+    return samples;
+  }
+
+  private static void writeDump(File file, int spp, long renderTime, double[] samples)
+      throws IOException {
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      RenderDump.save(out, width, height, spp, renderTime, samples, TaskTracker.NONE);
+    }
+  }
+
+  private Scene loadMergedDump() throws IOException {
+    Scene scene = new Scene();
+    scene.setCanvasSize(width, height);
+    try (FileInputStream in = new FileInputStream(context.getSceneFile("merged.dump"))) {
+      RenderDump.load(in, scene, TaskTracker.NONE);
+    }
+    return scene;
+  }
+
+  // Test that merged dumps are weighted by their SPP, and that the dump of the
+  // scene itself is loaded as the initial render instead of being merged again.
+  @Test public void testMergeWeightedBySpp() throws IOException {
+    createScene();
+    double[] sceneSamples = randomSamples(1);
+    double[] a = randomSamples(2);
+    double[] b = randomSamples(3);
+    writeDump(context.getSceneFile("merged.dump"), 50, 1000, sceneSamples);
+    writeDump(context.getSceneFile("a.dump"), 100, 2000, a);
+    writeDump(context.getSceneFile("b.dump"), 300, 3000, b);
+
+    DumpMerger merger = new DumpMerger(context, sceneFile, TaskTracker.NONE);
+    assertEquals(50, merger.getSpp());
+    assertEquals(2, merger.mergeAll(folder.getRoot(), TaskTracker.NONE));
+    assertEquals(450, merger.getSpp());
+    merger.save(TaskTracker.NONE);
+
+    double[] expected = new double[sceneSamples.length];
+    for (int i = 0; i < expected.length; ++i) {
+      expected[i] = (sceneSamples[i] * 50 + a[i] * 100 + b[i] * 300) / 450;
+    }
+    Scene merged = loadMergedDump();
+    assertEquals(450, merged.spp);
+    assertEquals(6000, merged.renderTime);
+    // The dump stores samples as floats.
+    assertArrayEquals(expected, merged.getSampleBuffer(), 1e-6);
+  }
+
+  // Test that a truncated dump is rejected without changing the merged render.
+  @Test public void testMergeTruncatedDump() throws IOException {
+    createScene();
+    double[] a = randomSamples(4);
+    File dump = context.getSceneFile("a.dump");
+    writeDump(dump, 100, 2000, a);
+    File truncated = context.getSceneFile("truncated.dump");
+    try (FileInputStream in = new FileInputStream(dump);
+        FileOutputStream out = new FileOutputStream(truncated)) {
+      byte[] buffer = new byte[(int) (dump.length() / 2)];
+      int read = in.read(buffer);
+      out.write(buffer, 0, read);
+    }
+
+    DumpMerger merger = new DumpMerger(context, sceneFile, TaskTracker.NONE);
+    assertEquals(0, merger.getSpp());
+    assertTrue(merger.merge(dump, TaskTracker.NONE));
+    assertFalse(merger.merge(truncated, TaskTracker.NONE));
+    assertEquals(100, merger.getSpp());
+    merger.save(TaskTracker.NONE);
+
+    Scene merged = loadMergedDump();
+    assertEquals(100, merged.spp);
+    assertArrayEquals(a, merged.getSampleBuffer(), 1e-6);
+  }
+
+  // Test that watched dumps are merged, moved to the merged directory and saved.
+  @Test(timeout = 20000) public void testWatch() throws Exception {
+    createScene();
+    File watched = folder.newFolder("watched");
+    double[] a = randomSamples(5);
+    writeDump(new File(watched, "a.dump"), 100, 2000, a);
+
+    DumpMerger merger = new DumpMerger(context, sceneFile, TaskTracker.NONE);
+    Thread watcher = new Thread(() -> {
+      try {
+        merger.watch(watched, 10, TaskTracker.NONE);
+      } catch (IOException | InterruptedException ignored) {
+        // Stopped by the test.
+      }
+    });
+    watcher.start();
+    File moved = new File(new File(watched, DumpMerger.MERGED_DIRECTORY), "a.dump");
+    while (!moved.isFile()) {
+      Thread.sleep(10);
+    }
+    watcher.interrupt();
+    watcher.join();
+
+    assertFalse(new File(watched, "a.dump").exists());
+    Scene merged = loadMergedDump();
+    assertEquals(100, merged.spp);
+    assertArrayEquals(a, merged.getSampleBuffer(), 1e-6);
+  }
+}
@@ -0,0 +1,100 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.function.DoubleUnaryOperator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PathTracerTest {
+  /**
+   * Midpoint rule integration over [0, length].
+   */
+  private static double integrate(DoubleUnaryOperator f, double length) {
+    int steps = 200000;
+    double sum = 0;
+    for (int i = 0; i < steps; ++i) {
+      sum += f.applyAsDouble((i + 0.5) * length / steps);
+    }
+    return sum * length / steps;
+  }
+
+  // Test that sun in-scatter points sampled from the fog transmittance give the same
+  // expected light as integrating the transmittance along the ray.
+  @Test public void testFogOffsetExpectation() {
+    double density = 0.05;
+    double length = 60;
+    double scatter = -Math.expm1(-length * density);
+    // Sunlit bands along the ray.
+    DoubleUnaryOperator visibility = s -> ((int) s / 7) % 2 == 0 ? 1 : 0;
+    double expected = integrate(s -> density * Math.exp(-s * density) * visibility.applyAsDouble(s),
+        length);
+
+    Random random = new Random(1);
+    int samples = 4;
+    int n = 100000;
+    double sum = 0;
+    for (int k = 0; k < n; ++k) {
+      for (int i = 0; i < samples; ++i) {
+        double offset = PathTracer.fogOffset((i + random.nextDouble()) / samples, scatter, density);
+        assertTrue(offset >= 0 && offset <= length);
+        sum += visibility.applyAsDouble(offset) * scatter / samples;
+      }
+    }
+    assertEquals(expected, sum / n, 0.002);
+  }
+
+  // Test that equi-angular sampling gives the expected emitter light along the ray,
+  // including when the emitter is beside, before, or after the segment.
+  @Test public void testEquiAngularExpectation() {
+    double density = 0.05;
+    double length = 40;
+    double[][] emitters = {
+        // delta, d
+        { 15, 2 },
+        { -5, 1 },
+        { 50, 3 },
+        { 0, 0.5 },
+    };
+    Random random = new Random(2);
+    for (double[] emitter : emitters) {
+      double delta = emitter[0];
+      double d = emitter[1];
+      DoubleUnaryOperator light =
+          s -> Math.exp(-s * density) / (d * d + (s - delta) * (s - delta));
+      double expected = integrate(light, length);
+
+      int n = 200000;
+      double sum = 0;
+      for (int k = 0; k < n; ++k) {
+        double offset = PathTracer.equiAngularOffset(random.nextDouble(), delta, d, length);
+        assertTrue(offset >= 0 && offset <= length);
+        sum += light.applyAsDouble(offset) / PathTracer.equiAngularPdf(offset, delta, d, length);
+      }
+      assertEquals(expected, sum / n, expected * 0.01);
+    }
+  }
+
+  // Test that an empty segment has no equi-angular samples.
+  @Test public void testEquiAngularEmptySegment() {
+    assertTrue(Double.isNaN(PathTracer.equiAngularOffset(0.5, 3, 1, 0)));
+  }
+}
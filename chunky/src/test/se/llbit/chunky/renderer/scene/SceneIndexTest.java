@@ -0,0 +1,67 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SceneIndexTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File sceneFile(String name, String content) throws IOException {
+    File file = new File(folder.getRoot(), name + Scene.EXTENSION);
+    Files.write(file.toPath(), content.getBytes());
+    return file;
+  }
+
+  // Test that several entries are written with one update, and that a later update
+  // replaces the existing index file.
+  @Test public void testUpdate() throws IOException {
+    File directory = folder.getRoot();
+    File a = sceneFile("a", "{}");
+    File b = sceneFile("b", "{ }");
+    SceneIndex.update(directory, Arrays.asList(
+        new SceneIndex.Entry(a, 400, 300, 10, 1000, 4),
+        new SceneIndex.Entry(b, 800, 600, 20, 2000, 8)));
+
+    SceneIndex index = SceneIndex.load(directory);
+    assertEquals(4, index.get(a).chunkCount);
+    assertEquals(600, index.get(b).height);
+
+    // The index now exists, and is replaced by the update.
+    File c = sceneFile("c", "{  }");
+    SceneIndex.update(directory, new SceneIndex.Entry(c, 100, 50, 30, 3000, 1));
+    index = SceneIndex.load(directory);
+    assertNotNull(index.get(a));
+    assertNotNull(index.get(b));
+    assertEquals(30, index.get(c).spp);
+
+    // Changed scene descriptions are not used from the index.
+    sceneFile("a", "{\"spp\": 1}");
+    assertNull(SceneIndex.load(directory).get(a));
+  }
+}
@@ -0,0 +1,166 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.main.ChunkyOptions;
+import se.llbit.chunky.renderer.RenderContext;
+import se.llbit.util.TaskTracker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SceneJournalTest {
+  private static final String NAME = "journaled";
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private RenderContext context;
+  private Scene scene;
+  private File journalFile;
+
+  @Before public void createScene() throws IOException {
+    context = new RenderContext(new Chunky(ChunkyOptions.getDefaults()));
+    context.setSceneDirectory(folder.getRoot());
+    scene = new Scene();
+    scene.setName(NAME);
+    scene.setCanvasSize(Scene.MIN_CANVAS_WIDTH, Scene.MIN_CANVAS_HEIGHT);
+    saveDescription();
+    journalFile = context.getSceneFile(NAME + SceneJournal.EXTENSION);
+  }
+
+  /**
+   * Save the scene description, dated before the journal is written.
+   */
+  private void saveDescription() throws IOException {
+    File file = context.getSceneDescriptionFile(NAME);
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      scene.saveDescription(out);
+    }
+    //noinspection ResultOfMethodCallIgnored
+    file.setLastModified(System.currentTimeMillis() - 10000);
+  }
+
+  private void render(long seed, int spp) {
+    Random random = new Random(seed);
+    double[] samples = scene.getSampleBuffer();
+    for (int i = 0; i < samples.length; ++i) {
+      samples[i] = random.nextDouble();
+    }
+    scene.spp = spp;
+    scene.renderTime = spp * 100L;
+  }
+
+  private static void checkpoint(SceneJournal journal, Scene scene, File file)
+      throws InterruptedException {
+    journal.checkpoint(scene, file);
+    journal.awaitCheckpoint();
+  }
+
+  private Scene recoverScene(SceneJournal.Checkpoint checkpoint) throws IOException {
+    Scene recovered = new Scene();
+    recovered.fromJson(checkpoint.description);
+    checkpoint.load(recovered, TaskTracker.NONE);
+    return recovered;
+  }
+
+  // Test that the latest checkpoint is recovered, with the scene description changes
+  // of each checkpoint applied.
+  @Test public void testRoundTrip() throws Exception {
+    SceneJournal journal = new SceneJournal();
+    render(1, 10);
+    checkpoint(journal, scene, journalFile);
+    render(2, 20);
+    scene.setTargetSpp(1234);
+    checkpoint(journal, scene, journalFile);
+    double[] expected = scene.getSampleBuffer().clone();
+
+    SceneJournal.Checkpoint checkpoint = SceneJournal.recover(context, NAME, 0);
+    assertNotNull(checkpoint);
+    assertEquals(20, checkpoint.description.get("spp").intValue(0));
+    assertEquals(1234, checkpoint.description.get("sppTarget").intValue(0));
+    Scene recovered = recoverScene(checkpoint);
+    assertEquals(20, recovered.spp);
+    assertEquals(2000, recovered.renderTime);
+    assertArrayEquals(expected, recovered.getSampleBuffer(), 0);
+  }
+
+  // Test that an incomplete checkpoint, as left by a crash, is skipped.
+  @Test public void testIncompleteCheckpoint() throws Exception {
+    SceneJournal journal = new SceneJournal();
+    render(3, 10);
+    checkpoint(journal, scene, journalFile);
+    double[] expected = scene.getSampleBuffer().clone();
+    long length = journalFile.length();
+    render(4, 20);
+    checkpoint(journal, scene, journalFile);
+    try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+      file.setLength(length + (file.length() - length) / 2);
+    }
+
+    SceneJournal.Checkpoint checkpoint = SceneJournal.recover(context, NAME, 0);
+    assertNotNull(checkpoint);
+    Scene recovered = recoverScene(checkpoint);
+    assertEquals(10, recovered.spp);
+    assertArrayEquals(expected, recovered.getSampleBuffer(), 0);
+  }
+
+  // Test that a journal is not recovered when the scene was saved after it, or when
+  // the saved render has as many samples.
+  @Test public void testStaleJournal() throws Exception {
+    SceneJournal journal = new SceneJournal();
+    render(5, 10);
+    checkpoint(journal, scene, journalFile);
+    assertNotNull(SceneJournal.recover(context, NAME, 0));
+    assertNull(SceneJournal.recover(context, NAME, 10));
+
+    //noinspection ResultOfMethodCallIgnored
+    journalFile.setLastModified(
+        context.getSceneDescriptionFile(NAME).lastModified() - 10000);
+    assertNull(SceneJournal.recover(context, NAME, 0));
+  }
+
+  // Test that a discarded journal is deleted and that the next checkpoint starts a
+  // new journal.
+  @Test public void testDiscard() throws Exception {
+    SceneJournal journal = new SceneJournal();
+    render(6, 10);
+    checkpoint(journal, scene, journalFile);
+    journal.discard(journalFile);
+    assertFalse(journalFile.exists());
+    assertNull(SceneJournal.recover(context, NAME, 0));
+
+    render(7, 5);
+    checkpoint(journal, scene, journalFile);
+    SceneJournal.Checkpoint checkpoint = SceneJournal.recover(context, NAME, 0);
+    assertNotNull(checkpoint);
+    assertEquals(5, recoverScene(checkpoint).spp);
+  }
+}
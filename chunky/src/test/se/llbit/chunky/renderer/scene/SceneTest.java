@@ -18,6 +18,12 @@
 package se.llbit.chunky.renderer.scene;
 
 import org.junit.Test;
+import se.llbit.chunky.renderer.AovBuffers;
+import se.llbit.chunky.renderer.RenderMode;
+import se.llbit.util.TaskTracker;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 public class SceneTest {
   /**
@@ -30,4 +36,28 @@ public class SceneTest {
     new Scene().setSpecular("minecraft:gravel", 0.3f);
     new Scene().setIor("minecraft:gravel", 0.3f);
   }
+
+  // Test that each frame is denoised once, into two buffers that are reused
+  // alternately.
+  @Test public void testDenoisedBuffersReused() {
+    Scene scene = new Scene();
+    scene.setCanvasSize(Scene.MIN_CANVAS_WIDTH, Scene.MIN_CANVAS_HEIGHT);
+    scene.setDenoiserEnabled(true);
+    scene.setRenderMode(RenderMode.RENDERING);
+    AovBuffers aovs = scene.getAovBuffers();
+    aovs.setSpp(1);
+    double[] first = scene.getPostProcessingSamples(TaskTracker.Task.NONE);
+    assertNotSame(scene.getSampleBuffer(), first);
+    assertSame(first, scene.getPostProcessingSamples(TaskTracker.Task.NONE));
+
+    aovs.setSpp(2);
+    double[] second = scene.getPostProcessingSamples(TaskTracker.Task.NONE);
+    assertNotSame(first, second);
+    assertNotSame(scene.getSampleBuffer(), second);
+    aovs.setSpp(3);
+    assertSame(first, scene.getPostProcessingSamples(TaskTracker.Task.NONE));
+
+    scene.setDenoiserEnabled(false);
+    assertSame(scene.getSampleBuffer(), scene.getPostProcessingSamples(TaskTracker.Task.NONE));
+  }
 }
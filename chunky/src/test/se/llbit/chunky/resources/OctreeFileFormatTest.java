@@ -0,0 +1,185 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.resources;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import se.llbit.chunky.block.TestBlockProviders;
+import se.llbit.chunky.chunk.BlockPalette;
+import se.llbit.chunky.resources.OctreeFileFormat.OctreeData;
+import se.llbit.chunky.world.WorldTexture;
+import se.llbit.math.Octree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OctreeFileFormatTest {
+  private static final int DEPTH = 5;
+
+  /**
+   * The float biome textures of the older versions are converted back to 8-bit colors
+   * when loaded, which can be off by one step.
+   */
+  private static final float LEGACY_TEXTURE_DELTA = 0.01f;
+
+  private final BlockPalette palette = new BlockPalette();
+  private final Octree worldTree = new Octree("PACKED", DEPTH);
+  private final Octree waterTree = new Octree("PACKED", DEPTH);
+  private final WorldTexture grassColors = new WorldTexture();
+  private final WorldTexture foliageColors = new WorldTexture();
+  private final WorldTexture waterColors = new WorldTexture();
+
+  @BeforeClass public static void registerBlockProviders() {
+    TestBlockProviders.register();
+  }
+
+  public OctreeFileFormatTest() {
+    Random random = new Random(1234);
+    int size = 1 << DEPTH;
+    for (int i = 0; i < 200; ++i) {
+      worldTree.set(palette.stoneId,
+          random.nextInt(size), random.nextInt(size), random.nextInt(size));
+      waterTree.set(palette.waterId,
+          random.nextInt(size), random.nextInt(size), random.nextInt(size));
+    }
+    // A smooth gradient in some chunks, identical flat tiles in others, and chunks
+    // on both sides of the origin.
+    float[] color = new float[3];
+    for (int x = -32; x < 48; ++x) {
+      for (int z = -16; z < 32; ++z) {
+        color[0] = (x + 32) / 80f;
+        color[1] = (z + 16) / 48f;
+        color[2] = random.nextFloat();
+        grassColors.set(x, z, color);
+        foliageColors.set(x, z, x < 0 ? new float[] { 0.2f, 0.6f, 0.1f } : color);
+      }
+    }
+    waterColors.set(-100, 200, new float[] { 0.1f, 0.2f, 0.9f });
+  }
+
+  // Test that the stream format (version 8) stores and loads the same scene data.
+  @Test public void testStoreLoad() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      OctreeFileFormat.store(out, worldTree, waterTree, palette,
+          grassColors, foliageColors, waterColors);
+    }
+    OctreeData data = OctreeFileFormat.load(
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), "PACKED");
+    assertEquals(8, data.version);
+    checkLoaded(data, 0);
+  }
+
+  // Test that the flat format (version 9) stores and loads the same scene data.
+  @Test public void testStoreLoadFlat() throws IOException {
+    assertTrue(OctreeFileFormat.canStoreFlat(worldTree, waterTree));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    OctreeFileFormat.storeFlat(bytes, worldTree, waterTree, palette,
+        grassColors, foliageColors, waterColors);
+    OctreeData data = OctreeFileFormat.loadFlat(
+        new ByteArrayInputStream(bytes.toByteArray()), "PACKED", progress -> {});
+    assertEquals(OctreeFileFormat.FLAT_OCTREE_VERSION, data.version);
+    checkLoaded(data, 0);
+  }
+
+  // Test that stream format version 6, with the float biome textures, can still be loaded.
+  @Test public void testLoadVersion6() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(6);
+      palette.write(out);
+      worldTree.store(out);
+      waterTree.store(out);
+      grassColors.store(out);
+      foliageColors.store(out);
+      waterColors.store(out);
+    }
+    OctreeData data = OctreeFileFormat.load(
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), "PACKED");
+    assertEquals(6, data.version);
+    checkLoaded(data, LEGACY_TEXTURE_DELTA);
+  }
+
+  // Test that flat format version 7, with the float biome textures, can still be loaded.
+  @Test public void testLoadFlatVersion7() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    WritableByteChannel channel = Channels.newChannel(bytes);
+    ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(7);
+    header.flip();
+    channel.write(header);
+    worldTree.storeFlat(channel);
+    waterTree.storeFlat(channel);
+    try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+      palette.write(out);
+      grassColors.store(out);
+      foliageColors.store(out);
+      waterColors.store(out);
+    }
+    OctreeData data = OctreeFileFormat.loadFlat(
+        new ByteArrayInputStream(bytes.toByteArray()), "PACKED", progress -> {});
+    assertEquals(7, data.version);
+    checkLoaded(data, LEGACY_TEXTURE_DELTA);
+  }
+
+  private void checkLoaded(OctreeData data, float textureDelta) {
+    assertEquals(palette.getPalette().size(), data.palette.getPalette().size());
+    assertEquals(palette.get(palette.stoneId).name, data.palette.get(palette.stoneId).name);
+    int size = 1 << DEPTH;
+    for (int x = 0; x < size; ++x) {
+      for (int y = 0; y < size; ++y) {
+        for (int z = 0; z < size; ++z) {
+          assertEquals(worldTree.getType(x, y, z), data.worldTree.getType(x, y, z));
+          assertEquals(waterTree.getType(x, y, z), data.waterTree.getType(x, y, z));
+        }
+      }
+    }
+    checkTexture(grassColors, data.grassColors, textureDelta);
+    checkTexture(foliageColors, data.foliageColors, textureDelta);
+    checkTexture(waterColors, data.waterColors, textureDelta);
+  }
+
+  /**
+   * The compact textures store the 8-bit colors, so the loaded colors must be exactly
+   * the same.
+   */
+  private static void checkTexture(WorldTexture expected, WorldTexture actual, float delta) {
+    for (int x = -128; x < 128; ++x) {
+      for (int z = -32; z < 256; ++z) {
+        assertEquals(expected.contains(x, z), actual.contains(x, z));
+        if (expected.contains(x, z)) {
+          assertArrayEquals(expected.get(x, z), actual.get(x, z), delta);
+        }
+      }
+    }
+    assertFalse(actual.contains(1000, 1000));
+  }
+}
@@ -0,0 +1,63 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class AliasTableTest {
+  /**
+   * Sampling evenly spaced uniform numbers gives each index its probability.
+   */
+  @Test public void testDistribution() {
+    double[] weights = {1, 0, 5, 2.5, 0.5, 3, 0, 8};
+    double total = 20;
+    AliasTable table = new AliasTable(weights);
+    int n = 1000000;
+    int[] counts = new int[weights.length];
+    for (int i = 0; i < n; ++i) {
+      counts[table.sample((i + 0.5) / n)] += 1;
+    }
+    for (int i = 0; i < weights.length; ++i) {
+      assertEquals(weights[i] / total, table.probability(i), 1e-12);
+      assertEquals(weights[i] / total, counts[i] / (double) n, 1e-5);
+    }
+  }
+
+  @Test public void testSingleNonZeroWeight() {
+    AliasTable table = new AliasTable(new double[] {0, 0, 3, 0});
+    for (int i = 0; i < 100; ++i) {
+      assertEquals(2, table.sample(i / 100.0));
+    }
+    assertEquals(2, table.sample(Math.nextDown(1.0)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testZeroWeights() {
+    new AliasTable(new double[] {0, 0});
+  }
+
+  @Test public void testUniform() {
+    AliasTable table = new AliasTable(new double[] {1, 1, 1, 1});
+    assertEquals(0, table.sample(0));
+    assertEquals(1, table.sample(0.25));
+    assertEquals(3, table.sample(0.99));
+    assertNotEquals(2, table.sample(0.76));
+  }
+}
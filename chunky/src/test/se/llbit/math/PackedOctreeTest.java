@@ -0,0 +1,102 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PackedOctreeTest {
+  private static final int DEPTH = 4;
+
+  private static PackedOctree randomTree(Random random) {
+    PackedOctree tree = new PackedOctree(DEPTH);
+    int size = 1 << DEPTH;
+    for (int i = 0; i < 2000; ++i) {
+      // Few types, so that many nodes are merged and leave free blocks in the array.
+      tree.set(random.nextInt(3), random.nextInt(size), random.nextInt(size), random.nextInt(size));
+    }
+    return tree;
+  }
+
+  private static byte[] storeFlat(PackedOctree tree) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    tree.storeFlat(Channels.newChannel(out));
+    return out.toByteArray();
+  }
+
+  private static PackedOctree loadFlat(byte[] data, long[] bytesRead) throws IOException {
+    return PackedOctree.loadFlat(Channels.newChannel(new ByteArrayInputStream(data)),
+        bytes -> bytesRead[0] += bytes);
+  }
+
+  private static byte[] store(PackedOctree tree) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (DataOutputStream data = new DataOutputStream(out)) {
+      tree.store(data);
+    }
+    return out.toByteArray();
+  }
+
+  @Test public void testFlatRoundTrip() throws IOException {
+    PackedOctree tree = randomTree(new Random(1));
+    byte[] flat = storeFlat(tree);
+    long[] bytesRead = { 0 };
+    PackedOctree loaded = loadFlat(flat, bytesRead);
+
+    assertEquals(flat.length, bytesRead[0]);
+    assertEquals(tree.getDepth(), loaded.getDepth());
+    assertEquals(tree.nodeCount(), loaded.nodeCount());
+    assertTrue(Arrays.equals(store(tree), store(loaded)));
+    int size = 1 << DEPTH;
+    for (int x = 0; x < size; ++x) {
+      for (int y = 0; y < size; ++y) {
+        for (int z = 0; z < size; ++z) {
+          assertEquals(tree.getType(x, y, z), loaded.getType(x, y, z));
+        }
+      }
+    }
+  }
+
+  /**
+   * A loaded octree must keep working when it is modified, which uses the free list.
+   */
+  @Test public void testModifyAfterFlatLoad() throws IOException {
+    Random random = new Random(2);
+    PackedOctree tree = randomTree(random);
+    PackedOctree loaded = loadFlat(storeFlat(tree), new long[1]);
+    int size = 1 << DEPTH;
+    for (int i = 0; i < 2000; ++i) {
+      int type = random.nextInt(3);
+      int x = random.nextInt(size);
+      int y = random.nextInt(size);
+      int z = random.nextInt(size);
+      tree.set(type, x, y, z);
+      loaded.set(type, x, y, z);
+    }
+    assertTrue(Arrays.equals(store(tree), store(loaded)));
+  }
+}
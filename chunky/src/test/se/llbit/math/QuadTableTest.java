@@ -0,0 +1,190 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class QuadTableTest {
+  private static final Quad[] quads = {
+      new Quad(
+          new Vector3(2 / 16.0, 6 / 16.0, 2 / 16.0),
+          new Vector3(14 / 16.0, 6 / 16.0, 2 / 16.0),
+          new Vector3(2 / 16.0, 6 / 16.0, 14 / 16.0),
+          new Vector4(2 / 16.0, 14 / 16.0, 2 / 16.0, 14 / 16.0)),
+      new Quad(
+          new Vector3(6 / 16.0, 0, 6 / 16.0),
+          new Vector3(6 / 16.0, 0, 10 / 16.0),
+          new Vector3(6 / 16.0, 1, 6 / 16.0),
+          new Vector4(6 / 16.0, 10 / 16.0, 0, 1)),
+      new Quad(
+          new Vector3(10 / 16.0, 0, 10 / 16.0),
+          new Vector3(10 / 16.0, 0, 6 / 16.0),
+          new Vector3(10 / 16.0, 1, 10 / 16.0),
+          new Vector4(10 / 16.0, 6 / 16.0, 0, 1)),
+      new Quad(new Quad(
+          new Vector3(0, 8 / 16.0, 0),
+          new Vector3(1, 8 / 16.0, 0),
+          new Vector3(0, 8 / 16.0, 1),
+          new Vector4(0, 1, 0, 1)),
+          Transform.NONE.rotateY(Math.PI / 4).scale(0.5)),
+      new DoubleSidedQuad(
+          new Vector3(0, 0, 8 / 16.0),
+          new Vector3(1, 0, 8 / 16.0),
+          new Vector3(0, 1, 8 / 16.0),
+          new Vector4(0, 1, 0, 1)),
+  };
+
+  @Test public void testSharedTable() {
+    assertSame(QuadTable.of(quads), QuadTable.of(quads));
+  }
+
+  /**
+   * The flattened intersection test must give the same result as Quad.intersect.
+   */
+  @Test public void testIntersectMatchesQuad() {
+    QuadTable table = QuadTable.of(quads);
+    Random random = new Random(1234);
+    Ray expected = new Ray();
+    Ray actual = new Ray();
+    for (int sample = 0; sample < 10000; ++sample) {
+      expected.o.set(
+          10 + random.nextDouble(),
+          64 + random.nextDouble(),
+          -3 + random.nextDouble());
+      expected.d.set(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+      expected.d.normalize();
+      actual.o.set(expected.o);
+      actual.d.set(expected.d);
+
+      double ox = actual.o.x - QuickMath.floor(actual.o.x + actual.d.x * Ray.OFFSET);
+      double oy = actual.o.y - QuickMath.floor(actual.o.y + actual.d.y * Ray.OFFSET);
+      double oz = actual.o.z - QuickMath.floor(actual.o.z + actual.d.z * Ray.OFFSET);
+      for (int i = 0; i < quads.length; ++i) {
+        expected.t = Double.POSITIVE_INFINITY;
+        actual.t = Double.POSITIVE_INFINITY;
+        boolean hit = quads[i].intersect(expected);
+        assertEquals(hit, table.intersect(i, ox, oy, oz, actual, actual.t));
+        if (hit) {
+          assertEquals(expected.tNext, actual.tNext, 1e-12);
+          assertEquals(expected.u, actual.u, 1e-12);
+          assertEquals(expected.v, actual.v, 1e-12);
+        }
+      }
+    }
+  }
+
+  /**
+   * Double-sided quads must be hit from both sides, with the normal facing the ray.
+   */
+  @Test public void testDoubleSidedBackFace() {
+    int i = quads.length - 1;
+    QuadTable table = QuadTable.of(quads);
+    Ray ray = new Ray();
+    for (int side = -1; side <= 1; side += 2) {
+      ray.o.set(0.5, 0.5, 0.5 - side * 0.25);
+      ray.d.set(0, 0, side);
+      ray.t = Double.POSITIVE_INFINITY;
+      assertTrue(table.intersect(i, ray.o.x, ray.o.y, ray.o.z, ray, ray.t));
+      assertEquals(0.25, ray.tNext, 1e-12);
+      table.setNormal(i, ray);
+      assertTrue(ray.getNormal().dot(ray.d) < 0);
+    }
+  }
+
+  // Test that rays parallel to a slab of the bounds, with the origin on the slab plane,
+  // are not rejected because of NaN slab distances.
+  @Test public void testBoundsAxisAlignedRay() {
+    QuadTable table = QuadTable.of(new Quad[] { quads[0] });
+    double inf = Double.POSITIVE_INFINITY;
+    // The quad bounds are padded by Ray.EPSILON.
+    double xmin = 2 / 16.0 - Ray.EPSILON;
+    double ymin = 6 / 16.0 - Ray.EPSILON;
+    // Along the flat quad, on its lower y slab plane.
+    assertTrue(table.hitBounds(0, ymin, 0.5, 1, inf, inf));
+    // Along the y axis, on the lower x slab plane.
+    assertTrue(table.hitBounds(xmin, 0, 0.5, inf, 1, inf));
+    assertTrue(table.hitBounds(xmin, 1, 0.5, -inf, -1, inf));
+    // Parallel to the slabs but outside of them.
+    assertFalse(table.hitBounds(1 / 16.0, 0, 0.5, inf, 1, inf));
+    assertFalse(table.hitBounds(0, 7 / 16.0, 0.5, 1, inf, inf));
+  }
+
+  /**
+   * Every quad that the ray hits inside the block must be reachable through the
+   * model bounds and the quad BVH.
+   */
+  @Test public void testBoundsAndBvh() {
+    Random random = new Random(4321);
+    Quad[] many = new Quad[40];
+    for (int i = 0; i < many.length; ++i) {
+      double x = random.nextDouble() * 0.75;
+      double y = random.nextDouble() * 0.75;
+      double z = random.nextDouble() * 0.75;
+      double size = 0.05 + random.nextDouble() * 0.2;
+      many[i] = new Quad(
+          new Vector3(x, y, z),
+          new Vector3(x + size, y, z + random.nextDouble() * 0.1),
+          new Vector3(x, y + size, z),
+          new Vector4(0, 1, 0, 1));
+    }
+    QuadTable table = QuadTable.of(many);
+    assertTrue(table.hasBvh());
+
+    BitSet visited = new BitSet();
+    Ray ray = new Ray();
+    for (int sample = 0; sample < 10000; ++sample) {
+      ray.o.set(random.nextDouble(), random.nextDouble(), random.nextDouble());
+      ray.d.set(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+      ray.d.normalize();
+      double invDx = 1 / ray.d.x;
+      double invDy = 1 / ray.d.y;
+      double invDz = 1 / ray.d.z;
+      double ox = ray.o.x - QuickMath.floor(ray.o.x + ray.d.x * Ray.OFFSET);
+      double oy = ray.o.y - QuickMath.floor(ray.o.y + ray.d.y * Ray.OFFSET);
+      double oz = ray.o.z - QuickMath.floor(ray.o.z + ray.d.z * Ray.OFFSET);
+
+      visited.clear();
+      int node = 0;
+      while (node < table.nodeCount()) {
+        if (table.hitNode(node, ox, oy, oz, invDx, invDy, invDz, Double.POSITIVE_INFINITY)) {
+          for (int k = 0; k < table.nodeSize[node]; ++k) {
+            visited.set(table.order[table.nodeStart[node] + k]);
+          }
+          node += 1;
+        } else {
+          node = table.nodeSkip[node];
+        }
+      }
+
+      for (int i = 0; i < many.length; ++i) {
+        ray.t = Double.POSITIVE_INFINITY;
+        if (many[i].intersect(ray)) {
+          assertTrue(table.hitBounds(ox, oy, oz, invDx, invDy, invDz));
+          assertTrue(visited.get(i));
+        }
+      }
+    }
+  }
+}
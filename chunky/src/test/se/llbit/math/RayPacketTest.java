@@ -0,0 +1,224 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+import se.llbit.chunky.block.TestBlockProviders;
+import se.llbit.chunky.chunk.BlockPalette;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RayPacketTest {
+  private static final int DEPTH = 6;
+
+  /** Width and height of the packets, in rays. */
+  private static final int PACKET_SIZE = 4;
+
+  @BeforeClass public static void registerBlockProviders() {
+    TestBlockProviders.register();
+  }
+
+  /**
+   * Terrain with a stone floor and random stone boxes, leaving large air leaves.
+   */
+  private static Octree terrain(BlockPalette palette, Random random) {
+    Octree octree = new Octree("PACKED", DEPTH);
+    int size = 1 << DEPTH;
+    for (int x = 0; x < size; ++x) {
+      for (int z = 0; z < size; ++z) {
+        for (int y = 0; y < 8; ++y) {
+          octree.set(palette.stoneId, x, y, z);
+        }
+      }
+    }
+    for (int i = 0; i < 40; ++i) {
+      int x0 = random.nextInt(size - 4);
+      int y0 = 8 + random.nextInt(size - 12);
+      int z0 = random.nextInt(size - 4);
+      int w = 1 + random.nextInt(4);
+      for (int x = x0; x < x0 + w; ++x) {
+        for (int y = y0; y < y0 + w; ++y) {
+          for (int z = z0; z < z0 + w; ++z) {
+            octree.set(palette.stoneId, x, y, z);
+          }
+        }
+      }
+    }
+    return octree;
+  }
+
+  /**
+   * Fill the packet with a fan of view rays from a common origin, like the view rays
+   * of a block of pixels.
+   */
+  private static void viewRays(RayPacket packet, Vector3 origin, Vector3 forward,
+      double spread) {
+    Vector3 right = new Vector3();
+    right.cross(forward, new Vector3(0, 1, 0));
+    right.normalize();
+    Vector3 up = new Vector3();
+    up.cross(right, forward);
+    packet.clear();
+    for (int j = 0; j < PACKET_SIZE; ++j) {
+      for (int i = 0; i < PACKET_SIZE; ++i) {
+        Vector3 d = new Vector3(forward);
+        d.scaleAdd((i - PACKET_SIZE / 2.0) * spread, right);
+        d.scaleAdd((j - PACKET_SIZE / 2.0) * spread, up);
+        d.normalize();
+        packet.add().set(origin, d);
+      }
+    }
+  }
+
+  private static Vector3 randomDirection(Random random) {
+    Vector3 d = new Vector3(random.nextDouble() - 0.5, -random.nextDouble(),
+        random.nextDouble() - 0.5);
+    d.normalize();
+    return d;
+  }
+
+  private static Vector3 randomOrigin(Octree octree, BlockPalette palette, Random random) {
+    int size = 1 << DEPTH;
+    while (true) {
+      Vector3 o = new Vector3(random.nextDouble() * size, 8 + random.nextDouble() * (size - 8),
+          random.nextDouble() * size);
+      if (octree.getType((int) o.x, (int) o.y, (int) o.z) == palette.airId) {
+        return o;
+      }
+    }
+  }
+
+  // Test that starting the octree marching from the packet hint gives the same result as
+  // marching from the ray origin.
+  @Test public void testOctreeSkip() {
+    Random random = new Random(1);
+    BlockPalette palette = new BlockPalette();
+    Octree octree = terrain(palette, random);
+    RayPacket packet = new RayPacket();
+    int skipped = 0;
+    for (int n = 0; n < 200; ++n) {
+      viewRays(packet, randomOrigin(octree, palette, random), randomDirection(random), 0.02);
+      if (!packet.prepare()) {
+        continue;
+      }
+      octree.traversePacket(packet, palette);
+      for (int i = 0; i < packet.size(); ++i) {
+        Ray single = new Ray();
+        single.set(packet.get(i).o, packet.get(i).d);
+        Ray hinted = new Ray();
+        hinted.set(packet.get(i).o, packet.get(i).d);
+        boolean hit = octree.enterBlock(null, single, palette);
+        assertEquals(hit, octree.enterBlock(null, hinted, palette, packet.hint(i)));
+        if (hit) {
+          assertEquals(single.distance, hinted.distance, 1e-9);
+          assertEquals(single.getNormal().x, hinted.getNormal().x, 0);
+          assertEquals(single.getNormal().y, hinted.getNormal().y, 0);
+          assertEquals(single.getNormal().z, hinted.getNormal().z, 0);
+        }
+        if (packet.hint(i).octreeSkip > 0) {
+          skipped += 1;
+        }
+      }
+    }
+    assertTrue(skipped > 0);
+  }
+
+  // Test that rays with different direction signs are not traversed as a packet.
+  @Test public void testIncoherent() {
+    RayPacket packet = new RayPacket();
+    packet.add().set(new Vector3(1, 1, 1), new Vector3(1, 1, 1));
+    packet.add().set(new Vector3(1, 1, 1), new Vector3(-1, 1, 1));
+    assertFalse(packet.prepare());
+    assertEquals(0, packet.hint(0).octreeSkip, 0);
+  }
+
+  // Test that the packet bounds test does not cull boxes hit by a ray of the packet.
+  @Test public void testMisses() {
+    Random random = new Random(2);
+    RayPacket packet = new RayPacket();
+    for (int n = 0; n < 1000; ++n) {
+      Vector3 origin = new Vector3(random.nextDouble() * 4, random.nextDouble() * 4,
+          random.nextDouble() * 4);
+      viewRays(packet, origin, randomDirection(random), 0.1);
+      if (!packet.prepare()) {
+        continue;
+      }
+      double x = random.nextInt(16) - 8;
+      double y = random.nextInt(16) - 8;
+      double z = random.nextInt(16) - 8;
+      int hits = packet.hits(packet.activeMask(), x, x + 2, y, y + 2, z, z + 2);
+      if (hits != 0) {
+        assertFalse(packet.misses(x, x + 2, y, y + 2, z, z + 2));
+      }
+    }
+  }
+
+  /**
+   * Benchmark of primary visibility rays per second, with the octree traversed one ray at
+   * a time and in packets. The rays are generated before the timing starts.
+   *
+   * <p>This is ignored by default, it prints its result and does not test anything.
+   */
+  @Ignore("Benchmark, run manually")
+  @Test public void benchmarkPrimaryRays() {
+    Random random = new Random(3);
+    BlockPalette palette = new BlockPalette();
+    Octree octree = terrain(palette, random);
+    int packets = 20000;
+    RayPacket[] batch = new RayPacket[packets];
+    for (int n = 0; n < packets; ++n) {
+      batch[n] = new RayPacket();
+      viewRays(batch[n], randomOrigin(octree, palette, random), randomDirection(random), 0.002);
+    }
+    long rays = (long) packets * PACKET_SIZE * PACKET_SIZE;
+    Ray ray = new Ray();
+
+    double singleTime = 0;
+    double packetTime = 0;
+    // The first round warms up the JIT compiler.
+    for (int round = 0; round < 2; ++round) {
+      long start = System.nanoTime();
+      for (RayPacket packet : batch) {
+        for (int i = 0; i < packet.size(); ++i) {
+          ray.set(packet.get(i).o, packet.get(i).d);
+          octree.enterBlock(null, ray, palette);
+        }
+      }
+      singleTime = (System.nanoTime() - start) / 1e9;
+
+      start = System.nanoTime();
+      for (RayPacket packet : batch) {
+        packet.prepare();
+        octree.traversePacket(packet, palette);
+        for (int i = 0; i < packet.size(); ++i) {
+          ray.set(packet.get(i).o, packet.get(i).d);
+          octree.enterBlock(null, ray, palette, packet.hint(i));
+        }
+      }
+      packetTime = (System.nanoTime() - start) / 1e9;
+    }
+
+    System.out.format("Primary rays: %.2f Mrays/s single, %.2f Mrays/s packets of %d%n",
+        rays / singleTime / 1e6, rays / packetTime / 1e6, PACKET_SIZE * PACKET_SIZE);
+  }
+}
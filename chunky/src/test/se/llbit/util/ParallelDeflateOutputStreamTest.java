@@ -0,0 +1,103 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertTrue;
+
+public class ParallelDeflateOutputStreamTest {
+  private static final ForkJoinPool pool = new ForkJoinPool(4);
+
+  /**
+   * Compressible test data spanning several compression blocks.
+   */
+  private static byte[] testData(int size) {
+    Random random = new Random(size);
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; ++i) {
+      data[i] = (byte) (i % 251 < 200 ? i / 1000 : random.nextInt());
+    }
+    return data;
+  }
+
+  private static byte[] compress(byte[] data, ParallelDeflateOutputStream.Format format)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ParallelDeflateOutputStream out =
+        new ParallelDeflateOutputStream(bytes, format, pool)) {
+      // Mix single byte and bulk writes.
+      int i = 0;
+      while (i < data.length) {
+        if (i % 3 == 0) {
+          out.write(data[i]);
+          i += 1;
+        } else {
+          int count = Math.min(data.length - i, 70000);
+          out.write(data, i, count);
+          i += count;
+        }
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int count;
+    while ((count = in.read(buffer)) != -1) {
+      out.write(buffer, 0, count);
+    }
+    return out.toByteArray();
+  }
+
+  @Test public void testGzip() throws IOException {
+    for (int size : new int[] { 0, 1, 1 << 17, 1000000 }) {
+      byte[] data = testData(size);
+      byte[] compressed = compress(data, ParallelDeflateOutputStream.Format.GZIP);
+      byte[] result = readAll(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+      assertTrue(Arrays.equals(data, result));
+    }
+  }
+
+  @Test public void testZlib() throws IOException {
+    for (int size : new int[] { 0, 1, 1 << 17, 1000000 }) {
+      byte[] data = testData(size);
+      byte[] compressed = compress(data, ParallelDeflateOutputStream.Format.ZLIB);
+      byte[] result = readAll(new InflaterInputStream(new ByteArrayInputStream(compressed)));
+      assertTrue(Arrays.equals(data, result));
+    }
+  }
+
+  @Test(expected = IOException.class) public void testWriteByteAfterClose() throws IOException {
+    ParallelDeflateOutputStream out = new ParallelDeflateOutputStream(
+        new ByteArrayOutputStream(), ParallelDeflateOutputStream.Format.ZLIB, pool);
+    out.close();
+    out.write(1);
+  }
+}
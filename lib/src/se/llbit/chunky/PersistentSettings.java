@@ -164,6 +164,30 @@ public final class PersistentSettings {
     save();
   }
 
+  /**
+   * @return seconds between crash recovery checkpoints of the render, 0 if disabled
+   */
+  public static int getJournalInterval() {
+    return settings.getInt("journalInterval", 300);
+  }
+
+  public static void setJournalInterval(int seconds) {
+    settings.setInt("journalInterval", Math.max(0, seconds));
+    save();
+  }
+
+  /**
+   * @return maximum write rate of crash recovery checkpoints, in megabytes per second
+   */
+  public static int getJournalBandwidth() {
+    return settings.getInt("journalBandwidth", 16);
+  }
+
+  public static void setJournalBandwidth(int megabytesPerSecond) {
+    settings.setInt("journalBandwidth", Math.max(1, megabytesPerSecond));
+    save();
+  }
+
   public static void setLastWorld(File worldDirectory) {
     settings.setString("lastWorld", worldDirectory.getAbsolutePath());
     save();